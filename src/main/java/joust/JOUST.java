@@ -5,19 +5,27 @@ import com.sun.tools.javac.comp.Env;
 import com.sun.tools.javac.processing.JavacProcessingEnvironment;
 import com.sun.tools.javac.util.Pair;
 import joust.joustcache.ChecksumRunner;
+import joust.joustcache.EffectBundleManager;
 import joust.joustcache.JOUSTCache;
+import joust.joustcache.bytecode.BytecodeEffectAnalyser;
 import joust.optimisers.runnables.AssertionStrip;
 import joust.optimisers.runnables.AssignmentStrip;
 import joust.optimisers.runnables.CSE;
 import joust.optimisers.runnables.CleanupRunner;
 import joust.optimisers.runnables.ConstFold;
+import joust.optimisers.runnables.ConstProp;
 import joust.optimisers.runnables.FinalFolder;
 import joust.optimisers.runnables.IllegalOverrideDetector;
+import joust.optimisers.runnables.Inline;
 import joust.optimisers.runnables.LoopInvar;
+import joust.optimisers.runnables.PromoteFields;
+import joust.optimisers.runnables.ScalarReplace;
 import joust.optimisers.runnables.ProxyDetector;
 import joust.optimisers.runnables.ShortFunc;
+import joust.optimisers.runnables.StrengthReduce;
 import joust.optimisers.runnables.Unbox;
 import joust.optimisers.runnables.Unroll;
+import joust.optimisers.runnables.Unswitch;
 import joust.tree.annotatedtree.AJCForest;
 import joust.tree.conversion.TreeConverter;
 import joust.utils.commandline.OptimiserOptions;
@@ -51,7 +59,10 @@ import static joust.utils.compiler.StaticCompilerUtils.javaElements;
 @SupportedSourceVersion(SourceVersion.RELEASE_7)
 @SupportedAnnotationTypes("*")
 @SupportedOptions({"JOUSTLogLevel", "JOUSTStripAssertions", "JOUSTMinCSEScore", "JOUSTHelp", "JOUSTAnnotateLib",
-                   "JOUSTPrintEffectCacheKeys", "JOUSTEnabledOptimisations", "JOUSTDisabledOptimisations", "JOUSTLogToFile"})
+                   "JOUSTPrintEffectCacheKeys", "JOUSTEnabledOptimisations", "JOUSTDisabledOptimisations", "JOUSTLogToFile",
+                   "JOUSTEffectBundles", "JOUSTExportBundle", "JOUSTUseDaemon", "JOUSTEffectCacheBudget",
+                   "JOUSTPrintEffectCacheStats", "JOUSTRemoteCache", "JOUSTAnnotateJar", "JOUSTPromoteFields",
+                   "JOUSTInlineBudget", "JOUSTTarget", "JOUSTUnrollFactor"})
 public class JOUST extends AbstractProcessor {
     // The untranslated input JCTrees. The route to the AST prior to the desugaring step.
     public static Queue<Pair<Env<AttrContext>, JCClassDecl>> environmentsToProcess;
@@ -85,6 +96,27 @@ public class JOUST extends AbstractProcessor {
             return;
         }
 
+        if (OptimiserOptions.printingEffectCacheStats) {
+            JOUSTCache.init();
+            JOUSTCache.printStatistics();
+            JOUSTCache.closeDatabase();
+            return;
+        }
+
+        if (!OptimiserOptions.annotateJars.isEmpty()) {
+            JOUSTCache.init();
+            BytecodeEffectAnalyser.annotateJars(OptimiserOptions.annotateJars);
+            JOUSTCache.closeDatabase();
+            return;
+        }
+
+        if (OptimiserOptions.exportBundleJar != null) {
+            JOUSTCache.init();
+            EffectBundleManager.exportBundle(OptimiserOptions.exportBundleJar);
+            JOUSTCache.closeDatabase();
+            return;
+        }
+
         OptimisationPhaseManager.init();
         if (OptimiserOptions.stripAssertions) {
             OptimisationPhaseManager.register(new AssertionStrip(), AFTER_ANNOTATION_PROCESSING);
@@ -103,14 +135,22 @@ public class JOUST extends AbstractProcessor {
         // and we're done,
         if (!OptimiserOptions.annotatingLibrary) {
             OptimisationPhaseManager.register(new FinalFolder(), AFTER_DESUGAR);
+            OptimisationPhaseManager.register(new Inline(), AFTER_DESUGAR);
+            OptimisationPhaseManager.register(new ScalarReplace(), AFTER_DESUGAR);
             OptimisationPhaseManager.register(new ConstFold(), AFTER_DESUGAR);
+            OptimisationPhaseManager.register(new ConstProp(), AFTER_DESUGAR);
             OptimisationPhaseManager.register(new ShortFunc(), AFTER_DESUGAR);
             OptimisationPhaseManager.register(new Unbox(), AFTER_DESUGAR);
 
             // TODO: Repair and re-enable this.
 //            OptimisationPhaseManager.register(new AssignmentStrip(), AFTER_DESUGAR);
+            if (OptimiserOptions.promoteFields) {
+                OptimisationPhaseManager.register(new PromoteFields(), AFTER_DESUGAR);
+            }
             OptimisationPhaseManager.register(new LoopInvar(), AFTER_DESUGAR);
+            OptimisationPhaseManager.register(new Unswitch(), AFTER_DESUGAR);
             OptimisationPhaseManager.register(new Unroll(), AFTER_DESUGAR);
+            OptimisationPhaseManager.register(new StrengthReduce(), AFTER_DESUGAR);
             OptimisationPhaseManager.register(new CSE(), AFTER_DESUGAR);
         }
 
@@ -127,8 +167,8 @@ public class JOUST extends AbstractProcessor {
 
     @Override
     public boolean process(Set<? extends TypeElement> typeElements, RoundEnvironment roundEnvironment) {
-        // Nothing to process if dumping effect keys.
-        if (OptimiserOptions.dumpingEffectKeys) {
+        // Nothing to process if only working on the effect cache.
+        if (OptimiserOptions.isCacheToolMode()) {
             return false;
         }
 
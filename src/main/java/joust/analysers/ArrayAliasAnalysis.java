@@ -0,0 +1,265 @@
+package joust.analysers;
+
+import com.sun.tools.javac.code.Symbol;
+import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.tree.annotatedtree.treeinfo.ArrayElements;
+import joust.utils.data.SetHashMap;
+import joust.utils.data.SymbolSet;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.tree.annotatedtree.AJCTree.*;
+
+/**
+ * A simple alias analysis for the arrays used within a method. Each array expression is classified by the
+ * variable it reads:
+ * - Fresh locals (See FreshObjectLocator) can't alias anything. Their elements are tracked as the local itself.
+ * - Allocated locals only ever hold arrays created for them, so they alias neither each other nor the
+ *   parameters.
+ * - Parameters that are never reassigned may alias each other.
+ * - Anything else may alias anything but fresh locals.
+ * Two arrays can only alias if their elements are the same pseudo-field (See ArrayElements).
+ */
+public class ArrayAliasAnalysis {
+    private final Set<VarSymbol> fresh;
+    private final Set<VarSymbol> allocated;
+    private final Set<VarSymbol> parameters = new HashSet<VarSymbol>();
+
+    public ArrayAliasAnalysis(AJCMethodDecl method) {
+        fresh = method.freshLocals;
+        allocated = method.allocatedLocals;
+
+        for (AJCVariableDecl param : method.params) {
+            parameters.add(param.getTargetSymbol());
+        }
+
+        if (method.body != null) {
+            WrittenSymbolLocator locator = new WrittenSymbolLocator();
+            locator.visitTree(method.body);
+            parameters.removeAll(locator.written);
+        }
+    }
+
+    private static Symbol symbolOf(AJCTree array) {
+        if (!(array instanceof AJCIdent)) {
+            return null;
+        }
+
+        return ((AJCIdent) array).getTargetSymbol();
+    }
+
+    /**
+     * @return true if the given array is only ever referred to by the local variable holding it.
+     */
+    public boolean isFresh(AJCTree array) {
+        Symbol sym = symbolOf(array);
+        return sym != null && fresh.contains(sym);
+    }
+
+    /**
+     * @return true if the two given array expressions might refer to the same array.
+     */
+    public boolean mayAlias(AJCTree a, AJCTree b) {
+        Symbol symA = symbolOf(a);
+        Symbol symB = symbolOf(b);
+        if (symA != null && symA == symB) {
+            return true;
+        }
+
+        if (isFresh(a) || isFresh(b)) {
+            return false;
+        }
+
+        if (symA == null || symB == null) {
+            return true;
+        }
+
+        if (allocated.contains(symA)) {
+            return !allocated.contains(symB) && !parameters.contains(symB);
+        }
+
+        if (allocated.contains(symB)) {
+            return !parameters.contains(symA);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The array element writes made by evaluating the given tree.
+     */
+    public ArrayWrites writesOf(AJCTree tree) {
+        ArrayWrites writes = new ArrayWrites();
+        writes.visitTree(tree);
+
+        return writes;
+    }
+
+    /**
+     * The array elements written by a tree: those stored to through a known array expression, and the kinds
+     * of element written in ways that can't be tied to any particular array (By method calls, mostly).
+     */
+    public class ArrayWrites extends AJCTreeVisitor {
+        private final SetHashMap<VarSymbol, AJCExpressionTree> stores = new SetHashMap<VarSymbol, AJCExpressionTree>();
+        private SymbolSet clobbered = new SymbolSet();
+
+        /**
+         * @return true if these writes might change the value of the given array element read.
+         */
+        public boolean mayWrite(AJCArrayAccess read) {
+            // Accesses to fresh arrays are accesses to the local variable, and are tracked as such.
+            if (isFresh(read.indexed)) {
+                return false;
+            }
+
+            VarSymbol elements = ArrayElements.forArrayType(read.indexed.getNodeType());
+            if (clobbered == SymbolSet.UNIVERSAL_SET || clobbered.contains(elements)) {
+                return true;
+            }
+
+            Set<AJCExpressionTree> arrays = stores.get(elements);
+            if (arrays == null) {
+                return false;
+            }
+
+            for (AJCExpressionTree array : arrays) {
+                if (mayAlias(array, read.indexed)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * @return true if these writes might change the value of any array element read by the given tree.
+         */
+        public boolean mayWriteAny(AJCTree tree) {
+            ArrayReadLocator reads = new ArrayReadLocator();
+            reads.visitTree(tree);
+
+            for (AJCArrayAccess read : reads.accesses) {
+                if (mayWrite(read)) {
+                    return true;
+                }
+            }
+
+            // Elements read by calls could be in any array of their kind.
+            if (reads.opaqueReads == SymbolSet.UNIVERSAL_SET) {
+                return clobbered == SymbolSet.UNIVERSAL_SET || !clobbered.isEmpty() || !stores.isEmpty();
+            }
+
+            for (VarSymbol elements : reads.opaqueReads) {
+                if (clobbered == SymbolSet.UNIVERSAL_SET || clobbered.contains(elements) || stores.containsKey(elements)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private void noteStore(AJCTree target) {
+            if (target instanceof AJCArrayAccess) {
+                AJCArrayAccess access = (AJCArrayAccess) target;
+                if (!isFresh(access.indexed)) {
+                    stores.listAdd(ArrayElements.forArrayType(access.indexed.getNodeType()), access.indexed);
+                }
+            }
+        }
+
+        private void noteOpaqueWrites(AJCEffectAnnotatedTree tree) {
+            if (clobbered == SymbolSet.UNIVERSAL_SET) {
+                return;
+            }
+
+            SymbolSet written = tree.effects.getEffectSet().writeEscaping;
+            if (written == SymbolSet.UNIVERSAL_SET) {
+                clobbered = SymbolSet.UNIVERSAL_SET;
+                return;
+            }
+
+            for (VarSymbol sym : written) {
+                if (ArrayElements.isElements(sym)) {
+                    clobbered.add(sym);
+                }
+            }
+        }
+
+        @Override
+        protected void visitAssign(AJCAssign that) {
+            super.visitAssign(that);
+            noteStore(that.lhs);
+        }
+
+        @Override
+        protected void visitAssignop(AJCAssignOp that) {
+            super.visitAssignop(that);
+            noteStore(that.lhs);
+        }
+
+        @Override
+        protected void visitUnaryAsg(AJCUnaryAsg that) {
+            super.visitUnaryAsg(that);
+            noteStore(that.arg);
+        }
+
+        @Override
+        protected void visitCall(AJCCall that) {
+            super.visitCall(that);
+            noteOpaqueWrites(that);
+        }
+
+        @Override
+        protected void visitNewClass(AJCNewClass that) {
+            super.visitNewClass(that);
+            noteOpaqueWrites(that);
+        }
+    }
+
+    /**
+     * Finds the array element reads in a tree: the array accesses, and the kinds of element read by calls.
+     */
+    private static class ArrayReadLocator extends AJCTreeVisitor {
+        final Set<AJCArrayAccess> accesses = new HashSet<AJCArrayAccess>();
+        SymbolSet opaqueReads = new SymbolSet();
+
+        private void noteOpaqueReads(AJCEffectAnnotatedTree tree) {
+            if (opaqueReads == SymbolSet.UNIVERSAL_SET) {
+                return;
+            }
+
+            SymbolSet read = tree.effects.getEffectSet().readEscaping;
+            if (read == SymbolSet.UNIVERSAL_SET) {
+                opaqueReads = SymbolSet.UNIVERSAL_SET;
+                return;
+            }
+
+            for (VarSymbol sym : read) {
+                if (ArrayElements.isElements(sym)) {
+                    opaqueReads.add(sym);
+                }
+            }
+        }
+
+        @Override
+        protected void visitArrayAccess(AJCArrayAccess that) {
+            super.visitArrayAccess(that);
+            accesses.add(that);
+        }
+
+        @Override
+        protected void visitCall(AJCCall that) {
+            super.visitCall(that);
+            noteOpaqueReads(that);
+        }
+
+        @Override
+        protected void visitNewClass(AJCNewClass that) {
+            super.visitNewClass(that);
+            noteOpaqueReads(that);
+        }
+    }
+}
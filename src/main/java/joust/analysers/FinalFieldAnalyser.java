@@ -0,0 +1,244 @@
+package joust.analysers;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.tree.TreeScanner;
+import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.utils.logging.LogUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static com.sun.tools.javac.tree.JCTree.*;
+import static joust.tree.annotatedtree.AJCTree.*;
+import static joust.utils.compiler.StaticCompilerUtils.names;
+
+/**
+ * Finds the fields of the classes being compiled that are effectively final (See FinalFields). To be one,
+ * a field must be private, so every write to it is in the trees visited, and:
+ * - If an instance field, be written only by the constructors of its class, through this, and belong to a
+ *   class whose constructors never let this escape - by passing it anywhere, or calling methods on it.
+ * - If a static field, be written only by the static initialisers of its class.
+ * Fields declared final are effectively final anyway, and aren't included.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class FinalFieldAnalyser extends AJCTreeVisitor {
+    // Every class visited.
+    public final Set<ClassSymbol> classes = new HashSet<ClassSymbol>();
+
+    // Fields which might be effectively final, and fields found not to be.
+    private final Set<VarSymbol> candidates = new HashSet<VarSymbol>();
+    private final Set<VarSymbol> reassigned = new HashSet<VarSymbol>();
+
+    // Classes in whose constructors this escapes.
+    private final Set<ClassSymbol> leakingClasses = new HashSet<ClassSymbol>();
+
+    private ClassSymbol currentClass;
+    private MethodSymbol currentMethod;
+
+    // True while visiting code that runs as part of constructing an instance of currentClass.
+    private boolean constructing;
+
+    /**
+     * @return The effectively final fields of the classes visited.
+     */
+    public Set<VarSymbol> getFinalFields() {
+        Set<VarSymbol> ret = new HashSet<VarSymbol>(candidates);
+        ret.removeAll(reassigned);
+
+        for (VarSymbol sym : candidates) {
+            if ((sym.flags() & Flags.STATIC) == 0 && leakingClasses.contains(sym.owner)) {
+                ret.remove(sym);
+            }
+        }
+
+        return ret;
+    }
+
+    private static boolean isThis(AJCTree tree) {
+        if (!(tree instanceof AJCIdent)) {
+            return false;
+        }
+
+        Symbol sym = ((AJCIdent) tree).getTargetSymbol();
+        return sym != null && (sym.name == names._this || sym.name == names._super);
+    }
+
+    /**
+     * Note a write to the symbol referred to by the given assignment target.
+     */
+    private void processTarget(AJCTree target) {
+        if (target instanceof AJCArrayAccess) {
+            return;
+        }
+
+        Symbol sym = ((AJCSymbolRefTree) target).getTargetSymbol();
+        if (!(sym instanceof VarSymbol) || !(sym.owner instanceof ClassSymbol)) {
+            return;
+        }
+
+        boolean throughThis = target instanceof AJCIdent || isThis(((AJCFieldAccess) target).selected);
+        boolean inOwnConstructor = currentMethod != null && currentMethod.isConstructor() && sym.owner == currentClass;
+        if (!throughThis || !inOwnConstructor || (sym.flags() & Flags.STATIC) != 0) {
+            log.debug("{} is written by {}", sym, currentMethod);
+            reassigned.add((VarSymbol) sym);
+        }
+    }
+
+    @Override
+    protected void visitClassDef(AJCClassDecl that) {
+        ClassSymbol enclosingClass = currentClass;
+        currentClass = that.getSym();
+        classes.add(currentClass);
+
+        for (AJCVariableDecl field : that.fields) {
+            VarSymbol sym = field.getTargetSymbol();
+            if ((sym.flags() & (Flags.PRIVATE | Flags.FINAL | Flags.VOLATILE)) == Flags.PRIVATE) {
+                candidates.add(sym);
+            }
+        }
+
+        // Static initialisers aren't part of the annotated tree (See InitialASTConverter), but may write fields.
+        StaticInitialiserScanner scanner = new StaticInitialiserScanner();
+        for (JCTree def : that.getDecoratedTree().defs) {
+            if (def instanceof JCBlock && (((JCBlock) def).flags & Flags.STATIC) != 0) {
+                scanner.scan(def);
+            }
+        }
+
+        super.visitClassDef(that);
+        currentClass = enclosingClass;
+    }
+
+    @Override
+    protected void visitMethodDef(AJCMethodDecl that) {
+        currentMethod = that.getTargetSymbol();
+        constructing = currentMethod.isConstructor();
+
+        super.visitMethodDef(that);
+
+        currentMethod = null;
+        constructing = false;
+    }
+
+    @Override
+    protected void visitVariableDecl(AJCVariableDecl that) {
+        // The initialisers of instance fields are run by the constructors.
+        VarSymbol sym = that.getTargetSymbol();
+        boolean isInstanceField = currentMethod == null && (sym.flags() & Flags.STATIC) == 0;
+        if (isInstanceField) {
+            constructing = true;
+        }
+
+        super.visitVariableDecl(that);
+
+        if (isInstanceField) {
+            constructing = false;
+        }
+    }
+
+    @Override
+    protected void visitAssign(AJCAssign that) {
+        super.visitAssign(that);
+        processTarget(that.lhs);
+    }
+
+    @Override
+    protected void visitAssignop(AJCAssignOp that) {
+        super.visitAssignop(that);
+        processTarget(that.lhs);
+    }
+
+    @Override
+    protected void visitUnaryAsg(AJCUnaryAsg that) {
+        super.visitUnaryAsg(that);
+        processTarget(that.arg);
+    }
+
+    @Override
+    protected void visitFieldAccess(AJCFieldAccess that) {
+        // Accessing a field of this doesn't let it escape.
+        if (constructing && isThis(that.selected) && that.getTargetSymbol() instanceof VarSymbol) {
+            return;
+        }
+
+        super.visitFieldAccess(that);
+    }
+
+    @Override
+    protected void visitCall(AJCCall that) {
+        if (!constructing) {
+            super.visitCall(that);
+            return;
+        }
+
+        MethodSymbol callee = that.getTargetSymbol();
+        if (that.meth instanceof AJCIdent && callee.isConstructor()) {
+            // super(...) or this(...): the rest of the construction of this object.
+            visit(that.args);
+            return;
+        }
+
+        // Whatever method is called on this might do anything with it.
+        boolean onThis = that.meth instanceof AJCIdent || isThis(((AJCFieldAccess) that.meth).selected);
+        if (onThis && (callee.flags() & Flags.STATIC) == 0) {
+            log.debug("{} calls {} on this", currentMethod, callee);
+            leakingClasses.add(currentClass);
+        }
+
+        super.visitCall(that);
+    }
+
+    @Override
+    protected void visitIdent(AJCIdent that) {
+        // Any other use of this lets it escape.
+        if (constructing && isThis(that)) {
+            log.debug("this escapes from {}", currentMethod);
+            leakingClasses.add(currentClass);
+        }
+    }
+
+    /**
+     * Finds the fields written by a static initialiser which aren't static fields of the class being visited.
+     */
+    private class StaticInitialiserScanner extends TreeScanner {
+        private void processTarget(JCTree target) {
+            Symbol sym = TreeInfo.symbol(target);
+            if (!(sym instanceof VarSymbol) || !(sym.owner instanceof ClassSymbol)) {
+                return;
+            }
+
+            if (sym.owner != currentClass || (sym.flags() & Flags.STATIC) == 0) {
+                reassigned.add((VarSymbol) sym);
+            }
+        }
+
+        @Override
+        public void visitAssign(JCAssign tree) {
+            super.visitAssign(tree);
+            processTarget(tree.lhs);
+        }
+
+        @Override
+        public void visitAssignop(JCAssignOp tree) {
+            super.visitAssignop(tree);
+            processTarget(tree.lhs);
+        }
+
+        @Override
+        public void visitUnary(JCUnary tree) {
+            super.visitUnary(tree);
+            if (tree.getTag().isIncOrDecUnaryOp()) {
+                processTarget(tree.arg);
+            }
+        }
+    }
+}
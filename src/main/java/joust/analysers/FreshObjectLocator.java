@@ -0,0 +1,253 @@
+package joust.analysers;
+
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.tree.JCTree.Tag;
+import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.utils.data.SetHashMap;
+import joust.utils.tree.TreeUtils;
+import joust.utils.tree.evaluation.EvaluationContext;
+import joust.utils.tree.evaluation.Value;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.tree.annotatedtree.AJCTree.*;
+import static joust.utils.compiler.StaticCompilerUtils.types;
+
+/**
+ * Visitor that finds, within a method, the local variables that only ever hold objects allocated by the
+ * method itself which never escape it. Such a variable is only ever assigned new objects or arrays, and
+ * is used only to access fields or elements, to call methods that can't leak their receiver, or in
+ * reference comparisons. Nothing but the variable can ever refer to its object, so every access to the
+ * object can be treated as an access to the variable.
+ *
+ * Along the way, it finds the locals that only ever hold new objects or arrays, whether or not they
+ * escape. These are never null, and never refer to an object that existed before they were assigned.
+ */
+public class FreshObjectLocator extends AJCTreeVisitor {
+    public final Set<VarSymbol> fresh = new HashSet<VarSymbol>();
+    public final Set<VarSymbol> allocated = new HashSet<VarSymbol>();
+
+    // For those allocated locals holding arrays, the shortest length of any array they might hold, where known.
+    public final Map<VarSymbol, Integer> arrayLengths = new HashMap<VarSymbol, Integer>();
+
+    private final ReceiverEscapeChecker escapeChecker;
+
+    // Locals that have been assigned an allocation, and locals seen to be used in some other way.
+    private final Set<VarSymbol> candidates = new HashSet<VarSymbol>();
+    private final Set<VarSymbol> escaped = new HashSet<VarSymbol>();
+
+    // Locals assigned something other than an allocation.
+    private final Set<VarSymbol> reassigned = new HashSet<VarSymbol>();
+
+    // Array candidates whose length isn't always known.
+    private final Set<VarSymbol> unknownLengths = new HashSet<VarSymbol>();
+
+    // The classes allocated into each candidate, and the methods called on it.
+    private final SetHashMap<VarSymbol, ClassSymbol> allocatedClasses = new SetHashMap<VarSymbol, ClassSymbol>();
+    private final SetHashMap<VarSymbol, MethodSymbol> calledMethods = new SetHashMap<VarSymbol, MethodSymbol>();
+
+    public FreshObjectLocator(ReceiverEscapeChecker checker) {
+        escapeChecker = checker;
+    }
+
+    @Override
+    public void visitTree(AJCTree tree) {
+        super.visitTree(tree);
+
+        for (VarSymbol sym : candidates) {
+            if (reassigned.contains(sym)) {
+                continue;
+            }
+
+            allocated.add(sym);
+            if (!escaped.contains(sym) && callsAreSafe(sym)) {
+                fresh.add(sym);
+            }
+        }
+
+        arrayLengths.keySet().retainAll(allocated);
+        arrayLengths.keySet().removeAll(unknownLengths);
+    }
+
+    /**
+     * Determine if every method called on the given candidate is known not to leak it.
+     */
+    private boolean callsAreSafe(VarSymbol sym) {
+        Set<MethodSymbol> called = calledMethods.get(sym);
+        if (called == null) {
+            return true;
+        }
+
+        // Arrays have no methods worth the bother.
+        Set<ClassSymbol> classes = allocatedClasses.get(sym);
+        if (classes == null) {
+            return false;
+        }
+
+        for (MethodSymbol callee : called) {
+            for (ClassSymbol clazz : classes) {
+                // The method that'll actually run on an object of this class.
+                MethodSymbol impl = callee.implementation(clazz, types, true);
+                if (impl == null || escapeChecker.mayLeakReceiver(impl)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The local variable the given tree is a plain reference to, or null.
+     */
+    private static VarSymbol localOf(AJCTree tree) {
+        if (!(tree instanceof AJCIdent)) {
+            return null;
+        }
+
+        Symbol sym = ((AJCIdent) tree).getTargetSymbol();
+        if (sym instanceof VarSymbol && TreeUtils.isLocalVariable(sym)) {
+            return (VarSymbol) sym;
+        }
+
+        return null;
+    }
+
+    /**
+     * Handle an assignment of the given value to the given local.
+     */
+    private void processDefinition(VarSymbol sym, AJCExpressionTree value) {
+        if (value instanceof AJCNewClass) {
+            AJCNewClass newClass = (AJCNewClass) value;
+            MethodSymbol constructor = newClass.getTargetSymbol();
+
+            // The constructor is the first method called on the new object.
+            if (escapeChecker.mayLeakReceiver(constructor)) {
+                escaped.add(sym);
+            }
+
+            candidates.add(sym);
+            allocatedClasses.listAdd(sym, (ClassSymbol) constructor.owner);
+        } else if (value instanceof AJCNewArray) {
+            candidates.add(sym);
+            noteArrayLength(sym, (AJCNewArray) value);
+        } else {
+            reassigned.add(sym);
+            escaped.add(sym);
+        }
+    }
+
+    private void noteArrayLength(VarSymbol sym, AJCNewArray newArray) {
+        int length = -1;
+        if (!newArray.dims.isEmpty()) {
+            Value dimension = new EvaluationContext().evaluate(newArray.dims.head);
+            if (dimension != Value.UNKNOWN && dimension.getValue() instanceof Integer) {
+                length = (Integer) dimension.getValue();
+            }
+        } else if (newArray.elems != null) {
+            length = newArray.elems.size();
+        }
+
+        if (length < 0) {
+            unknownLengths.add(sym);
+            return;
+        }
+
+        Integer previous = arrayLengths.get(sym);
+        arrayLengths.put(sym, previous == null ? length : Math.min(previous, length));
+    }
+
+    @Override
+    protected void visitVariableDecl(AJCVariableDecl that) {
+        super.visitVariableDecl(that);
+
+        if (!that.getInit().isEmptyExpression()) {
+            processDefinition(that.getTargetSymbol(), that.getInit());
+        }
+    }
+
+    @Override
+    protected void visitCatch(AJCCatch that) {
+        super.visitCatch(that);
+
+        // Assigned by the exception mechanism.
+        reassigned.add(that.param.getTargetSymbol());
+        escaped.add(that.param.getTargetSymbol());
+    }
+
+    @Override
+    protected void visitAssign(AJCAssign that) {
+        VarSymbol target = localOf(that.lhs);
+        if (target == null) {
+            super.visitAssign(that);
+            return;
+        }
+
+        processDefinition(target, that.rhs);
+        visit(that.rhs);
+    }
+
+    @Override
+    protected void visitFieldAccess(AJCFieldAccess that) {
+        // Field reads and writes, and array lengths.
+        if (localOf(that.selected) != null && that.getTargetSymbol() instanceof VarSymbol) {
+            return;
+        }
+
+        super.visitFieldAccess(that);
+    }
+
+    @Override
+    protected void visitArrayAccess(AJCArrayAccess that) {
+        if (localOf(that.indexed) != null) {
+            visit(that.index);
+            return;
+        }
+
+        super.visitArrayAccess(that);
+    }
+
+    @Override
+    protected void visitBinary(AJCBinary that) {
+        if (that.getTag() != Tag.EQ && that.getTag() != Tag.NE) {
+            super.visitBinary(that);
+            return;
+        }
+
+        // Reference comparisons tell nobody anything about the object.
+        if (localOf(that.lhs) == null) {
+            visit(that.lhs);
+        }
+
+        if (localOf(that.rhs) == null) {
+            visit(that.rhs);
+        }
+    }
+
+    @Override
+    protected void visitCall(AJCCall that) {
+        if (that.meth instanceof AJCFieldAccess) {
+            VarSymbol receiver = localOf(((AJCFieldAccess) that.meth).selected);
+            if (receiver != null) {
+                calledMethods.listAdd(receiver, that.getTargetSymbol());
+                visit(that.args);
+                return;
+            }
+        }
+
+        super.visitCall(that);
+    }
+
+    @Override
+    protected void visitIdent(AJCIdent that) {
+        VarSymbol sym = localOf(that);
+        if (sym != null) {
+            escaped.add(sym);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package joust.analysers;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.tree.JCTree;
+import joust.optimisers.invar.ExpressionComplexityClassifier;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.utils.logging.LogUtils;
+import joust.utils.tree.functiontemplates.FunctionTemplateCodec;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static com.sun.tools.javac.tree.JCTree.*;
+import static joust.tree.annotatedtree.AJCTree.*;
+import static joust.utils.compiler.StaticCompilerUtils.symtab;
+
+/**
+ * Finds the methods of the classes being compiled that are simple enough to be replaced by a FunctionTemplate
+ * wherever they're called (See DerivedFunctionTemplates): static methods whose body just returns an expression of
+ * primitive type built from their parameters, constants and operators.
+ *
+ * A call to a static method initialises its class, if nothing has already, and an inlined body doesn't. Methods
+ * of classes that do anything in their static initialisers - or have superclasses that do - are left alone.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class FunctionTemplateDeriver extends AJCTreeVisitor {
+    // The most complex expression worth making a template of.
+    public static final int MAXIMUM_TEMPLATE_SCORE = 20;
+
+    // Every class visited.
+    public final Set<ClassSymbol> classes = new HashSet<ClassSymbol>();
+
+    // Classes with static initialisers that do something.
+    private final Set<ClassSymbol> initialisedClasses = new HashSet<ClassSymbol>();
+
+    // The encoded template for each suitable method, whatever its class.
+    private final Map<MethodSymbol, String> candidates = new HashMap<MethodSymbol, String>();
+
+    /**
+     * @return The encoded templates (See FunctionTemplateCodec) of the suitable methods of the classes visited.
+     */
+    public Map<MethodSymbol, String> getTemplates() {
+        Map<MethodSymbol, String> ret = new HashMap<MethodSymbol, String>();
+        for (Map.Entry<MethodSymbol, String> candidate : candidates.entrySet()) {
+            if (isTriviallyInitialised((ClassSymbol) candidate.getKey().owner)) {
+                ret.put(candidate.getKey(), candidate.getValue());
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return true if initialising the given class, and its superclasses, does nothing.
+     */
+    private boolean isTriviallyInitialised(ClassSymbol sym) {
+        if (initialisedClasses.contains(sym) || !classes.contains(sym)) {
+            return false;
+        }
+
+        Type superType = sym.getSuperclass();
+        if (superType == null || superType.getTag() != TypeTag.CLASS || superType.tsym == symtab.objectType.tsym) {
+            return true;
+        }
+
+        return isTriviallyInitialised((ClassSymbol) superType.tsym);
+    }
+
+    @Override
+    protected void visitClassDef(AJCClassDecl that) {
+        ClassSymbol sym = that.getSym();
+        classes.add(sym);
+
+        for (AJCVariableDecl field : that.fields) {
+            VarSymbol fieldSym = field.getTargetSymbol();
+            if ((fieldSym.flags() & Flags.STATIC) != 0 && !field.getInit().isEmptyExpression()
+             && fieldSym.getConstValue() == null) {
+                initialisedClasses.add(sym);
+            }
+        }
+
+        // Static initialisers aren't part of the annotated tree (See InitialASTConverter).
+        for (JCTree def : that.getDecoratedTree().defs) {
+            if (def instanceof JCBlock && (((JCBlock) def).flags & Flags.STATIC) != 0) {
+                initialisedClasses.add(sym);
+            }
+        }
+
+        super.visitClassDef(that);
+    }
+
+    @Override
+    protected void visitMethodDef(AJCMethodDecl that) {
+        MethodSymbol sym = that.getTargetSymbol();
+        if ((sym.flags() & Flags.STATIC) == 0
+         || (sym.flags() & (Flags.SYNCHRONIZED | Flags.NATIVE | Flags.ABSTRACT | Flags.STRICTFP)) != 0
+         || (sym.owner.flags() & Flags.STRICTFP) != 0
+         || that.body == null || that.body.stats.size() != 1
+         || !(that.body.stats.head instanceof AJCReturn)) {
+            return;
+        }
+
+        Type returnType = sym.getReturnType();
+        char returnChar = FunctionTemplateCodec.getTypeChar(returnType.getTag());
+        if (returnChar == 0) {
+            return;
+        }
+
+        ArrayList<VarSymbol> params = new ArrayList<VarSymbol>();
+        for (AJCVariableDecl param : that.params) {
+            if (!param.getTargetSymbol().type.isPrimitive()) {
+                return;
+            }
+            params.add(param.getTargetSymbol());
+        }
+
+        AJCExpressionTree expr = ((AJCReturn) that.body.stats.head).expr;
+        ExpressionComplexityClassifier classifier = new ExpressionComplexityClassifier();
+        classifier.visitTree(expr);
+        if (classifier.getScore() > MAXIMUM_TEMPLATE_SCORE) {
+            return;
+        }
+
+        String template = FunctionTemplateCodec.encode(expr, params);
+        if (template == null) {
+            return;
+        }
+
+        // The value returned is converted to the return type.
+        if (expr.getNodeType().getTag() != returnType.getTag()) {
+            template = "c" + returnChar + ' ' + template;
+        }
+
+        log.debug("Template for {}: {}", sym, template);
+        candidates.put(sym, template);
+    }
+}
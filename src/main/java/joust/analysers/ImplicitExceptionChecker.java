@@ -0,0 +1,151 @@
+package joust.analysers;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import joust.tree.annotatedtree.AJCTree;
+import joust.utils.tree.evaluation.EvaluationContext;
+import joust.utils.tree.evaluation.Value;
+
+import java.util.Map;
+import java.util.Set;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.tree.annotatedtree.AJCTree.*;
+import static joust.utils.compiler.StaticCompilerUtils.types;
+
+/**
+ * Decides whether the implicit exceptions the JVM might raise for an operation (Null dereferences, bad
+ * array indices, division by zero and failed casts) can actually happen, using simple facts local to a
+ * method: this and new objects aren't null, allocated locals (See FreshObjectLocator) always hold a new
+ * object and the length of their arrays may be known, constant divisors and indices can be checked, and upcasts
+ * always succeed.
+ */
+public class ImplicitExceptionChecker {
+    private final Set<VarSymbol> allocatedLocals;
+    private final Map<VarSymbol, Integer> arrayLengths;
+
+    public ImplicitExceptionChecker(Set<VarSymbol> allocated, Map<VarSymbol, Integer> lengths) {
+        allocatedLocals = allocated;
+        arrayLengths = lengths;
+    }
+
+    /**
+     * @return true if the value of the given expression might be null.
+     */
+    public boolean mayBeNull(AJCTree expr) {
+        if (expr instanceof AJCNewClass || expr instanceof AJCNewArray) {
+            return false;
+        }
+
+        if (expr instanceof AJCLiteral) {
+            return ((AJCLiteral) expr).getValue() == null;
+        }
+
+        if (expr instanceof AJCSymbolRefTree) {
+            Symbol sym = ((AJCSymbolRefTree) expr).getTargetSymbol();
+
+            // Type names, for static accesses.
+            if (sym instanceof TypeSymbol || sym instanceof PackageSymbol) {
+                return false;
+            }
+
+            if (expr instanceof AJCIdent) {
+                return !ReceiverEscapeChecker.isReceiver(expr) && !allocatedLocals.contains(sym);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if dereferencing the given member through the given expression might throw.
+     */
+    public boolean mayThrowNullPointer(AJCTree selected, Symbol member) {
+        if ((member.flags() & Flags.STATIC) != 0) {
+            return false;
+        }
+
+        return mayBeNull(selected);
+    }
+
+    /**
+     * @return true if the given array access might be out of bounds.
+     */
+    public boolean mayBeOutOfBounds(AJCArrayAccess access) {
+        if (!(access.indexed instanceof AJCIdent)) {
+            return true;
+        }
+
+        Integer length = arrayLengths.get(((AJCIdent) access.indexed).getTargetSymbol());
+        if (length == null) {
+            return true;
+        }
+
+        Long index = constantIntegral(access.index);
+        return index == null || index < 0 || index >= length;
+    }
+
+    /**
+     * @return true if the given allocation might be given a negative size.
+     */
+    public boolean mayHaveNegativeSize(AJCNewArray newArray) {
+        for (AJCExpressionTree dimension : newArray.dims) {
+            Long size = constantIntegral(dimension);
+            if (size == null || size < 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if an integer division or remainder with the given divisor might divide by zero.
+     */
+    public boolean mayDivideByZero(AJCExpressionTree divisor) {
+        Type type = divisor.getNodeType();
+        if (type != null && (type.getTag() == TypeTag.FLOAT || type.getTag() == TypeTag.DOUBLE)) {
+            return false;
+        }
+
+        Long value = constantIntegral(divisor);
+        return value == null || value == 0;
+    }
+
+    /**
+     * @return true if the given cast might fail.
+     */
+    public boolean mayFailCast(AJCTypeCast cast) {
+        Type target = cast.getNodeType();
+        Type source = cast.expr.getNodeType();
+        if (target == null || source == null) {
+            return true;
+        }
+
+        if (target.isPrimitive()) {
+            return false;
+        }
+
+        return !types.isSubtype(types.erasure(source), types.erasure(target));
+    }
+
+    private static Long constantIntegral(AJCExpressionTree expr) {
+        Value value = new EvaluationContext().evaluate(expr);
+        if (value == Value.UNKNOWN) {
+            return null;
+        }
+
+        Object v = value.getValue();
+        if (v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte) {
+            return ((Number) v).longValue();
+        }
+
+        if (v instanceof Character) {
+            return (long) (Character) v;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,126 @@
+package joust.analysers;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import joust.tree.annotatedtree.AJCForest;
+import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.utils.logging.LogUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.tree.annotatedtree.AJCTree.*;
+import static joust.utils.compiler.StaticCompilerUtils.*;
+
+/**
+ * Determines which methods might let their receiver escape - by storing it, returning it, passing it to
+ * something or calling a method on it which might do so. A method is assumed to leak its receiver unless
+ * its body is in the forest and it can be shown not to: the only uses of this allowed are reads and writes
+ * of its fields and calls to non-virtual methods that don't leak it either.
+ *
+ * Results are cached, so a fresh checker is needed whenever the trees change.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class ReceiverEscapeChecker {
+    private final HashMap<MethodSymbol, Boolean> results = new HashMap<MethodSymbol, Boolean>();
+
+    public boolean mayLeakReceiver(MethodSymbol sym) {
+        // The constructor of Object does nothing at all.
+        if (sym.isConstructor() && sym.owner == symtab.objectType.tsym) {
+            return false;
+        }
+
+        Boolean result = results.get(sym);
+        if (result != null) {
+            return result;
+        }
+
+        AJCMethodDecl decl = AJCForest.getInstance().methodTable.get(sym);
+        if (decl == null || decl.body == null) {
+            results.put(sym, true);
+            return true;
+        }
+
+        // Recursive calls are assumed to leak until shown otherwise.
+        results.put(sym, true);
+
+        ReceiverUseVisitor visitor = new ReceiverUseVisitor();
+        visitor.visitTree(decl.body);
+        results.put(sym, visitor.leaked);
+
+        log.debug("{}:{} may leak receiver: {}", sym, sym.owner, visitor.leaked);
+        return visitor.leaked;
+    }
+
+    /**
+     * @return true if the given method is always called directly, never by virtual dispatch.
+     */
+    public static boolean isNonVirtual(MethodSymbol sym) {
+        return (sym.flags() & (Flags.PRIVATE | Flags.STATIC | Flags.FINAL)) != 0
+            || sym.isConstructor()
+            || (sym.owner.flags() & Flags.FINAL) != 0;
+    }
+
+    public static boolean isReceiver(AJCTree tree) {
+        if (!(tree instanceof AJCIdent)) {
+            return false;
+        }
+
+        Symbol sym = ((AJCIdent) tree).getTargetSymbol();
+        return sym instanceof VarSymbol && (sym.name == names._this || sym.name == names._super);
+    }
+
+    private class ReceiverUseVisitor extends AJCTreeVisitor {
+        boolean leaked;
+
+        @Override
+        protected void visitFieldAccess(AJCFieldAccess that) {
+            // Field accesses on this are fine.
+            if (isReceiver(that.selected) && that.getTargetSymbol() instanceof VarSymbol) {
+                return;
+            }
+
+            super.visitFieldAccess(that);
+        }
+
+        @Override
+        protected void visitCall(AJCCall that) {
+            MethodSymbol callee = that.getTargetSymbol();
+
+            boolean onReceiver;
+            if (that.meth instanceof AJCFieldAccess) {
+                onReceiver = isReceiver(((AJCFieldAccess) that.meth).selected);
+            } else {
+                // Unqualified calls of instance methods, this(...) and super(...).
+                onReceiver = (callee.flags() & Flags.STATIC) == 0;
+            }
+
+            if (onReceiver) {
+                // super.f() is non-virtual, whatever f is.
+                boolean direct = isNonVirtual(callee)
+                              || (that.meth instanceof AJCFieldAccess
+                                  && ((AJCIdent) ((AJCFieldAccess) that.meth).selected).getTargetSymbol().name == names._super);
+
+                if (!direct || mayLeakReceiver(callee)) {
+                    leaked = true;
+                }
+            } else {
+                visit(that.meth);
+            }
+
+            visit(that.args);
+        }
+
+        @Override
+        protected void visitIdent(AJCIdent that) {
+            if (isReceiver(that)) {
+                leaked = true;
+            }
+        }
+    }
+}
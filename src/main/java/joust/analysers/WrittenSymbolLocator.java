@@ -0,0 +1,47 @@
+package joust.analysers;
+
+import com.sun.tools.javac.code.Symbol;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.tree.annotatedtree.AJCTree.*;
+
+/**
+ * Visitor that finds the VarSymbols assigned to, compound-assigned to, or incremented in the given tree.
+ * Declarations and writes to array elements don't count.
+ */
+public class WrittenSymbolLocator extends AJCTreeVisitor {
+    public Set<VarSymbol> written = new HashSet<VarSymbol>();
+
+    @Override
+    protected void visitAssign(AJCAssign that) {
+        super.visitAssign(that);
+        processTarget(that.lhs);
+    }
+
+    @Override
+    protected void visitAssignop(AJCAssignOp that) {
+        super.visitAssignop(that);
+        processTarget(that.lhs);
+    }
+
+    @Override
+    protected void visitUnaryAsg(AJCUnaryAsg that) {
+        super.visitUnaryAsg(that);
+        processTarget(that.arg);
+    }
+
+    private void processTarget(AJCSymbolRefTree<VarSymbol> target) {
+        if (target instanceof AJCArrayAccess) {
+            return;
+        }
+
+        Symbol sym = target.getTargetSymbol();
+        if (sym instanceof VarSymbol) {
+            written.add((VarSymbol) sym);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package joust.analysers.cfg;
+
+import joust.tree.annotatedtree.AJCTree;
+
+import java.util.ArrayList;
+
+import static joust.tree.annotatedtree.AJCTree.*;
+
+/**
+ * A node of a ControlFlowGraph. Each node evaluates at most one tree, which is either a simple statement
+ * (An expression statement, variable declaration, return, throw, break, continue or skip), or the expression
+ * evaluated by a compound statement to decide where to go next (The condition of an if or loop, the selector of
+ * a switch, the lock of a synchronized). Nodes holding no tree mark places where control flow joins or splits.
+ *
+ * The successors of a branching node are ordered: the true branch then the false branch after a condition, and
+ * the cases in order after a switch selector, followed by the code after the switch if there's no default.
+ */
+public class CFGNode {
+    // The tree evaluated by this node, or null.
+    public final AJCTree tree;
+
+    public final ArrayList<CFGNode> successors = new ArrayList<CFGNode>();
+    public final ArrayList<CFGNode> predecessors = new ArrayList<CFGNode>();
+
+    // True for the nodes starting catch and finally blocks. These are reached from anywhere in the try block, by
+    // edges the graph doesn't include, so nothing may be assumed on entry to them.
+    public boolean exceptionalEntry;
+
+    // True for jumps that pass through finally blocks on the way to their target, so reach it having run code the
+    // graph doesn't show on that edge.
+    public boolean passesThroughFinally;
+
+    // True for nodes that, after evaluating their tree, take or release a monitor: the lock of a synchronized, and
+    // the end of its body. Jumps out of the body release it as if passing through a finally block.
+    public boolean synchronises;
+
+    // Where to put statements to be run whenever control reaches this node, and whenever it leaves it for its
+    // successors, or null if the tree has no such place.
+    public InsertionPoint entryPoint;
+    public InsertionPoint exitPoint;
+
+    // The position of this node in the reverse postorder of its graph.
+    public int index = -1;
+
+    CFGNode(AJCTree tree) {
+        this.tree = tree;
+    }
+
+    @Override
+    public String toString() {
+        return "CFGNode(" + index + "): " + tree;
+    }
+}
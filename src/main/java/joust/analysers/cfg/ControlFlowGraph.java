@@ -0,0 +1,430 @@
+package joust.analysers.cfg;
+
+import com.sun.tools.javac.tree.JCTree;
+import joust.tree.annotatedtree.AJCTree;
+import joust.utils.logging.LogUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static joust.tree.annotatedtree.AJCTree.*;
+
+/**
+ * A statement-level control flow graph for a method (See CFGNode). Exceptional control flow is represented only by
+ * marking the nodes that start catch and finally blocks, which analyses must treat as entry points about which
+ * nothing is known.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class ControlFlowGraph {
+    public final CFGNode entry = new CFGNode(null);
+    public final CFGNode exit = new CFGNode(null);
+
+    // Every node, in reverse postorder. Nodes unreachable from the entry, or from a catch or finally, come last.
+    public final ArrayList<CFGNode> nodes = new ArrayList<CFGNode>();
+
+    // The node control is at while the graph is being built, or null if the code being added is unreachable.
+    private CFGNode current;
+
+    // Where jumps to each enclosing statement go, and how many finally blocks enclosed each.
+    private final Map<JCTree, CFGNode> breakTargets = new HashMap<JCTree, CFGNode>();
+    private final Map<JCTree, CFGNode> continueTargets = new HashMap<JCTree, CFGNode>();
+    private final Map<JCTree, Integer> targetFinallyDepths = new HashMap<JCTree, Integer>();
+    private int finallyDepth;
+
+    // Set if the method contains something the graph can't represent.
+    private boolean failed;
+
+    // The call to another constructor starting a constructor, before which nothing may be put.
+    private AJCStatement constructorCall;
+
+    private ControlFlowGraph() {}
+
+    /**
+     * Build the graph of the given method.
+     *
+     * @return The graph, or null if the method has no body or its control flow couldn't be modelled.
+     */
+    public static ControlFlowGraph build(AJCMethodDecl method) {
+        if (method.body == null) {
+            return null;
+        }
+
+        ControlFlowGraph graph = new ControlFlowGraph();
+        if (method.getTargetSymbol().isConstructor()) {
+            graph.constructorCall = method.body.stats.head;
+        } else {
+            graph.entry.exitPoint = InsertionPoint.atStart(method.body);
+        }
+
+        graph.current = graph.entry;
+        graph.addStatement(method.body);
+        graph.link(graph.current, graph.exit);
+
+        if (graph.failed) {
+            log.debug("Unable to build control flow graph for {}", method.getTargetSymbol());
+            return null;
+        }
+
+        graph.order();
+        return graph;
+    }
+
+    private CFGNode newNode(AJCTree tree) {
+        CFGNode node = new CFGNode(tree);
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Make a node with no tree, where statements can be put at the given point.
+     */
+    private CFGNode newNode(InsertionPoint point) {
+        CFGNode node = newNode((AJCTree) null);
+        node.entryPoint = point;
+        node.exitPoint = point;
+        return node;
+    }
+
+    private InsertionPoint before(AJCStatement statement) {
+        if (statement == constructorCall) {
+            return null;
+        }
+
+        return InsertionPoint.before(statement);
+    }
+
+    private static InsertionPoint atStart(AJCStatementHoldingStatement holder) {
+        return holder == null ? null : InsertionPoint.atStart(holder);
+    }
+
+    private static void link(CFGNode from, CFGNode to) {
+        if (from == null) {
+            return;
+        }
+
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+
+    /**
+     * Add a node holding the given tree after the current one, and make it current.
+     */
+    private CFGNode append(AJCTree tree) {
+        CFGNode node = newNode(tree);
+        link(current, node);
+        current = node;
+        return node;
+    }
+
+    private void addTarget(JCTree tree, CFGNode breakTarget, CFGNode continueTarget) {
+        breakTargets.put(tree, breakTarget);
+        if (continueTarget != null) {
+            continueTargets.put(tree, continueTarget);
+        }
+        targetFinallyDepths.put(tree, finallyDepth);
+    }
+
+    private void addJump(AJCStatement jump, JCTree target, Map<JCTree, CFGNode> targets) {
+        CFGNode node = append(jump);
+        node.entryPoint = before(jump);
+        node.exitPoint = node.entryPoint;
+
+        CFGNode destination = targets.get(target);
+        if (destination == null) {
+            // Copied trees may still refer to the statements they were copied from.
+            log.debug("Unknown target for {}", jump);
+            failed = true;
+            return;
+        }
+
+        node.passesThroughFinally = targetFinallyDepths.get(target) < finallyDepth;
+        link(node, destination);
+        current = null;
+    }
+
+    private void addStatements(Iterable<? extends AJCStatement> statements) {
+        for (AJCStatement statement : statements) {
+            addStatement(statement);
+        }
+    }
+
+    private void addStatement(AJCStatement that) {
+        if (that instanceof AJCBlock) {
+            addStatements(((AJCBlock) that).stats);
+        } else if (that instanceof AJCExpressionStatement || that instanceof AJCVariableDecl || that instanceof AJCSkip) {
+            CFGNode node = append(that);
+            node.entryPoint = before(that);
+            node.exitPoint = InsertionPoint.after(that);
+        } else if (that instanceof AJCReturn || that instanceof AJCThrow) {
+            CFGNode node = append(that);
+            node.entryPoint = before(that);
+            link(node, exit);
+            current = null;
+        } else if (that instanceof AJCBreak) {
+            addJump(that, ((AJCBreak) that).getDecoratedTree().target, breakTargets);
+        } else if (that instanceof AJCContinue) {
+            addJump(that, ((AJCContinue) that).getDecoratedTree().target, continueTargets);
+        } else if (that instanceof AJCIf) {
+            addIf((AJCIf) that);
+        } else if (that instanceof AJCWhileLoop) {
+            addWhileLoop((AJCWhileLoop) that);
+        } else if (that instanceof AJCDoWhileLoop) {
+            addDoWhileLoop((AJCDoWhileLoop) that);
+        } else if (that instanceof AJCForLoop) {
+            addForLoop((AJCForLoop) that);
+        } else if (that instanceof AJCLabeledStatement) {
+            AJCLabeledStatement labelled = (AJCLabeledStatement) that;
+            CFGNode after = newNode(InsertionPoint.after(labelled));
+            addTarget(labelled.getDecoratedTree(), after, null);
+            addStatement(labelled.body);
+            link(current, after);
+            current = after;
+        } else if (that instanceof AJCSwitch) {
+            addSwitch((AJCSwitch) that);
+        } else if (that instanceof AJCSynchronized) {
+            addSynchronized((AJCSynchronized) that);
+        } else if (that instanceof AJCTry) {
+            addTry((AJCTry) that);
+        } else {
+            log.debug("Unexpected statement in control flow graph: {}", that);
+            failed = true;
+        }
+    }
+
+    private void addIf(AJCIf that) {
+        CFGNode cond = append(that.cond);
+        cond.entryPoint = before(that);
+        CFGNode thenStart = newNode(atStart(that.thenpart));
+        CFGNode elseStart = newNode(atStart(that.elsepart));
+        link(cond, thenStart);
+        link(cond, elseStart);
+
+        current = thenStart;
+        addStatement(that.thenpart);
+        CFGNode thenEnd = current;
+
+        current = elseStart;
+        if (that.elsepart != null) {
+            addStatement(that.elsepart);
+        }
+
+        CFGNode after = newNode(InsertionPoint.after(that));
+        link(thenEnd, after);
+        link(current, after);
+        current = after;
+    }
+
+    private void addWhileLoop(AJCWhileLoop that) {
+        // The condition is reached from before the loop and from its end, so has no place of its own.
+        CFGNode cond = append(that.cond);
+        CFGNode bodyStart = newNode(atStart(that.body));
+        CFGNode after = newNode(InsertionPoint.after(that));
+        link(cond, bodyStart);
+        link(cond, after);
+        addTarget(that.getDecoratedTree(), after, cond);
+
+        current = bodyStart;
+        addStatement(that.body);
+        link(current, cond);
+        current = after;
+    }
+
+    private void addDoWhileLoop(AJCDoWhileLoop that) {
+        CFGNode bodyStart = newNode(atStart(that.body));
+        link(current, bodyStart);
+        current = bodyStart;
+        CFGNode cond = newNode(that.cond);
+        CFGNode after = newNode(InsertionPoint.after(that));
+        addTarget(that.getDecoratedTree(), after, cond);
+
+        addStatement(that.body);
+        link(current, cond);
+        link(cond, bodyStart);
+        link(cond, after);
+        current = after;
+    }
+
+    private void addForLoop(AJCForLoop that) {
+        // The initialisers aren't in a block, but anything before the first can go before the loop.
+        int firstInit = nodes.size();
+        addStatements(that.init);
+        if (!that.init.isEmpty()) {
+            nodes.get(firstInit).entryPoint = before(that);
+        }
+
+        // A loop without a condition gets an empty node to loop back to.
+        boolean hasCond = !that.cond.isEmptyExpression();
+        CFGNode cond = append(hasCond ? that.cond : null);
+        CFGNode bodyStart = newNode(atStart(that.body));
+        CFGNode stepStart = newNode((AJCTree) null);
+        CFGNode after = newNode(InsertionPoint.after(that));
+        link(cond, bodyStart);
+        if (hasCond) {
+            link(cond, after);
+        }
+        addTarget(that.getDecoratedTree(), after, stepStart);
+
+        current = bodyStart;
+        addStatement(that.body);
+        link(current, stepStart);
+
+        current = stepStart;
+        addStatements(that.step);
+        link(current, cond);
+        current = after;
+    }
+
+    private void addSwitch(AJCSwitch that) {
+        CFGNode selector = append(that.selector);
+        selector.entryPoint = before(that);
+        CFGNode after = newNode(InsertionPoint.after(that));
+        addTarget(that.getDecoratedTree(), after, null);
+
+        // Each case is entered from the selector, or by falling through from the one before.
+        boolean hasDefault = false;
+        CFGNode previousEnd = null;
+        for (AJCCase cas : that.cases) {
+            hasDefault |= cas.pat.isEmptyExpression();
+
+            CFGNode caseStart = newNode(atStart(cas));
+            link(selector, caseStart);
+            link(previousEnd, caseStart);
+
+            current = caseStart;
+            addStatements(cas.stats);
+            previousEnd = current;
+        }
+
+        if (!hasDefault) {
+            link(selector, after);
+        }
+        link(previousEnd, after);
+        current = after;
+    }
+
+    private void addSynchronized(AJCSynchronized that) {
+        CFGNode lock = append(that.lock);
+        lock.entryPoint = before(that);
+        lock.synchronises = true;
+
+        // The monitor is released by a finally block javac wraps around the body.
+        finallyDepth++;
+        addStatement(that.body);
+        finallyDepth--;
+
+        CFGNode after = newNode(InsertionPoint.after(that));
+        after.synchronises = true;
+        link(current, after);
+        current = after;
+    }
+
+    private void addTry(AJCTry that) {
+        boolean hasFinally = that.finalizer != null;
+        if (hasFinally) {
+            finallyDepth++;
+        }
+
+        addStatement(that.body);
+        ArrayList<CFGNode> ends = new ArrayList<CFGNode>();
+        ends.add(current);
+
+        for (AJCCatch catcher : that.catchers) {
+            CFGNode catchStart = newNode(catcher.param);
+            catchStart.exceptionalEntry = true;
+            catchStart.exitPoint = atStart(catcher.body);
+
+            current = catchStart;
+            addStatement(catcher.body);
+            ends.add(current);
+        }
+
+        // With a finally, every way out of the try leads to it - not just the ones shown here.
+        CFGNode after = newNode(hasFinally ? atStart(that.finalizer) : InsertionPoint.after(that));
+        if (hasFinally) {
+            finallyDepth--;
+            after.exceptionalEntry = true;
+        }
+
+        for (CFGNode end : ends) {
+            link(end, after);
+        }
+        current = after;
+
+        if (hasFinally) {
+            addStatement(that.finalizer);
+        }
+    }
+
+    /**
+     * Sort the nodes into reverse postorder, starting from the entry and then from any exceptional entries.
+     */
+    private void order() {
+        ArrayList<CFGNode> postorder = new ArrayList<CFGNode>(nodes.size() + 2);
+        Set<CFGNode> visited = new HashSet<CFGNode>();
+
+        visitPostorder(entry, visited, postorder);
+        for (CFGNode node : nodes) {
+            if (node.exceptionalEntry) {
+                visitPostorder(node, visited, postorder);
+            }
+        }
+
+        ArrayList<CFGNode> unreachable = new ArrayList<CFGNode>();
+        for (CFGNode node : nodes) {
+            if (!visited.contains(node)) {
+                unreachable.add(node);
+            }
+        }
+        if (!visited.contains(exit)) {
+            unreachable.add(exit);
+        }
+
+        Collections.reverse(postorder);
+        nodes.clear();
+        nodes.addAll(postorder);
+        nodes.addAll(unreachable);
+
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.get(i).index = i;
+        }
+    }
+
+    private static void visitPostorder(CFGNode start, Set<CFGNode> visited, ArrayList<CFGNode> postorder) {
+        if (!visited.add(start)) {
+            return;
+        }
+
+        // Iteratively, to survive methods with a lot of statements.
+        ArrayList<CFGNode> stack = new ArrayList<CFGNode>();
+        ArrayList<Integer> positions = new ArrayList<Integer>();
+        stack.add(start);
+        positions.add(0);
+
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            CFGNode node = stack.get(top);
+            int position = positions.get(top);
+
+            if (position < node.successors.size()) {
+                positions.set(top, position + 1);
+                CFGNode next = node.successors.get(position);
+                if (visited.add(next)) {
+                    stack.add(next);
+                    positions.add(0);
+                }
+            } else {
+                stack.remove(top);
+                positions.remove(top);
+                postorder.add(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package joust.analysers.cfg;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+
+import static joust.tree.annotatedtree.AJCTree.*;
+
+/**
+ * A place in the tree where statements can be added: before or after a statement in a block or case, or at the
+ * start of one.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class InsertionPoint {
+    private final AJCStatementHoldingStatement holder;
+
+    // The statement to insert next to, or null to insert at the start of the holder.
+    private final AJCStatement anchor;
+    private final boolean after;
+
+    /**
+     * @return The point before the given statement, or null if it isn't in a block or case.
+     */
+    static InsertionPoint before(AJCStatement statement) {
+        if (!(statement.mParentNode instanceof AJCStatementHoldingStatement)) {
+            return null;
+        }
+
+        return new InsertionPoint((AJCStatementHoldingStatement) statement.mParentNode, statement, false);
+    }
+
+    /**
+     * @return The point after the given statement, or null if it isn't in a block or case.
+     */
+    static InsertionPoint after(AJCStatement statement) {
+        if (!(statement.mParentNode instanceof AJCStatementHoldingStatement)) {
+            return null;
+        }
+
+        return new InsertionPoint((AJCStatementHoldingStatement) statement.mParentNode, statement, true);
+    }
+
+    static InsertionPoint atStart(AJCStatementHoldingStatement holder) {
+        return new InsertionPoint(holder, null, false);
+    }
+
+    public void insert(AJCStatement statement) {
+        if (anchor == null) {
+            holder.insert(statement, 0);
+        } else if (after) {
+            holder.insertAfter(anchor, statement);
+        } else {
+            holder.insertBefore(anchor, statement);
+        }
+    }
+}
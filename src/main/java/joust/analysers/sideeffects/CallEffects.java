@@ -0,0 +1,52 @@
+package joust.analysers.sideeffects;
+
+import joust.tree.annotatedtree.treeinfo.EffectSet;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.sun.tools.javac.code.Symbol.*;
+
+/**
+ * The Effects of a method call. The effects of the called method are expressed relative to its own receiver
+ * and parameters (See EffectSet.relativeReads), so they're rewritten in terms of the caller on their way in.
+ * The effects of the receiver and argument expressions themselves are taken as they are.
+ */
+public class CallEffects extends Effects {
+    // The caller's relative mask for the receiver, then for each argument, and the local variables holding
+    // those which are fresh objects (See EffectSet.instantiate).
+    private final int[] bindings;
+    private final VarSymbol[] freshObjects;
+
+    // The Effects of the receiver and argument trees.
+    private final Set<Effects> operands = new HashSet<Effects>();
+
+    /**
+     * @param direct The effects of the call itself, beyond those of the called method, such as dereferencing
+     *               a receiver that might be null.
+     */
+    public CallEffects(EffectSet direct, int[] bindings, VarSymbol[] freshObjects, Effects... operandEffects) {
+        super(EffectSet.NO_EFFECTS, direct);
+        this.bindings = bindings;
+        this.freshObjects = freshObjects;
+
+        EffectSet[] effectSets = new EffectSet[operandEffects.length];
+        for (int i = 0; i < operandEffects.length; i++) {
+            effectSets[i] = operandEffects[i].effectSet;
+            operandEffects[i].dependantOnThis.add(this);
+            deps.add(operandEffects[i]);
+            operands.add(operandEffects[i]);
+        }
+
+        effectSet = direct.union(effectSets);
+    }
+
+    @Override
+    protected EffectSet contributionOf(Effects child) {
+        if (operands.contains(child)) {
+            return child.effectSet;
+        }
+
+        return child.effectSet.instantiate(bindings, freshObjects);
+    }
+}
@@ -140,7 +140,7 @@ public class Effects {
                 if (eS == this) {
                     continue;
                 }
-                eS.setEffectSetInternal(e.union(eS.effectSet), visited);
+                eS.setEffectSetInternal(eS.contributionOf(this).union(eS.effectSet), visited);
             }
 
             return;
@@ -180,13 +180,20 @@ public class Effects {
                 child.rebuildFromChildrenInternal(visited);
             }
 
-            newEffectSet = newEffectSet.union(child.effectSet);
+            newEffectSet = newEffectSet.union(contributionOf(child));
         }
         log.trace("New: {}", newEffectSet);
 
         setEffectSetInternal(newEffectSet, visited);
     }
 
+    /**
+     * @return The part of this Effects contributed by the given dependency.
+     */
+    protected EffectSet contributionOf(Effects child) {
+        return child.effectSet;
+    }
+
     @Override
     public String toString() {
         return "Immediate: " + directPart.toString()+"     Computed: " + effectSet.toString();
@@ -2,19 +2,28 @@ package joust.analysers.sideeffects;
 
 import com.sun.tools.javac.code.Flags;
 import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.tree.JCTree.Tag;
 import com.sun.tools.javac.util.List;
+import joust.analysers.FreshObjectLocator;
+import joust.analysers.ImplicitExceptionChecker;
+import joust.analysers.ReceiverEscapeChecker;
+import joust.analysers.WrittenSymbolLocator;
 import joust.joustcache.JOUSTCache;
 import joust.joustcache.data.ClassInfo;
 import joust.tree.annotatedtree.AJCForest;
+import joust.tree.annotatedtree.AJCTree;
 import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.tree.annotatedtree.treeinfo.ArrayElements;
 import joust.tree.annotatedtree.treeinfo.EffectSet;
 import joust.tree.annotatedtree.treeinfo.TreeInfoManager;
 import joust.utils.data.SymbolSet;
 import joust.utils.logging.LogUtils;
+import joust.utils.tree.TreeUtils;
 import joust.utils.data.SetHashMap;
 import lombok.experimental.ExtensionMethod;
 import lombok.extern.java.Log;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -24,6 +33,8 @@ import java.util.logging.Logger;
 import static joust.tree.annotatedtree.AJCTree.*;
 import static com.sun.tools.javac.code.Symbol.*;
 import static joust.tree.annotatedtree.treeinfo.EffectSet.*;
+import static joust.utils.compiler.StaticCompilerUtils.names;
+import static joust.utils.compiler.StaticCompilerUtils.symtab;
 import static joust.utils.compiler.StaticCompilerUtils.types;
 
 @Log
@@ -52,6 +63,18 @@ public class SideEffectVisitor extends AJCTreeVisitor {
 
     private MethodSymbol methodBeingVisited;
 
+    // The parameters of the method being visited, and those of them which are assigned to in its body. The
+    // others always refer to whatever the caller passed, so effects on them can be stated relative to it.
+    private ArrayList<VarSymbol> currentParams = new ArrayList<VarSymbol>();
+    private Set<VarSymbol> reassignedParams = new HashSet<VarSymbol>();
+    private boolean inInstanceMethod;
+
+    // The locals of the method being visited that only ever hold objects nobody else can see. Accesses to
+    // the objects are treated as accesses to the variables.
+    private Set<VarSymbol> freshLocals = new HashSet<VarSymbol>();
+    private final ReceiverEscapeChecker escapeChecker = new ReceiverEscapeChecker();
+    private ImplicitExceptionChecker exceptionChecker = new ImplicitExceptionChecker(new HashSet<VarSymbol>(), new HashMap<VarSymbol, Integer>());
+
     public SideEffectVisitor(boolean shouldSave) {
         saveResults = shouldSave;
     }
@@ -87,9 +110,38 @@ public class SideEffectVisitor extends AJCTreeVisitor {
             return;
         }
 
+        currentParams = new ArrayList<VarSymbol>(that.params.size());
+        for (AJCVariableDecl param : that.params) {
+            currentParams.add(param.getTargetSymbol());
+        }
+
+        WrittenSymbolLocator locator = new WrittenSymbolLocator();
+        locator.visitTree(that.body);
+        reassignedParams = locator.written;
+        inInstanceMethod = (sym.flags() & Flags.STATIC) == 0;
+
+        FreshObjectLocator freshLocator = new FreshObjectLocator(escapeChecker);
+        freshLocator.visitTree(that.body);
+        freshLocals = freshLocator.fresh;
+        log.debug("Fresh locals: {}", freshLocals);
+        exceptionChecker = new ImplicitExceptionChecker(freshLocator.allocated, freshLocator.arrayLengths);
+        that.freshLocals = freshLocator.fresh;
+        that.allocatedLocals = freshLocator.allocated;
+
         super.visitMethodDef(that);
 
-        unfinishedMethodEffects.put(sym, that.body.effects);
+        currentParams = new ArrayList<VarSymbol>();
+        inInstanceMethod = false;
+        freshLocals = new HashSet<VarSymbol>();
+        exceptionChecker = new ImplicitExceptionChecker(freshLocals, new HashMap<VarSymbol, Integer>());
+
+        // A synchronized method takes its monitor on entry and releases it on exit.
+        Effects methodEffects = that.body.effects;
+        if ((sym.flags() & Flags.SYNCHRONIZED) != 0) {
+            methodEffects = Effects.unionWithDirect(new EffectSet(EffectType.SYNCHRONISATION), methodEffects);
+        }
+
+        unfinishedMethodEffects.put(sym, methodEffects);
         methodDeps.ensure(sym);
     }
 
@@ -261,7 +313,7 @@ public class SideEffectVisitor extends AJCTreeVisitor {
         if (incompleted != null) {
             for (AJCEffectAnnotatedTree t : incompleted) {
                 Effects tEffects = t.effects;
-                EffectSet newEffectSet = tEffects.effectSet.union(effects.effectSet);
+                EffectSet newEffectSet = tEffects.effectSet.union(tEffects.contributionOf(effects));
 
                 // Update dependencies...
                 tEffects.deps.add(effects);
@@ -366,7 +418,7 @@ public class SideEffectVisitor extends AJCTreeVisitor {
     public void visitSynchronized(AJCSynchronized that) {
         super.visitSynchronized(that);
 
-        that.effects = Effects.unionTrees(that.lock, that.body);
+        that.effects = Effects.unionWithDirect(new EffectSet(EffectType.SYNCHRONISATION), that.lock.effects, that.body.effects);
     }
 
     @Override
@@ -433,27 +485,246 @@ public class SideEffectVisitor extends AJCTreeVisitor {
         that.effects = Effects.unionWithDirect(new EffectSet(EffectType.EXCEPTION), that.expr.effects);
     }
 
+    /**
+     * @return The relative mask denoting, in the method being visited, the object referred to by the given
+     *         expression, or zero if it might be anything.
+     */
+    private int relativeMaskOf(AJCTree expr) {
+        if (!(expr instanceof AJCIdent)) {
+            return 0;
+        }
+
+        Symbol sym = ((AJCIdent) expr).getTargetSymbol();
+        if (sym == null) {
+            return 0;
+        }
+
+        if (sym.name == names._this || sym.name == names._super) {
+            return inInstanceMethod ? RELATIVE_RECEIVER : 0;
+        }
+
+        int index = currentParams.indexOf(sym);
+        if (index == -1 || reassignedParams.contains(sym)) {
+            return 0;
+        }
+
+        return relativeParameter(index);
+    }
+
+    /**
+     * @return The relative mask of the object whose field is accessed by the given tree, or zero if it might
+     *         be anything.
+     */
+    private int accessedObjectMaskOf(AJCTree accessTree) {
+        if (accessTree instanceof AJCFieldAccess) {
+            return relativeMaskOf(((AJCFieldAccess) accessTree).selected);
+        }
+
+        if (accessTree instanceof AJCIdent) {
+            Symbol sym = ((AJCIdent) accessTree).getTargetSymbol();
+
+            // An unqualified instance field is a field of this.
+            if (sym instanceof VarSymbol && !TreeUtils.isLocalVariable(sym) && (sym.flags() & Flags.STATIC) == 0) {
+                return inInstanceMethod ? RELATIVE_RECEIVER : 0;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return The fresh local whose object has a field accessed by the given tree, or null if it isn't one.
+     */
+    private VarSymbol freshObjectOf(AJCTree accessTree) {
+        if (!(accessTree instanceof AJCFieldAccess)) {
+            return null;
+        }
+
+        AJCTree selected = ((AJCFieldAccess) accessTree).selected;
+        if (!(selected instanceof AJCIdent)) {
+            return null;
+        }
+
+        Symbol sym = ((AJCIdent) selected).getTargetSymbol();
+        if (freshLocals.contains(sym)) {
+            return (VarSymbol) sym;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The direct effects of reading the given field with the given tree.
+     */
+    private EffectSet fieldRead(VarSymbol field, AJCTree accessTree) {
+        VarSymbol freshObject = freshObjectOf(accessTree);
+        if (freshObject != null) {
+            return read(freshObject);
+        }
+
+        return relativeTo(read(field), accessTree);
+    }
+
+    /**
+     * @return The direct effects of writing, and if requested also reading, the given field with the given tree.
+     */
+    private EffectSet fieldWrite(VarSymbol field, AJCTree accessTree, boolean alsoRead) {
+        if (accessTree instanceof AJCArrayAccess) {
+            return elementAccess((AJCArrayAccess) accessTree, alsoRead, true);
+        }
+
+        VarSymbol freshObject = freshObjectOf(accessTree);
+        if (freshObject != null) {
+            return alsoRead ? write(freshObject).union(read(freshObject)) : write(freshObject);
+        }
+
+        return relativeTo(alsoRead ? write(field).union(read(field)) : write(field), accessTree);
+    }
+
+    /**
+     * @return The direct effects of reading and/or writing an element of an array with the given tree.
+     */
+    private EffectSet elementAccess(AJCArrayAccess access, boolean reads, boolean writes) {
+        // Nothing but the local holding a fresh array can see its elements.
+        if (access.indexed instanceof AJCIdent && freshLocals.contains(((AJCIdent) access.indexed).getTargetSymbol())) {
+            VarSymbol array = (VarSymbol) ((AJCIdent) access.indexed).getTargetSymbol();
+            EffectSet direct = reads ? read(array) : NO_EFFECTS;
+            return writes ? direct.union(write(array)) : direct;
+        }
+
+        VarSymbol elements = ArrayElements.forArrayType(access.indexed.getNodeType());
+        int mask = relativeMaskOf(access.indexed);
+
+        EffectSet direct = NO_EFFECTS;
+        if (reads) {
+            EffectSet read = read(elements);
+            read.relativeReads = mask;
+            direct = direct.union(read);
+        }
+
+        if (writes) {
+            EffectSet write = write(elements);
+            write.relativeWrites = mask;
+            direct = direct.union(write);
+        }
+
+        return direct;
+    }
+
+    /**
+     * Mark the escaping accesses of the given direct effects of a field access as relative to the object whose
+     * field is being accessed, if that's known.
+     */
+    private EffectSet relativeTo(EffectSet direct, AJCTree accessTree) {
+        int mask = accessedObjectMaskOf(accessTree);
+        if (mask == 0) {
+            return direct;
+        }
+
+        if (direct.contains(EffectType.READ_ESCAPING)) {
+            direct.relativeReads = mask;
+        }
+
+        if (direct.contains(EffectType.WRITE_ESCAPING)) {
+            direct.relativeWrites = mask;
+        }
+
+        return direct;
+    }
+
+    /**
+     * The implicit exceptions an access to the given array might raise.
+     */
+    private EffectSet arrayAccessExceptions(AJCArrayAccess access) {
+        int mask = 0;
+        if (exceptionChecker.mayBeNull(access.indexed)) {
+            mask |= EffectType.NULL_POINTER.maskValue;
+        }
+
+        if (exceptionChecker.mayBeOutOfBounds(access)) {
+            mask |= EffectType.INDEX_BOUNDS.maskValue;
+        }
+
+        return mask == 0 ? NO_EFFECTS : new EffectSet(mask);
+    }
+
+    /**
+     * The implicit exceptions of the given binary or compound assignment operator with the given right operand.
+     */
+    private EffectSet arithmeticExceptions(Tag operator, AJCExpressionTree rhs) {
+        if (operator != Tag.DIV && operator != Tag.MOD && operator != Tag.DIV_ASG && operator != Tag.MOD_ASG) {
+            return NO_EFFECTS;
+        }
+
+        return exceptionChecker.mayDivideByZero(rhs) ? new EffectSet(EffectType.ARITHMETIC) : NO_EFFECTS;
+    }
+
+    /**
+     * The effects of evaluating the target of an assignment, short of reading or writing it: the object or
+     * array and index expressions it's reached through, and the dereference of them.
+     */
+    private Effects lhsEffects(AJCTree lhs) {
+        if (lhs instanceof AJCArrayAccess) {
+            AJCArrayAccess access = (AJCArrayAccess) lhs;
+            return Effects.unionWithDirect(arrayAccessExceptions(access), access.indexed.effects, access.index.effects);
+        }
+
+        if (lhs instanceof AJCFieldAccess) {
+            AJCFieldAccess<?> access = (AJCFieldAccess<?>) lhs;
+            EffectSet direct = exceptionChecker.mayThrowNullPointer(access.selected, access.getTargetSymbol()) ? new EffectSet(EffectType.NULL_POINTER) : NO_EFFECTS;
+            if (access.selected instanceof AJCEffectAnnotatedTree) {
+                return Effects.unionWithDirect(direct, ((AJCEffectAnnotatedTree) access.selected).effects);
+            }
+
+            return Effects.unionWithDirect(direct);
+        }
+
+        return new Effects(NO_EFFECTS);
+    }
+
     /**
      * In this, the first stage of the bootstrapping pass, we neglect call side effects entirely.
      */
     private void handleCallEffects(List<AJCExpressionTree> args, AJCSymbolRefTree<MethodSymbol> that, AJCEffectAnnotatedTree extra) {
         MethodSymbol calledMethod = that.getTargetSymbol();
 
-        if (extra != null) {
-            int i = 0;
-            AJCEffectAnnotatedTree[] trees = new AJCEffectAnnotatedTree[args.size() + 1];
-            for (AJCEffectAnnotatedTree t : args) {
-                trees[i] = t;
-                i++;
-            }
-            trees[i] = extra;
+        // Find what the callee's receiver and parameters are in terms of the method being visited, so its
+        // relative effects can be restated. Effects on a fresh object are internal to whatever holds it.
+        int[] bindings = new int[args.size() + 1];
+        VarSymbol[] freshObjects = new VarSymbol[bindings.length];
+        EffectSet direct = NO_EFFECTS;
+        if (that instanceof AJCCall) {
+            AJCSymbolRefTree<MethodSymbol> meth = ((AJCCall) that).meth;
+            if (meth instanceof AJCFieldAccess) {
+                if (exceptionChecker.mayThrowNullPointer(((AJCFieldAccess) meth).selected, calledMethod)) {
+                    direct = new EffectSet(EffectType.NULL_POINTER);
+                }
 
-            // The effects of the arguments to the function and the method reference tree.
-            that.effects = Effects.unionTrees(trees);
+                freshObjects[0] = freshObjectOf(meth);
+                bindings[0] = freshObjects[0] != null ? BINDING_FRESH : relativeMaskOf(((AJCFieldAccess) meth).selected);
+            } else if ((calledMethod.flags() & Flags.STATIC) == 0 && inInstanceMethod) {
+                bindings[0] = RELATIVE_RECEIVER;
+            }
         } else {
-            that.effects = Effects.unionTrees(args);
+            // The object being constructed, which nothing can see until the constructor returns.
+            bindings[0] = BINDING_FRESH;
+        }
+
+        int i = 0;
+        Effects[] operands = new Effects[extra == null ? args.size() : args.size() + 1];
+        for (AJCExpressionTree t : args) {
+            bindings[i + 1] = relativeMaskOf(t);
+            operands[i] = t.effects;
+            i++;
+        }
+
+        // The effects of the arguments to the function and the method reference tree.
+        if (extra != null) {
+            operands[i] = extra.effects;
         }
 
+        that.effects = new CallEffects(direct, bindings, freshObjects, operands);
+
         // Add to the list of calls needing to be fixed up.
         incompleteCalls.listAdd(calledMethod, that);
         calledMethodsWithoutSource.add(calledMethod);
@@ -491,11 +762,12 @@ public class SideEffectVisitor extends AJCTreeVisitor {
         // such as OutOfMemoryException. It is the corresponding assignment (If any exists) which
         // has a side effect.
         // Of course, the argument to the new array call might have side effects, as might the
-        // elements of the array (If given explicitly).
+        // elements of the array (If given explicitly), and a size might be negative.
         Effects elementEffects = Effects.unionTrees(that.elems);
         Effects dimensionEffects = Effects.unionTrees(that.dims);
 
-        that.effects = Effects.unionOf(elementEffects, dimensionEffects);
+        EffectSet direct = exceptionChecker.mayHaveNegativeSize(that) ? new EffectSet(EffectType.INDEX_BOUNDS) : NO_EFFECTS;
+        that.effects = Effects.unionWithDirect(direct, elementEffects, dimensionEffects);
     }
 
     @Override
@@ -510,7 +782,7 @@ public class SideEffectVisitor extends AJCTreeVisitor {
         // Firstly, try the simple way out.
         VarSymbol directSymbol = that.getTargetSymbol();
         if (directSymbol != null) {
-            that.effects = Effects.unionWithDirect(write(directSymbol), that.rhs.effects);
+            that.effects = Effects.unionWithDirect(fieldWrite(directSymbol, that.lhs, false), lhsEffects(that.lhs), that.rhs.effects);
             return;
         }
 
@@ -538,7 +810,8 @@ public class SideEffectVisitor extends AJCTreeVisitor {
         VarSymbol varSym = that.getTargetSymbol();
 
         if (varSym != null) {
-            that.effects = Effects.unionWithDirect(EffectSet.write(varSym).union(read(varSym)), that.rhs.effects);
+            EffectSet direct = fieldWrite(varSym, that.lhs, true).union(arithmeticExceptions(that.getTag(), that.rhs));
+            that.effects = Effects.unionWithDirect(direct, lhsEffects(that.lhs), that.rhs.effects);
             return;
         }
 
@@ -563,6 +836,8 @@ public class SideEffectVisitor extends AJCTreeVisitor {
         newEffects.readEscaping = readEscaping;
         newEffects.readInternal = readInternal;
 
+        newEffects = newEffects.union(arithmeticExceptions(that.getTag(), that.rhs));
+
         that.effects = Effects.unionWithDirect(newEffects, that.rhs.effects);
     }
 
@@ -578,14 +853,14 @@ public class SideEffectVisitor extends AJCTreeVisitor {
         super.visitUnaryAsg(that);
 
         VarSymbol varSym = that.getTargetSymbol();
-        that.effects = Effects.unionWithDirect(EffectSet.write(varSym).union(read(varSym)), that.arg.effects);
+        that.effects = Effects.unionWithDirect(fieldWrite(varSym, that.arg, true), lhsEffects(that.arg));
     }
 
     @Override
     public void visitBinary(AJCBinary that) {
         super.visitBinary(that);
 
-        that.effects = Effects.unionTrees(that.lhs, that.rhs);
+        that.effects = Effects.unionWithDirect(arithmeticExceptions(that.getTag(), that.rhs), that.lhs.effects, that.rhs.effects);
     }
 
     @Override
@@ -593,9 +868,11 @@ public class SideEffectVisitor extends AJCTreeVisitor {
         super.visitArrayAccess(that);
 
         log.trace("Visiting array access: {}", that);
-        // The read effect on the underlying array will be brought in by the ident in indexed.
+        // The read effect on the variable holding the array will be brought in by the ident in indexed.
         // If it's a call or some other crazy thing being used to refer to the array, this also catches that.
-        that.effects = Effects.unionTrees(that.indexed, that.index);
+        // The read of the element itself is the direct part.
+        EffectSet direct = elementAccess(that, true, false).union(arrayAccessExceptions(that));
+        that.effects = Effects.unionWithDirect(direct, that.indexed.effects, that.index.effects);
     }
 
     @Override
@@ -616,10 +893,22 @@ public class SideEffectVisitor extends AJCTreeVisitor {
 
         VarSymbol tSym = (VarSymbol) targetSym;
 
+        // The length of an array never changes, so reading it reads nothing.
+        if (tSym == symtab.lengthVar) {
+            EffectSet direct = exceptionChecker.mayBeNull(that.selected) ? new EffectSet(EffectType.NULL_POINTER) : NO_EFFECTS;
+            that.effects = Effects.unionWithDirect(direct, ((AJCEffectAnnotatedTree) that.selected).effects);
+            return;
+        }
+
         if (that.selected instanceof AJCEffectAnnotatedTree) {
-            that.effects = Effects.unionWithDirect(read(tSym), ((AJCEffectAnnotatedTree) that.selected).effects);
+            EffectSet direct = fieldRead(tSym, that);
+            if (exceptionChecker.mayThrowNullPointer(that.selected, tSym)) {
+                direct = direct.union(EffectType.NULL_POINTER);
+            }
+
+            that.effects = Effects.unionWithDirect(direct, ((AJCEffectAnnotatedTree) that.selected).effects);
         } else {
-            that.effects = Effects.unionWithDirect(read(tSym));
+            that.effects = Effects.unionWithDirect(fieldRead(tSym, that));
         }
     }
 
@@ -635,7 +924,15 @@ public class SideEffectVisitor extends AJCTreeVisitor {
                 JOUSTCache.varSymbolTable.put(hash, (VarSymbol) targetSym);
             }
 
-            that.effects = new Effects(NO_EFFECTS, read((VarSymbol) targetSym));
+            // Reading this itself is a read of the receiver.
+            EffectSet direct = read((VarSymbol) targetSym);
+            if (targetSym.name == names._this || targetSym.name == names._super) {
+                direct.relativeReads = inInstanceMethod ? RELATIVE_RECEIVER : 0;
+            } else {
+                relativeTo(direct, that);
+            }
+
+            that.effects = new Effects(NO_EFFECTS, direct);
             return;
         }
 
@@ -665,7 +962,9 @@ public class SideEffectVisitor extends AJCTreeVisitor {
     @Override
     public void visitTypeCast(AJCTypeCast that) {
         super.visitTypeCast(that);
-        that.effects = Effects.unionOf(that.expr.effects);
+
+        EffectSet direct = exceptionChecker.mayFailCast(that) ? new EffectSet(EffectType.CLASS_CAST) : NO_EFFECTS;
+        that.effects = Effects.unionWithDirect(direct, that.expr.effects);
     }
 
     @Override
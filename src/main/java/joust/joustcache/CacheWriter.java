@@ -0,0 +1,181 @@
+package joust.joustcache;
+
+import joust.utils.logging.LogUtils;
+import lombok.AllArgsConstructor;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Writes cache records to the effect store in the background. Classfile hashing is spread across a
+ * pool of threads, and finished records are handed to a single writer thread which commits whenever
+ * it runs out of work - so a burst of records costs one commit, not one each.
+ *
+ * If there is a remote cache, each record is also uploaded to it from a separate thread, so a slow
+ * server never holds up the local store.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+class CacheWriter {
+    @AllArgsConstructor
+    private static class PendingRecord {
+        final String key;
+        final byte[] record;
+        final int hash;
+    }
+
+    // Marks the end of the queue.
+    private static final PendingRecord FINISHED = new PendingRecord(null, null, 0);
+
+    // How long to wait for outstanding hashing and uploads at the end of the compilation.
+    private static final long HASH_TIMEOUT_MS = 60000;
+    private static final long UPLOAD_TIMEOUT_MS = 30000;
+
+    // The threads of the pools are daemons, so a compilation which never closes the cache can still exit.
+    private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+        private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = defaultFactory.newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final EffectStore store;
+    private final ExecutorService hashPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), DAEMON_THREADS);
+    private final LinkedBlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<PendingRecord>();
+    private final Thread writerThread;
+
+    private final EffectStore remoteStore;
+    private final ExecutorService uploader;
+
+    /**
+     * @param store The store to write records to.
+     * @param remoteStore The remote store to upload records to, or null if there isn't one.
+     */
+    CacheWriter(EffectStore store, EffectStore remoteStore) {
+        this.store = store;
+        this.remoteStore = remoteStore;
+        uploader = remoteStore == null ? null : Executors.newSingleThreadExecutor(DAEMON_THREADS);
+
+        writerThread = new Thread("JOUST cache writer") {
+            public void run() {
+                try {
+                    writeRecords();
+                } catch (InterruptedException e) {
+                    log.error("Cache writer interrupted!", e);
+                }
+            }
+        };
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Hash the given class file, stamp the hash into the record and queue it for writing.
+     *
+     * @param key The name of the class the record describes.
+     * @param record The encoded record, which is modified in place.
+     * @param classFile The class file the record describes.
+     */
+    void submit(final String key, final byte[] record, final JavaFileObject classFile) {
+        hashPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int hash = ChecksumUtils.computeHash(classFile);
+                    EffectRecordCodec.setHash(record, hash);
+                    queue.add(new PendingRecord(key, record, hash));
+                } catch (IOException e) {
+                    log.error("Can't hash {} for {}", classFile, key, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait until every record submitted so far has been committed to the store, and release the threads.
+     */
+    void finish() {
+        hashPool.shutdown();
+        try {
+            if (!hashPool.awaitTermination(HASH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                log.warn("Gave up waiting for class files to be hashed. Their records won't be cached.");
+                hashPool.shutdownNow();
+            }
+            queue.put(FINISHED);
+            writerThread.join();
+
+            if (uploader != null) {
+                uploader.shutdown();
+                if (!uploader.awaitTermination(UPLOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    log.warn("Gave up waiting for uploads to the remote effect cache.");
+                }
+            }
+        } catch (InterruptedException e) {
+            log.error("Interrupted waiting for the cache writer!", e);
+        }
+    }
+
+    private void writeRecords() throws InterruptedException {
+        boolean finished = false;
+        while (!finished) {
+            // Write everything that's ready, then commit the lot.
+            PendingRecord pending = queue.take();
+            do {
+                if (pending == FINISHED) {
+                    finished = true;
+                } else {
+                    put(pending);
+                    upload(pending);
+                }
+
+                pending = queue.poll();
+            } while (pending != null);
+
+            try {
+                synchronized (store) {
+                    store.commit();
+                }
+            } catch (IOException e) {
+                log.fatal("IOException flushing to disk cache:", e);
+            }
+        }
+    }
+
+    private void put(PendingRecord pending) {
+        log.debug("Writing {} bytes for {}", pending.record.length, pending.key);
+        try {
+            JOUSTCache.storeRecord(store, pending.key, pending.hash, pending.record);
+        } catch (IOException e) {
+            log.error("IOException writing {} to disk cache:", pending.key, e);
+        }
+    }
+
+    private void upload(final PendingRecord pending) {
+        if (uploader == null) {
+            return;
+        }
+
+        uploader.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    remoteStore.put(JOUSTCache.getContentKey(pending.key, pending.hash), pending.record);
+                } catch (IOException e) {
+                    log.warn("Unable to upload {} to the remote effect cache: {}", pending.key, e);
+                }
+            }
+        });
+    }
+}
@@ -23,6 +23,8 @@ import static joust.utils.compiler.StaticCompilerUtils.fileManager;
 /**
  * A phase to be run after writing the classfiles which computes the checksums of the produced files
  * and writes them and the relavent analysis results to the disk cache.
+ * Hashing and writing happen in the background (See CacheWriter): JOUSTCache.closeDatabase, called
+ * by the CleanupRunner, waits for them to finish.
  */
 @Log
 @ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
@@ -58,9 +60,7 @@ public class ChecksumRunner extends OptimisationRunnable {
                     continue;
                 }
 
-                final int hash = ChecksumUtils.computeHash(outFile);
-
-                JOUSTCache.writeSymbolToDisk(className, hash);
+                JOUSTCache.writeClassInfo(className, outFile);
                 transientInfo.setFlushed(true);
                 log.trace("Flush: {}", className);
             } catch (FileNotFoundException e) {
@@ -74,7 +74,6 @@ public class ChecksumRunner extends OptimisationRunnable {
         }
         long e = System.currentTimeMillis();
 
-        JOUSTCache.closeDatabase();
         log.trace("Done in " + (e - s) + "ms");
     }
 
@@ -8,12 +8,17 @@ import net.jpountz.xxhash.XXHash32;
 import net.jpountz.xxhash.XXHashFactory;
 
 import javax.tools.JavaFileObject;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -36,6 +41,10 @@ public class ChecksumUtils {
     private static Method getPrefixedEntryName;
     private static Field zipName;
 
+    // Jar fingerprints are expensive enough to be worth computing only once per jar. Hashing threads
+    // share this map, so it must be safe for concurrent use.
+    private static final ConcurrentHashMap<File, Integer> jarFingerprints = new ConcurrentHashMap<File, Integer>();
+
     public static void init() {
         if (jniHasher != null) {
             return;
@@ -58,30 +67,27 @@ public class ChecksumUtils {
         }
     }
 
+    // Read buffers, one per thread, so hashing may proceed in parallel without allocating a new
+    // buffer for every file. Buffers grow to fit the largest file their thread has seen.
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_BUFFER_SIZE];
+        }
+    };
+
     /**
-     * Compute and return the hash of the given class file.
+     * Compute and return the hash of the given class file. Safe to call from any thread.
      *
      * @param classFile JavaFileObject representing the class file to compute the checksum of.
      * @return The checksum of the input file.
      */
     public static int computeHash(JavaFileObject classFile) throws IOException {
-        // We roll our own slightly tiresome read-fully logic to avoid needing to reallocate a buffer
-        // for each file (An annoying property of the library implementations,it seems).
-        int bufferSize = INITIAL_BUFFER_SIZE;
-
-        // TODO: Consider sharing buffers between calls to save allocations.
-        byte[] buffer = new byte[bufferSize];
-
-        // A pointer to the empty space in the buffer with smallest index.
-        int bPointer = 0;
-
-        // The quantity of bytes the last call to read yielded.
-        int lastRead = 0;
-
         log.debug("Hash computation for {}", classFile);
         long t = System.currentTimeMillis();
 
         InputStream inputStream;
+        ZipFile zipFile = null;
 
         // Because javac is stupid...
         if (classFile instanceof ZipFileIndexArchive.ZipFileIndexFileObject) {
@@ -92,7 +98,6 @@ public class ChecksumUtils {
             // Best of all, the stuff we need to do it by hand isn't public. Time for some magic.
 
             String entryName;
-            ZipFile zipFile;
             try {
                 entryName = (String) getPrefixedEntryName.invoke(classFile);
                 zipFile = new ZipFile((File) zipName.get(classFile));
@@ -111,38 +116,128 @@ public class ChecksumUtils {
             inputStream = classFile.openInputStream();
         }
 
+        byte[] buffer = buffers.get();
+
+        // A pointer to the empty space in the buffer with smallest index.
+        int bPointer = 0;
+
         try {
-            while (lastRead != -1) {
+            while (true) {
                 // Read as many bytes as are currently available into the buffer.
-                lastRead = inputStream.read(buffer, bPointer, buffer.length-bPointer);
+                int lastRead = inputStream.read(buffer, bPointer, buffer.length - bPointer);
                 log.trace("Read: {}", lastRead);
+                if (lastRead == -1) {
+                    break;
+                }
                 bPointer += lastRead;
 
-                // If buffer has overflowed, double its size and carry on.
+                // If buffer has filled up, double its size and carry on.
                 if (bPointer == buffer.length) {
-                    bufferSize *= 2;
-                    byte[] newBuffer = new byte[bufferSize];
+                    byte[] newBuffer = new byte[buffer.length * 2];
 
                     // Copy the contents of the old buffer into the new buffer.
                     System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
                     buffer = newBuffer;
+                    buffers.set(buffer);
                 }
             }
         } finally {
             inputStream.close();
+            if (zipFile != null) {
+                zipFile.close();
+            }
         }
 
         // Having loaded the class file into memory, (and with bPointer pointing to the first
         // index in the buffer which is *not* part of the loaded data), we compute the checksum.
-        int hash;
-        if (bPointer > JNI_UNSAFE_THRESHOLD) {
-            hash = jniHasher.hash(buffer, 0, bPointer, HASH_SEED);
-        } else {
-            hash = unsafeHasher.hash(buffer, 0, bPointer, HASH_SEED);
-        }
+        int hash = computeHash(buffer, bPointer);
 
         log.trace("Done in {}ms", System.currentTimeMillis() - t);
 
         return hash;
     }
+
+    /**
+     * Compute the hash of the first length bytes of the given buffer.
+     */
+    public static int computeHash(byte[] buffer, int length) {
+        if (length > JNI_UNSAFE_THRESHOLD) {
+            return jniHasher.hash(buffer, 0, length, HASH_SEED);
+        }
+
+        return unsafeHasher.hash(buffer, 0, length, HASH_SEED);
+    }
+
+    /**
+     * Determine the jar file from which the given class file was loaded, if any.
+     *
+     * @return The jar containing the class file, or null if it did not come from a jar.
+     */
+    public static File getContainingJar(JavaFileObject classFile) {
+        if (classFile instanceof ZipFileIndexArchive.ZipFileIndexFileObject) {
+            try {
+                return (File) zipName.get(classFile);
+            } catch (IllegalAccessException e) {
+                log.fatal("Reflective error from ChecksumUtils - did javac update?", e);
+                return null;
+            }
+        }
+
+        // Other archive-backed file objects advertise themselves through a jar: URI.
+        URI uri = classFile.toUri();
+        if (!"jar".equals(uri.getScheme())) {
+            return null;
+        }
+
+        String path = uri.getSchemeSpecificPart();
+        int separator = path.indexOf("!/");
+        if (separator != -1) {
+            path = path.substring(0, separator);
+        }
+
+        try {
+            return new File(URI.create(path));
+        } catch (IllegalArgumentException e) {
+            log.warn("Unable to make sense of jar URI {}", uri);
+            return null;
+        }
+    }
+
+    /**
+     * Compute a fingerprint for a jar file. The fingerprint covers the name, size and CRC of every
+     * entry in the central directory, so it changes whenever any class in the jar does, but
+     * computing it doesn't require inflating the entries.
+     *
+     * @param jar The jar to fingerprint.
+     * @return The fingerprint of the jar.
+     */
+    public static int computeJarFingerprint(File jar) throws IOException {
+        Integer cached = jarFingerprints.get(jar);
+        if (cached != null) {
+            return cached;
+        }
+
+        ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+        DataOutputStream directory = new DataOutputStream(directoryBytes);
+
+        ZipFile zipFile = new ZipFile(jar);
+        try {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                directory.writeUTF(entry.getName());
+                directory.writeLong(entry.getSize());
+                directory.writeLong(entry.getCrc());
+            }
+        } finally {
+            zipFile.close();
+        }
+
+        directory.flush();
+        byte[] buffer = directoryBytes.toByteArray();
+        int fingerprint = jniHasher.hash(buffer, 0, buffer.length, HASH_SEED);
+
+        jarFingerprints.put(jar, fingerprint);
+        return fingerprint;
+    }
 }
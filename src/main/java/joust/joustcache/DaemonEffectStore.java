@@ -0,0 +1,130 @@
+package joust.joustcache;
+
+import joust.utils.logging.LogUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static joust.joustcache.EffectDaemon.*;
+
+/**
+ * An EffectStore which forwards requests to a running EffectDaemon.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class DaemonEffectStore implements EffectStore {
+    // How long to wait for the daemon to accept a connection before assuming it isn't running.
+    private static final int CONNECT_TIMEOUT_MS = 250;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private DaemonEffectStore(Socket socket) throws IOException {
+        this.socket = socket;
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Connect to the daemon listening on the given port.
+     *
+     * @return A store talking to the daemon, or null if no daemon answered.
+     */
+    public static DaemonEffectStore connect(int port) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress("127.0.0.1", port), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+
+            DaemonEffectStore store = new DaemonEffectStore(socket);
+            store.out.writeByte(OP_PING);
+            store.out.flush();
+            store.in.readByte();
+
+            return store;
+        } catch (IOException e) {
+            log.info("No effect daemon on port {}: {}", port, e);
+            try {
+                socket.close();
+            } catch (IOException ignored) { }
+
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        out.writeByte(OP_GET);
+        out.writeUTF(key);
+        out.flush();
+
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] record = new byte[length];
+        in.readFully(record);
+        return record;
+    }
+
+    @Override
+    public void put(String key, byte[] record) throws IOException {
+        // Writes are buffered until the next commit or request.
+        out.writeByte(OP_PUT);
+        out.writeUTF(key);
+        out.writeInt(record.length);
+        out.write(record);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        out.writeByte(OP_COMMIT);
+        out.flush();
+        in.readByte();
+    }
+
+    @Override
+    public Set<String> keys() throws IOException {
+        out.writeByte(OP_KEYS);
+        out.flush();
+
+        int count = in.readInt();
+        HashSet<String> keys = new HashSet<String>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(in.readUTF());
+        }
+
+        return keys;
+    }
+
+    @Override
+    public String getStatistics() throws IOException {
+        out.writeByte(OP_STATS);
+        out.flush();
+
+        return in.readUTF();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            commit();
+            out.writeByte(OP_BYE);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+}
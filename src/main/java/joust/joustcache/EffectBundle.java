@@ -0,0 +1,190 @@
+package joust.joustcache;
+
+import joust.utils.logging.LogUtils;
+import lombok.Cleanup;
+import lombok.Getter;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * An immutable, memory-mapped file of cache records for the classes of a single library jar.
+ * Bundles are produced once per jar (See EffectBundleManager.exportBundle) and may then be shared
+ * between machines. The data in a bundle is only used if the fingerprint of the jar on the classpath
+ * matches the one the bundle was built from, so no per-class hash checking is needed.
+ *
+ * Layout:
+ *   int magic, int version, int jar fingerprint, UTF jar name, int record count,
+ *   count * (UTF class name, int offset, int length),
+ *   record payloads (Offsets are relative to the start of the file).
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class EffectBundle {
+    public static final String BUNDLE_EXTENSION = ".jbundle";
+
+    private static final int MAGIC = 0x4A4F4542;
+    private static final int VERSION = 2;
+
+    @Getter private final File file;
+    @Getter private final int fingerprint;
+    @Getter private final String jarName;
+
+    private final MappedByteBuffer buffer;
+
+    // Maps class names to {offset, length} pairs in the mapped file.
+    private final HashMap<String, int[]> index = new HashMap<String, int[]>();
+
+    private EffectBundle(File file, MappedByteBuffer buffer, int fingerprint, String jarName) {
+        this.file = file;
+        this.buffer = buffer;
+        this.fingerprint = fingerprint;
+        this.jarName = jarName;
+    }
+
+    /**
+     * Map the given bundle file into memory and parse its index.
+     *
+     * @return The opened bundle, or null if the file is not a bundle of a version we understand.
+     */
+    public static EffectBundle open(File file) throws IOException {
+        @Cleanup RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+
+        // The mapping remains valid after the channel is closed.
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+            log.warn("{} is not an effect bundle.", file);
+            return null;
+        }
+
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            log.warn("Ignoring effect bundle {} of unsupported version {}", file, version);
+            return null;
+        }
+
+        int fingerprint = buffer.getInt();
+        String jarName = readUTF(buffer);
+
+        EffectBundle bundle = new EffectBundle(file, buffer, fingerprint, jarName);
+
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            String className = readUTF(buffer);
+            int offset = buffer.getInt();
+            int length = buffer.getInt();
+            bundle.index.put(className, new int[] {offset, length});
+        }
+
+        log.info("Loaded effect bundle {} for {} with {} classes.", file, jarName, count);
+
+        return bundle;
+    }
+
+    /**
+     * Get a view of the record stored for the named class, or null if the bundle has none. The view
+     * reads straight from the mapped file.
+     */
+    public ByteBuffer getRecord(String className) {
+        int[] location = index.get(className);
+        if (location == null) {
+            return null;
+        }
+
+        // Work on a duplicate, so concurrent lookups don't trample each other's position.
+        ByteBuffer view = buffer.duplicate();
+        view.position(location[0]);
+        view.limit(location[0] + location[1]);
+
+        return view.slice();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Write a bundle containing the given records to the given file.
+     *
+     * @param target File to create.
+     * @param fingerprint Fingerprint of the jar the records describe.
+     * @param jarName Human-readable name of the jar, for diagnostics.
+     * @param records Map from class name to serialised ClassInfo record.
+     */
+    public static void write(File target, int fingerprint, String jarName, Map<String, byte[]> records) throws IOException {
+        // Build the header first so we know where the payloads start. Each index entry is written with the offset of
+        // its payload from the end of the header, and patched once the size of the header is known.
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(fingerprint);
+        header.writeUTF(jarName);
+        header.writeInt(records.size());
+
+        int[] offsetPositions = new int[records.size()];
+        int i = 0;
+        int offset = 0;
+        for (Map.Entry<String, byte[]> entry : records.entrySet()) {
+            header.writeUTF(entry.getKey());
+            offsetPositions[i] = header.size();
+            i++;
+            header.writeInt(offset);
+            header.writeInt(entry.getValue().length);
+            offset += entry.getValue().length;
+        }
+        header.flush();
+
+        byte[] headerArray = headerBytes.toByteArray();
+        ByteBuffer patcher = ByteBuffer.wrap(headerArray);
+        for (int position : offsetPositions) {
+            patcher.putInt(position, patcher.getInt(position) + headerArray.length);
+        }
+
+        @Cleanup FileOutputStream out = new FileOutputStream(target);
+        out.write(headerArray);
+        for (byte[] record : records.values()) {
+            out.write(record);
+        }
+    }
+
+    /**
+     * Read a string in the format produced by DataOutput.writeUTF. Bundle class names are plain
+     * ASCII in practice, but the full modified-UTF-8 decoding is cheap enough to do properly.
+     */
+    private static String readUTF(ByteBuffer buf) {
+        int length = buf.getShort() & 0xFFFF;
+        char[] chars = new char[length];
+        int nChars = 0;
+        int end = buf.position() + length;
+        while (buf.position() < end) {
+            int a = buf.get() & 0xFF;
+            if (a < 0x80) {
+                chars[nChars++] = (char) a;
+            } else if ((a & 0xE0) == 0xC0) {
+                int b = buf.get() & 0x3F;
+                chars[nChars++] = (char) (((a & 0x1F) << 6) | b);
+            } else {
+                int b = buf.get() & 0x3F;
+                int c = buf.get() & 0x3F;
+                chars[nChars++] = (char) (((a & 0x0F) << 12) | (b << 6) | c);
+            }
+        }
+
+        return new String(chars, 0, nChars);
+    }
+}
@@ -0,0 +1,198 @@
+package joust.joustcache;
+
+import joust.utils.StreamUtils;
+import joust.utils.commandline.OptimiserOptions;
+import joust.utils.logging.LogUtils;
+import lombok.Cleanup;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.sun.tools.javac.code.Symbol.*;
+
+/**
+ * Keeps track of the effect bundles available to this compilation and answers queries against them.
+ * Bundles are found in ~/.joust/bundles and in any files given by the JOUSTEffectBundles option.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class EffectBundleManager {
+    public static final String BUNDLE_DIRECTORY = System.getProperty("user.home") + "/.joust/bundles/";
+
+    // Prefix of class entries in javac's ct.sym, which is where platform classes come from on JDK 8.
+    private static final String CT_SYM_PREFIX = "META-INF/sym/rt.jar/";
+
+    // Maps jar fingerprints to the bundle built from that jar.
+    private static HashMap<Integer, EffectBundle> bundles;
+
+    // Cache of the bundle (Or lack thereof) for each jar we've been asked about.
+    private static final HashMap<File, EffectBundle> jarBundles = new HashMap<File, EffectBundle>();
+
+    public static void init() {
+        // Bundles are immutable, so once mapped they stay valid for the life of the process.
+        if (bundles != null) {
+            return;
+        }
+
+        bundles = new HashMap<Integer, EffectBundle>();
+
+        File[] found = new File(BUNDLE_DIRECTORY).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(EffectBundle.BUNDLE_EXTENSION);
+            }
+        });
+
+        if (found != null) {
+            for (File f : found) {
+                loadBundle(f);
+            }
+        }
+
+        for (String path : OptimiserOptions.effectBundles) {
+            loadBundle(new File(path));
+        }
+    }
+
+    private static void loadBundle(File f) {
+        try {
+            EffectBundle bundle = EffectBundle.open(f);
+            if (bundle != null) {
+                bundles.put(bundle.getFingerprint(), bundle);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to load effect bundle {}: {}", f, e);
+        }
+    }
+
+    /**
+     * Find the bundle record for the given class, provided it was loaded from a jar for which we
+     * have a bundle with a matching fingerprint.
+     *
+     * @return The serialised record for the class, or null if no bundle applies.
+     */
+    public static ByteBuffer getRecordForClass(ClassSymbol sym) {
+        if (bundles == null || bundles.isEmpty()) {
+            return null;
+        }
+
+        EffectBundle bundle = getBundleForClassFile(sym.classfile);
+        if (bundle == null) {
+            return null;
+        }
+
+        return bundle.getRecord(sym.flatname.toString());
+    }
+
+    private static EffectBundle getBundleForClassFile(JavaFileObject classFile) {
+        File jar = ChecksumUtils.getContainingJar(classFile);
+        if (jar == null) {
+            return null;
+        }
+
+        if (jarBundles.containsKey(jar)) {
+            return jarBundles.get(jar);
+        }
+
+        EffectBundle bundle = null;
+        try {
+            bundle = bundles.get(ChecksumUtils.computeJarFingerprint(jar));
+        } catch (IOException e) {
+            log.warn("Unable to fingerprint {}: {}", jar, e);
+        }
+
+        if (bundle == null) {
+            log.debug("No effect bundle matches {}", jar);
+        }
+
+        jarBundles.put(jar, bundle);
+        return bundle;
+    }
+
+    /**
+     * Build a bundle for the given jar from the records in the local cache. The jar's classes must
+     * already have been annotated (Using JOUSTAnnotateLib) for the bundle to be useful.
+     *
+     * @param jarPath Path to the jar to bundle.
+     * @return The bundle file written, or null if nothing was written.
+     */
+    public static File exportBundle(String jarPath) {
+        File jar = new File(jarPath);
+
+        LinkedHashMap<String, byte[]> records = new LinkedHashMap<String, byte[]>();
+        int fingerprint;
+        try {
+            fingerprint = ChecksumUtils.computeJarFingerprint(jar);
+
+            ZipFile zipFile = new ZipFile(jar);
+            try {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String className = classNameForEntry(entry.getName());
+                    if (className == null) {
+                        continue;
+                    }
+
+                    @Cleanup InputStream in = zipFile.getInputStream(entry);
+                    byte[] classFile = StreamUtils.readFully(in);
+
+                    byte[] record = JOUSTCache.getSerialisedRecord(className, ChecksumUtils.computeHash(classFile, classFile.length));
+                    if (record != null) {
+                        records.put(className, record);
+                    }
+                }
+            } finally {
+                zipFile.close();
+            }
+        } catch (IOException e) {
+            log.error("Unable to read {} to export an effect bundle: {}", jar, e);
+            return null;
+        }
+
+        if (records.isEmpty()) {
+            log.warn("The effect cache holds no records for classes in {}. Annotate it with JOUSTAnnotateLib first.", jar);
+            return null;
+        }
+
+        new File(BUNDLE_DIRECTORY).mkdirs();
+        File target = new File(BUNDLE_DIRECTORY + jar.getName() + '-' + Integer.toHexString(fingerprint) + EffectBundle.BUNDLE_EXTENSION);
+
+        try {
+            EffectBundle.write(target, fingerprint, jar.getName(), records);
+        } catch (IOException e) {
+            log.error("Unable to write effect bundle {}: {}", target, e);
+            return null;
+        }
+
+        log.info("Wrote {} class records for {} to {}", records.size(), jar, target);
+        return target;
+    }
+
+    /**
+     * Convert a jar entry name to the flat name of the class it holds, or null if it isn't a class.
+     */
+    private static String classNameForEntry(String entryName) {
+        if (!entryName.endsWith(".class")) {
+            return null;
+        }
+
+        if (entryName.startsWith(CT_SYM_PREFIX)) {
+            entryName = entryName.substring(CT_SYM_PREFIX.length());
+        }
+
+        return entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+    }
+}
@@ -0,0 +1,194 @@
+package joust.joustcache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import joust.utils.StreamUtils;
+import joust.utils.logging.LogUtils;
+import lombok.Cleanup;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * A reference server for the remote effect cache protocol (See HttpEffectStore). Records are kept as
+ * files in a directory, one subdirectory per class, named by class file hash.
+ *
+ * Run with: java -cp [JOUST classpath] joust.joustcache.EffectCacheServer [port] [directory] [bind address]
+ *
+ * By default the server listens only on the loopback interface. Give a bind address (Such as 0.0.0.0)
+ * to share it with other machines.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class EffectCacheServer implements HttpHandler {
+    public static final int DEFAULT_PORT = 47812;
+
+    private final File directory;
+
+    public EffectCacheServer(File directory) {
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        File directory = new File(args.length > 1 ? args[1] : System.getProperty("user.home") + "/.joust/remote");
+        String bindAddress = args.length > 2 ? args[2] : "127.0.0.1";
+
+        directory.mkdirs();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(bindAddress, port), 50);
+        server.createContext("/", new EffectCacheServer(directory));
+        server.setExecutor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+        server.start();
+
+        log.info("JOUST effect cache server serving {} on {}:{}", directory, bindAddress, port);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getRawPath();
+
+            if ("/".equals(path) && "GET".equals(method)) {
+                listKeys(exchange);
+                return;
+            }
+
+            File file = getRecordFile(path);
+            if (file == null) {
+                respond(exchange, 400, null);
+            } else if ("GET".equals(method)) {
+                getRecord(exchange, file);
+            } else if ("PUT".equals(method)) {
+                putRecord(exchange, file);
+            } else {
+                respond(exchange, 405, null);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Map a request path of the form /[class name]/[hash] to the file holding its record.
+     *
+     * @return The file, or null if the path isn't a well-formed key.
+     */
+    private File getRecordFile(String path) throws IOException {
+        String[] parts = path.split("/");
+        if (parts.length != 3 || !parts[0].isEmpty()) {
+            return null;
+        }
+
+        String className = URLDecoder.decode(parts[1], "UTF-8");
+        String hash = parts[2];
+        if (!className.matches("[\\w.$]+") || className.startsWith(".") || !hash.matches("[0-9a-f]{1,8}")) {
+            return null;
+        }
+
+        return new File(new File(directory, className), hash);
+    }
+
+    private void getRecord(HttpExchange exchange, File file) throws IOException {
+        if (!file.isFile()) {
+            respond(exchange, 404, null);
+            return;
+        }
+
+        @Cleanup InputStream in = new FileInputStream(file);
+        respond(exchange, 200, StreamUtils.readFully(in));
+    }
+
+    private void putRecord(HttpExchange exchange, File file) throws IOException {
+        // Refuse oversized records before reading them, where the client says how large they are, and
+        // stop reading as soon as they prove to be oversized where it doesn't.
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null && isTooLarge(contentLength)) {
+            respond(exchange, 413, null);
+            return;
+        }
+
+        @Cleanup InputStream in = exchange.getRequestBody();
+        byte[] payload = StreamUtils.readAtMost(in, HttpEffectStore.MAX_RECORD_SIZE);
+        if (payload == null) {
+            respond(exchange, 413, null);
+            return;
+        }
+
+        // Refuse anything that isn't a record for the class file named by the key.
+        EffectRecord record = EffectRecord.open(payload);
+        if (record == null || !Integer.toHexString(record.getHash()).equals(file.getName())) {
+            respond(exchange, 400, null);
+            return;
+        }
+
+        // Records are content-addressed, so an existing one is already correct.
+        if (!file.exists()) {
+            file.getParentFile().mkdirs();
+
+            // Write then rename, so readers never see part of a record.
+            File tmp = File.createTempFile("record", ".tmp", file.getParentFile());
+            @Cleanup OutputStream out = new FileOutputStream(tmp);
+            out.write(payload);
+            out.close();
+
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        }
+
+        respond(exchange, 204, null);
+    }
+
+    private static boolean isTooLarge(String contentLength) {
+        try {
+            return Long.parseLong(contentLength.trim()) > HttpEffectStore.MAX_RECORD_SIZE;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private void listKeys(HttpExchange exchange) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        File[] classDirs = directory.listFiles();
+        if (classDirs != null) {
+            for (File classDir : classDirs) {
+                String[] hashes = classDir.list();
+                if (hashes == null) {
+                    continue;
+                }
+
+                for (String hash : hashes) {
+                    if (!hash.endsWith(".tmp")) {
+                        sb.append(JOUSTCache.getContentKey(classDir.getName(), (int) Long.parseLong(hash, 16))).append('\n');
+                    }
+                }
+            }
+        }
+
+        respond(exchange, 200, sb.toString().getBytes("UTF-8"));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(status, body.length);
+        @Cleanup OutputStream out = exchange.getResponseBody();
+        out.write(body);
+    }
+}
@@ -0,0 +1,228 @@
+package joust.joustcache;
+
+import joust.utils.logging.LogUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * A long-lived process that owns the local effect cache and serves it to compiler instances over a
+ * loopback socket (See DaemonEffectStore). Records are kept in memory once read, so short-lived
+ * javac processes neither open the database nor wait for its lock.
+ *
+ * Only the encoded records are kept warm. The decoded effects refer to the symbols of a particular
+ * compilation, so each compiler still decodes the records it needs and builds its own effect state.
+ *
+ * Run with: java -cp [JOUST classpath] joust.joustcache.EffectDaemon [port] [cache budget in MB]
+ *
+ * Protocol: each request is an opcode byte followed by its arguments.
+ *   PING               -> byte 1
+ *   GET utf:key        -> int length (-1 if absent), bytes
+ *   PUT utf:key int:length bytes     (No reply)
+ *   COMMIT             -> byte 1, once all preceding writes are durable
+ *   KEYS               -> int count, count * utf
+ *   STATS              -> utf
+ *   BYE                   Closes the connection.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class EffectDaemon {
+    public static final int DEFAULT_PORT = 47811;
+
+    static final byte OP_PING = 0;
+    static final byte OP_GET = 1;
+    static final byte OP_PUT = 2;
+    static final byte OP_COMMIT = 3;
+    static final byte OP_KEYS = 4;
+    static final byte OP_BYE = 5;
+    static final byte OP_STATS = 6;
+
+    // jdbm2 isn't thread safe, so all access to it synchronises on the store.
+    private final EffectStore backingStore;
+
+    // The records most recently read or written, least recently used first. Kept within the budget of
+    // the store, and guarded by its own lock so cache hits needn't wait for the database.
+    private final LinkedHashMap<String, byte[]> records = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    private long recordBytes;
+    private final long budget;
+
+    /**
+     * @param backingStore The store to serve.
+     * @param budget The number of bytes of records to keep in memory.
+     */
+    public EffectDaemon(EffectStore backingStore, long budget) {
+        this.backingStore = backingStore;
+        this.budget = budget;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+
+        long budget = args.length > 1 ? Long.parseLong(args[1]) << 20 : JdbmEffectStore.DEFAULT_BUDGET;
+
+        final EffectStore store = JdbmEffectStore.open(budget);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                try {
+                    synchronized (store) {
+                        store.close();
+                    }
+                } catch (IOException e) {
+                    log.error("Error closing effect store: ", e);
+                }
+            }
+        });
+
+        new EffectDaemon(store, budget).serve(port);
+    }
+
+    /**
+     * Accept connections on the loopback interface forever.
+     */
+    public void serve(int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+        log.info("JOUST effect daemon listening on port {}", port);
+
+        while (true) {
+            final Socket client = serverSocket.accept();
+            Thread handler = new Thread("JOUST daemon connection") {
+                public void run() {
+                    try {
+                        handle(client);
+                    } catch (EOFException e) {
+                        // The compiler went away without saying goodbye.
+                    } catch (IOException e) {
+                        log.warn("Error serving effect daemon client: {}", e);
+                    } finally {
+                        try {
+                            client.close();
+                        } catch (IOException ignored) { }
+                    }
+                }
+            };
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    private void handle(Socket client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+
+        while (true) {
+            byte op = in.readByte();
+            switch (op) {
+                case OP_PING:
+                    out.writeByte(1);
+                    out.flush();
+                    break;
+                case OP_GET:
+                    byte[] record = get(in.readUTF());
+                    if (record == null) {
+                        out.writeInt(-1);
+                    } else {
+                        out.writeInt(record.length);
+                        out.write(record);
+                    }
+                    out.flush();
+                    break;
+                case OP_PUT:
+                    String key = in.readUTF();
+                    byte[] payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    put(key, payload);
+                    break;
+                case OP_COMMIT:
+                    synchronized (backingStore) {
+                        backingStore.commit();
+                    }
+                    out.writeByte(1);
+                    out.flush();
+                    break;
+                case OP_KEYS:
+                    Set<String> keys;
+                    synchronized (backingStore) {
+                        keys = backingStore.keys();
+                    }
+                    out.writeInt(keys.size());
+                    for (String k : keys) {
+                        out.writeUTF(k);
+                    }
+                    out.flush();
+                    break;
+                case OP_STATS:
+                    String stats;
+                    synchronized (backingStore) {
+                        stats = backingStore.getStatistics();
+                    }
+                    out.writeUTF(stats);
+                    out.flush();
+                    break;
+                case OP_BYE:
+                    return;
+                default:
+                    log.warn("Unknown effect daemon opcode {}. Dropping client.", op);
+                    return;
+            }
+        }
+    }
+
+    private byte[] get(String key) throws IOException {
+        byte[] record;
+        synchronized (records) {
+            record = records.get(key);
+        }
+        if (record != null) {
+            return record;
+        }
+
+        synchronized (backingStore) {
+            record = backingStore.get(key);
+        }
+
+        if (record != null) {
+            remember(key, record);
+        }
+
+        return record;
+    }
+
+    private void put(String key, byte[] record) throws IOException {
+        remember(key, record);
+        synchronized (backingStore) {
+            backingStore.put(key, record);
+        }
+    }
+
+    /**
+     * Keep the given record in memory, forgetting the least recently used records if that exceeds the budget.
+     */
+    private void remember(String key, byte[] record) {
+        synchronized (records) {
+            byte[] old = records.put(key, record);
+            if (old != null) {
+                recordBytes -= old.length;
+            }
+            recordBytes += record.length;
+
+            Iterator<byte[]> eldest = records.values().iterator();
+            while (recordBytes > budget && eldest.hasNext()) {
+                recordBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package joust.joustcache;
+
+import joust.analysers.sideeffects.Effects;
+import joust.tree.annotatedtree.treeinfo.EffectSet;
+import joust.utils.data.SymbolSet;
+import joust.utils.logging.LogUtils;
+import lombok.Getter;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+
+/**
+ * A read-only view of an encoded cache record (See EffectRecordCodec). Opening a record reads only the
+ * header and method table: dictionary strings, including the method hashes, and effect sets are decoded
+ * when somebody asks for them.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class EffectRecord {
+    private final ByteBuffer buffer;
+
+    @Getter private final int hash;
+
+    // Positions of the (Length-prefixed) dictionary strings in the buffer, and the strings decoded so far.
+    private final int[] stringOffsets;
+    private final String[] strings;
+
+    // Dictionary references of the method hashes, and the positions of the effect data of each method in
+    // the buffer.
+    private int[] methodRefs;
+    private int[] methodOffsets;
+
+    // Dictionary references of the keys of the fields inferred to be effectively final.
+    private int[] finalFieldRefs;
+
+    // Dictionary references of the method hashes and templates of the templates derived, in pairs.
+    private int[] templateRefs;
+
+    private EffectRecord(ByteBuffer buffer, int hash, int nStrings) {
+        this.buffer = buffer;
+        this.hash = hash;
+        stringOffsets = new int[nStrings];
+        strings = new String[nStrings];
+    }
+
+    /**
+     * Open the record held in the given buffer, from its position to its limit.
+     *
+     * @return The record, or null if the buffer doesn't hold a record in the current format.
+     */
+    public static EffectRecord open(ByteBuffer buf) {
+        ByteBuffer in = buf.slice();
+        if (in.remaining() < EffectRecordCodec.HASH_OFFSET + 4
+         || in.getInt() != EffectRecordCodec.MAGIC
+         || in.get() != EffectRecordCodec.VERSION) {
+            log.debug("Discarding cache record of unknown format.");
+            return null;
+        }
+
+        int hash = in.getInt();
+        int nStrings = EffectRecordCodec.readVarint(in);
+        EffectRecord record = new EffectRecord(in, hash, nStrings);
+
+        // Skip over the dictionary, noting where each string starts.
+        for (int i = 0; i < nStrings; i++) {
+            record.stringOffsets[i] = in.position();
+            int length = EffectRecordCodec.readVarint(in);
+            in.position(in.position() + length);
+        }
+
+        int nMethods = EffectRecordCodec.readVarint(in);
+        record.methodRefs = new int[nMethods];
+        record.methodOffsets = new int[nMethods];
+        for (int i = 0; i < nMethods; i++) {
+            record.methodRefs[i] = EffectRecordCodec.readVarint(in);
+            record.methodOffsets[i] = EffectRecordCodec.readVarint(in);
+        }
+
+        int nFields = EffectRecordCodec.readVarint(in);
+        record.finalFieldRefs = new int[nFields];
+        for (int i = 0; i < nFields; i++) {
+            record.finalFieldRefs[i] = EffectRecordCodec.readVarint(in);
+        }
+
+        int nTemplates = EffectRecordCodec.readVarint(in);
+        record.templateRefs = new int[nTemplates * 2];
+        for (int i = 0; i < record.templateRefs.length; i++) {
+            record.templateRefs[i] = EffectRecordCodec.readVarint(in);
+        }
+
+        int dataStart = in.position();
+        for (int i = 0; i < nMethods; i++) {
+            record.methodOffsets[i] += dataStart;
+        }
+
+        return record;
+    }
+
+    public static EffectRecord open(byte[] payload) {
+        return open(ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * @return The hashes of the methods described by this record.
+     */
+    public Set<String> getMethodHashes() {
+        LinkedHashSet<String> hashes = new LinkedHashSet<String>();
+        for (int ref : methodRefs) {
+            hashes.add(getString(ref));
+        }
+
+        return hashes;
+    }
+
+    /**
+     * @return The keys of the fields of the class inferred to be effectively final (See FinalFields).
+     */
+    public Set<String> getFinalFields() {
+        LinkedHashSet<String> fields = new LinkedHashSet<String>();
+        for (int ref : finalFieldRefs) {
+            fields.add(getString(ref));
+        }
+
+        return fields;
+    }
+
+    /**
+     * @return The templates derived for methods of the class, keyed by method hash (See DerivedFunctionTemplates).
+     */
+    public Map<String, String> getTemplates() {
+        LinkedHashMap<String, String> templates = new LinkedHashMap<String, String>();
+        for (int i = 0; i < templateRefs.length; i += 2) {
+            templates.put(getString(templateRefs[i]), getString(templateRefs[i + 1]));
+        }
+
+        return templates;
+    }
+
+    /**
+     * Decode the effects of a single method. Symbols which have no counterpart in the current
+     * compilation are dropped, as nothing here could ever refer to them.
+     *
+     * @return The effects of the method, or null if this record doesn't describe it.
+     */
+    public Effects decodeEffects(String methodHash) {
+        int index = findMethod(methodHash);
+        if (index == -1) {
+            return null;
+        }
+
+        ByteBuffer in = buffer.duplicate();
+        in.position(methodOffsets[index]);
+
+        EffectSet effects = new EffectSet(EffectRecordCodec.readVarint(in));
+        effects.relativeReads = EffectRecordCodec.readVarint(in);
+        effects.relativeWrites = EffectRecordCodec.readVarint(in);
+        effects.readEscaping = readSymbolSet(in);
+        effects.writeEscaping = readSymbolSet(in);
+
+        return new Effects(effects, EffectSet.NO_EFFECTS);
+    }
+
+    /**
+     * Find the given method in the method table by comparing its encoded hash with the dictionary, so
+     * looking up one method doesn't decode the hashes of all the others.
+     *
+     * @return The index of the method in the method table, or -1 if this record doesn't describe it.
+     */
+    private int findMethod(String methodHash) {
+        byte[] wanted = encode(methodHash);
+        for (int i = 0; i < methodRefs.length; i++) {
+            int ref = methodRefs[i];
+            if (strings[ref] != null) {
+                if (strings[ref].equals(methodHash)) {
+                    return i;
+                }
+
+                continue;
+            }
+
+            ByteBuffer in = buffer.duplicate();
+            in.position(stringOffsets[ref]);
+            if (EffectRecordCodec.readVarint(in) != wanted.length) {
+                continue;
+            }
+
+            int j = 0;
+            while (j < wanted.length && in.get() == wanted[j]) {
+                j++;
+            }
+
+            if (j == wanted.length) {
+                strings[ref] = methodHash;
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static byte[] encode(String str) {
+        try {
+            return str.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            log.fatal("No UTF-8 support!", e);
+            return null;
+        }
+    }
+
+    private SymbolSet readSymbolSet(ByteBuffer in) {
+        int size = EffectRecordCodec.readVarint(in);
+        if (size == 0) {
+            return SymbolSet.UNIVERSAL_SET;
+        }
+
+        SymbolSet ret = new SymbolSet();
+        for (int i = 1; i < size; i++) {
+            VarSymbol sym = JOUSTCache.varSymbolTable.get(getString(EffectRecordCodec.readVarint(in)));
+            if (sym != null) {
+                ret.add(sym);
+            }
+        }
+
+        return ret;
+    }
+
+    private String getString(int ref) {
+        if (strings[ref] != null) {
+            return strings[ref];
+        }
+
+        ByteBuffer in = buffer.duplicate();
+        in.position(stringOffsets[ref]);
+        byte[] bytes = new byte[EffectRecordCodec.readVarint(in)];
+        in.get(bytes);
+
+        try {
+            strings[ref] = new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            log.fatal("No UTF-8 support!", e);
+        }
+
+        return strings[ref];
+    }
+}
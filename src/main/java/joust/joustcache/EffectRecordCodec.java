@@ -0,0 +1,243 @@
+package joust.joustcache;
+
+import joust.joustcache.data.ClassInfo;
+import joust.joustcache.data.MethodInfo;
+import joust.tree.annotatedtree.treeinfo.EffectSet;
+import joust.utils.data.SymbolSet;
+import joust.utils.logging.LogUtils;
+import lombok.AllArgsConstructor;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+
+/**
+ * Encoder for the binary format of cache records. A record describes one class:
+ *
+ *   int magic, byte version, int classfile hash,
+ *   varint string count, count * (varint length, UTF-8 bytes),
+ *   varint method count, count * (varint string ref of the method hash, varint data offset),
+ *   varint final field count, count * varint string ref of the field key,
+ *   varint template count, count * (varint string ref of the method hash, varint string ref of the template),
+ *   method data.
+ *
+ * Each method's data is its computed effect set: varint effect mask, varint relative read and relative
+ * write masks (See EffectSet.relativeReads), then the escaping read and escaping write symbol sets. A symbol set is a varint which is 0 for the universal set and one more
+ * than the number of elements otherwise, followed by one varint string ref per element.
+ * Internal effects are never stored - nobody outside the method cares about them.
+ * The final fields are the fields of the class inferred to be effectively final (See FinalFields). Fields
+ * declared final aren't listed: the class file says so already.
+ * The templates are those derived for methods of the class that just return an expression of their parameters,
+ * in the textual form of FunctionTemplateCodec (See DerivedFunctionTemplates).
+ *
+ * Every symbol name and method hash appears once, in the dictionary, and the method table lets a
+ * reader decode the effects of a single method without touching the rest (See EffectRecord).
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public final class EffectRecordCodec {
+    static final int MAGIC = 0x4A4F4552;
+    static final byte VERSION = 7;
+
+    // The hash lives at a fixed position so it can be patched into an already-encoded record.
+    static final int HASH_OFFSET = 5;
+
+    /**
+     * The effects of one method in terms of cache keys rather than compiler symbols, for producers
+     * that have no symbols to hand (See BytecodeEffectAnalyser). A null key set is the universal set.
+     */
+    @AllArgsConstructor
+    public static class MethodEffects {
+        public final String methodHash;
+        public final int effectTypes;
+        public final int relativeReads;
+        public final int relativeWrites;
+        public final Set<String> readEscaping;
+        public final Set<String> writeEscaping;
+    }
+
+    /**
+     * Encode the given ClassInfo as a record.
+     */
+    public static byte[] encode(ClassInfo cInfo) {
+        ArrayList<MethodEffects> methods = new ArrayList<MethodEffects>(cInfo.methodInfos.size());
+        for (MethodInfo mInfo : cInfo.methodInfos) {
+            EffectSet effects = mInfo.effectSet.getEffectSet();
+            methods.add(new MethodEffects(mInfo.getMethodHash(), effects.effectTypes, effects.relativeReads, effects.relativeWrites,
+                                          keysOf(effects.readEscaping), keysOf(effects.writeEscaping)));
+        }
+
+        return encode(cInfo.hash, cInfo.finalFields, cInfo.templates, methods);
+    }
+
+    /**
+     * Encode a record holding the given method effects, and no final fields or templates.
+     */
+    public static byte[] encode(int hash, List<MethodEffects> methods) {
+        return encode(hash, Collections.<String>emptySet(), Collections.<String, String>emptyMap(), methods);
+    }
+
+    /**
+     * Encode a record holding the given final field keys, templates (Keyed by method hash) and method effects.
+     */
+    public static byte[] encode(int hash, Set<String> finalFields, Map<String, String> templates, List<MethodEffects> methods) {
+        LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+
+        // Method data goes into its own buffer so the table offsets are known before assembly.
+        ByteArrayOutputStream methodData = new ByteArrayOutputStream();
+        int[] methodRefs = new int[methods.size()];
+        int[] methodOffsets = new int[methodRefs.length];
+
+        int i = 0;
+        for (MethodEffects method : methods) {
+            methodRefs[i] = intern(dictionary, method.methodHash);
+            methodOffsets[i] = methodData.size();
+
+            writeVarint(methodData, method.effectTypes);
+            writeVarint(methodData, method.relativeReads);
+            writeVarint(methodData, method.relativeWrites);
+            writeKeySet(methodData, method.readEscaping, dictionary);
+            writeKeySet(methodData, method.writeEscaping, dictionary);
+            i++;
+        }
+
+        int[] fieldRefs = new int[finalFields.size()];
+        i = 0;
+        for (String field : finalFields) {
+            fieldRefs[i] = intern(dictionary, field);
+            i++;
+        }
+
+        int[] templateRefs = new int[templates.size() * 2];
+        i = 0;
+        for (Map.Entry<String, String> template : templates.entrySet()) {
+            templateRefs[i] = intern(dictionary, template.getKey());
+            templateRefs[i + 1] = intern(dictionary, template.getValue());
+            i += 2;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(methodData.size() + 64 * dictionary.size());
+        writeInt(out, MAGIC);
+        out.write(VERSION);
+        writeInt(out, hash);
+
+        writeVarint(out, dictionary.size());
+        for (String s : dictionary.keySet()) {
+            byte[] bytes = utf8(s);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        writeVarint(out, methodRefs.length);
+        for (i = 0; i < methodRefs.length; i++) {
+            writeVarint(out, methodRefs[i]);
+            writeVarint(out, methodOffsets[i]);
+        }
+
+        writeVarint(out, fieldRefs.length);
+        for (int ref : fieldRefs) {
+            writeVarint(out, ref);
+        }
+
+        writeVarint(out, templates.size());
+        for (int ref : templateRefs) {
+            writeVarint(out, ref);
+        }
+
+        byte[] data = methodData.toByteArray();
+        out.write(data, 0, data.length);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Overwrite the classfile hash of an encoded record.
+     */
+    public static void setHash(byte[] record, int hash) {
+        ByteBuffer.wrap(record).putInt(HASH_OFFSET, hash);
+    }
+
+    private static Set<String> keysOf(SymbolSet set) {
+        if (set == SymbolSet.UNIVERSAL_SET) {
+            return null;
+        }
+
+        LinkedHashSet<String> keys = new LinkedHashSet<String>();
+        for (VarSymbol sym : set) {
+            keys.add(ClassInfo.getHashForVariable(sym));
+        }
+
+        return keys;
+    }
+
+    private static void writeKeySet(ByteArrayOutputStream out, Set<String> keys, Map<String, Integer> dictionary) {
+        if (keys == null) {
+            writeVarint(out, 0);
+            return;
+        }
+
+        writeVarint(out, keys.size() + 1);
+        for (String key : keys) {
+            writeVarint(out, intern(dictionary, key));
+        }
+    }
+
+    private static int intern(Map<String, Integer> dictionary, String s) {
+        Integer ref = dictionary.get(s);
+        if (ref == null) {
+            ref = dictionary.size();
+            dictionary.put(s, ref);
+        }
+
+        return ref;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            log.fatal("No UTF-8 support!", e);
+            return null;
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    static int readVarint(ByteBuffer in) {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return result;
+    }
+}
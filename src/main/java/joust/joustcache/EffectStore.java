@@ -0,0 +1,36 @@
+package joust.joustcache;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * A key-value store holding encoded cache records (See EffectRecordCodec).
+ */
+public interface EffectStore {
+    /**
+     * @return The record stored under the given key, or null if there is none.
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Store a record. The write need not be durable until commit is called.
+     */
+    void put(String key, byte[] record) throws IOException;
+
+    /**
+     * Make all writes so far durable.
+     */
+    void commit() throws IOException;
+
+    Set<String> keys() throws IOException;
+
+    /**
+     * @return A human-readable description of the store's size and state.
+     */
+    String getStatistics() throws IOException;
+
+    /**
+     * Commit outstanding writes and release the store.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,173 @@
+package joust.joustcache;
+
+import joust.utils.StreamUtils;
+import joust.utils.logging.LogUtils;
+import lombok.Cleanup;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * An EffectStore held by a remote cache server (See EffectCacheServer), shared between machines.
+ * Records are content-addressed: the key of a record is the name of its class together with the hash
+ * of the class file it describes (See JOUSTCache.getContentKey), so a record fetched under a key is
+ * valid for any class file with that hash, wherever it was computed.
+ *
+ * Protocol:
+ *   GET  [base]/[class name]/[hash]  -> The record, or 404.
+ *   PUT  [base]/[class name]/[hash]     Stores the record.
+ *   GET  [base]/                     -> Every key held, one per line.
+ *
+ * The remote cache is only ever an accelerator, so the store is best-effort: after the first failure
+ * to reach the server it stops trying, reads miss and writes are dropped. Reads are made on the
+ * compiler's thread, so they get a short timeout, and keys the server doesn't have aren't asked for
+ * again.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class HttpEffectStore implements EffectStore {
+    // Records larger than this are refused by either end.
+    static final int MAX_RECORD_SIZE = 16 << 20;
+
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final int READ_TIMEOUT_MS = 5000;
+
+    // Reads hold up the compiler, so give up on them sooner.
+    private static final int GET_TIMEOUT_MS = 500;
+
+    private final String baseUrl;
+
+    // Keys the server was found not to have.
+    private final Set<String> misses = Collections.synchronizedSet(new HashSet<String>());
+
+    // Set once the server has failed to answer.
+    private volatile boolean unavailable;
+
+    public HttpEffectStore(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + '/';
+    }
+
+    @Override
+    public byte[] get(String key) {
+        if (unavailable || misses.contains(key)) {
+            return null;
+        }
+
+        try {
+            HttpURLConnection connection = openConnection(key);
+            connection.setConnectTimeout(GET_TIMEOUT_MS);
+            connection.setReadTimeout(GET_TIMEOUT_MS);
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                misses.add(key);
+                return null;
+            }
+
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + status + " for " + key);
+            }
+
+            @Cleanup InputStream in = connection.getInputStream();
+            byte[] record = StreamUtils.readAtMost(in, MAX_RECORD_SIZE);
+            if (record == null) {
+                log.warn("Remote effect cache record for {} is too large. Ignoring it.", key);
+                misses.add(key);
+            }
+
+            return record;
+        } catch (IOException e) {
+            fail(e);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] record) {
+        if (unavailable) {
+            return;
+        }
+        misses.remove(key);
+
+        try {
+            HttpURLConnection connection = openConnection(key);
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(record.length);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+
+            @Cleanup OutputStream out = connection.getOutputStream();
+            out.write(record);
+            out.close();
+
+            int status = connection.getResponseCode();
+            if (status / 100 != 2) {
+                log.warn("Remote effect cache refused {}: {}", key, status);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void commit() {
+        // Every PUT is durable once answered.
+    }
+
+    @Override
+    public Set<String> keys() throws IOException {
+        HashSet<String> keys = new HashSet<String>();
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+
+        @Cleanup BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isEmpty()) {
+                keys.add(line);
+            }
+        }
+
+        return keys;
+    }
+
+    @Override
+    public String getStatistics() throws IOException {
+        return "Remote effect cache at " + baseUrl + " holding " + keys().size() + " records.";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private HttpURLConnection openConnection(String key) throws IOException {
+        int split = key.lastIndexOf('/');
+        String path = URLEncoder.encode(key.substring(0, split), "UTF-8") + key.substring(split);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+
+        return connection;
+    }
+
+    private void fail(IOException e) {
+        if (!unavailable) {
+            unavailable = true;
+            log.warn("Remote effect cache at {} unavailable. Continuing without it: {}", baseUrl, e);
+        }
+    }
+}
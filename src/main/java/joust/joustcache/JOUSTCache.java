@@ -2,54 +2,44 @@ package joust.joustcache;
 
 import static com.sun.tools.javac.code.Symbol.*;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.UnsafeInput;
-import com.esotericsoftware.kryo.io.UnsafeOutput;
-import com.esotericsoftware.kryo.serializers.CollectionSerializer;
-import com.esotericsoftware.kryo.serializers.DefaultSerializers;
-import com.esotericsoftware.kryo.serializers.FieldSerializer;
-import jdbm.PrimaryTreeMap;
-import jdbm.RecordManager;
-import jdbm.RecordManagerFactory;
-import jdbm.helper.StoreReference;
-import jdbm.recman.TransactionManager;
 import joust.analysers.sideeffects.Effects;
 import joust.joustcache.data.ClassInfo;
 import joust.joustcache.data.MethodInfo;
 import joust.joustcache.data.TransientClassInfo;
-import joust.tree.annotatedtree.treeinfo.EffectSet;
+import joust.tree.annotatedtree.treeinfo.ArrayElements;
 import joust.tree.annotatedtree.treeinfo.TreeInfoManager;
+import joust.utils.commandline.OptimiserOptions;
 import joust.utils.logging.LogUtils;
-import joust.utils.data.SymbolSet;
-import lombok.Cleanup;
 import lombok.experimental.ExtensionMethod;
 import lombok.extern.java.Log;
 
-import java.io.File;
+import javax.tools.JavaFileObject;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
+import static joust.utils.compiler.StaticCompilerUtils.symtab;
+
 /**
  * The on-disk cache of analysis results.
  */
 @ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
 @Log
 public class JOUSTCache {
-    private static final String DATABASE_FILE_NAME = "joustCache";
-    private static final int INITIAL_BUFFER_SIZE = 100000;
+    // The store holding the cache records. Key is class name, value is the encoded record for the
+    // class (See EffectRecordCodec), which includes the hash of the compiled class file - to detect
+    // changes.
+    private static EffectStore store;
 
-    // For serialising ClassInfo objects before putting them in the database.
-    private static final Kryo serialiser = new Kryo();
+    // The shared remote cache, if one is configured. Consulted when the local store has no valid
+    // record, and sent a copy of every record written.
+    private static EffectStore remoteStore;
 
-    // The PrimaryTreeMap backed by the database. Note that each call to get will cause partial
-    // deserialisation. Key is class name, value is the serialised version of the ClassInfo object,
-    // which includes the hash of the compiled class file - to detect changes.
-    private static PrimaryTreeMap<String, byte[]> databaseMap;
-    private static String databasePath;
-    private static RecordManager databaseRecordManager;
+    // Background writer for records produced by this compilation. Created on first use.
+    private static CacheWriter writer;
 
     static HashMap<String, ClassInfo> classInfo = new HashMap<String, ClassInfo>();
     static HashMap<String, TransientClassInfo> transientClassInfo = new HashMap<String, TransientClassInfo>();
@@ -58,166 +48,176 @@ public class JOUSTCache {
     public static final HashMap<String, VarSymbol> varSymbolTable = new HashMap<String, VarSymbol>();
     public static final HashMap<String, MethodSymbol> methodSymbolTable = new HashMap<String, MethodSymbol>();
 
-    // Used for mutex on the key-value store in the case of multiple instances of the optimiser.
-    private static File lockFile;
-
     public static void init() {
         log.info("Init JOUSTCache!");
 
-        // Dirty dirty hack to cause these classes to be loaded. The classloader present in annotation processing mode
-        // is... weird.
-        Class<StoreReference> sRef = StoreReference.class;
-        Class<TransactionManager.BlockIoComparator> tbRef = TransactionManager.BlockIoComparator.class;
-        Class<TransactionManager> tmRef = TransactionManager.class;
-
         varSymbolTable.clear();
         methodSymbolTable.clear();
         transientClassInfo.clear();
         classInfo.clear();
 
+        // The cache tools run without a compiler, and never need symbols.
+        if (symtab != null) {
+            ArrayElements.init();
+        }
+
         ChecksumUtils.init();
-        if (databaseRecordManager != null) {
+        EffectBundleManager.init();
+        if (store != null) {
             return;
         }
-        try {
-            databaseRecordManager = getOrCreateRecordManager();
-        } catch (IOException e) {
-            log.fatal("Unable to create or open local data cache.\n" + e);
-            return;
+
+        if (OptimiserOptions.remoteCacheUrl != null) {
+            remoteStore = new HttpEffectStore(OptimiserOptions.remoteCacheUrl);
+        }
+
+        if (OptimiserOptions.useDaemon) {
+            store = DaemonEffectStore.connect(OptimiserOptions.daemonPort);
+        }
+
+        // No daemon, so open the database ourselves.
+        if (store == null) {
+            try {
+                store = JdbmEffectStore.open(OptimiserOptions.effectCacheBudget);
+            } catch (IOException e) {
+                log.fatal("Unable to create or open local data cache.\n" + e);
+                return;
+            }
         }
 
-        databaseMap = databaseRecordManager.treeMap(databasePath);
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
                 closeDatabase();
             }
         });
-
-        initSerialiser();
     }
 
     public static void closeDatabase() {
-        if (databaseRecordManager == null) {
+        if (store == null) {
             return;
         }
 
         log.info("Closing database...");
+
+        // Wait for the records of this compilation to reach the store.
+        if (writer != null) {
+            writer.finish();
+            writer = null;
+        }
+
         try {
-            databaseRecordManager.close();
-            databaseRecordManager = null;
+            store.close();
         } catch (IOException e) {
-            log.fatal("Error closing database record manager: ", e);
+            log.fatal("Error closing effect store: ", e);
         }
+        store = null;
+        remoteStore = null;
         log.info("Done.");
+    }
 
-        lockFile.delete();
+    private static byte[] getRecord(String key) {
+        try {
+            synchronized (store) {
+                return store.get(key);
+            }
+        } catch (IOException e) {
+            log.error("Error reading effect store: ", e);
+            return null;
+        }
     }
 
     /**
-     * Construct an appropriately-tuned Kryo object to serialise the ClassInfo and MethodInfo objects.
+     * @return The key under which the record for the given class with the given class file hash is
+     *         stored. The bare class name keys the index of the versions stored (See NameIndex).
      */
-    private static void initSerialiser() {
-        // Register first, so the default serialiser doesn't override the custom one later on...
-        serialiser.register(LinkedList.class);
-        serialiser.register(String.class);
-
-        // Register the classes with the serialiser to enable slightly more concise output.
-        serialiser.setRegistrationRequired(true);
-
-        // Let's live dangerously.
-        serialiser.setAsmEnabled(false);
-
-        // Serialiser for ClassInfo
-        FieldSerializer classInfoSerialiser = new FieldSerializer(serialiser, ClassInfo.class);
-        classInfoSerialiser.setFieldsCanBeNull(false);
-
-        // Serialiser for MethodInfo
-        FieldSerializer methodInfoSerialiser = new FieldSerializer(serialiser, MethodInfo.class);
-        methodInfoSerialiser.getField("methodHash").setClass(String.class, new DefaultSerializers.StringSerializer());
-        methodInfoSerialiser.setFieldsCanBeNull(false);
-
-        // Serialiser for EffectSet.
-        FieldSerializer effectSetSerialiser = new FieldSerializer(serialiser, EffectSet.class);
-
-        SymbolSetSerialiser symbolSetSerialiser = new SymbolSetSerialiser();
-        serialiser.register(SymbolSet.class, symbolSetSerialiser);
-
-        // Don't serialise non-escaping symbol sets. Nobody cares.
-        effectSetSerialiser.removeField("readInternal");
-        effectSetSerialiser.removeField("writeInternal");
-        effectSetSerialiser.getField("readEscaping").setClass(SymbolSet.class, symbolSetSerialiser);
-        effectSetSerialiser.getField("writeEscaping").setClass(SymbolSet.class, symbolSetSerialiser);
-
-        serialiser.register(EffectSet.class, effectSetSerialiser);
-
-        // Now you can serialise an EffectSet, you can serialise an Effects.
-        serialiser.register(Effects.class, new EffectsSerialiser());
-
-        methodInfoSerialiser.getField("effectSet").setClass(EffectSet.class, new EffectsSerialiser());
-        serialiser.register(MethodInfo.class, methodInfoSerialiser);
-
-        // To serialise the list of MethodInfo objects inside the ClassInfo.
-        CollectionSerializer methodInfoListSerialiser = new CollectionSerializer();
-        methodInfoListSerialiser.setElementsCanBeNull(false);
-        methodInfoListSerialiser.setElementClass(MethodInfo.class, methodInfoSerialiser);
+    public static String getContentKey(String className, int hash) {
+        return className + '/' + Integer.toHexString(hash);
+    }
 
-        // Register the list serialiser with the class serialiser.
-        classInfoSerialiser.getField("methodInfos").setClass(LinkedList.class, methodInfoListSerialiser);
-        serialiser.register(ClassInfo.class, classInfoSerialiser);
+    /**
+     * Store a record under its content key and add it to the index for its class.
+     */
+    static void storeRecord(EffectStore target, String className, int hash, byte[] record) throws IOException {
+        synchronized (target) {
+            target.put(getContentKey(className, hash), record);
+            target.put(className, NameIndex.add(target.get(className), hash));
+        }
     }
 
     /**
-     * Helper method to get the RecordManager, possibly creating the parent directory at the same time
-     * (If this is the first time it has been used).
+     * Store a record produced without compiling its class (See BytecodeEffectAnalyser).
      *
-     * @return A jdbm2 RecordManager for the local data cache.
-     * @throws IOException If RecordManagerFactory.createRecordManager throws such an exception.
+     * @param className The flat name of the class.
+     * @param classHash The hash of the class file the record describes.
      */
-    private static RecordManager getOrCreateRecordManager() throws IOException {
-        String homeDirectory = System.getProperty("user.home");
-        File joustDir = new File(homeDirectory + "/.joust/");
-        joustDir.mkdirs();
-
-        // Obtain lock on database...
-        lockFile = new File(joustDir + "/db.lck");
-
-        int waitCycles = 0;
-        while (lockFile.exists()) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                log.error("Interrupted waiting for lock!", e);
-            }
+    public static void storeAnalysedRecord(String className, int classHash, byte[] record) {
+        try {
+            storeRecord(store, className, classHash, record);
+        } catch (IOException e) {
+            log.error("IOException writing {} to disk cache:", className, e);
+        }
+    }
 
-            waitCycles++;
-            if (waitCycles == 15) {
-                log.info("Waiting on database lockfile for a long time... If no other instance of JOUST is running, delete {}", joustDir + "/db.lck");
-            }
+    /**
+     * Find the serialised record describing the given class file.
+     * Records are looked up by the hash of the class file, locally and then remotely, so a record is
+     * never used for a different version of the class. That includes records made in library
+     * annotation mode: they're used only for the class files that compilation produced.
+     *
+     * @return The record, or null if there is none.
+     */
+    static byte[] getSerialisedRecord(String className, int classHash) {
+        byte[] payload = getRecord(getContentKey(className, classHash));
+        if (payload != null) {
+            return payload;
         }
 
-        lockFile.createNewFile();
+        payload = loadRemoteRecord(className, classHash);
+        if (payload != null) {
+            return payload;
+        }
 
-        databasePath = homeDirectory + "/.joust/" + DATABASE_FILE_NAME;
+        if (getRecord(className) == null) {
+            log.trace("No cached info for class {} seems to exist.", className);
+        } else {
+            log.debug("Cached info for class {} describes other versions of its class file. Ignoring it.", className);
+        }
 
-        log.info("Creating or opening database at {}", databasePath);
-        return RecordManagerFactory.createRecordManager(databasePath);
+        return null;
     }
 
-    private static ClassInfo loadCachedInfoByName(String name) {
-        byte[] payload = databaseMap.get(name);
-        if (payload == null) {
-            log.trace("No cached info for class {} seems to exist.", name);
+    /**
+     * Fetch the record for the given class file from the remote cache, copying it into the local
+     * store so later compilations needn't ask again.
+     *
+     * @return The record, or null if there is no remote cache or it has no record for the class file.
+     */
+    private static byte[] loadRemoteRecord(String className, int classHash) {
+        if (remoteStore == null) {
             return null;
         }
 
-        //log.debug("Loaded {} bytes of cached info for class {}", payload.length, name);
+        byte[] payload;
+        try {
+            payload = remoteStore.get(getContentKey(className, classHash));
+        } catch (IOException e) {
+            log.warn("Error reading remote effect cache: {}", e);
+            return null;
+        }
 
-        @Cleanup UnsafeInput deserialiserInput = new UnsafeInput(payload);
-        ClassInfo cInfo = serialiser.readObject(deserialiserInput, ClassInfo.class);
+        EffectRecord record = payload == null ? null : EffectRecord.open(payload);
+        if (record == null || record.getHash() != classHash) {
+            return null;
+        }
 
-        //log.info("Loaded info for {} as:\n{}", name, cInfo);
+        log.debug("Using remote side effect information for {}", className);
+        try {
+            storeRecord(store, className, classHash, payload);
+        } catch (IOException e) {
+            log.error("IOException writing {} to disk cache:", className, e);
+        }
 
-        return cInfo;
+        return payload;
     }
 
     /**
@@ -235,35 +235,46 @@ public class JOUSTCache {
             return;
         }
 
-        ClassInfo cInfo = loadCachedInfoByName(sym.fullname.toString());
-
-        if (cInfo == null) {
-            log.warn("No side effect information found on disk for {}", sym);
-            return;
+        // Bundles are validated as a whole against the fingerprint of their jar, so a hit needs no
+        // further checking.
+        ByteBuffer bundleRecord = EffectBundleManager.getRecordForClass(sym);
+        if (bundleRecord != null) {
+            EffectRecord record = EffectRecord.open(bundleRecord);
+            if (record != null) {
+                log.debug("Using bundled side effect information for {}", sym);
+                TreeInfoManager.populateFromRecord(sym.flatname.toString(), record);
+                return;
+            }
         }
 
-        // Check hashes, discard the result if the hash doesn't match up.
         int classHash;
         try {
             classHash = ChecksumUtils.computeHash(sym.classfile);
         } catch (IOException e) {
-            log.warn("Unable to load cached info for class {}.\nIOException computing hash: {}", sym.fullname.toString(), e);
+            log.warn("Unable to load cached info for class {}.\nIOException computing hash: {}", sym.flatname.toString(), e);
             return;
         }
 
-        // BUWHAHAHAHAHA.
-        /*if (classHash != cInfo.hash) {
-            log.warn("Hash mismatch for: {}\n" +
-                    "Classfile hash: {}\n" +
-                    "Classinfo hash: {}\n", sym.fullname.toString(), classHash, cInfo.hash);
-            log.warn("For classfile: {}", sym.classfile);
+        byte[] payload = getSerialisedRecord(sym.flatname.toString(), classHash);
+        EffectRecord cInfo = payload == null ? null : EffectRecord.open(payload);
+
+        if (cInfo == null) {
+            log.warn("No side effect information found on disk for {}", sym);
             return;
-        }*/
+        }
 
-        TreeInfoManager.populateFromClassInfo(cInfo);
+        TreeInfoManager.populateFromRecord(sym.flatname.toString(), cInfo);
     }
 
-    static void writeSymbolToDisk(String className, int hash) {
+    /**
+     * Encode the record for the given class and queue it to be written to the store, once the hash of
+     * its class file has been computed. The write completes in the background: closeDatabase waits
+     * for it.
+     *
+     * @param className The class whose record should be written.
+     * @param classFile The class file produced for the class.
+     */
+    static void writeClassInfo(String className, JavaFileObject classFile) {
         final ClassInfo cInfo = classInfo.get(className);
 
         if (cInfo == null) {
@@ -271,24 +282,18 @@ public class JOUSTCache {
             return;
         }
 
-        cInfo.setHash(hash);
-
         log.debug("Serialising {} for {}", cInfo, className);
 
-        // Serialise the ClassInfo object.
-        @Cleanup UnsafeOutput serialisedOutput = new UnsafeOutput(INITIAL_BUFFER_SIZE);
-        serialiser.writeObject(serialisedOutput, cInfo);
-
-        byte[] buffer = serialisedOutput.toBytes();
+        // Encoding looks at compiler symbols, so it has to happen on this thread. The hash is filled
+        // in later.
+        byte[] buffer = EffectRecordCodec.encode(cInfo);
 
         log.debug("Serialised using {} bytes", buffer.length);
 
-        databaseMap.put(className, buffer);
-        try {
-            databaseRecordManager.commit();
-        } catch (IOException e) {
-            log.fatal("IOException flushing to disk cache:", e);
+        if (writer == null) {
+            writer = new CacheWriter(store, remoteStore);
         }
+        writer.submit(className, buffer, classFile);
     }
 
     /**
@@ -299,18 +304,49 @@ public class JOUSTCache {
      * @param effectSet The effect set of the provided method symbol's declaration.
      */
     public static void registerMethodSideEffects(MethodSymbol sym, Effects effectSet) {
-        final String methodHash = MethodInfo.getHashForMethod(sym);
         final String className = ((ClassSymbol) sym.owner).flatname.toString();
 
-        MethodInfo m = new MethodInfo(methodHash, effectSet);
-        log.debug("{} has effects {} in {}", methodHash, effectSet, className);
+        // The key of the method is only needed once the record is written.
+        MethodInfo m = new MethodInfo(sym, effectSet);
+        log.debug("{} has effects {} in {}", sym, effectSet, className);
+
+        getClassInfo((ClassSymbol) sym.owner).methodInfos.add(m);
+    }
+
+    /**
+     * Register the given field as effectively final (See FinalFields). Things so registered will be written
+     * to the cache when we exit.
+     *
+     * @param sym The field found to be effectively final.
+     */
+    public static void registerFinalField(VarSymbol sym) {
+        log.debug("{} is effectively final", sym);
+        getClassInfo((ClassSymbol) sym.owner).finalFields.add(ClassInfo.getHashForVariable(sym));
+    }
+
+    /**
+     * Register the given template as the body of the given method (See DerivedFunctionTemplates). Things so
+     * registered will be written to the cache when we exit.
+     *
+     * @param sym The method the template was derived from.
+     * @param template The template, encoded by FunctionTemplateCodec.
+     */
+    public static void registerFunctionTemplate(MethodSymbol sym, String template) {
+        log.debug("{} has template {}", sym, template);
+        getClassInfo((ClassSymbol) sym.owner).templates.put(MethodInfo.getHashForMethod(sym), template);
+    }
+
+    /**
+     * @return The ClassInfo to be written for the given class, created if need be.
+     */
+    private static ClassInfo getClassInfo(ClassSymbol sym) {
+        final String className = sym.flatname.toString();
 
         ClassInfo cInfo = classInfo.get(className);
         if (cInfo == null) {
             cInfo = new ClassInfo();
             classInfo.put(className, cInfo);
         }
-        cInfo.methodInfos.add(m);
 
         // So we can compute the checksums later on...
         TransientClassInfo tcInfo = transientClassInfo.get(className);
@@ -319,21 +355,51 @@ public class JOUSTCache {
             transientClassInfo.put(className, tcInfo);
         }
 
-        tcInfo.setSourceFile(((ClassSymbol) sym.owner).sourcefile);
+        tcInfo.setSourceFile(sym.sourcefile);
+
+        return cInfo;
+    }
+
+    public static void printStatistics() {
+        try {
+            log.info("Effect cache statistics:\n{}", store.getStatistics());
+        } catch (IOException e) {
+            log.error("Error reading effect store: ", e);
+        }
     }
 
     public static void dumpKeys() {
         log.info("Dumping effect keys....");
-        final Set<String> keys = databaseMap.keySet();
+        final Set<String> keys;
+        try {
+            keys = store.keys();
+        } catch (IOException e) {
+            log.error("Error reading effect store: ", e);
+            return;
+        }
+
         for (String key : keys) {
-            ClassInfo storedInfo = loadCachedInfoByName(key);
+            // Skip the index entries.
+            if (key.indexOf('/') == -1) {
+                continue;
+            }
+
+            byte[] payload = getRecord(key);
+            EffectRecord storedInfo = EffectRecord.open(payload);
             if (storedInfo == null) {
-                log.warn("key: {} has null payload!");
+                log.warn("key: {} has no payload in the current format!", key);
+                continue;
             }
 
-            log.info("Key: {}, nMethods: {}, hash: {}", key, storedInfo.methodInfos.size(), storedInfo.hash);
-            for (MethodInfo methodInfo : storedInfo.methodInfos) {
-                log.info("    Method: {}  Effects: {}", methodInfo.methodHash, methodInfo.effectSet);
+            log.info("Key: {}, nMethods: {}, hash: {}, bytes: {}", key, storedInfo.getMethodHashes().size(), storedInfo.getHash(), payload.length);
+            for (String methodHash : storedInfo.getMethodHashes()) {
+                log.info("    Method: {}  Effects: {}", methodHash, storedInfo.decodeEffects(methodHash));
+            }
+            for (String field : storedInfo.getFinalFields()) {
+                log.info("    Final field: {}", field);
+            }
+            for (Map.Entry<String, String> template : storedInfo.getTemplates().entrySet()) {
+                log.info("    Template: {} = {}", template.getKey(), template.getValue());
             }
         }
     }
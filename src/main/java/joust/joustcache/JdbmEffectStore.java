@@ -0,0 +1,434 @@
+package joust.joustcache;
+
+import jdbm.PrimaryTreeMap;
+import jdbm.RecordManager;
+import jdbm.RecordManagerFactory;
+import jdbm.helper.StoreReference;
+import jdbm.recman.TransactionManager;
+import joust.utils.logging.LogUtils;
+import lombok.Cleanup;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * An EffectStore backed by a jdbm2 database in ~/.joust. Access is serialised between processes by
+ * a lock file.
+ *
+ * The store is kept within a size budget. Each record carries the time it was last written or read
+ * (Which, given the hash check on reads, is the last time it was validated), and once the records
+ * outgrow the budget the least recently validated are evicted. jdbm2 never shrinks its files, so
+ * the bytes freed by evictions and overwrites are counted, and when they outweigh the live records
+ * the live records are copied into a fresh file, identified by a generation number, and the old one
+ * is deleted.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class JdbmEffectStore implements EffectStore {
+    public static final long DEFAULT_BUDGET = 64L << 20;
+
+    private static final String JOUST_DIRECTORY = System.getProperty("user.home") + "/.joust/";
+    private static final String DATABASE_FILE_NAME = "joustCache";
+
+    // Holds the generation number of the current database file.
+    private static final String GENERATION_FILE = JOUST_DIRECTORY + DATABASE_FILE_NAME + ".generation";
+
+    private static final String USAGE_TREE = "usage";
+    private static final String META_TREE = "meta";
+    private static final String LIVE_BYTES_KEY = "liveBytes";
+    private static final String DEAD_BYTES_KEY = "deadBytes";
+
+    // Eviction frees space down to this fraction of the budget, so it doesn't run on every build.
+    private static final double EVICTION_LOW_WATER_MARK = 0.75;
+
+    // Compact when dead space exceeds both the live data and this many bytes.
+    private static final long COMPACTION_MIN_DEAD_BYTES = 1L << 20;
+
+    private RecordManager databaseRecordManager;
+
+    // The PrimaryTreeMap backed by the database. Key is class name, value is the encoded record for
+    // the class (See EffectRecordCodec), which includes the hash of the compiled class file - to
+    // detect changes.
+    private PrimaryTreeMap<String, byte[]> databaseMap;
+
+    // Maps keys to (Last validation time in seconds << 32 | record length in bytes).
+    private PrimaryTreeMap<String, Long> usage;
+    private PrimaryTreeMap<String, Long> meta;
+
+    private int generation;
+    private long liveBytes;
+
+    // Bytes of records evicted or overwritten since the file was created.
+    private long deadBytes;
+    private final long budget;
+
+    // Keys read since the last commit, whose validation times need updating.
+    private final HashSet<String> validated = new HashSet<String>();
+
+    // Used for mutex on the key-value store in the case of multiple instances of the optimiser.
+    private final File lockFile;
+
+    private JdbmEffectStore(File lockFile, long budget) {
+        this.lockFile = lockFile;
+        this.budget = budget;
+    }
+
+    /**
+     * Open the store, possibly creating the parent directory at the same time (If this is the first
+     * time it has been used).
+     *
+     * @param budget The number of bytes of records the store may hold.
+     * @throws IOException If RecordManagerFactory.createRecordManager throws such an exception.
+     */
+    public static JdbmEffectStore open(long budget) throws IOException {
+        // Dirty dirty hack to cause these classes to be loaded. The classloader present in annotation processing mode
+        // is... weird.
+        Class<StoreReference> sRef = StoreReference.class;
+        Class<TransactionManager.BlockIoComparator> tbRef = TransactionManager.BlockIoComparator.class;
+        Class<TransactionManager> tmRef = TransactionManager.class;
+
+        File joustDir = new File(JOUST_DIRECTORY);
+        joustDir.mkdirs();
+
+        // Obtain lock on database...
+        File lockFile = new File(joustDir + "/db.lck");
+
+        int waitCycles = 0;
+        while (lockFile.exists()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                log.error("Interrupted waiting for lock!", e);
+            }
+
+            waitCycles++;
+            if (waitCycles == 15) {
+                log.info("Waiting on database lockfile for a long time... If no other instance of JOUST is running, delete {}", joustDir + "/db.lck");
+            }
+        }
+
+        lockFile.createNewFile();
+
+        JdbmEffectStore store = new JdbmEffectStore(lockFile, budget);
+        try {
+            store.openGeneration(readGeneration());
+        } catch (IOException e) {
+            lockFile.delete();
+            throw e;
+        }
+
+        return store;
+    }
+
+    private void openGeneration(int gen) throws IOException {
+        generation = gen;
+        String databasePath = JOUST_DIRECTORY + baseName(gen);
+
+        log.info("Creating or opening database at {}", databasePath);
+        databaseRecordManager = RecordManagerFactory.createRecordManager(databasePath);
+        databaseMap = databaseRecordManager.treeMap(databasePath);
+        usage = databaseRecordManager.treeMap(USAGE_TREE);
+        meta = databaseRecordManager.treeMap(META_TREE);
+
+        Long storedDeadBytes = meta.get(DEAD_BYTES_KEY);
+        deadBytes = storedDeadBytes == null ? 0 : storedDeadBytes;
+
+        Long storedLiveBytes = meta.get(LIVE_BYTES_KEY);
+        if (storedLiveBytes != null) {
+            liveBytes = storedLiveBytes;
+            return;
+        }
+
+        // A database from before usage was tracked. Treat everything in it as validated now.
+        liveBytes = 0;
+        long now = now();
+        for (Map.Entry<String, byte[]> entry : databaseMap.entrySet()) {
+            int length = entry.getValue().length;
+            usage.put(entry.getKey(), pack(now, length));
+            liveBytes += length;
+        }
+        meta.put(LIVE_BYTES_KEY, liveBytes);
+        databaseRecordManager.commit();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        byte[] record = databaseMap.get(key);
+        if (record != null) {
+            validated.add(key);
+        }
+
+        return record;
+    }
+
+    @Override
+    public void put(String key, byte[] record) {
+        Long old = usage.get(key);
+        if (old != null) {
+            liveBytes -= lengthOf(old);
+            deadBytes += lengthOf(old);
+        }
+
+        databaseMap.put(key, record);
+        usage.put(key, pack(now(), record.length));
+        liveBytes += record.length;
+        validated.remove(key);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        long now = now();
+        for (String key : validated) {
+            Long old = usage.get(key);
+            if (old != null) {
+                usage.put(key, pack(now, lengthOf(old)));
+            }
+        }
+        validated.clear();
+
+        if (liveBytes > budget) {
+            evict();
+        }
+
+        meta.put(LIVE_BYTES_KEY, liveBytes);
+        meta.put(DEAD_BYTES_KEY, deadBytes);
+        databaseRecordManager.commit();
+
+        if (deadBytes > Math.max(liveBytes, COMPACTION_MIN_DEAD_BYTES)) {
+            compact();
+        }
+    }
+
+    @Override
+    public Set<String> keys() {
+        return new HashSet<String>(databaseMap.keySet());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            commit();
+            databaseRecordManager.close();
+        } finally {
+            lockFile.delete();
+        }
+    }
+
+    @Override
+    public String getStatistics() {
+        long oldest = Long.MAX_VALUE;
+        for (Long packed : usage.values()) {
+            oldest = Math.min(oldest, timeOf(packed));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Records:    ").append(databaseMap.size()).append('\n')
+          .append("Live bytes: ").append(liveBytes).append('\n')
+          .append("Dead bytes: ").append(deadBytes).append('\n')
+          .append("File bytes: ").append(getFileBytes()).append('\n')
+          .append("Budget:     ").append(budget).append('\n')
+          .append("Generation: ").append(generation);
+
+        if (oldest != Long.MAX_VALUE) {
+            sb.append("\nOldest validation: ").append(new Date(oldest * 1000));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Drop the least recently validated records until the store is comfortably within its budget. The
+     * index entries of classes (See NameIndex) are kept for as long as they name a record, and updated
+     * along with the records they name, so they never refer to a missing record.
+     */
+    private void evict() {
+        ArrayList<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(usage.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+                long t1 = timeOf(o1.getValue());
+                long t2 = timeOf(o2.getValue());
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+
+        long target = (long) (budget * EVICTION_LOW_WATER_MARK);
+        int evicted = 0;
+        for (Map.Entry<String, Long> entry : entries) {
+            if (liveBytes <= target) {
+                break;
+            }
+
+            String key = entry.getKey();
+            int separator = key.lastIndexOf('/');
+            if (separator == -1) {
+                continue;
+            }
+
+            remove(key);
+            removeFromIndex(key.substring(0, separator), (int) Long.parseLong(key.substring(separator + 1), 16));
+            evicted++;
+        }
+
+        log.info("Evicted {} records from the effect cache.", evicted);
+    }
+
+    private void remove(String key) {
+        Long old = usage.remove(key);
+        if (old == null) {
+            return;
+        }
+
+        databaseMap.remove(key);
+        liveBytes -= lengthOf(old);
+        deadBytes += lengthOf(old);
+    }
+
+    private void removeFromIndex(String className, int hash) {
+        byte[] index = databaseMap.get(className);
+        if (index == null) {
+            return;
+        }
+
+        byte[] updated = NameIndex.remove(index, hash);
+        if (updated == null) {
+            remove(className);
+        } else {
+            put(className, updated);
+        }
+    }
+
+    /**
+     * Copy the live records into the database of the next generation, switch to it and delete the
+     * current one. If interrupted, the generation file still names the old database, so nothing is
+     * lost.
+     */
+    private void compact() throws IOException {
+        int newGeneration = generation + 1;
+        String newPath = JOUST_DIRECTORY + baseName(newGeneration);
+        log.info("Compacting effect cache into {}", newPath);
+
+        // Leftovers of an earlier, interrupted, compaction.
+        deleteGeneration(newGeneration);
+
+        RecordManager fresh = RecordManagerFactory.createRecordManager(newPath);
+        PrimaryTreeMap<String, byte[]> freshRecords = fresh.treeMap(newPath);
+        PrimaryTreeMap<String, Long> freshUsage = fresh.treeMap(USAGE_TREE);
+        PrimaryTreeMap<String, Long> freshMeta = fresh.treeMap(META_TREE);
+
+        int copied = 0;
+        for (Map.Entry<String, byte[]> entry : databaseMap.entrySet()) {
+            freshRecords.put(entry.getKey(), entry.getValue());
+            freshUsage.put(entry.getKey(), usage.get(entry.getKey()));
+
+            // Keep the transaction log from growing without bound.
+            copied++;
+            if (copied % 1000 == 0) {
+                fresh.commit();
+            }
+        }
+
+        freshMeta.put(LIVE_BYTES_KEY, liveBytes);
+        freshMeta.put(DEAD_BYTES_KEY, 0L);
+        fresh.commit();
+        fresh.close();
+
+        databaseRecordManager.close();
+        writeGeneration(newGeneration);
+        deleteGeneration(generation);
+
+        openGeneration(newGeneration);
+    }
+
+    private long getFileBytes() {
+        long total = 0;
+        for (File f : filesOfGeneration(generation)) {
+            total += f.length();
+        }
+
+        return total;
+    }
+
+    private static String baseName(int gen) {
+        // The original database predates generations, so keeps its name.
+        if (gen == 0) {
+            return DATABASE_FILE_NAME;
+        }
+
+        return DATABASE_FILE_NAME + "-g" + gen;
+    }
+
+    private static File[] filesOfGeneration(int gen) {
+        final String prefix = baseName(gen) + '.';
+        File[] files = new File(JOUST_DIRECTORY).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && !name.equals(new File(GENERATION_FILE).getName());
+            }
+        });
+
+        return files == null ? new File[0] : files;
+    }
+
+    private static void deleteGeneration(int gen) {
+        for (File f : filesOfGeneration(gen)) {
+            f.delete();
+        }
+    }
+
+    private static int readGeneration() throws IOException {
+        File f = new File(GENERATION_FILE);
+        if (!f.exists()) {
+            return 0;
+        }
+
+        @Cleanup BufferedReader reader = new BufferedReader(new FileReader(f));
+        return Integer.parseInt(reader.readLine().trim());
+    }
+
+    private static void writeGeneration(int gen) throws IOException {
+        File tmp = new File(GENERATION_FILE + ".tmp");
+        @Cleanup FileWriter writer = new FileWriter(tmp);
+        writer.write(Integer.toString(gen));
+        writer.close();
+
+        File target = new File(GENERATION_FILE);
+        if (!tmp.renameTo(target)) {
+            // Some platforms won't rename over an existing file.
+            target.delete();
+            if (!tmp.renameTo(target)) {
+                throw new IOException("Unable to update " + target);
+            }
+        }
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static long pack(long time, int length) {
+        return (time << 32) | (length & 0xFFFFFFFFL);
+    }
+
+    private static long timeOf(long packed) {
+        return packed >>> 32;
+    }
+
+    private static int lengthOf(long packed) {
+        return (int) packed;
+    }
+}
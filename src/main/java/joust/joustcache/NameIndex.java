@@ -0,0 +1,105 @@
+package joust.joustcache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of the index entries of the effect store. Records are stored under content keys (See
+ * JOUSTCache.getContentKey), and the entry stored under the bare class name lists the class file
+ * hashes for which records exist, oldest first. Records are only ever looked up by content key: the
+ * index lets eviction keep track of the versions of a class, and misses tell a stale record from none.
+ *
+ * Format: varint count, then per version: int hash, byte flags (Reserved, always 0).
+ */
+final class NameIndex {
+    // Older versions are forgotten beyond this many. Their records remain, until evicted.
+    private static final int MAX_VERSIONS = 8;
+
+    private NameIndex() {
+    }
+
+    /**
+     * @param existing The current index entry, or null if there is none.
+     * @return The index entry with the given version added as the newest.
+     */
+    static byte[] add(byte[] existing, int hash) {
+        int[] hashes = new int[0];
+        int[] allFlags = new int[0];
+        if (existing != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(existing);
+            int count = EffectRecordCodec.readVarint(buffer);
+            hashes = new int[count];
+            allFlags = new int[count];
+            for (int i = 0; i < count; i++) {
+                hashes[i] = buffer.getInt();
+                allFlags[i] = buffer.get();
+            }
+        }
+
+        // Drop any existing mention of this version, and the oldest if there are too many.
+        int kept = 0;
+        int start = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] != hash) {
+                kept++;
+            }
+        }
+        int toSkip = Math.max(0, kept - (MAX_VERSIONS - 1));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EffectRecordCodec.writeVarint(out, kept - toSkip + 1);
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] == hash) {
+                continue;
+            }
+
+            if (start < toSkip) {
+                start++;
+                continue;
+            }
+
+            writeVersion(out, hashes[i], allFlags[i]);
+        }
+        writeVersion(out, hash, 0);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The index entry with the given version removed, or null if no versions remain.
+     */
+    static byte[] remove(byte[] existing, int hash) {
+        ByteBuffer buffer = ByteBuffer.wrap(existing);
+        int count = EffectRecordCodec.readVarint(buffer);
+
+        ByteArrayOutputStream versions = new ByteArrayOutputStream();
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int versionHash = buffer.getInt();
+            int flags = buffer.get();
+            if (versionHash != hash) {
+                writeVersion(versions, versionHash, flags);
+                kept++;
+            }
+        }
+
+        if (kept == 0) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EffectRecordCodec.writeVarint(out, kept);
+        byte[] versionBytes = versions.toByteArray();
+        out.write(versionBytes, 0, versionBytes.length);
+
+        return out.toByteArray();
+    }
+
+    private static void writeVersion(ByteArrayOutputStream out, int hash, int flags) {
+        out.write(hash >>> 24);
+        out.write(hash >>> 16);
+        out.write(hash >>> 8);
+        out.write(hash);
+        out.write(flags);
+    }
+}
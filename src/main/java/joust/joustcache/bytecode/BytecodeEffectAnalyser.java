@@ -0,0 +1,753 @@
+package joust.joustcache.bytecode;
+
+import joust.joustcache.ChecksumUtils;
+import joust.joustcache.EffectRecordCodec;
+import joust.joustcache.JOUSTCache;
+import joust.tree.annotatedtree.treeinfo.ArrayElements;
+import joust.utils.logging.LogUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static joust.tree.annotatedtree.treeinfo.EffectSet.EffectType;
+
+/**
+ * Computes method effect summaries directly from the bytecode of a set of jars, and writes them to
+ * the effect cache in the same form as those computed from source by the SideEffectVisitor. This
+ * lets binary-only libraries be annotated.
+ *
+ * The analysis mirrors the source-level one:
+ * - Field reads and writes are escaping reads and writes of the field.
+ * - Array loads and stores read and write the elements of arrays of their type (See ArrayElements). The
+ *   analysis doesn't track where arrays come from, so these are never relative to a parameter.
+ * - athrow raises EXCEPTION.
+ * - Instructions that may raise one of the implicit exceptions have the corresponding effect: field
+ *   accesses, instance calls, array accesses, monitors and arraylength may raise NULL_POINTER, array
+ *   accesses and allocations INDEX_BOUNDS, integer division ARITHMETIC, and checkcast CLASS_CAST. No
+ *   attempt is made to prove them impossible, except for calls to constructors.
+ * - A call has the effects of the method it resolves to, including those of every override of that
+ *   method in the analysed classes. Calls to methods outside the analysed classes, native methods and
+ *   invokedynamic have all effects.
+ * Effects are propagated between methods to a fixed point, so recursion is handled. Analysing several
+ * jars together lets calls between them resolve.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class BytecodeEffectAnalyser {
+    // Methods outside the analysed classes that are known to have no effects. Every constructor calls
+    // at least one of these.
+    private static final Set<String> KNOWN_PURE = Collections.singleton("java.lang.Object.<init>()V");
+
+    private static final int ESCAPING_WRITE = EffectType.WRITE_ESCAPING.maskValue;
+    private static final int ESCAPING_READ = EffectType.READ_ESCAPING.maskValue;
+
+    private static final int NULL_POINTER = EffectType.NULL_POINTER.maskValue;
+    private static final int INDEX_BOUNDS = EffectType.INDEX_BOUNDS.maskValue;
+    private static final int SYNCHRONISATION = EffectType.SYNCHRONISATION.maskValue;
+
+    // Opcodes of interest.
+    private static final int IALOAD = 0x2e;
+    private static final int SALOAD = 0x35;
+    private static final int IASTORE = 0x4f;
+    private static final int SASTORE = 0x56;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int GETSTATIC = 0xb2;
+    private static final int PUTSTATIC = 0xb3;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int INVOKEDYNAMIC = 0xba;
+    private static final int ATHROW = 0xbf;
+    private static final int WIDE = 0xc4;
+    private static final int IINC = 0x84;
+    private static final int IDIV = 0x6c;
+    private static final int LDIV = 0x6d;
+    private static final int IREM = 0x70;
+    private static final int LREM = 0x71;
+    private static final int NEWARRAY = 0xbc;
+    private static final int ANEWARRAY = 0xbd;
+    private static final int ARRAYLENGTH = 0xbe;
+    private static final int CHECKCAST = 0xc0;
+    private static final int MONITORENTER = 0xc2;
+    private static final int MONITOREXIT = 0xc3;
+    private static final int MULTIANEWARRAY = 0xc5;
+
+    // The elements accessed by each array load (Or store) instruction, in opcode order. baload and bastore
+    // serve both byte and boolean arrays.
+    private static final String[][] ARRAY_ELEMENTS = {
+        {ArrayElements.INT},
+        {ArrayElements.LONG},
+        {ArrayElements.FLOAT},
+        {ArrayElements.DOUBLE},
+        {ArrayElements.REFERENCE},
+        {ArrayElements.BYTE, ArrayElements.BOOLEAN},
+        {ArrayElements.CHAR},
+        {ArrayElements.SHORT}
+    };
+
+    // Length of each instruction, or 0 for those of variable length.
+    private static final int[] INSTRUCTION_LENGTHS = new int[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            INSTRUCTION_LENGTHS[i] = 1;
+        }
+
+        INSTRUCTION_LENGTHS[0x10] = 2; // bipush
+        INSTRUCTION_LENGTHS[0x11] = 3; // sipush
+        INSTRUCTION_LENGTHS[0x12] = 2; // ldc
+        INSTRUCTION_LENGTHS[0x13] = 3; // ldc_w
+        INSTRUCTION_LENGTHS[0x14] = 3; // ldc2_w
+        for (int i = 0x15; i <= 0x19; i++) {
+            INSTRUCTION_LENGTHS[i] = 2; // Loads.
+        }
+        for (int i = 0x36; i <= 0x3a; i++) {
+            INSTRUCTION_LENGTHS[i] = 2; // Stores.
+        }
+        INSTRUCTION_LENGTHS[IINC] = 3;
+        for (int i = 0x99; i <= 0xa8; i++) {
+            INSTRUCTION_LENGTHS[i] = 3; // Branches.
+        }
+        INSTRUCTION_LENGTHS[0xa9] = 2; // ret
+        INSTRUCTION_LENGTHS[TABLESWITCH] = 0;
+        INSTRUCTION_LENGTHS[LOOKUPSWITCH] = 0;
+        for (int i = GETSTATIC; i <= INVOKESTATIC; i++) {
+            INSTRUCTION_LENGTHS[i] = 3;
+        }
+        INSTRUCTION_LENGTHS[INVOKEINTERFACE] = 5;
+        INSTRUCTION_LENGTHS[INVOKEDYNAMIC] = 5;
+        INSTRUCTION_LENGTHS[0xbb] = 3; // new
+        INSTRUCTION_LENGTHS[0xbc] = 2; // newarray
+        INSTRUCTION_LENGTHS[0xbd] = 3; // anewarray
+        INSTRUCTION_LENGTHS[0xc0] = 3; // checkcast
+        INSTRUCTION_LENGTHS[0xc1] = 3; // instanceof
+        INSTRUCTION_LENGTHS[WIDE] = 0;
+        INSTRUCTION_LENGTHS[0xc5] = 4; // multianewarray
+        INSTRUCTION_LENGTHS[0xc6] = 3; // ifnull
+        INSTRUCTION_LENGTHS[0xc7] = 3; // ifnonnull
+        INSTRUCTION_LENGTHS[0xc8] = 5; // goto_w
+        INSTRUCTION_LENGTHS[0xc9] = 5; // jsr_w
+    }
+
+    /**
+     * The effects of a method, in terms of cache keys. A null key set is the universal set.
+     */
+    static class Summary {
+        int effectTypes;
+        Set<String> reads = new HashSet<String>();
+        Set<String> writes = new HashSet<String>();
+
+        static Summary all() {
+            Summary s = new Summary();
+            s.effectTypes = EffectType.getAllEffects();
+            s.reads = null;
+            s.writes = null;
+            return s;
+        }
+
+        boolean isAll() {
+            return effectTypes == EffectType.getAllEffects() && reads == null && writes == null;
+        }
+
+        /**
+         * Add the effects of the given summary to this one.
+         *
+         * @return true if this summary changed.
+         */
+        boolean unionWith(Summary other) {
+            boolean changed = (effectTypes | other.effectTypes) != effectTypes;
+            effectTypes |= other.effectTypes;
+
+            if (reads != null) {
+                if (other.reads == null) {
+                    reads = null;
+                    changed = true;
+                } else {
+                    changed |= reads.addAll(other.reads);
+                }
+            }
+
+            if (writes != null) {
+                if (other.writes == null) {
+                    writes = null;
+                    changed = true;
+                } else {
+                    changed |= writes.addAll(other.writes);
+                }
+            }
+
+            return changed;
+        }
+    }
+
+    static class MethodNode {
+        final String key;
+        final Summary summary;
+
+        // Keys of the methods whose effects this one includes: the methods it calls and its overrides.
+        final Set<String> deps = new HashSet<String>();
+
+        // The nodes whose summaries include this one's.
+        final List<MethodNode> dependants = new ArrayList<MethodNode>();
+
+        MethodNode(String key, Summary summary) {
+            this.key = key;
+            this.summary = summary;
+        }
+    }
+
+    // Every analysed class, by internal name, with the hash of its class file.
+    private final HashMap<String, ClassFile> classes = new HashMap<String, ClassFile>();
+    private final HashMap<String, Integer> classHashes = new HashMap<String, Integer>();
+
+    private final HashMap<String, MethodNode> methods = new HashMap<String, MethodNode>();
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Analyse every class in the given jars and write the results to the effect cache, which must
+     * already be open.
+     */
+    public static void annotateJars(List<String> jarPaths) {
+        BytecodeEffectAnalyser analyser = new BytecodeEffectAnalyser();
+        try {
+            analyser.annotate(jarPaths);
+        } catch (IOException e) {
+            log.error("Unable to annotate {}: {}", jarPaths, e);
+        } finally {
+            analyser.pool.shutdown();
+        }
+    }
+
+    private void annotate(List<String> jarPaths) throws IOException {
+        long t = System.currentTimeMillis();
+
+        loadClasses(jarPaths);
+        log.info("Parsed {} classes in {}ms", classes.size(), System.currentTimeMillis() - t);
+
+        scanMethods();
+        linkOverrides();
+        propagate();
+        log.info("Analysed {} methods in {}ms", methods.size(), System.currentTimeMillis() - t);
+
+        int written = writeRecords();
+        log.info("Wrote effect records for {} classes in {}ms", written, System.currentTimeMillis() - t);
+    }
+
+    /**
+     * Read, hash and parse every class in the given jars.
+     */
+    private void loadClasses(List<String> jarPaths) throws IOException {
+        ArrayList<Future<Object[]>> parsed = new ArrayList<Future<Object[]>>();
+        for (String jarPath : jarPaths) {
+            ZipFile jar = new ZipFile(new File(jarPath));
+            try {
+                Enumeration<? extends ZipEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (!entry.getName().endsWith(".class") || entry.getName().startsWith("META-INF/versions/")) {
+                        continue;
+                    }
+
+                    final String entryName = entry.getName();
+                    final byte[] bytes = readEntry(jar, entry);
+                    parsed.add(pool.submit(new Callable<Object[]>() {
+                        @Override
+                        public Object[] call() {
+                            try {
+                                return new Object[] {ClassFile.parse(bytes), ChecksumUtils.computeHash(bytes, bytes.length)};
+                            } catch (IOException e) {
+                                log.warn("Skipping {}: {}", entryName, e);
+                                return null;
+                            }
+                        }
+                    }));
+                }
+            } finally {
+                jar.close();
+            }
+        }
+
+        for (Object[] result : await(parsed)) {
+            if (result == null) {
+                continue;
+            }
+
+            ClassFile cf = (ClassFile) result[0];
+
+            // The first definition on the path wins, as it would for the class loader.
+            if (!classes.containsKey(cf.name)) {
+                classes.put(cf.name, cf);
+                classHashes.put(cf.name, (Integer) result[1]);
+            }
+        }
+    }
+
+    /**
+     * Compute the direct effects and callees of every method.
+     */
+    private void scanMethods() throws IOException {
+        ArrayList<Future<List<MethodNode>>> scanned = new ArrayList<Future<List<MethodNode>>>();
+        for (final ClassFile cf : classes.values()) {
+            scanned.add(pool.submit(new Callable<List<MethodNode>>() {
+                @Override
+                public List<MethodNode> call() {
+                    ArrayList<MethodNode> nodes = new ArrayList<MethodNode>(cf.methods.size());
+                    for (ClassFile.Member m : cf.methods) {
+                        nodes.add(scanMethod(cf, m));
+                    }
+
+                    return nodes;
+                }
+            }));
+        }
+
+        for (List<MethodNode> nodes : await(scanned)) {
+            for (MethodNode node : nodes) {
+                methods.put(node.key, node);
+            }
+        }
+    }
+
+    private MethodNode scanMethod(ClassFile cf, ClassFile.Member m) {
+        String key = methodKey(cf.name, m.name, m.descriptor);
+        if ((m.access & ClassFile.ACC_NATIVE) != 0) {
+            return new MethodNode(key, Summary.all());
+        }
+
+        // Abstract methods have only the effects of their implementations, as in the SideEffectVisitor.
+        MethodNode node = new MethodNode(key, new Summary());
+        if (m.code == null) {
+            return node;
+        }
+
+        Summary summary = node.summary;
+        if ((m.access & ClassFile.ACC_SYNCHRONIZED) != 0) {
+            summary.effectTypes |= SYNCHRONISATION;
+        }
+
+        byte[] code = m.code;
+        int pc = 0;
+        while (pc < code.length) {
+            int op = code[pc] & 0xFF;
+            switch (op) {
+                case GETSTATIC:
+                case GETFIELD:
+                    ClassFile.MemberRef read = cf.getMemberRef(readU2(code, pc + 1));
+                    summary.effectTypes |= op == GETFIELD ? ESCAPING_READ | NULL_POINTER : ESCAPING_READ;
+                    summary.effectTypes |= synchronisationOf(read);
+                    summary.reads.add(fieldKey(read));
+                    break;
+                case PUTSTATIC:
+                case PUTFIELD:
+                    ClassFile.MemberRef written = cf.getMemberRef(readU2(code, pc + 1));
+                    summary.effectTypes |= op == PUTFIELD ? ESCAPING_WRITE | NULL_POINTER : ESCAPING_WRITE;
+                    summary.effectTypes |= synchronisationOf(written);
+                    if (summary.writes != null) {
+                        summary.writes.add(fieldKey(written));
+                    }
+                    break;
+                case INVOKEVIRTUAL:
+                case INVOKESPECIAL:
+                case INVOKESTATIC:
+                case INVOKEINTERFACE:
+                    ClassFile.MemberRef ref = cf.getMemberRef(readU2(code, pc + 1));
+
+                    // Constructors are only ever called on this or a new object.
+                    if (op != INVOKESTATIC && !"<init>".equals(ref.name)) {
+                        summary.effectTypes |= NULL_POINTER;
+                    }
+
+                    String callee = resolveMethod(ref.owner, ref.name, ref.descriptor);
+                    if (callee == null) {
+                        return new MethodNode(key, Summary.all());
+                    }
+
+                    node.deps.add(callee);
+                    break;
+                case INVOKEDYNAMIC:
+                    return new MethodNode(key, Summary.all());
+                case ATHROW:
+                    summary.effectTypes |= EffectType.EXCEPTION.maskValue;
+                    break;
+                case ARRAYLENGTH:
+                    summary.effectTypes |= NULL_POINTER;
+                    break;
+                case MONITORENTER:
+                case MONITOREXIT:
+                    summary.effectTypes |= NULL_POINTER | SYNCHRONISATION;
+                    break;
+                case NEWARRAY:
+                case ANEWARRAY:
+                case MULTIANEWARRAY:
+                    summary.effectTypes |= INDEX_BOUNDS;
+                    break;
+                case IDIV:
+                case LDIV:
+                case IREM:
+                case LREM:
+                    summary.effectTypes |= EffectType.ARITHMETIC.maskValue;
+                    break;
+                case CHECKCAST:
+                    summary.effectTypes |= EffectType.CLASS_CAST.maskValue;
+                    break;
+                default:
+                    if (op >= IALOAD && op <= SALOAD) {
+                        summary.effectTypes |= ESCAPING_READ | NULL_POINTER | INDEX_BOUNDS;
+                        Collections.addAll(summary.reads, ARRAY_ELEMENTS[op - IALOAD]);
+                    } else if (op >= IASTORE && op <= SASTORE) {
+                        summary.effectTypes |= ESCAPING_WRITE | NULL_POINTER | INDEX_BOUNDS;
+                        if (summary.writes != null) {
+                            Collections.addAll(summary.writes, ARRAY_ELEMENTS[op - IASTORE]);
+                        }
+                    }
+            }
+
+            pc += instructionLength(code, pc);
+        }
+
+        return node;
+    }
+
+    /**
+     * Make each method depend on every method overriding it, so calls through the overridden method
+     * get the effects of whichever implementation runs.
+     */
+    private void linkOverrides() {
+        for (ClassFile cf : classes.values()) {
+            for (ClassFile.Member m : cf.methods) {
+                if ((m.access & (ClassFile.ACC_STATIC | ClassFile.ACC_PRIVATE)) != 0 || m.name.startsWith("<")) {
+                    continue;
+                }
+
+                String key = methodKey(cf.name, m.name, m.descriptor);
+                HashSet<String> visited = new HashSet<String>();
+                linkOverridden(cf.superName, m, key, visited);
+                for (String iface : cf.interfaces) {
+                    linkOverridden(iface, m, key, visited);
+                }
+            }
+        }
+    }
+
+    private void linkOverridden(String className, ClassFile.Member m, String overrider, Set<String> visited) {
+        if (className == null || !visited.add(className)) {
+            return;
+        }
+
+        ClassFile cf = classes.get(className);
+        if (cf == null) {
+            return;
+        }
+
+        ClassFile.Member overridden = cf.getMethod(m.name, m.descriptor);
+        if (overridden != null && (overridden.access & (ClassFile.ACC_STATIC | ClassFile.ACC_PRIVATE)) == 0) {
+            methods.get(methodKey(cf.name, m.name, m.descriptor)).deps.add(overrider);
+        }
+
+        linkOverridden(cf.superName, m, overrider, visited);
+        for (String iface : cf.interfaces) {
+            linkOverridden(iface, m, overrider, visited);
+        }
+    }
+
+    /**
+     * Fold the effects of each method's dependencies into its summary, until nothing changes.
+     */
+    private void propagate() {
+        ArrayDeque<MethodNode> worklist = new ArrayDeque<MethodNode>();
+        HashSet<MethodNode> queued = new HashSet<MethodNode>();
+
+        for (MethodNode node : methods.values()) {
+            for (String dep : node.deps) {
+                MethodNode target = methods.get(dep);
+                if (target != null) {
+                    target.dependants.add(node);
+                }
+            }
+
+            worklist.add(node);
+            queued.add(node);
+        }
+
+        while (!worklist.isEmpty()) {
+            MethodNode node = worklist.poll();
+            queued.remove(node);
+
+            boolean changed = false;
+            for (String dep : node.deps) {
+                MethodNode target = methods.get(dep);
+                if (target != null) {
+                    changed |= node.summary.unionWith(target.summary);
+                }
+            }
+
+            if (!changed) {
+                continue;
+            }
+
+            for (MethodNode dependant : node.dependants) {
+                if (queued.add(dependant)) {
+                    worklist.add(dependant);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encode and store a record for every class with at least one useful summary.
+     *
+     * @return The number of records written.
+     */
+    private int writeRecords() throws IOException {
+        ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (final ClassFile cf : classes.values()) {
+            results.add(pool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    ArrayList<EffectRecordCodec.MethodEffects> effects = new ArrayList<EffectRecordCodec.MethodEffects>();
+                    for (ClassFile.Member m : cf.methods) {
+                        MethodNode node = methods.get(methodKey(cf.name, m.name, m.descriptor));
+
+                        // Missing methods have all effects anyway.
+                        if (node.summary.isAll()) {
+                            continue;
+                        }
+
+                        // Summaries derived from bytecode are never relative.
+                        effects.add(new EffectRecordCodec.MethodEffects(node.key, node.summary.effectTypes, 0, 0, node.summary.reads, node.summary.writes));
+                    }
+
+                    if (effects.isEmpty()) {
+                        return false;
+                    }
+
+                    int hash = classHashes.get(cf.name);
+                    JOUSTCache.storeAnalysedRecord(flatName(cf.name), hash, EffectRecordCodec.encode(hash, effects));
+                    return true;
+                }
+            }));
+        }
+
+        int written = 0;
+        for (Boolean result : await(results)) {
+            if (result) {
+                written++;
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Find the method a call instruction will invoke, searching superclasses and then interfaces of the
+     * referenced class.
+     *
+     * @return The key of the method, or null if it isn't among the analysed classes.
+     */
+    private String resolveMethod(String owner, String name, String descriptor) {
+        String c = owner;
+        while (c != null) {
+            ClassFile cf = classes.get(c);
+            if (cf == null) {
+                break;
+            }
+
+            if (cf.getMethod(name, descriptor) != null) {
+                return methodKey(c, name, descriptor);
+            }
+
+            c = cf.superName;
+        }
+
+        String found = resolveInterfaceMethod(owner, name, descriptor, new HashSet<String>());
+        if (found != null) {
+            return found;
+        }
+
+        // The search left the analysed classes at c.
+        if (c != null && KNOWN_PURE.contains(methodKey(c, name, descriptor))) {
+            return methodKey(c, name, descriptor);
+        }
+
+        return null;
+    }
+
+    private String resolveInterfaceMethod(String className, String name, String descriptor, Set<String> visited) {
+        if (className == null || !visited.add(className)) {
+            return null;
+        }
+
+        ClassFile cf = classes.get(className);
+        if (cf == null) {
+            return null;
+        }
+
+        if (cf.isInterface() && cf.getMethod(name, descriptor) != null) {
+            return methodKey(className, name, descriptor);
+        }
+
+        for (String iface : cf.interfaces) {
+            String found = resolveInterfaceMethod(iface, name, descriptor, visited);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        return resolveInterfaceMethod(cf.superName, name, descriptor, visited);
+    }
+
+    /**
+     * Get the cache key of a referenced field (See ClassInfo.getHashForVariable). Fields are keyed by
+     * their declaring class, which may be a supertype of the class through which they're referenced.
+     */
+    private String fieldKey(ClassFile.MemberRef ref) {
+        String declarer = findFieldDeclarer(ref.owner, ref.name, new HashSet<String>());
+        return flatName(declarer == null ? ref.owner : declarer) + '.' + ref.name;
+    }
+
+    /**
+     * @return SYNCHRONISATION if accessing the referenced field might be a synchronisation action: if it's volatile,
+     *         or declared outside the classes being analysed, so it might be. Otherwise zero.
+     */
+    private int synchronisationOf(ClassFile.MemberRef ref) {
+        String declarer = findFieldDeclarer(ref.owner, ref.name, new HashSet<String>());
+        if (declarer == null) {
+            return SYNCHRONISATION;
+        }
+
+        ClassFile.Member field = classes.get(declarer).getField(ref.name);
+        return (field.access & ClassFile.ACC_VOLATILE) != 0 ? SYNCHRONISATION : 0;
+    }
+
+    private String findFieldDeclarer(String className, String name, Set<String> visited) {
+        if (className == null || !visited.add(className)) {
+            return null;
+        }
+
+        ClassFile cf = classes.get(className);
+        if (cf == null) {
+            return null;
+        }
+
+        if (cf.getField(name) != null) {
+            return className;
+        }
+
+        for (String iface : cf.interfaces) {
+            String found = findFieldDeclarer(iface, name, visited);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        return findFieldDeclarer(cf.superName, name, visited);
+    }
+
+    /**
+     * Get the cache key of a method (See MethodInfo.getHashForMethod): the flat name of its class, its
+     * name and its descriptor.
+     */
+    private static String methodKey(String owner, String name, String descriptor) {
+        return flatName(owner) + '.' + name + descriptor;
+    }
+
+    private static String flatName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    private static int instructionLength(byte[] code, int pc) {
+        int op = code[pc] & 0xFF;
+        int length = INSTRUCTION_LENGTHS[op];
+        if (length != 0) {
+            return length;
+        }
+
+        if (op == WIDE) {
+            return (code[pc + 1] & 0xFF) == IINC ? 6 : 4;
+        }
+
+        // Switches are padded so their operands are four-byte aligned.
+        int operands = (pc + 4) & ~3;
+        if (op == TABLESWITCH) {
+            int low = readS4(code, operands + 4);
+            int high = readS4(code, operands + 8);
+            return operands + 12 + 4 * (high - low + 1) - pc;
+        }
+
+        int pairs = readS4(code, operands + 4);
+        return operands + 8 + 8 * pairs - pc;
+    }
+
+    private static int readU2(byte[] code, int i) {
+        return ((code[i] & 0xFF) << 8) | (code[i + 1] & 0xFF);
+    }
+
+    private static int readS4(byte[] code, int i) {
+        return (code[i] << 24) | ((code[i + 1] & 0xFF) << 16) | ((code[i + 2] & 0xFF) << 8) | (code[i + 3] & 0xFF);
+    }
+
+    private static byte[] readEntry(ZipFile jar, ZipEntry entry) throws IOException {
+        InputStream in = jar.getInputStream(entry);
+        try {
+            byte[] buffer = new byte[entry.getSize() > 0 ? (int) entry.getSize() : 4096];
+            int length = 0;
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length == buffer.length) {
+                    byte[] bigger = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, bigger, 0, length);
+                    buffer = bigger;
+                }
+            }
+
+            if (length == buffer.length) {
+                return buffer;
+            }
+
+            byte[] exact = new byte[length];
+            System.arraycopy(buffer, 0, exact, 0, length);
+            return exact;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static <T> List<T> await(List<Future<T>> futures) throws IOException {
+        ArrayList<T> results = new ArrayList<T>(futures.size());
+        for (Future<T> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted during bytecode analysis");
+            } catch (ExecutionException e) {
+                throw new IOException("Bytecode analysis failed: " + e.getCause());
+            }
+        }
+
+        return results;
+    }
+}
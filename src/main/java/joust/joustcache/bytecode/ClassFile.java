@@ -0,0 +1,243 @@
+package joust.joustcache.bytecode;
+
+import lombok.AllArgsConstructor;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal class file parser: just enough of the format to find the fields and methods of a class,
+ * the code of each method, and the members referred to by that code.
+ */
+public class ClassFile {
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SYNCHRONIZED = 0x0020;
+    public static final int ACC_VOLATILE = 0x0040;
+    public static final int ACC_NATIVE = 0x0100;
+    public static final int ACC_INTERFACE = 0x0200;
+    public static final int ACC_ABSTRACT = 0x0400;
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    // Constant pool tags.
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    @AllArgsConstructor
+    public static class Member {
+        public final int access;
+        public final String name;
+        public final String descriptor;
+
+        // The bytecode of a method, or null if it has none.
+        public final byte[] code;
+    }
+
+    /**
+     * A field or method referred to from the constant pool.
+     */
+    @AllArgsConstructor
+    public static class MemberRef {
+        // Internal name (With slashes) of the class through which the member is referenced.
+        public final String owner;
+        public final String name;
+        public final String descriptor;
+    }
+
+    public final int access;
+
+    // Internal names (With slashes).
+    public final String name;
+    public final String superName;
+    public final String[] interfaces;
+
+    public final List<Member> fields = new ArrayList<Member>();
+    public final List<Member> methods = new ArrayList<Member>();
+
+    // Indexed by constant pool entry: the tag, and either the string, the referenced entry pair, or null.
+    private final int[] tags;
+    private final Object[] constants;
+
+    private ClassFile(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+
+        // Version.
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+
+        int poolSize = in.readUnsignedShort();
+        tags = new int[poolSize];
+        constants = new Object[poolSize];
+        for (int i = 1; i < poolSize; i++) {
+            tags[i] = in.readUnsignedByte();
+            switch (tags[i]) {
+                case CONSTANT_UTF8:
+                    constants[i] = in.readUTF();
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                    in.readInt();
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    in.readLong();
+                    // Eight-byte constants take two slots.
+                    i++;
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    constants[i] = new int[] {in.readUnsignedShort()};
+                    break;
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    constants[i] = new int[] {in.readUnsignedShort(), in.readUnsignedShort()};
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tags[i]);
+            }
+        }
+
+        access = in.readUnsignedShort();
+        name = getClassName(in.readUnsignedShort());
+
+        int superIndex = in.readUnsignedShort();
+        superName = superIndex == 0 ? null : getClassName(superIndex);
+
+        interfaces = new String[in.readUnsignedShort()];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = getClassName(in.readUnsignedShort());
+        }
+
+        readMembers(in, fields);
+        readMembers(in, methods);
+    }
+
+    /**
+     * Parse the given class file.
+     *
+     * @throws IOException If the bytes aren't a well-formed class file.
+     */
+    public static ClassFile parse(byte[] bytes) throws IOException {
+        try {
+            return new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (RuntimeException e) {
+            // Malformed indices and the like.
+            throw new IOException("Malformed class file: " + e);
+        }
+    }
+
+    private void readMembers(DataInputStream in, List<Member> target) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int memberAccess = in.readUnsignedShort();
+            String memberName = getUtf8(in.readUnsignedShort());
+            String descriptor = getUtf8(in.readUnsignedShort());
+
+            byte[] code = null;
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String attributeName = getUtf8(in.readUnsignedShort());
+                int length = in.readInt();
+
+                if (!"Code".equals(attributeName)) {
+                    in.skipBytes(length);
+                    continue;
+                }
+
+                // max_stack, max_locals.
+                in.readUnsignedShort();
+                in.readUnsignedShort();
+
+                code = new byte[in.readInt()];
+                in.readFully(code);
+
+                // The exception table and attributes of the code.
+                in.skipBytes(length - 8 - code.length);
+            }
+
+            target.add(new Member(memberAccess, memberName, descriptor, code));
+        }
+    }
+
+    public String getUtf8(int index) {
+        return (String) constants[index];
+    }
+
+    public String getClassName(int index) {
+        return getUtf8(((int[]) constants[index])[0]);
+    }
+
+    /**
+     * Get the field or method referred to by the given Fieldref, Methodref or InterfaceMethodref
+     * constant.
+     */
+    public MemberRef getMemberRef(int index) {
+        int[] ref = (int[]) constants[index];
+        int[] nameAndType = (int[]) constants[ref[1]];
+
+        return new MemberRef(getClassName(ref[0]), getUtf8(nameAndType[0]), getUtf8(nameAndType[1]));
+    }
+
+    public boolean isInterface() {
+        return (access & ACC_INTERFACE) != 0;
+    }
+
+    /**
+     * @return The method declared by this class with the given name and descriptor, or null.
+     */
+    public Member getMethod(String methodName, String descriptor) {
+        for (Member m : methods) {
+            if (m.name.equals(methodName) && m.descriptor.equals(descriptor)) {
+                return m;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The field declared by this class with the given name, or null.
+     */
+    public Member getField(String fieldName) {
+        for (Member f : fields) {
+            if (f.name.equals(fieldName)) {
+                return f;
+            }
+        }
+
+        return null;
+    }
+}
@@ -4,7 +4,10 @@ import com.sun.tools.javac.code.Symbol;
 import lombok.Data;
 import lombok.NonNull;
 
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.Map;
 
 /**
  * The data we want to assoiciate with each class in the persistent data storage.
@@ -13,10 +16,22 @@ import java.util.LinkedList;
 public class ClassInfo {
     @NonNull
     public final LinkedList<MethodInfo> methodInfos = new LinkedList<MethodInfo>();
+
+    // Keys of the fields of the class inferred to be effectively final.
+    @NonNull
+    public final LinkedHashSet<String> finalFields = new LinkedHashSet<String>();
+
+    // Templates derived for methods of the class, keyed by method hash (See DerivedFunctionTemplates).
+    @NonNull
+    public final LinkedHashMap<String, String> templates = new LinkedHashMap<String, String>();
     public int hash;
 
+    /**
+     * Get the key identifying the given variable in the cache. Fields can't be overloaded, so the flat
+     * name of the owner and the field name suffice.
+     */
     public static String getHashForVariable(Symbol.VarSymbol sym) {
-        return sym.owner.type == null ? "" : sym.owner.type.toString() + '.' + sym.name.toString() + ':' + sym.type.toString();
+        return sym.owner.flatName().toString() + '.' + sym.name.toString();
     }
 
     @Override
@@ -25,6 +40,12 @@ public class ClassInfo {
         for (MethodInfo mi : methodInfos) {
             sb.append('\n').append(mi);
         }
+        for (String field : finalFields) {
+            sb.append("\nFinal: ").append(field);
+        }
+        for (Map.Entry<String, String> template : templates.entrySet()) {
+            sb.append("\nTemplate: ").append(template.getKey()).append(" = ").append(template.getValue());
+        }
 
         return sb.toString();
     }
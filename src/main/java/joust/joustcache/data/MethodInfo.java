@@ -1,28 +1,107 @@
 package joust.joustcache.data;
 
 import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Type;
 import joust.analysers.sideeffects.Effects;
-import joust.tree.annotatedtree.treeinfo.EffectSet;
-import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 
+import static joust.utils.compiler.StaticCompilerUtils.types;
+
 /**
  * Data class to hold the information we want to associate with each method in the disk cache. This
  * is generally the subset of the results of the analysis performed which is of interest outside the
  * compilation unit containing the method.
  */
 @NoArgsConstructor
-@AllArgsConstructor
 public class MethodInfo {
-    public String methodHash;
+    // The cache key of the method. For methods of the current compilation, this is computed from sym
+    // only when the record is written.
+    private String methodHash;
+    private Symbol.MethodSymbol sym;
+
     public Effects effectSet;
 
+    public MethodInfo(String methodHash, Effects effectSet) {
+        this.methodHash = methodHash;
+        this.effectSet = effectSet;
+    }
+
+    public MethodInfo(Symbol.MethodSymbol sym, Effects effectSet) {
+        this.sym = sym;
+        this.effectSet = effectSet;
+    }
+
+    public String getMethodHash() {
+        if (methodHash == null) {
+            methodHash = getHashForMethod(sym);
+        }
+
+        return methodHash;
+    }
+
+    /**
+     * Get the key identifying the given method in the cache: the flat name of the owner, the method
+     * name and the JVM descriptor of the erased method type. Erasure keeps the keys short and means
+     * they can equally be computed from a classfile.
+     */
     public static String getHashForMethod(Symbol.MethodSymbol sym) {
-        return sym.owner.type.toString() + '.' + sym.name.toString() + ':' + sym.type.toString();
+        StringBuilder sb = new StringBuilder(sym.owner.flatName().toString()).append('.').append(sym.name.toString());
+        appendDescriptor(sb, types.erasure(sym.type));
+
+        return sb.toString();
+    }
+
+    private static void appendDescriptor(StringBuilder sb, Type t) {
+        switch (t.getTag()) {
+            case BYTE:
+                sb.append('B');
+                break;
+            case CHAR:
+                sb.append('C');
+                break;
+            case DOUBLE:
+                sb.append('D');
+                break;
+            case FLOAT:
+                sb.append('F');
+                break;
+            case INT:
+                sb.append('I');
+                break;
+            case LONG:
+                sb.append('J');
+                break;
+            case SHORT:
+                sb.append('S');
+                break;
+            case BOOLEAN:
+                sb.append('Z');
+                break;
+            case VOID:
+                sb.append('V');
+                break;
+            case ARRAY:
+                sb.append('[');
+                appendDescriptor(sb, ((Type.ArrayType) t).elemtype);
+                break;
+            case METHOD:
+                sb.append('(');
+                for (Type param : t.getParameterTypes()) {
+                    appendDescriptor(sb, param);
+                }
+                sb.append(')');
+                appendDescriptor(sb, t.getReturnType());
+                break;
+            case TYPEVAR:
+                appendDescriptor(sb, types.erasure(t));
+                break;
+            default:
+                sb.append('L').append(t.tsym.flatName().toString().replace('.', '/')).append(';');
+        }
     }
 
     @Override
     public String toString() {
-        return methodHash + ':' + effectSet;
+        return getMethodHash() + ':' + effectSet;
     }
 }
@@ -0,0 +1,483 @@
+package joust.optimisers.constprop;
+
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.util.List;
+import joust.tree.annotatedtree.AJCTree;
+import joust.utils.logging.LogUtils;
+import joust.utils.tree.evaluation.Value;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static com.sun.tools.javac.tree.JCTree.Tag;
+import static joust.tree.annotatedtree.AJCTree.*;
+
+/**
+ * Evaluates the trees held by control flow graph nodes over the constant propagation lattice, updating the values of
+ * the tracked locals as it goes. Each local is either undefined (Not yet assigned on any path considered, represented
+ * by its absence from the state), a constant, or Value.UNKNOWN.
+ *
+ * The arithmetic is done by Value, on operands first converted to the types javac chose for each operator - Value
+ * itself does no numeric promotion.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+class ConstantEvaluator {
+    // The value of an expression reading a local that's undefined.
+    static final Value UNDEFINED = new Value();
+
+    private final Set<VarSymbol> trackedLocals;
+
+    // The values of the tracked locals at the point reached.
+    HashMap<VarSymbol, Value> state;
+
+    // If non-null, where to note every read of a tracked local found to be constant, with its value.
+    Map<AJCExpressionTree, Value> constantReads;
+
+    ConstantEvaluator(Set<VarSymbol> trackedLocals) {
+        this.trackedLocals = trackedLocals;
+    }
+
+    /**
+     * @return A state in which every tracked local is unknown.
+     */
+    HashMap<VarSymbol, Value> allUnknown() {
+        HashMap<VarSymbol, Value> ret = new HashMap<VarSymbol, Value>();
+        for (VarSymbol sym : trackedLocals) {
+            ret.put(sym, Value.UNKNOWN);
+        }
+
+        return ret;
+    }
+
+    static boolean isConstant(Value value) {
+        return value != UNDEFINED && value != Value.UNKNOWN;
+    }
+
+    private static boolean same(Value a, Value b) {
+        if (!isConstant(a) || !isConstant(b)) {
+            return a == b;
+        }
+
+        return a.typetag == b.typetag && a.getValue().equals(b.getValue());
+    }
+
+    static Value meet(Value a, Value b) {
+        if (a == UNDEFINED) {
+            return b;
+        }
+        if (b == UNDEFINED) {
+            return a;
+        }
+
+        return same(a, b) ? a : Value.UNKNOWN;
+    }
+
+    static HashMap<VarSymbol, Value> meet(HashMap<VarSymbol, Value> a, HashMap<VarSymbol, Value> b) {
+        HashMap<VarSymbol, Value> ret = new HashMap<VarSymbol, Value>(a);
+        for (Map.Entry<VarSymbol, Value> entry : b.entrySet()) {
+            Value existing = ret.get(entry.getKey());
+            ret.put(entry.getKey(), existing == null ? entry.getValue() : meet(existing, entry.getValue()));
+        }
+
+        return ret;
+    }
+
+    static boolean sameState(HashMap<VarSymbol, Value> a, HashMap<VarSymbol, Value> b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+
+        if (a.size() != b.size()) {
+            return false;
+        }
+
+        for (Map.Entry<VarSymbol, Value> entry : a.entrySet()) {
+            Value other = b.get(entry.getKey());
+            if (other == null || !same(entry.getValue(), other)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Convert a constant to the given primitive type, as a Java cast would.
+     *
+     * @return The converted constant, or Value.UNKNOWN if it isn't a conversion this can do.
+     */
+    static Value cast(Value value, TypeTag tag) {
+        if (!isConstant(value)) {
+            return value;
+        }
+
+        Object payload = value.getValue();
+        if (tag == TypeTag.BOOLEAN) {
+            return payload instanceof Boolean ? value : Value.UNKNOWN;
+        }
+
+        Number number;
+        if (payload instanceof Character) {
+            number = (int) (Character) payload;
+        } else if (payload instanceof Number) {
+            number = (Number) payload;
+        } else {
+            return Value.UNKNOWN;
+        }
+
+        switch (tag) {
+            case CHAR:
+                return Value.of((char) number.intValue());
+            case INT:
+                return Value.of(number.intValue());
+            case LONG:
+                return Value.of(number.longValue());
+            case FLOAT:
+                return Value.of(number.floatValue());
+            case DOUBLE:
+                return Value.of(number.doubleValue());
+            default:
+                return Value.UNKNOWN;
+        }
+    }
+
+    private boolean isTracked(Symbol sym) {
+        return sym instanceof VarSymbol && trackedLocals.contains(sym);
+    }
+
+    private void assign(VarSymbol sym, Value value) {
+        if (value == UNDEFINED) {
+            state.remove(sym);
+        } else {
+            state.put(sym, cast(value, sym.type.getTag()));
+        }
+    }
+
+    private Value valueOf(VarSymbol sym) {
+        Value value = state.get(sym);
+        return value == null ? UNDEFINED : value;
+    }
+
+    /**
+     * Evaluate the tree held by a node.
+     *
+     * @return The value of the tree, if it's an expression.
+     */
+    Value evaluate(AJCTree tree) {
+        if (tree instanceof AJCExpressionTree) {
+            return evaluate((AJCExpressionTree) tree);
+        } else if (tree instanceof AJCVariableDecl) {
+            AJCVariableDecl decl = (AJCVariableDecl) tree;
+            AJCExpressionTree init = decl.getInit();
+            Value value = init == null || init.isEmptyExpression() ? UNDEFINED : evaluate(init);
+            if (isTracked(decl.getTargetSymbol())) {
+                assign(decl.getTargetSymbol(), value);
+            }
+        } else if (tree instanceof AJCExpressionStatement) {
+            evaluate(((AJCExpressionStatement) tree).expr);
+        } else if (tree instanceof AJCReturn) {
+            if (((AJCReturn) tree).expr != null) {
+                evaluate(((AJCReturn) tree).expr);
+            }
+        } else if (tree instanceof AJCThrow) {
+            evaluate(((AJCThrow) tree).expr);
+        }
+
+        return Value.UNKNOWN;
+    }
+
+    private void evaluate(List<AJCExpressionTree> exprs) {
+        if (exprs == null) {
+            return;
+        }
+
+        for (AJCExpressionTree expr : exprs) {
+            evaluate(expr);
+        }
+    }
+
+    Value evaluate(AJCExpressionTree e) {
+        if (e instanceof AJCLiteral) {
+            return Value.of(((AJCLiteral) e).getValue());
+        } else if (e instanceof AJCIdent) {
+            return evaluate((AJCIdent) e);
+        } else if (e instanceof AJCAssign) {
+            return evaluate((AJCAssign) e);
+        } else if (e instanceof AJCAssignOp) {
+            return evaluate((AJCAssignOp) e);
+        } else if (e instanceof AJCUnaryAsg) {
+            return evaluate((AJCUnaryAsg) e);
+        } else if (e instanceof AJCUnary) {
+            return evaluate((AJCUnary) e);
+        } else if (e instanceof AJCBinary) {
+            return evaluate((AJCBinary) e);
+        } else if (e instanceof AJCConditional) {
+            return evaluate((AJCConditional) e);
+        } else if (e instanceof AJCTypeCast) {
+            Value value = evaluate(((AJCTypeCast) e).expr);
+            return e.getNodeType().isPrimitive() ? cast(value, e.getNodeType().getTag()) : Value.UNKNOWN;
+        } else if (e instanceof AJCInstanceOf) {
+            evaluate(((AJCInstanceOf) e).expr);
+        } else if (e instanceof AJCArrayAccess) {
+            evaluate(((AJCArrayAccess) e).indexed);
+            evaluate(((AJCArrayAccess) e).index);
+        } else if (e instanceof AJCFieldAccess) {
+            evaluateReceiver((AJCFieldAccess) e);
+        } else if (e instanceof AJCCall) {
+            AJCCall call = (AJCCall) e;
+            if (call.meth instanceof AJCFieldAccess) {
+                evaluateReceiver((AJCFieldAccess) call.meth);
+            }
+            evaluate(call.args);
+        } else if (e instanceof AJCNewClass) {
+            evaluate(((AJCNewClass) e).args);
+        } else if (e instanceof AJCNewArray) {
+            evaluate(((AJCNewArray) e).dims);
+            evaluate(((AJCNewArray) e).elems);
+        } else if (!(e instanceof AJCEmptyExpression)) {
+            // Something that might assign locals in ways not modelled here.
+            log.debug("Unexpected expression in constant propagation: {}", e);
+            state = allUnknown();
+        }
+
+        return Value.UNKNOWN;
+    }
+
+    private void evaluateReceiver(AJCFieldAccess<?> access) {
+        if (access.selected instanceof AJCExpressionTree) {
+            evaluate((AJCExpressionTree) access.selected);
+        }
+    }
+
+    /**
+     * Evaluate the parts of the target of an assignment to something other than a tracked local.
+     */
+    private void evaluateTarget(AJCExpressionTree target) {
+        if (target instanceof AJCArrayAccess) {
+            evaluate(((AJCArrayAccess) target).indexed);
+            evaluate(((AJCArrayAccess) target).index);
+        } else if (target instanceof AJCFieldAccess) {
+            evaluateReceiver((AJCFieldAccess) target);
+        }
+    }
+
+    private Value evaluate(AJCIdent<?> ident) {
+        Symbol sym = ident.getTargetSymbol();
+        if (!isTracked(sym)) {
+            return Value.UNKNOWN;
+        }
+
+        Value value = valueOf((VarSymbol) sym);
+        if (constantReads != null && isConstant(value)) {
+            constantReads.put(ident, value);
+        }
+
+        return value;
+    }
+
+    private Value evaluate(AJCAssign assign) {
+        if (assign.lhs instanceof AJCIdent && isTracked(assign.getTargetSymbol())) {
+            VarSymbol sym = assign.getTargetSymbol();
+            assign(sym, evaluate(assign.rhs));
+            return valueOf(sym);
+        }
+
+        evaluateTarget(assign.lhs);
+        evaluate(assign.rhs);
+        return Value.UNKNOWN;
+    }
+
+    private Value evaluate(AJCAssignOp assignOp) {
+        if (!(assignOp.lhs instanceof AJCIdent) || !isTracked(assignOp.getTargetSymbol())) {
+            evaluateTarget(assignOp.lhs);
+            evaluate(assignOp.rhs);
+            return Value.UNKNOWN;
+        }
+
+        VarSymbol sym = assignOp.getTargetSymbol();
+        Value current = valueOf(sym);
+        Value rhs = evaluate(assignOp.rhs);
+
+        // The result is converted back to the type of the local, as compound assignment does.
+        assign(sym, operate(assignOp, operatorFor(assignOp.getTag()), current, rhs));
+        return valueOf(sym);
+    }
+
+    private Value evaluate(AJCUnaryAsg unary) {
+        if (!(unary.arg instanceof AJCIdent) || !isTracked(unary.getTargetSymbol())) {
+            evaluateTarget(unary.arg);
+            return Value.UNKNOWN;
+        }
+
+        VarSymbol sym = unary.getTargetSymbol();
+        Value current = valueOf(sym);
+        if (!isConstant(current)) {
+            assign(sym, current);
+            return current;
+        }
+
+        Tag tag = unary.getTag();
+        boolean increment = tag == Tag.PREINC || tag == Tag.POSTINC;
+        TypeTag promoted = sym.type.getTag() == TypeTag.CHAR ? TypeTag.INT : sym.type.getTag();
+        Value updated = Value.binary(increment ? Tag.PLUS : Tag.MINUS, cast(current, promoted), cast(Value.of(1), promoted));
+        assign(sym, updated == null ? Value.UNKNOWN : updated);
+
+        return tag == Tag.POSTINC || tag == Tag.POSTDEC ? current : valueOf(sym);
+    }
+
+    private Value evaluate(AJCUnary unary) {
+        Value arg = evaluate(unary.arg);
+        if (!isConstant(arg) || unary.getOperator() == null) {
+            return arg;
+        }
+
+        Type operatorType = unary.getOperator().type;
+        TypeTag argTag = operatorType.getParameterTypes().head.getTag();
+        Tag tag = unary.getTag();
+        if ((argTag == TypeTag.BOOLEAN) != (tag == Tag.NOT)) {
+            return Value.UNKNOWN;
+        }
+
+        Value result = Value.unary(tag, cast(arg, argTag));
+        return result == null ? Value.UNKNOWN : cast(result, operatorType.getReturnType().getTag());
+    }
+
+    private Value evaluate(AJCBinary binary) {
+        Tag tag = binary.getTag();
+        Value lhs = evaluate(binary.lhs);
+        if (tag != Tag.AND && tag != Tag.OR) {
+            return operate(binary, tag, lhs, evaluate(binary.rhs));
+        }
+
+        // The right operand is evaluated only if the left doesn't decide the result.
+        if (isConstant(lhs) && lhs.getValue() instanceof Boolean) {
+            if ((Boolean) lhs.getValue() == (tag == Tag.OR)) {
+                return lhs;
+            }
+
+            return cast(evaluate(binary.rhs), TypeTag.BOOLEAN);
+        }
+
+        if (lhs == UNDEFINED) {
+            return UNDEFINED;
+        }
+
+        HashMap<VarSymbol, Value> skipped = new HashMap<VarSymbol, Value>(state);
+        evaluate(binary.rhs);
+        state = meet(skipped, state);
+        return Value.UNKNOWN;
+    }
+
+    private Value evaluate(AJCConditional conditional) {
+        Value cond = evaluate(conditional.cond);
+        TypeTag resultTag = conditional.getNodeType().getTag();
+
+        if (isConstant(cond) && cond.getValue() instanceof Boolean) {
+            return cast(evaluate((Boolean) cond.getValue() ? conditional.truepart : conditional.falsepart), resultTag);
+        }
+
+        if (cond == UNDEFINED) {
+            return UNDEFINED;
+        }
+
+        HashMap<VarSymbol, Value> before = new HashMap<VarSymbol, Value>(state);
+        Value truepart = cast(evaluate(conditional.truepart), resultTag);
+        HashMap<VarSymbol, Value> afterTrue = state;
+
+        state = before;
+        Value falsepart = cast(evaluate(conditional.falsepart), resultTag);
+        state = meet(afterTrue, state);
+
+        return meet(truepart, falsepart);
+    }
+
+    /**
+     * Apply the given operator of the given tree, converting the operands to the types javac chose for it.
+     */
+    private static Value operate(AJCOperatorExpression tree, Tag opcode, Value lhs, Value rhs) {
+        if (lhs == UNDEFINED || rhs == UNDEFINED) {
+            return UNDEFINED;
+        }
+
+        if (!isConstant(lhs) || !isConstant(rhs) || tree.getOperator() == null) {
+            return Value.UNKNOWN;
+        }
+
+        Type operatorType = tree.getOperator().type;
+        TypeTag lhsTag = operatorType.getParameterTypes().head.getTag();
+        TypeTag rhsTag = operatorType.getParameterTypes().tail.head.getTag();
+        lhs = cast(lhs, lhsTag);
+        rhs = cast(rhs, rhsTag);
+        if (!isConstant(lhs) || !isConstant(rhs)) {
+            return Value.UNKNOWN;
+        }
+
+        // Value only does logical operations on booleans.
+        if (lhsTag == TypeTag.BOOLEAN) {
+            switch (opcode) {
+                case BITAND:
+                    opcode = Tag.AND;
+                    break;
+                case BITOR:
+                    opcode = Tag.OR;
+                    break;
+                case BITXOR:
+                    opcode = Tag.NE;
+                    break;
+                case AND:
+                case OR:
+                case EQ:
+                case NE:
+                    break;
+                default:
+                    return Value.UNKNOWN;
+            }
+        }
+
+        // Integer division by zero is left to throw at runtime.
+        if ((opcode == Tag.DIV || opcode == Tag.MOD) && (rhsTag == TypeTag.INT || rhsTag == TypeTag.LONG)
+         && ((Number) rhs.getValue()).longValue() == 0) {
+            return Value.UNKNOWN;
+        }
+
+        Value result = Value.binary(opcode, lhs, rhs);
+        return result == null ? Value.UNKNOWN : cast(result, operatorType.getReturnType().getTag());
+    }
+
+    private static Tag operatorFor(Tag assignOpcode) {
+        switch (assignOpcode) {
+            case BITOR_ASG:
+                return Tag.BITOR;
+            case BITXOR_ASG:
+                return Tag.BITXOR;
+            case BITAND_ASG:
+                return Tag.BITAND;
+            case SL_ASG:
+                return Tag.SL;
+            case SR_ASG:
+                return Tag.SR;
+            case USR_ASG:
+                return Tag.USR;
+            case PLUS_ASG:
+                return Tag.PLUS;
+            case MINUS_ASG:
+                return Tag.MINUS;
+            case MUL_ASG:
+                return Tag.MUL;
+            case DIV_ASG:
+                return Tag.DIV;
+            case MOD_ASG:
+                return Tag.MOD;
+            default:
+                return assignOpcode;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package joust.optimisers.constprop;
+
+import com.sun.tools.javac.code.TypeTag;
+import joust.analysers.cfg.CFGNode;
+import joust.analysers.cfg.ControlFlowGraph;
+import joust.optimisers.translators.BaseTranslator;
+import joust.tree.annotatedtree.AJCForest;
+import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.tree.annotatedtree.treeinfo.EffectSet;
+import joust.utils.logging.LogUtils;
+import joust.utils.tree.evaluation.Value;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.tree.annotatedtree.AJCTree.*;
+import static joust.utils.compiler.StaticCompilerUtils.treeMaker;
+
+/**
+ * Sparse conditional constant propagation over the control flow graph of each method (See ControlFlowGraph).
+ *
+ * The primitive locals of each method are propagated through it by a forward dataflow analysis that also tracks
+ * which edges of the graph can be taken: the branches of a condition that's constant, and the cases of a switch
+ * other than the one a constant selector picks, are never followed, so the values assigned on them don't spoil
+ * the constants at the joins after. Values are computed by Value, as for constant folding.
+ *
+ * Every read of a local found to be constant is then replaced by a literal, and ifs and loops whose condition is
+ * constant lose the code that can never run. Folding what's left is left to ConstFoldTranslator.
+ *
+ * Catch and finally blocks are entered with every local unknown, as are the targets of jumps through finally blocks.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class ConstantPropagationTranslator extends BaseTranslator {
+    // The types of the locals propagated. Smaller integers and strings are left alone: javac gives their constants
+    // other types, or other identities.
+    private static final Set<TypeTag> TRACKED_TYPES =
+            EnumSet.of(TypeTag.BOOLEAN, TypeTag.CHAR, TypeTag.INT, TypeTag.LONG, TypeTag.FLOAT, TypeTag.DOUBLE);
+
+    @Override
+    protected void visitClassDef(AJCClassDecl that) {
+        visit(that.methods);
+        visit(that.classes);
+    }
+
+    @Override
+    protected void visitMethodDef(AJCMethodDecl that) {
+        ControlFlowGraph graph = ControlFlowGraph.build(that);
+        if (graph == null) {
+            return;
+        }
+
+        Set<VarSymbol> locals = trackedLocals(that);
+        if (locals.isEmpty()) {
+            return;
+        }
+
+        ConstantEvaluator evaluator = new ConstantEvaluator(locals);
+        int nodeCount = graph.nodes.size();
+
+        // The state after each node, the value of the tree it holds, and which of its successors can be reached.
+        ArrayList<HashMap<VarSymbol, Value>> out = new ArrayList<HashMap<VarSymbol, Value>>(nodeCount);
+        Value[] values = new Value[nodeCount];
+        BitSet[] liveEdges = new BitSet[nodeCount];
+        BitSet executable = new BitSet(nodeCount);
+        for (CFGNode node : graph.nodes) {
+            out.add(null);
+            liveEdges[node.index] = new BitSet();
+            if (node == graph.entry || node.exceptionalEntry) {
+                executable.set(node.index);
+            }
+        }
+
+        // Iterate to a fixed point. Values only ever fall from undefined to constant to unknown, and edges only ever
+        // become live, so this ends.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (CFGNode node : graph.nodes) {
+                if (!executable.get(node.index)) {
+                    continue;
+                }
+
+                evaluator.state = stateBefore(graph, node, that, out, liveEdges, evaluator);
+                values[node.index] = node.tree == null ? Value.UNKNOWN : evaluator.evaluate(node.tree);
+
+                HashMap<VarSymbol, Value> after = node.passesThroughFinally ? evaluator.allUnknown() : evaluator.state;
+                if (!ConstantEvaluator.sameState(after, out.get(node.index))) {
+                    out.set(node.index, after);
+                    changed = true;
+                }
+
+                BitSet edges = reachableSuccessors(node, values[node.index]);
+                for (int i = edges.nextSetBit(0); i >= 0; i = edges.nextSetBit(i + 1)) {
+                    if (!liveEdges[node.index].get(i)) {
+                        liveEdges[node.index].set(i);
+                        executable.set(node.successors.get(i).index);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        // A branch on something still undefined means the analysis has gone wrong somewhere: be safe.
+        for (CFGNode node : graph.nodes) {
+            if (executable.get(node.index) && isBranch(node) && values[node.index] == ConstantEvaluator.UNDEFINED) {
+                log.debug("Undefined branch condition {} in {}", node.tree, that.getTargetSymbol());
+                return;
+            }
+        }
+
+        // One more walk with the final states, to find the reads to replace.
+        evaluator.constantReads = new IdentityHashMap<AJCExpressionTree, Value>();
+        ArrayList<AJCStatement> deadBranches = new ArrayList<AJCStatement>();
+        ArrayList<Boolean> conditions = new ArrayList<Boolean>();
+        for (CFGNode node : graph.nodes) {
+            if (!executable.get(node.index) || node.tree == null) {
+                continue;
+            }
+
+            evaluator.state = stateBefore(graph, node, that, out, liveEdges, evaluator);
+            evaluator.evaluate(node.tree);
+
+            AJCStatement branching = prunableStatement(node, values[node.index]);
+            if (branching != null) {
+                deadBranches.add(branching);
+                conditions.add((Boolean) values[node.index].getValue());
+            }
+        }
+
+        if (evaluator.constantReads.isEmpty() && deadBranches.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<AJCExpressionTree, Value> read : evaluator.constantReads.entrySet()) {
+            log.debug("{} -> {}", read.getKey(), read.getValue());
+            read.getKey().swapFor(read.getValue().toLiteral());
+            AJCForest.getInstance().increment("Constants Propagated: ");
+        }
+
+        for (int i = 0; i < deadBranches.size(); i++) {
+            removeDeadBranch(deadBranches.get(i), conditions.get(i));
+        }
+
+        mHasMadeAChange = true;
+        log.info("After constant propagation:\n{}", that);
+
+        AJCForest.getInstance().initialAnalysis();
+    }
+
+    /**
+     * @return The primitive locals of the given method, including its parameters.
+     */
+    private static Set<VarSymbol> trackedLocals(AJCMethodDecl method) {
+        final Set<VarSymbol> ret = new HashSet<VarSymbol>();
+        new AJCTreeVisitor() {
+            @Override
+            protected void visitVariableDecl(AJCVariableDecl that) {
+                super.visitVariableDecl(that);
+
+                VarSymbol sym = that.getTargetSymbol();
+                if (TRACKED_TYPES.contains(sym.type.getTag())) {
+                    ret.add(sym);
+                }
+            }
+        }.visitTree(method);
+
+        return ret;
+    }
+
+    /**
+     * Find the state on entry to the given node: the meet of the states after each predecessor that can reach it.
+     */
+    private static HashMap<VarSymbol, Value> stateBefore(ControlFlowGraph graph, CFGNode node, AJCMethodDecl method,
+                                                        ArrayList<HashMap<VarSymbol, Value>> out, BitSet[] liveEdges,
+                                                        ConstantEvaluator evaluator) {
+        HashMap<VarSymbol, Value> state = null;
+        if (node == graph.entry) {
+            state = new HashMap<VarSymbol, Value>();
+            for (AJCVariableDecl param : method.params) {
+                state.put(param.getTargetSymbol(), Value.UNKNOWN);
+            }
+
+            return state;
+        }
+
+        if (node.exceptionalEntry) {
+            return evaluator.allUnknown();
+        }
+
+        for (CFGNode pred : node.predecessors) {
+            HashMap<VarSymbol, Value> predOut = out.get(pred.index);
+            if (predOut == null || !isLive(pred, node, liveEdges)) {
+                continue;
+            }
+
+            state = state == null ? new HashMap<VarSymbol, Value>(predOut) : ConstantEvaluator.meet(state, predOut);
+        }
+
+        return state == null ? new HashMap<VarSymbol, Value>() : state;
+    }
+
+    private static boolean isLive(CFGNode from, CFGNode to, BitSet[] liveEdges) {
+        for (int i = 0; i < from.successors.size(); i++) {
+            if (from.successors.get(i) == to && liveEdges[from.index].get(i)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if the given node chooses between its successors by the value of the expression it holds.
+     */
+    private static boolean isBranch(CFGNode node) {
+        return node.tree instanceof AJCExpressionTree && node.successors.size() > 1;
+    }
+
+    /**
+     * @return The positions of the successors of the given node reachable, given the value of its tree.
+     */
+    private static BitSet reachableSuccessors(CFGNode node, Value value) {
+        BitSet ret = new BitSet();
+        if (isBranch(node)) {
+            if (value == ConstantEvaluator.UNDEFINED) {
+                return ret;
+            }
+
+            int taken = takenSuccessor(node, value);
+            if (taken != -1) {
+                ret.set(taken);
+                return ret;
+            }
+        }
+
+        ret.set(0, node.successors.size());
+        return ret;
+    }
+
+    /**
+     * @return The position of the only successor of the given branch reachable given the value of its tree, or -1.
+     */
+    private static int takenSuccessor(CFGNode node, Value value) {
+        if (!ConstantEvaluator.isConstant(value)) {
+            return -1;
+        }
+
+        if (!(node.tree.mParentNode instanceof AJCSwitch) || ((AJCSwitch) node.tree.mParentNode).selector != node.tree) {
+            // Conditions: the true branch, then the false.
+            if (!(value.getValue() instanceof Boolean)) {
+                return -1;
+            }
+
+            return (Boolean) value.getValue() ? 0 : 1;
+        }
+
+        // Selectors: each case in turn, then the code after the switch if there's no default.
+        Value selector = ConstantEvaluator.cast(value, TypeTag.INT);
+        int defaultCase = -1;
+        int i = 0;
+        for (AJCCase cas : ((AJCSwitch) node.tree.mParentNode).cases) {
+            if (cas.pat.isEmptyExpression()) {
+                defaultCase = i;
+            } else if (!(cas.pat instanceof AJCLiteral)) {
+                return -1;
+            } else {
+                Value label = ConstantEvaluator.cast(Value.of(((AJCLiteral) cas.pat).getValue()), TypeTag.INT);
+                if (!ConstantEvaluator.isConstant(selector) || !ConstantEvaluator.isConstant(label)) {
+                    return -1;
+                }
+
+                if (label.getValue().equals(selector.getValue())) {
+                    return i;
+                }
+            }
+            i++;
+        }
+
+        return defaultCase == -1 ? i : defaultCase;
+    }
+
+    /**
+     * @return The if or loop whose condition is held by the given node, if it's a constant that can be thrown away.
+     */
+    private static AJCStatement prunableStatement(CFGNode node, Value value) {
+        if (!isBranch(node) || !ConstantEvaluator.isConstant(value) || !(value.getValue() instanceof Boolean)) {
+            return null;
+        }
+
+        AJCTree parent = node.tree.mParentNode;
+        if (!(parent.mParentNode instanceof AJCStatementHoldingStatement)) {
+            return null;
+        }
+
+        boolean isCondition = (parent instanceof AJCIf && ((AJCIf) parent).cond == node.tree)
+                           || (parent instanceof AJCWhileLoop && ((AJCWhileLoop) parent).cond == node.tree)
+                           || (parent instanceof AJCForLoop && ((AJCForLoop) parent).cond == node.tree);
+        if (!isCondition) {
+            return null;
+        }
+
+        // Only loops that never run can go.
+        if (!(parent instanceof AJCIf) && (Boolean) value.getValue()) {
+            return null;
+        }
+
+        EffectSet effects = ((AJCExpressionTree) node.tree).effects.getEffectSet();
+        if (effects.containsAny(EffectSet.EffectType.WRITE_INTERNAL, EffectSet.EffectType.WRITE_ESCAPING, EffectSet.EffectType.IO)
+         || effects.contains(EffectSet.ANY_EXCEPTION)) {
+            return null;
+        }
+
+        return (AJCStatement) parent;
+    }
+
+    private static void removeDeadBranch(AJCStatement statement, boolean condition) {
+        AJCStatementHoldingStatement holder = (AJCStatementHoldingStatement) statement.mParentNode;
+        AJCForest.getInstance().increment("Dead Branches Removed: ");
+        log.debug("Removing dead branch of {}", statement);
+
+        if (statement instanceof AJCIf) {
+            AJCIf ifStatement = (AJCIf) statement;
+            AJCBlock kept = condition ? ifStatement.thenpart : ifStatement.elsepart;
+            if (kept == null) {
+                holder.remove(statement);
+            } else {
+                holder.swap(statement, kept);
+            }
+        } else if (statement instanceof AJCForLoop && !((AJCForLoop) statement).init.isEmpty()) {
+            // The initialisers still run, in a block of their own so what they declare stays in scope.
+            holder.swap(statement, treeMaker.Block(0, ((AJCForLoop) statement).init));
+        } else {
+            holder.remove(statement);
+        }
+    }
+}
@@ -0,0 +1,736 @@
+package joust.optimisers.cse;
+
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.util.List;
+import joust.analysers.ArrayAliasAnalysis;
+import joust.analysers.cfg.CFGNode;
+import joust.analysers.cfg.ControlFlowGraph;
+import joust.analysers.cfg.InsertionPoint;
+import joust.optimisers.invar.ExpressionComplexityClassifier;
+import joust.optimisers.translators.BaseTranslator;
+import joust.tree.annotatedtree.AJCComparableExpressionTree;
+import joust.tree.annotatedtree.AJCForest;
+import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.tree.annotatedtree.treeinfo.EffectSet;
+import joust.tree.annotatedtree.treeinfo.FinalFields;
+import joust.utils.logging.LogUtils;
+import joust.utils.tree.NameFactory;
+import lombok.AllArgsConstructor;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static com.sun.tools.javac.tree.JCTree.Tag;
+import static joust.tree.annotatedtree.AJCTree.*;
+import static joust.utils.compiler.StaticCompilerUtils.*;
+
+/**
+ * Global value numbering over the control flow graph of each method (See ControlFlowGraph).
+ *
+ * Expressions are numbered by structural equality, so two expressions get the same number if they compute the
+ * same thing from the same variables. A forward dataflow analysis then finds the numbers available at each point
+ * of the method: computed on every path to it, with nothing since that might have changed the result (Judged
+ * from effect information, as for LICM). An expression whose number is available there is redundant. If it's
+ * worth it, each of its computations is made to store its value in a temporary, and each redundant one is
+ * replaced by a read of that temporary - which works across branches, joins, switch cases and loop back edges.
+ *
+ * Expressions computed on only some paths to a point are partially redundant there. Where it can be done without
+ * computing anything on a path that didn't before, new computations are inserted on the other paths to make them
+ * fully redundant (See LazyCodeMotion). Only expressions that can't throw are moved like this.
+ *
+ * Only expressions which write nothing, do no IO, and read nothing escaping but stable symbols are considered, as
+ * only they are certain to give the same result when computed again. Even those may see another thread's writes
+ * after a synchronisation action - taking or releasing a monitor, touching a volatile field, or calling a method
+ * that might do either - so every escaping read is dropped from availability at one.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class GlobalValueNumberingTranslator extends BaseTranslator {
+    // The minimum score for an expression to have to qualify for consideration.
+    public static int MINIMUM_CSE_SCORE = 6;
+
+    // The value number of each expression tree seen, or -1 for trees that can't have one.
+    private final Map<AJCExpressionTree, Integer> treeNumbers = new IdentityHashMap<AJCExpressionTree, Integer>();
+
+    // The value number of each distinct expression, and the first tree seen with each number.
+    private final Map<AJCComparableExpressionTree, Integer> numbers = new HashMap<AJCComparableExpressionTree, Integer>();
+    private final ArrayList<AJCExpressionTree> representatives = new ArrayList<AJCExpressionTree>();
+
+    // The array elements written by each tree which writes some, computed as needed.
+    private final Map<AJCTree, ArrayAliasAnalysis.ArrayWrites> arrayWrites = new IdentityHashMap<AJCTree, ArrayAliasAnalysis.ArrayWrites>();
+    private ArrayAliasAnalysis arrayAliases;
+
+    // The expressions each method has had computations of moved about (See LazyCodeMotion).
+    private final Map<MethodSymbol, Set<AJCComparableExpressionTree>> movedExpressions = new HashMap<MethodSymbol, Set<AJCComparableExpressionTree>>();
+
+    /**
+     * A computation of a numbered expression found when walking the method.
+     */
+    @AllArgsConstructor
+    private static class Occurrence {
+        final AJCExpressionTree tree;
+        final int number;
+        final boolean redundant;
+    }
+
+    @Override
+    protected void visitClassDef(AJCClassDecl that) {
+        visit(that.methods);
+        visit(that.classes);
+    }
+
+    @Override
+    protected void visitMethodDef(AJCMethodDecl that) {
+        ControlFlowGraph graph = ControlFlowGraph.build(that);
+        if (graph == null) {
+            return;
+        }
+
+        treeNumbers.clear();
+        numbers.clear();
+        representatives.clear();
+        arrayWrites.clear();
+        arrayAliases = new ArrayAliasAnalysis(that);
+        MethodSymbol enclosingMethod = that.getTargetSymbol();
+
+        // Number everything first, so the local properties of each node can be found for every number.
+        AvailabilityWalker walker = new AvailabilityWalker();
+        for (CFGNode node : graph.nodes) {
+            if (node.tree != null) {
+                walker.state = new BitSet();
+                walker.visitTree(node.tree);
+            }
+        }
+
+        int size = representatives.size();
+        if (size == 0) {
+            return;
+        }
+
+        LazyCodeMotion placement = placeComputations(graph, walker, enclosingMethod);
+        BitSet[] entryInsertions = placement.entryInsertions;
+        BitSet[] exitInsertions = placement.exitInsertions;
+
+        ArrayList<Occurrence> occurrences = findOccurrences(graph, walker, entryInsertions, exitInsertions);
+        int[] computations = new int[size];
+        int[] redundancies = new int[size];
+        int[] insertions = new int[size];
+        count(occurrences, entryInsertions, exitInsertions, computations, redundancies, insertions);
+
+        // Moving computations about only pays if enough of them become redundant. If any moves are abandoned,
+        // availability has to be found again without them.
+        boolean abandoned = false;
+        for (int i = 0; i < size; i++) {
+            if (insertions[i] > 0 && !isWorthReusing(i, computations, redundancies, insertions)) {
+                for (int j = 0; j < entryInsertions.length; j++) {
+                    entryInsertions[j].clear(i);
+                    exitInsertions[j].clear(i);
+                }
+                abandoned = true;
+            }
+        }
+
+        if (abandoned) {
+            occurrences = findOccurrences(graph, walker, entryInsertions, exitInsertions);
+            count(occurrences, entryInsertions, exitInsertions, computations, redundancies, insertions);
+        }
+
+        VarSymbol[] temporaries = new VarSymbol[size];
+        List<AJCStatement> decls = List.nil();
+        for (int i = 0; i < size; i++) {
+            if (insertions[i] == 0 && (redundancies[i] == 0 || !isWorthReusing(i, computations, redundancies, insertions))) {
+                continue;
+            }
+
+            temporaries[i] = new VarSymbol(0, NameFactory.getName(), representatives.get(i).getNodeType(), enclosingMethod);
+            decls = decls.prepend(treeMaker.VarDef(temporaries[i], treeMaker.EmptyExpression()));
+        }
+
+        if (decls.isEmpty()) {
+            return;
+        }
+
+        // The new computations are copies of the representatives, which rewriting the occurrences may change.
+        ArrayList<InsertionPoint> insertionPoints = new ArrayList<InsertionPoint>();
+        ArrayList<AJCStatement> inserted = new ArrayList<AJCStatement>();
+        for (CFGNode node : graph.nodes) {
+            BitSet atEntry = entryInsertions[node.index];
+            for (int i = atEntry.nextSetBit(0); i >= 0; i = atEntry.nextSetBit(i + 1)) {
+                insertionPoints.add(node.entryPoint);
+                inserted.add(computeInto(temporaries[i], representatives.get(i)));
+            }
+
+            BitSet atExit = exitInsertions[node.index];
+            for (int i = atExit.nextSetBit(0); i >= 0; i = atExit.nextSetBit(i + 1)) {
+                insertionPoints.add(node.exitPoint);
+                inserted.add(computeInto(temporaries[i], representatives.get(i)));
+            }
+        }
+
+        Set<AJCComparableExpressionTree> moved = movedExpressions.get(enclosingMethod);
+        if (moved == null) {
+            moved = new HashSet<AJCComparableExpressionTree>();
+            movedExpressions.put(enclosingMethod, moved);
+        }
+        for (int i = 0; i < size; i++) {
+            if (insertions[i] > 0) {
+                moved.add(AJCComparableExpressionTree.wrap(treeCopier.copy(representatives.get(i))));
+            }
+        }
+
+        // Occurrences are listed innermost first, so nested ones are rewritten before the copies of those
+        // enclosing them are made.
+        for (Occurrence occurrence : occurrences) {
+            VarSymbol temp = temporaries[occurrence.number];
+            if (temp == null) {
+                continue;
+            }
+
+            if (occurrence.redundant) {
+                AJCForest.getInstance().increment("Common Subexpressions Eliminated:");
+                occurrence.tree.swapFor(treeMaker.Ident(temp));
+            } else {
+                occurrence.tree.swapFor(treeMaker.Assign(treeMaker.Ident(temp), treeCopier.copy(occurrence.tree)));
+            }
+        }
+
+        for (int i = 0; i < inserted.size(); i++) {
+            AJCForest.getInstance().increment("Partially Redundant Computations Moved:");
+            insertionPoints.get(i).insert(inserted.get(i));
+        }
+
+        // The temporaries are assigned wherever they're read from, so need no initial value.
+        that.body.insert(decls.reverse(), 0);
+
+        mHasMadeAChange = true;
+        log.info("After value numbering:\n{}", that);
+
+        AJCForest.getInstance().initialAnalysis();
+    }
+
+    private AJCStatement computeInto(VarSymbol temp, AJCExpressionTree expr) {
+        return treeMaker.Exec(treeMaker.Assign(treeMaker.Ident(temp), treeCopier.copy(expr)));
+    }
+
+    /**
+     * Every computation of a reused number has to store its result, costing an assignment, and every redundant
+     * one is swapped for a read of that.
+     */
+    private boolean isWorthReusing(int number, int[] computations, int[] redundancies, int[] insertions) {
+        AJCExpressionTree expr = representatives.get(number);
+        int saving = redundancies[number] * (ExpressionComplexityClassifier.scoreOf(expr) - ExpressionComplexityClassifier.IDENT_COST);
+        int cost = (computations[number] + insertions[number]) * ExpressionComplexityClassifier.ASSIGNMENT_COST;
+        log.debug("{} computed {} times, inserted {} times, redundant {} times. Saving {}, cost {}",
+                  expr, computations[number], insertions[number], redundancies[number], saving, cost);
+
+        return saving > cost;
+    }
+
+    private static void count(ArrayList<Occurrence> occurrences, BitSet[] entryInsertions, BitSet[] exitInsertions,
+                              int[] computations, int[] redundancies, int[] insertions) {
+        Arrays.fill(computations, 0);
+        Arrays.fill(redundancies, 0);
+        Arrays.fill(insertions, 0);
+
+        for (Occurrence occurrence : occurrences) {
+            if (occurrence.redundant) {
+                redundancies[occurrence.number]++;
+            } else {
+                computations[occurrence.number]++;
+            }
+        }
+
+        for (int i = 0; i < entryInsertions.length; i++) {
+            for (int j = entryInsertions[i].nextSetBit(0); j >= 0; j = entryInsertions[i].nextSetBit(j + 1)) {
+                insertions[j]++;
+            }
+            for (int j = exitInsertions[i].nextSetBit(0); j >= 0; j = exitInsertions[i].nextSetBit(j + 1)) {
+                insertions[j]++;
+            }
+        }
+    }
+
+    /**
+     * Find the local properties of each node for lazy code motion, and work out where to move computations.
+     */
+    private LazyCodeMotion placeComputations(ControlFlowGraph graph, AvailabilityWalker walker, MethodSymbol method) {
+        int size = representatives.size();
+        int nodeCount = graph.nodes.size();
+        BitSet[] antloc = new BitSet[nodeCount];
+        BitSet[] comp = new BitSet[nodeCount];
+        BitSet[] transp = new BitSet[nodeCount];
+
+        walker.universe = new BitSet(size);
+        walker.universe.set(0, size);
+        for (CFGNode node : graph.nodes) {
+            walker.state = new BitSet();
+            walker.killed = new BitSet();
+            walker.anticipated = new BitSet();
+            if (node.tree != null) {
+                walker.visitTree(node.tree);
+            }
+            if (node.synchronises) {
+                walker.killEscaping();
+            }
+
+            antloc[node.index] = walker.anticipated;
+            if (node.passesThroughFinally) {
+                comp[node.index] = new BitSet();
+                transp[node.index] = new BitSet();
+            } else {
+                comp[node.index] = walker.state;
+                transp[node.index] = (BitSet) walker.universe.clone();
+                transp[node.index].andNot(walker.killed);
+            }
+        }
+        walker.killed = null;
+        walker.anticipated = null;
+
+        // Something that might throw can't be computed where it wasn't before. Nothing is moved twice, lest the
+        // same computations be shuffled about forever.
+        Set<AJCComparableExpressionTree> moved = movedExpressions.get(method);
+        BitSet eligible = new BitSet();
+        for (Map.Entry<AJCComparableExpressionTree, Integer> entry : numbers.entrySet()) {
+            AJCExpressionTree expr = representatives.get(entry.getValue());
+            if (!expr.effects.getEffectSet().contains(EffectSet.ANY_EXCEPTION) && (moved == null || !moved.contains(entry.getKey()))) {
+                eligible.set(entry.getValue());
+            }
+        }
+
+        LazyCodeMotion placement = new LazyCodeMotion(graph, size, antloc, comp, transp);
+        placement.compute(eligible);
+        return placement;
+    }
+
+    /**
+     * Find which computations are redundant, given the computations to be inserted at the entry and exit of each node.
+     */
+    private static ArrayList<Occurrence> findOccurrences(ControlFlowGraph graph, AvailabilityWalker walker,
+                                                         BitSet[] entryInsertions, BitSet[] exitInsertions) {
+        // Iterate to a fixed point. Numbers not yet computed for a node (null) are taken to be everything.
+        BitSet[] out = new BitSet[graph.nodes.size()];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (CFGNode node : graph.nodes) {
+                BitSet result = transfer(graph, node, out, entryInsertions, exitInsertions, walker);
+                if (!result.equals(out[node.index])) {
+                    out[node.index] = result;
+                    changed = true;
+                }
+            }
+        }
+
+        // One more walk with the final states, to note which computations are redundant.
+        walker.occurrences = new ArrayList<Occurrence>();
+        for (CFGNode node : graph.nodes) {
+            transfer(graph, node, out, entryInsertions, exitInsertions, walker);
+        }
+
+        ArrayList<Occurrence> ret = walker.occurrences;
+        walker.occurrences = null;
+        return ret;
+    }
+
+    /**
+     * Find the numbers available after the given node, given those available after each node so far.
+     */
+    private static BitSet transfer(ControlFlowGraph graph, CFGNode node, BitSet[] out, BitSet[] entryInsertions,
+                                   BitSet[] exitInsertions, AvailabilityWalker walker) {
+        BitSet state = null;
+        if (node != graph.entry && !node.exceptionalEntry) {
+            for (CFGNode pred : node.predecessors) {
+                BitSet predOut = out[pred.index];
+                if (predOut == null) {
+                    continue;
+                }
+
+                if (state == null) {
+                    state = (BitSet) predOut.clone();
+                } else {
+                    state.and(predOut);
+                }
+            }
+        }
+
+        walker.state = state == null ? new BitSet() : state;
+        walker.state.or(entryInsertions[node.index]);
+        if (node.tree != null) {
+            walker.visitTree(node.tree);
+        }
+        if (node.synchronises) {
+            walker.killEscaping();
+        }
+
+        if (node.passesThroughFinally) {
+            return new BitSet();
+        }
+
+        walker.state.or(exitInsertions[node.index]);
+        return walker.state;
+    }
+
+    /**
+     * @return true if the value of the given expression could be kept in a temporary and reused.
+     */
+    private static boolean isCandidate(AJCExpressionTree tree) {
+        Type type = tree.getNodeType();
+        if (type == null || type.getTag() == TypeTag.VOID || type.getTag() == TypeTag.BOT) {
+            return false;
+        }
+
+        if (ExpressionComplexityClassifier.scoreOf(tree) < MINIMUM_CSE_SCORE) {
+            return false;
+        }
+
+        // Escaping reads are out, for concurrency reasons, except of array elements and effectively final fields.
+        // Array elements can't be volatile, so without a synchronisation action in between the memory model lets
+        // two reads see the same write - but after one, another thread's write may become visible. Such reads are
+        // killed by writes that may alias them and by every synchronisation action (See AvailabilityWalker).
+        EffectSet effects = tree.effects.getEffectSet();
+        return !effects.contains(EffectSet.EffectType.WRITE_ESCAPING)
+            && !effects.contains(EffectSet.EffectType.WRITE_INTERNAL)
+            && !effects.contains(EffectSet.EffectType.IO)
+            && (!effects.contains(EffectSet.EffectType.READ_ESCAPING) || FinalFields.onlyStable(effects.readEscaping));
+    }
+
+    /**
+     * @return The value number of the given expression, or -1 if it's not a candidate for reuse.
+     */
+    private int valueNumber(AJCExpressionTree tree) {
+        Integer number = treeNumbers.get(tree);
+        if (number != null) {
+            return number;
+        }
+
+        number = -1;
+        if (isCandidate(tree)) {
+            AJCComparableExpressionTree key = AJCComparableExpressionTree.wrap(tree);
+            number = numbers.get(key);
+            if (number == null) {
+                number = representatives.size();
+                numbers.put(key, number);
+                representatives.add(tree);
+            }
+        }
+
+        treeNumbers.put(tree, number);
+        return number;
+    }
+
+    private ArrayAliasAnalysis.ArrayWrites arrayWritesOf(AJCTree tree) {
+        ArrayAliasAnalysis.ArrayWrites writes = arrayWrites.get(tree);
+        if (writes == null) {
+            writes = arrayAliases.writesOf(tree);
+            arrayWrites.put(tree, writes);
+        }
+
+        return writes;
+    }
+
+    /**
+     * Walks the tree held by a node in evaluation order, updating the set of available numbers as it goes.
+     * Expressions already available aren't walked into: nothing inside them is computed again.
+     */
+    private class AvailabilityWalker extends AJCTreeVisitor {
+        BitSet state;
+
+        // If non-null, where to note every numbered expression walked.
+        ArrayList<Occurrence> occurrences;
+
+        // If non-null, where to note every number changed by the walked tree, and every number computed by it
+        // for certain before being changed. Finding these needs every number to be checked at each update.
+        BitSet killed;
+        BitSet anticipated;
+        BitSet universe;
+
+        // How many conditionally evaluated expressions the walk is within.
+        private int conditional;
+
+        /**
+         * @return true if the given expression, with the given number, is redundant.
+         */
+        private boolean isAvailable(AJCExpressionTree tree, int number) {
+            if (number == -1 || !state.get(number)) {
+                return false;
+            }
+
+            if (occurrences != null) {
+                occurrences.add(new Occurrence(tree, number, true));
+            }
+            return true;
+        }
+
+        private void generate(AJCExpressionTree tree, int number) {
+            if (number == -1) {
+                return;
+            }
+
+            if (occurrences != null) {
+                occurrences.add(new Occurrence(tree, number, false));
+            }
+            if (anticipated != null && conditional == 0 && !killed.get(number)) {
+                anticipated.set(number);
+            }
+            state.set(number);
+        }
+
+        /**
+         * Drop every available number the given update might change the value of.
+         */
+        private void kill(AJCEffectAnnotatedTree tree) {
+            EffectSet effects = tree.effects.getEffectSet();
+            if (effects.contains(EffectSet.EffectType.SYNCHRONISATION)) {
+                killEscaping();
+                return;
+            }
+
+            boolean writesEscaping = effects.contains(EffectSet.EffectType.WRITE_ESCAPING);
+
+            BitSet candidates = killed == null ? state : universe;
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                AJCExpressionTree expr = representatives.get(i);
+                EffectSet availEffects = expr.effects.getEffectSet();
+
+                boolean changed = false;
+                for (VarSymbol sym : availEffects.readInternal) {
+                    if (effects.writeInternal.contains(sym)) {
+                        changed = true;
+                        break;
+                    }
+                }
+
+                if (!changed && writesEscaping) {
+                    // Constructors write the effectively final fields of the object they're constructing.
+                    changed = FinalFields.mayWriteFieldsRead(effects.writeEscaping, availEffects.readEscaping)
+                          || (availEffects.contains(EffectSet.EffectType.READ_ESCAPING) && arrayWritesOf(tree).mayWriteAny(expr));
+                }
+
+                if (changed) {
+                    log.debug("{} kills {}", tree, expr);
+                    clear(i);
+                }
+            }
+        }
+
+        /**
+         * Drop every available number which reads anything escaping, as happens at a synchronisation action.
+         */
+        void killEscaping() {
+            BitSet candidates = killed == null ? state : universe;
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                if (representatives.get(i).effects.getEffectSet().contains(EffectSet.EffectType.READ_ESCAPING)) {
+                    clear(i);
+                }
+            }
+        }
+
+        /**
+         * Drop every available number which reads the given symbol.
+         */
+        private void kill(VarSymbol sym) {
+            BitSet candidates = killed == null ? state : universe;
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                if (representatives.get(i).effects.getEffectSet().readInternal.contains(sym)) {
+                    clear(i);
+                }
+            }
+        }
+
+        private void clear(int number) {
+            state.clear(number);
+            if (killed != null) {
+                killed.set(number);
+            }
+        }
+
+        /**
+         * Visit the expressions within the target of an assignment. The target itself can't be replaced by a
+         * temporary, so isn't one of them.
+         */
+        private void visitAssignmentTarget(AJCTree target) {
+            if (target instanceof AJCArrayAccess) {
+                visit(((AJCArrayAccess) target).indexed);
+                visit(((AJCArrayAccess) target).index);
+            } else if (target instanceof AJCFieldAccess) {
+                visit(((AJCFieldAccess) target).selected);
+            }
+        }
+
+        @Override
+        protected void visitVariableDecl(AJCVariableDecl that) {
+            visit(that.getInit());
+            kill(that.getTargetSymbol());
+        }
+
+        @Override
+        protected void visitAssign(AJCAssign that) {
+            visitAssignmentTarget(that.lhs);
+            visit(that.rhs);
+            kill(that);
+        }
+
+        @Override
+        protected void visitAssignop(AJCAssignOp that) {
+            visitAssignmentTarget(that.lhs);
+            visit(that.rhs);
+            kill(that);
+        }
+
+        @Override
+        protected void visitUnaryAsg(AJCUnaryAsg that) {
+            visitAssignmentTarget(that.arg);
+            kill(that);
+        }
+
+        @Override
+        protected void visitNewClass(AJCNewClass that) {
+            visit(that.args);
+            kill(that);
+        }
+
+        @Override
+        protected void visitCall(AJCCall that) {
+            int number = valueNumber(that);
+            if (isAvailable(that, number)) {
+                return;
+            }
+
+            super.visitCall(that);
+            kill(that);
+            generate(that, number);
+        }
+
+        @Override
+        protected void visitConditional(AJCConditional that) {
+            int number = valueNumber(that);
+            if (isAvailable(that, number)) {
+                return;
+            }
+
+            // Only one arm is evaluated, so only what's available after both is afterwards.
+            visit(that.cond);
+            BitSet afterCond = (BitSet) state.clone();
+            conditional++;
+            visit(that.truepart);
+            BitSet afterTrue = state;
+            state = afterCond;
+            visit(that.falsepart);
+            conditional--;
+            state.and(afterTrue);
+
+            generate(that, number);
+        }
+
+        @Override
+        protected void visitBinary(AJCBinary that) {
+            int number = valueNumber(that);
+            if (isAvailable(that, number)) {
+                return;
+            }
+
+            Tag tag = that.getTag();
+            if (tag == Tag.AND || tag == Tag.OR) {
+                // The right hand side may not be evaluated.
+                visit(that.lhs);
+                BitSet afterLhs = (BitSet) state.clone();
+                conditional++;
+                visit(that.rhs);
+                conditional--;
+                state.and(afterLhs);
+            } else {
+                super.visitBinary(that);
+            }
+
+            generate(that, number);
+        }
+
+        @Override
+        protected void visitUnary(AJCUnary that) {
+            int number = valueNumber(that);
+            if (isAvailable(that, number)) {
+                return;
+            }
+
+            super.visitUnary(that);
+            generate(that, number);
+        }
+
+        @Override
+        protected void visitTypeCast(AJCTypeCast that) {
+            int number = valueNumber(that);
+            if (isAvailable(that, number)) {
+                return;
+            }
+
+            super.visitTypeCast(that);
+            generate(that, number);
+        }
+
+        @Override
+        protected void visitInstanceOf(AJCInstanceOf that) {
+            int number = valueNumber(that);
+            if (isAvailable(that, number)) {
+                return;
+            }
+
+            super.visitInstanceOf(that);
+            generate(that, number);
+        }
+
+        @Override
+        protected void visitArrayAccess(AJCArrayAccess that) {
+            int number = valueNumber(that);
+            if (isAvailable(that, number)) {
+                return;
+            }
+
+            visit(that.indexed);
+            visit(that.index);
+            generate(that, number);
+        }
+
+        @Override
+        protected void visitFieldAccess(AJCFieldAccess that) {
+            if (!(that.getTargetSymbol() instanceof VarSymbol)) {
+                super.visitFieldAccess(that);
+                return;
+            }
+
+            int number = valueNumber(that);
+            if (isAvailable(that, number)) {
+                return;
+            }
+
+            super.visitFieldAccess(that);
+            killIfSynchronises(that);
+            generate(that, number);
+        }
+
+        @Override
+        protected void visitIdent(AJCIdent that) {
+            killIfSynchronises(that);
+        }
+
+        /**
+         * Reading a volatile field is a synchronisation action. Writes of one are killed as assignments.
+         */
+        private void killIfSynchronises(AJCEffectAnnotatedTree that) {
+            if (that.effects.getEffectSet().contains(EffectSet.EffectType.SYNCHRONISATION)) {
+                killEscaping();
+            }
+        }
+    }
+}
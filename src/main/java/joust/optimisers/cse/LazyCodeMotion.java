@@ -0,0 +1,313 @@
+package joust.optimisers.cse;
+
+import joust.analysers.cfg.CFGNode;
+import joust.analysers.cfg.ControlFlowGraph;
+import joust.utils.logging.LogUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.logging.Logger;
+
+/**
+ * Finds where to insert computations of expressions to make partially redundant computations of them fully
+ * redundant, by lazy code motion (Knoop, Rüthing and Steffen, in the edge-based form of Drechsler and Stadel).
+ * Computations are placed as late as possible while still removing every redundancy that can be removed without
+ * computing anything on a path that didn't compute it before, so no path gets longer and temporaries live no
+ * longer than they need to.
+ *
+ * Expressions are identified by their value numbers, and described for each node of the graph by:
+ * - antloc: The numbers computed by the node before anything that changes their value.
+ * - comp: The numbers computed by the node and not changed after.
+ * - transp: The numbers whose value the node doesn't change.
+ *
+ * Catch and finally blocks are treated as reached only from the entry of the method, so nothing is available on
+ * entry to them.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class LazyCodeMotion {
+    private final ControlFlowGraph graph;
+    private final int size;
+    private final BitSet[] antloc;
+    private final BitSet[] comp;
+    private final BitSet[] transp;
+
+    // The graph with the edges into catch and finally blocks replaced by edges from the entry.
+    private final ArrayList<ArrayList<CFGNode>> preds = new ArrayList<ArrayList<CFGNode>>();
+    private final ArrayList<ArrayList<CFGNode>> succs = new ArrayList<ArrayList<CFGNode>>();
+
+    // The numbers to compute on entry to, and on exit from, each node.
+    public final BitSet[] entryInsertions;
+    public final BitSet[] exitInsertions;
+
+    public LazyCodeMotion(ControlFlowGraph graph, int size, BitSet[] antloc, BitSet[] comp, BitSet[] transp) {
+        this.graph = graph;
+        this.size = size;
+        this.antloc = antloc;
+        this.comp = comp;
+        this.transp = transp;
+
+        int nodeCount = graph.nodes.size();
+        entryInsertions = new BitSet[nodeCount];
+        exitInsertions = new BitSet[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            entryInsertions[i] = new BitSet();
+            exitInsertions[i] = new BitSet();
+            preds.add(new ArrayList<CFGNode>());
+            succs.add(new ArrayList<CFGNode>());
+        }
+
+        for (CFGNode node : graph.nodes) {
+            if (node.exceptionalEntry) {
+                addEdge(graph.entry, node);
+                continue;
+            }
+
+            for (CFGNode pred : node.predecessors) {
+                addEdge(pred, node);
+            }
+        }
+    }
+
+    private void addEdge(CFGNode from, CFGNode to) {
+        succs.get(from.index).add(to);
+        preds.get(to.index).add(from);
+    }
+
+    private BitSet all() {
+        BitSet ret = new BitSet(size);
+        ret.set(0, size);
+        return ret;
+    }
+
+    /**
+     * Find the insertions needed to remove partial redundancies of the given numbers. Numbers needing an
+     * insertion somewhere there's no place for one in the tree get none.
+     */
+    public void compute(BitSet eligible) {
+        int nodeCount = graph.nodes.size();
+
+        // Availability.
+        BitSet[] avOut = new BitSet[nodeCount];
+        for (CFGNode node : graph.nodes) {
+            avOut[node.index] = node == graph.entry ? new BitSet() : all();
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (CFGNode node : graph.nodes) {
+                if (node == graph.entry) {
+                    continue;
+                }
+
+                BitSet in = meet(preds.get(node.index), avOut);
+                in.and(transp[node.index]);
+                in.or(comp[node.index]);
+                if (!in.equals(avOut[node.index])) {
+                    avOut[node.index] = in;
+                    changed = true;
+                }
+            }
+        }
+
+        // Anticipability. Nodes from which the exit can't be reached anticipate nothing, lest computations be
+        // placed before infinite loops that never use them.
+        boolean[] reachesExit = reachesExit();
+        BitSet[] antIn = new BitSet[nodeCount];
+        BitSet[] antOut = new BitSet[nodeCount];
+        for (CFGNode node : graph.nodes) {
+            antIn[node.index] = reachesExit[node.index] ? all() : (BitSet) antloc[node.index].clone();
+            antOut[node.index] = new BitSet();
+        }
+
+        changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = nodeCount - 1; i >= 0; i--) {
+                CFGNode node = graph.nodes.get(i);
+                if (!reachesExit[i]) {
+                    continue;
+                }
+
+                antOut[i] = meet(succs.get(i), antIn);
+                BitSet in = (BitSet) antOut[i].clone();
+                in.and(transp[i]);
+                in.or(antloc[i]);
+                if (!in.equals(antIn[i])) {
+                    antIn[i] = in;
+                    changed = true;
+                }
+            }
+        }
+
+        // Placement: the earliest edges a computation could go on, then how far each can be delayed.
+        BitSet[] laterIn = new BitSet[nodeCount];
+        for (CFGNode node : graph.nodes) {
+            laterIn[node.index] = node == graph.entry ? new BitSet() : all();
+        }
+
+        changed = true;
+        while (changed) {
+            changed = false;
+            for (CFGNode node : graph.nodes) {
+                if (node == graph.entry) {
+                    continue;
+                }
+
+                BitSet in = null;
+                for (CFGNode pred : preds.get(node.index)) {
+                    BitSet later = later(pred, node, avOut, antIn, antOut, laterIn);
+                    if (in == null) {
+                        in = later;
+                    } else {
+                        in.and(later);
+                    }
+                }
+
+                if (in == null) {
+                    in = new BitSet();
+                }
+
+                if (!in.equals(laterIn[node.index])) {
+                    laterIn[node.index] = in;
+                    changed = true;
+                }
+            }
+        }
+
+        // Insert on the edges where computations can be delayed no further, if there's somewhere to put them.
+        BitSet unplaceable = new BitSet();
+        for (CFGNode node : graph.nodes) {
+            for (CFGNode pred : preds.get(node.index)) {
+                BitSet insert = later(pred, node, avOut, antIn, antOut, laterIn);
+                insert.andNot(laterIn[node.index]);
+                insert.and(eligible);
+
+                for (int k = insert.nextSetBit(0); k >= 0; k = insert.nextSetBit(k + 1)) {
+                    if (!place(pred, node, k)) {
+                        log.debug("Nowhere to insert number {} between {} and {}", k, pred, node);
+                        unplaceable.set(k);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < nodeCount; i++) {
+            entryInsertions[i].andNot(unplaceable);
+            exitInsertions[i].andNot(unplaceable);
+        }
+    }
+
+    /**
+     * @return The intersection of the given sets for the given nodes, or the empty set if there are none.
+     */
+    private static BitSet meet(ArrayList<CFGNode> nodes, BitSet[] sets) {
+        BitSet ret = null;
+        for (CFGNode node : nodes) {
+            if (ret == null) {
+                ret = (BitSet) sets[node.index].clone();
+            } else {
+                ret.and(sets[node.index]);
+            }
+        }
+
+        return ret == null ? new BitSet() : ret;
+    }
+
+    private BitSet later(CFGNode from, CFGNode to, BitSet[] avOut, BitSet[] antIn, BitSet[] antOut, BitSet[] laterIn) {
+        // Earliest: anticipated at the target, not available at the source, and couldn't have gone any earlier.
+        BitSet ret = (BitSet) antIn[to.index].clone();
+        ret.andNot(avOut[from.index]);
+        if (from != graph.entry) {
+            BitSet blocked = (BitSet) transp[from.index].clone();
+            blocked.and(antOut[from.index]);
+            ret.andNot(blocked);
+        }
+
+        BitSet delayed = (BitSet) laterIn[from.index].clone();
+        delayed.andNot(antloc[from.index]);
+        ret.or(delayed);
+
+        return ret;
+    }
+
+    private boolean[] reachesExit() {
+        boolean[] ret = new boolean[graph.nodes.size()];
+        ArrayList<CFGNode> work = new ArrayList<CFGNode>();
+        work.add(graph.exit);
+        ret[graph.exit.index] = true;
+
+        while (!work.isEmpty()) {
+            CFGNode node = work.remove(work.size() - 1);
+            for (CFGNode pred : preds.get(node.index)) {
+                if (!ret[pred.index]) {
+                    ret[pred.index] = true;
+                    work.add(pred);
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Find a place in the tree for a computation of the given number on the given edge. If the edge has none of its
+     * own, the computation may be moved back over nodes with just the one way in and out, or forward likewise, so
+     * long as they neither change nor compute its value.
+     *
+     * @return true if a place was found.
+     */
+    private boolean place(CFGNode from, CFGNode to, int number) {
+        CFGNode source = from;
+        CFGNode target = to;
+        for (int steps = 0; steps < graph.nodes.size(); steps++) {
+            if (preds.get(target.index).size() == 1 && target.entryPoint != null) {
+                entryInsertions[target.index].set(number);
+                return true;
+            }
+
+            if (succs.get(source.index).size() == 1 && source.exitPoint != null) {
+                exitInsertions[source.index].set(number);
+                return true;
+            }
+
+            if (!isSkippable(source, number) || preds.get(source.index).size() != 1) {
+                break;
+            }
+
+            target = source;
+            source = preds.get(source.index).get(0);
+        }
+
+        source = from;
+        target = to;
+        for (int steps = 0; steps < graph.nodes.size(); steps++) {
+            if (!isSkippable(target, number) || preds.get(target.index).size() != 1) {
+                break;
+            }
+
+            source = target;
+            target = succs.get(source.index).get(0);
+
+            if (preds.get(target.index).size() == 1 && target.entryPoint != null) {
+                entryInsertions[target.index].set(number);
+                return true;
+            }
+
+            if (source.exitPoint != null) {
+                exitInsertions[source.index].set(number);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isSkippable(CFGNode node, int number) {
+        return node != graph.entry && node != graph.exit && succs.get(node.index).size() == 1
+            && transp[node.index].get(number) && !antloc[node.index].get(number);
+    }
+}
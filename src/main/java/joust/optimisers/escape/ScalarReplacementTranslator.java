@@ -0,0 +1,458 @@
+package joust.optimisers.escape;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.util.List;
+import joust.analysers.ReceiverEscapeChecker;
+import joust.optimisers.translators.BaseTranslator;
+import joust.tree.annotatedtree.AJCForest;
+import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.utils.data.SetHashMap;
+import joust.utils.logging.LogUtils;
+import joust.utils.tree.NameFactory;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static joust.tree.annotatedtree.AJCTree.*;
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.utils.compiler.StaticCompilerUtils.*;
+
+/**
+ * Performs scalar replacement of allocations that never escape their method (See FreshObjectLocator), replacing
+ * the object or array with a local variable for each of its fields or elements.
+ *
+ * An object qualifies if its class is in the forest, extends Object directly, isn't generic, has at most MAX_FIELDS
+ * instance fields and no finaliser, and its constructor does nothing but call Object's constructor and assign
+ * literals or parameters to fields. An array qualifies if its length is a literal no greater than MAX_ARRAY_LENGTH.
+ * In either case the allocation must initialise the local's declaration, the local must never be reassigned, and
+ * it may only be used to access fields, elements at literal indices in range, or the array's length.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class ScalarReplacementTranslator extends BaseTranslator {
+    // The most fields an object, or elements an array, may have for it to be replaced by locals.
+    public static final int MAX_FIELDS = 8;
+    public static final int MAX_ARRAY_LENGTH = 8;
+
+    @Override
+    public void visitMethodDef(AJCMethodDecl tree) {
+        super.visitMethodDef(tree);
+        if (tree.body == null || tree.freshLocals.isEmpty()) {
+            return;
+        }
+
+        UseScanner scanner = new UseScanner(tree.freshLocals);
+        scanner.visitTree(tree.body);
+
+        boolean replaced = false;
+        for (Map.Entry<VarSymbol, AJCVariableDecl> candidate : scanner.decls.entrySet()) {
+            VarSymbol sym = candidate.getKey();
+            if (scanner.rejected.contains(sym)) {
+                continue;
+            }
+
+            Set<AJCTree> uses = scanner.uses.get(sym);
+            if (replace(tree.getTargetSymbol(), candidate.getValue(), uses == null ? new HashSet<AJCTree>() : uses)) {
+                replaced = true;
+            }
+        }
+
+        if (replaced) {
+            log.info("After scalar replacement:\n{}", tree);
+            AJCForest.getInstance().initialAnalysis();
+            mHasMadeAChange = true;
+        }
+    }
+
+    /**
+     * Replace the allocation initialising the given declaration, if it's of a suitable object or array, with locals.
+     *
+     * @return true if the allocation was replaced.
+     */
+    private static boolean replace(MethodSymbol method, AJCVariableDecl decl, Set<AJCTree> uses) {
+        AJCExpressionTree init = decl.getInit();
+
+        // The local standing for each field, or each element, of the allocation, and their declarations.
+        Map<Object, VarSymbol> locals = new HashMap<Object, VarSymbol>();
+        List<AJCStatement> replacement;
+        int length = -1;
+
+        if (init instanceof AJCNewClass) {
+            AJCNewClass newClass = (AJCNewClass) init;
+            AJCMethodDecl constructor = AJCForest.getInstance().methodTable.get(newClass.getTargetSymbol());
+            Map<VarSymbol, AJCExpressionTree> fieldValues = getFieldValues(constructor);
+            if (fieldValues == null || constructor.params.size() != newClass.args.size()
+             || !usesAreValid(uses, fieldValues.keySet(), -1)) {
+                return false;
+            }
+
+            replacement = replaceObject(method, newClass, constructor, fieldValues, locals);
+        } else {
+            length = getArrayLength((AJCNewArray) init, decl.getTargetSymbol());
+            if (length < 0 || !usesAreValid(uses, null, length)) {
+                return false;
+            }
+
+            replacement = replaceArray(method, (AJCNewArray) init, length, locals);
+        }
+
+        // Point every use at the locals.
+        for (AJCTree use : uses) {
+            if (use instanceof AJCArrayAccess) {
+                int index = (Integer) ((AJCLiteral) ((AJCArrayAccess) use).index).getValue();
+                use.swapFor(treeMaker.Ident(locals.get(index)));
+            } else if (((AJCFieldAccess) use).getTargetSymbol() == symtab.lengthVar) {
+                use.swapFor(treeMaker.Literal(TypeTag.INT, length));
+            } else {
+                use.swapFor(treeMaker.Ident(locals.get(((AJCFieldAccess) use).getTargetSymbol())));
+            }
+        }
+
+        log.info("Replacing {} with {}", decl, replacement);
+
+        AJCBlock block = decl.getEnclosingBlock();
+        block.insertBefore(decl, replacement);
+        block.remove(decl);
+        AJCForest.getInstance().increment("Allocations Scalar Replaced:");
+
+        return true;
+    }
+
+    /**
+     * Determine if every one of the given uses refers to one of the given fields, or is an access of an element within
+     * the given length, or of the length.
+     */
+    private static boolean usesAreValid(Set<AJCTree> uses, Set<VarSymbol> fields, int length) {
+        for (AJCTree use : uses) {
+            if (use instanceof AJCArrayAccess) {
+                Object index = ((AJCLiteral) ((AJCArrayAccess) use).index).getValue();
+                if (fields != null || !(index instanceof Integer) || (Integer) index < 0 || (Integer) index >= length) {
+                    return false;
+                }
+            } else if (((AJCFieldAccess) use).getTargetSymbol() == symtab.lengthVar) {
+                if (fields != null) {
+                    return false;
+                }
+            } else if (fields == null || !fields.contains(((AJCFieldAccess) use).getTargetSymbol())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Declarations of the arguments of the given allocation, followed by those of the locals for the fields
+     *         of the object, which are noted in the given map.
+     */
+    private static List<AJCStatement> replaceObject(MethodSymbol method, AJCNewClass newClass, AJCMethodDecl constructor,
+                                                    Map<VarSymbol, AJCExpressionTree> fieldValues, Map<Object, VarSymbol> locals) {
+        List<AJCStatement> replacement = List.nil();
+
+        // The arguments are evaluated, in order, into locals standing for the parameters.
+        Map<Symbol, VarSymbol> paramLocals = new HashMap<Symbol, VarSymbol>();
+        List<AJCExpressionTree> args = newClass.args;
+        for (AJCVariableDecl param : constructor.params) {
+            VarSymbol paramSym = param.getTargetSymbol();
+            VarSymbol argVar = new VarSymbol(0, NameFactory.getName(), paramSym.type, method);
+            replacement = replacement.append(treeMaker.VarDef(argVar, args.head));
+            paramLocals.put(paramSym, argVar);
+            args = args.tail;
+        }
+
+        for (Map.Entry<VarSymbol, AJCExpressionTree> field : fieldValues.entrySet()) {
+            VarSymbol fieldSym = field.getKey();
+            AJCExpressionTree value = field.getValue();
+
+            AJCExpressionTree fieldInit;
+            if (value == null) {
+                fieldInit = getDefaultValue(fieldSym.type);
+            } else if (value instanceof AJCLiteral) {
+                fieldInit = treeCopier.copy(value);
+            } else {
+                fieldInit = treeMaker.Ident(paramLocals.get(((AJCIdent) value).getTargetSymbol()));
+            }
+
+            VarSymbol fieldVar = new VarSymbol(0, NameFactory.getName(), fieldSym.type, method);
+            replacement = replacement.append(treeMaker.VarDef(fieldVar, fieldInit));
+            locals.put(fieldSym, fieldVar);
+        }
+
+        return replacement;
+    }
+
+    /**
+     * @return Declarations of the locals for the elements of the given array, which are noted in the given map.
+     */
+    private static List<AJCStatement> replaceArray(MethodSymbol method, AJCNewArray newArray, int length, Map<Object, VarSymbol> locals) {
+        Type elementType = types.elemtype(newArray.getNodeType());
+        List<AJCExpressionTree> elems = newArray.elems;
+
+        List<AJCStatement> replacement = List.nil();
+        for (int i = 0; i < length; i++) {
+            AJCExpressionTree elementInit;
+            if (elems == null) {
+                elementInit = getDefaultValue(elementType);
+            } else {
+                elementInit = elems.head;
+                elems = elems.tail;
+            }
+
+            VarSymbol elementVar = new VarSymbol(0, NameFactory.getName(), elementType, method);
+            replacement = replacement.append(treeMaker.VarDef(elementVar, elementInit));
+            locals.put(i, elementVar);
+        }
+
+        return replacement;
+    }
+
+    /**
+     * @return The length of the given array allocation, if it's small and known and the array is of the declared type
+     *         of the given local, or -1.
+     */
+    private static int getArrayLength(AJCNewArray newArray, VarSymbol sym) {
+        if (!types.isSameType(newArray.getNodeType(), sym.type)) {
+            return -1;
+        }
+
+        int length = -1;
+        if (newArray.elems != null) {
+            length = newArray.elems.size();
+        } else if (newArray.dims.size() == 1 && newArray.dims.head instanceof AJCLiteral) {
+            Object dimension = ((AJCLiteral) newArray.dims.head).getValue();
+            if (dimension instanceof Integer) {
+                length = (Integer) dimension;
+            }
+        }
+
+        return length > MAX_ARRAY_LENGTH ? -1 : length;
+    }
+
+    /**
+     * Find the values the given constructor leaves in the instance fields of its class, if it's trivial.
+     *
+     * @return A map from each instance field to the literal or parameter it's last assigned, or null if it's left at
+     *         its default value, or null if the constructor or its class is unsuitable.
+     */
+    private static Map<VarSymbol, AJCExpressionTree> getFieldValues(AJCMethodDecl constructor) {
+        if (constructor == null || constructor.body == null || !(constructor.mParentNode instanceof AJCClassDecl)) {
+            return null;
+        }
+
+        AJCClassDecl clazz = (AJCClassDecl) constructor.mParentNode;
+        ClassSymbol classSym = clazz.getSym();
+        if (classSym.getSuperclass().tsym != symtab.objectType.tsym || !classSym.type.allparams().isEmpty()) {
+            return null;
+        }
+
+        // Instance initialisers and finalisers might do anything.
+        for (JCTree def : clazz.getDecoratedTree().defs) {
+            if (def instanceof JCTree.JCBlock && (((JCTree.JCBlock) def).flags & Flags.STATIC) == 0) {
+                return null;
+            }
+        }
+
+        for (AJCMethodDecl method : clazz.methods) {
+            if (method.params.isEmpty() && "finalize".equals(method.getTargetSymbol().name.toString())) {
+                return null;
+            }
+        }
+
+        Map<VarSymbol, AJCExpressionTree> values = new LinkedHashMap<VarSymbol, AJCExpressionTree>();
+        for (AJCVariableDecl field : clazz.fields) {
+            VarSymbol fieldSym = field.getTargetSymbol();
+            if ((fieldSym.flags() & Flags.STATIC) != 0) {
+                continue;
+            }
+
+            AJCExpressionTree init = field.getInit();
+            if (!init.isEmptyExpression() && !(init instanceof AJCLiteral)) {
+                return null;
+            }
+
+            values.put(fieldSym, init.isEmptyExpression() ? null : init);
+        }
+
+        if (values.size() > MAX_FIELDS) {
+            return null;
+        }
+
+        Set<Symbol> params = new HashSet<Symbol>();
+        for (AJCVariableDecl param : constructor.params) {
+            params.add(param.getTargetSymbol());
+        }
+
+        // Every statement must call Object's constructor, or assign a literal or parameter to a field.
+        boolean calledSuper = false;
+        for (AJCStatement stat : constructor.body.stats) {
+            if (!(stat instanceof AJCExpressionStatement)) {
+                return null;
+            }
+
+            AJCExpressionTree expr = ((AJCExpressionStatement) stat).expr;
+            if (expr instanceof AJCCall) {
+                MethodSymbol callee = ((AJCCall) expr).getTargetSymbol();
+                if (calledSuper || !callee.isConstructor() || callee.owner != symtab.objectType.tsym) {
+                    return null;
+                }
+
+                calledSuper = true;
+                continue;
+            }
+
+            if (!(expr instanceof AJCAssign)) {
+                return null;
+            }
+
+            AJCAssign assign = (AJCAssign) expr;
+            boolean onReceiver = assign.lhs instanceof AJCIdent
+                              || (assign.lhs instanceof AJCFieldAccess && ReceiverEscapeChecker.isReceiver(((AJCFieldAccess) assign.lhs).selected));
+            if (!onReceiver) {
+                return null;
+            }
+
+            Symbol target = ((AJCSymbolRefTree) assign.lhs).getTargetSymbol();
+            boolean simpleValue = assign.rhs instanceof AJCLiteral
+                               || (assign.rhs instanceof AJCIdent && params.contains(((AJCIdent) assign.rhs).getTargetSymbol()));
+            if (!values.containsKey(target) || !simpleValue) {
+                return null;
+            }
+
+            values.put((VarSymbol) target, assign.rhs);
+        }
+
+        return calledSuper ? values : null;
+    }
+
+    /**
+     * @return The value a field or element of the given type has before anything is assigned to it.
+     */
+    private static AJCExpressionTree getDefaultValue(Type type) {
+        switch (type.getTag()) {
+            case CHAR:
+                return treeMaker.Literal(TypeTag.CHAR, 0);
+            case BYTE:
+            case SHORT:
+                // A constant int initialising a byte or short local is narrowed without a cast.
+            case INT:
+                return treeMaker.Literal(TypeTag.INT, 0);
+            case LONG:
+                return treeMaker.Literal(TypeTag.LONG, 0L);
+            case FLOAT:
+                return treeMaker.Literal(TypeTag.FLOAT, 0.0F);
+            case DOUBLE:
+                return treeMaker.Literal(TypeTag.DOUBLE, 0.0D);
+            case BOOLEAN:
+                return treeMaker.Literal(TypeTag.BOOLEAN, 0);
+            default:
+                return treeMaker.Literal(TypeTag.BOT, null);
+        }
+    }
+
+    /**
+     * Finds the declarations and uses of the given non-escaping locals, and rejects those that are reassigned or used
+     * for anything other than accessing a field, an element at a literal index, or the length of an array.
+     */
+    private static class UseScanner extends AJCTreeVisitor {
+        private final Set<VarSymbol> candidates;
+
+        final Map<VarSymbol, AJCVariableDecl> decls = new LinkedHashMap<VarSymbol, AJCVariableDecl>();
+        final SetHashMap<VarSymbol, AJCTree> uses = new SetHashMap<VarSymbol, AJCTree>();
+        final Set<VarSymbol> rejected = new HashSet<VarSymbol>();
+
+        UseScanner(Set<VarSymbol> candidates) {
+            this.candidates = candidates;
+        }
+
+        private VarSymbol candidateOf(AJCTree tree) {
+            if (!(tree instanceof AJCIdent)) {
+                return null;
+            }
+
+            Symbol sym = ((AJCIdent) tree).getTargetSymbol();
+            return candidates.contains(sym) ? (VarSymbol) sym : null;
+        }
+
+        @Override
+        protected void visitVariableDecl(AJCVariableDecl that) {
+            super.visitVariableDecl(that);
+
+            VarSymbol sym = that.getTargetSymbol();
+            if (!candidates.contains(sym)) {
+                return;
+            }
+
+            AJCExpressionTree init = that.getInit();
+            boolean allocation = (init instanceof AJCNewClass) || (init instanceof AJCNewArray);
+            if (decls.containsKey(sym) || !allocation || !(that.mParentNode instanceof AJCBlock)) {
+                rejected.add(sym);
+            } else {
+                decls.put(sym, that);
+            }
+        }
+
+        @Override
+        protected void visitAssign(AJCAssign that) {
+            VarSymbol sym = candidateOf(that.lhs);
+            if (sym == null) {
+                super.visitAssign(that);
+                return;
+            }
+
+            rejected.add(sym);
+            visit(that.rhs);
+        }
+
+        @Override
+        protected void visitFieldAccess(AJCFieldAccess that) {
+            VarSymbol sym = candidateOf(that.selected);
+            if (sym == null) {
+                super.visitFieldAccess(that);
+                return;
+            }
+
+            Symbol field = that.getTargetSymbol();
+            if (field == symtab.lengthVar || (field instanceof VarSymbol && (field.flags() & Flags.STATIC) == 0)) {
+                uses.listAdd(sym, that);
+            } else {
+                rejected.add(sym);
+            }
+        }
+
+        @Override
+        protected void visitArrayAccess(AJCArrayAccess that) {
+            VarSymbol sym = candidateOf(that.indexed);
+            if (sym == null) {
+                super.visitArrayAccess(that);
+                return;
+            }
+
+            if (that.index instanceof AJCLiteral) {
+                uses.listAdd(sym, that);
+            } else {
+                rejected.add(sym);
+            }
+
+            visit(that.index);
+        }
+
+        @Override
+        protected void visitIdent(AJCIdent that) {
+            VarSymbol sym = candidateOf(that);
+            if (sym != null) {
+                rejected.add(sym);
+            }
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package joust.optimisers.finalfold;
 
 import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeScanner;
+import joust.tree.annotatedtree.AJCTree;
 import joust.tree.annotatedtree.AJCTreeVisitor;
 import joust.utils.logging.LogUtils;
 import joust.utils.tree.evaluation.EvaluationContext;
@@ -9,16 +15,42 @@ import lombok.experimental.ExtensionMethod;
 import lombok.extern.java.Log;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.logging.Logger;
 
+import static com.sun.tools.javac.tree.JCTree.*;
 import static joust.tree.annotatedtree.AJCTree.*;
 import static com.sun.tools.javac.code.Symbol.*;
+import static joust.utils.compiler.StaticCompilerUtils.symtab;
 
+/**
+ * Finds the values of static final fields with initialisers that can be evaluated at compile time.
+ *
+ * Also finds constant arrays: private static final arrays of primitives or Strings, initialised with elements that
+ * can all be evaluated, whose elements are never written. Since there's no telling what's done with an array once
+ * it's been passed around, that means every use of the field must be to read its length or an element - or to copy
+ * it to a synthetic local, as the desugaring of an enhanced for loop does, which is then used only for those.
+ */
 @Log
 @ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
 public class FinalValueFinder extends AJCTreeVisitor {
     public HashMap<VarSymbol, Value> values = new HashMap<VarSymbol, Value>();
 
+    // Arrays which are constant if nothing else is ever done with them, and fields used in any other way.
+    private final HashMap<VarSymbol, Value[]> candidateArrays = new HashMap<VarSymbol, Value[]>();
+    private final Set<Symbol> misused = new HashSet<Symbol>();
+
+    /**
+     * @return The elements of the constant arrays of the classes visited.
+     */
+    public HashMap<VarSymbol, Value[]> getConstantArrays() {
+        HashMap<VarSymbol, Value[]> ret = new HashMap<VarSymbol, Value[]>(candidateArrays);
+        ret.keySet().removeAll(misused);
+
+        return ret;
+    }
+
     @Override
     protected void visitClassDef(AJCClassDecl that) {
         for (AJCVariableDecl varDef : that.fields) {
@@ -39,7 +71,146 @@ public class FinalValueFinder extends AJCTreeVisitor {
                 if (index != Value.UNKNOWN) {
                     values.put(vSym, index);
                 }
+
+                if ((vSym.flags() & Flags.PRIVATE) != 0) {
+                    findArrayElements(vSym, varDef.getInit());
+                }
             }
         }
+
+        // Static initialisers aren't part of the annotated tree (See InitialASTConverter), so anything they refer to
+        // might be written.
+        TreeScanner scanner = new TreeScanner() {
+            @Override
+            public void visitIdent(JCIdent tree) {
+                misused.add(tree.sym);
+            }
+
+            @Override
+            public void visitSelect(JCFieldAccess tree) {
+                super.visitSelect(tree);
+                misused.add(tree.sym);
+            }
+        };
+        for (JCTree def : that.getDecoratedTree().defs) {
+            if (def instanceof JCBlock && (((JCBlock) def).flags & Flags.STATIC) != 0) {
+                scanner.scan(def);
+            }
+        }
+
+        // Find the uses of the fields.
+        super.visitClassDef(that);
+    }
+
+    /**
+     * Note the elements of the given array field, if it's initialised with an array of evaluable elements.
+     */
+    private void findArrayElements(VarSymbol sym, AJCExpressionTree init) {
+        Type type = sym.type;
+        if (type.getTag() != TypeTag.ARRAY || !(init instanceof AJCNewArray)) {
+            return;
+        }
+
+        Type elementType = ((Type.ArrayType) type).elemtype;
+        if (!elementType.isPrimitive() && elementType.tsym != symtab.stringType.tsym) {
+            return;
+        }
+
+        AJCNewArray newArray = (AJCNewArray) init;
+        if (newArray.elems == null) {
+            return;
+        }
+
+        Value[] elements = new Value[newArray.elems.size()];
+        EvaluationContext context = new EvaluationContext();
+        int i = 0;
+        for (AJCExpressionTree elem : newArray.elems) {
+            elements[i] = convert(context.evaluate(elem), elementType.getTag());
+            if (elements[i] == Value.UNKNOWN) {
+                return;
+            }
+            i++;
+        }
+
+        candidateArrays.put(sym, elements);
+    }
+
+    /**
+     * @return The given value converted to the given array element type, as storing it in the array would, or UNKNOWN.
+     */
+    private static Value convert(Value value, TypeTag tag) {
+        if (value == Value.UNKNOWN || value.typetag == tag) {
+            return value;
+        }
+
+        Object raw = value.getValue();
+        if (!(raw instanceof Number) && !(raw instanceof Character)) {
+            return Value.UNKNOWN;
+        }
+
+        Number number = raw instanceof Character ? Integer.valueOf((Character) raw) : (Number) raw;
+        switch (tag) {
+            case BYTE:
+                return Value.of(number.byteValue());
+            case SHORT:
+                return Value.of(number.shortValue());
+            case CHAR:
+                return Value.of((char) number.intValue());
+            case INT:
+                return Value.of(number.intValue());
+            case LONG:
+                return Value.of(number.longValue());
+            case FLOAT:
+                return Value.of(number.floatValue());
+            case DOUBLE:
+                return Value.of(number.doubleValue());
+            default:
+                return Value.UNKNOWN;
+        }
+    }
+
+    @Override
+    protected void visitIdent(AJCIdent that) {
+        super.visitIdent(that);
+        checkUse(that);
+    }
+
+    @Override
+    protected void visitFieldAccess(AJCFieldAccess that) {
+        super.visitFieldAccess(that);
+        checkUse(that);
+    }
+
+    /**
+     * Note the field referred to by the given tree as misused unless it's being used to read its length or an element,
+     * or copied to a synthetic local.
+     */
+    private void checkUse(AJCSymbolRefTree tree) {
+        Symbol sym = tree.getTargetSymbol();
+        if (!(sym instanceof VarSymbol)) {
+            return;
+        }
+
+        AJCTree parent = tree.mParentNode;
+        if (parent instanceof AJCFieldAccess && ((AJCFieldAccess) parent).getTargetSymbol() == symtab.lengthVar) {
+            return;
+        }
+
+        if (parent instanceof AJCArrayAccess && ((AJCArrayAccess) parent).indexed == tree && !isWritten((AJCArrayAccess) parent)) {
+            return;
+        }
+
+        if (parent instanceof AJCVariableDecl && (((AJCVariableDecl) parent).getTargetSymbol().flags() & Flags.SYNTHETIC) != 0) {
+            return;
+        }
+
+        misused.add(sym);
+    }
+
+    private static boolean isWritten(AJCArrayAccess access) {
+        AJCTree parent = access.mParentNode;
+        return (parent instanceof AJCAssign && ((AJCAssign) parent).lhs == access)
+            || (parent instanceof AJCAssignOp && ((AJCAssignOp) parent).lhs == access)
+            || (parent instanceof AJCUnaryAsg && ((AJCUnaryAsg) parent).arg == access);
     }
 }
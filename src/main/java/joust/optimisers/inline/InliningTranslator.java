@@ -0,0 +1,548 @@
+package joust.optimisers.inline;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.Name;
+import joust.analysers.ReceiverEscapeChecker;
+import joust.optimisers.invar.ExpressionComplexityClassifier;
+import joust.optimisers.translators.BaseTranslator;
+import joust.tree.annotatedtree.AJCForest;
+import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.utils.logging.LogUtils;
+import joust.utils.tree.NameFactory;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.tree.annotatedtree.AJCTree.*;
+import static joust.utils.compiler.StaticCompilerUtils.*;
+
+/**
+ * Inline calls to small methods that are never dispatched virtually - private, static and final methods, and those
+ * of final classes - declared in the same class as the caller. Calls to library methods are ShortFuncTranslator's
+ * business.
+ *
+ * A call to a method whose body just returns an expression is replaced by that expression, so long as every argument
+ * is a literal or a local, which nothing in the callee can change. Other bodies are inlined only where the call is a
+ * statement of its own, the value assigned to a variable, or the value returned. The arguments are put in temporaries
+ * ahead of the body, in order, unless they're literals or locals which neither the callee nor the other arguments
+ * assign. Returns become assignments to a result local, followed by a break out of a labelled block around the
+ * body if they aren't at the end of it already.
+ *
+ * Constructors, synchronized methods, methods that might call themselves, and bodies containing jumps, switches,
+ * try blocks or classes are never inlined. No callee scoring more than MAXIMUM_CALLEE_SCORE is inlined, and the
+ * callees inlined into a method may score no more than INLINE_BUDGET between them (As measured by
+ * ExpressionComplexityClassifier).
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class InliningTranslator extends BaseTranslator {
+    // The most the callees inlined into a method may score between them.
+    public static int INLINE_BUDGET = 60;
+
+    // The most a callee may score to be inlined at all.
+    private static final int MAXIMUM_CALLEE_SCORE = 30;
+
+    // The total score of the callees inlined into each method so far.
+    private final Map<MethodSymbol, Integer> growth = new HashMap<MethodSymbol, Integer>();
+
+    // Whether each method looked at so far might call itself.
+    private final Map<MethodSymbol, Boolean> recursive = new HashMap<MethodSymbol, Boolean>();
+
+    private AJCMethodDecl enclosingMethod;
+
+    @Override
+    public void visitTree(AJCTree tree) {
+        recursive.clear();
+        super.visitTree(tree);
+
+        if (mHasMadeAChange) {
+            AJCForest.getInstance().initialAnalysis();
+        }
+    }
+
+    @Override
+    protected void visitClassDef(AJCClassDecl that) {
+        visit(that.methods);
+        visit(that.classes);
+    }
+
+    @Override
+    protected void visitMethodDef(AJCMethodDecl that) {
+        if (that.body == null) {
+            return;
+        }
+
+        enclosingMethod = that;
+
+        // Innermost calls first, so arguments are inlined before the calls they're passed to.
+        final ArrayList<AJCCall> calls = new ArrayList<AJCCall>();
+        new AJCTreeVisitor() {
+            @Override
+            protected void visitCall(AJCCall that) {
+                super.visitCall(that);
+                calls.add(that);
+            }
+        }.visitTree(that.body);
+
+        boolean changed = false;
+        for (AJCCall call : calls) {
+            changed |= inline(call);
+        }
+
+        if (changed) {
+            mHasMadeAChange = true;
+            log.info("After inlining:\n{}", that);
+        }
+    }
+
+    /**
+     * Inline the given call, if it's safe and the budget allows.
+     *
+     * @return true if the call was inlined.
+     */
+    private boolean inline(AJCCall call) {
+        MethodSymbol callee = call.getTargetSymbol();
+        AJCMethodDecl decl = AJCForest.getInstance().methodTable.get(callee);
+        if (decl == null || !isCandidate(decl) || !hasTrivialReceiver(call) || decl.params.size() != call.args.size()) {
+            return false;
+        }
+
+        BodyScanner body = new BodyScanner();
+        body.visitTree(decl.body);
+        if (!body.inlinable || isRecursive(callee)) {
+            log.debug("Not inlining {}: unsuitable body", callee);
+            return false;
+        }
+
+        MethodSymbol caller = enclosingMethod.getTargetSymbol();
+        int score = ExpressionComplexityClassifier.scoreOf(decl.body);
+        int grown = growth.containsKey(caller) ? growth.get(caller) : 0;
+        if (score > MAXIMUM_CALLEE_SCORE || grown + score > INLINE_BUDGET) {
+            log.debug("Not inlining {} into {}: scores {} with {} already inlined", callee, caller, score, grown);
+            return false;
+        }
+
+        // Find which parameters can be replaced by their arguments, and which need temporaries.
+        BodyScanner arguments = new BodyScanner();
+        arguments.visitTrees(call.args);
+
+        Map<VarSymbol, VarSymbol> renames = new HashMap<VarSymbol, VarSymbol>();
+        Map<VarSymbol, AJCLiteral> constants = new HashMap<VarSymbol, AJCLiteral>();
+        ArrayList<VarSymbol> temporaries = new ArrayList<VarSymbol>();
+        ArrayList<AJCExpressionTree> temporaryValues = new ArrayList<AJCExpressionTree>();
+
+        List<AJCExpressionTree> args = call.args;
+        for (AJCVariableDecl param : decl.params) {
+            VarSymbol sym = param.getTargetSymbol();
+            AJCExpressionTree arg = args.head;
+            args = args.tail;
+
+            if (!body.assigned.contains(sym) && types.isSameType(arg.getNodeType(), sym.type)) {
+                if (arg instanceof AJCLiteral) {
+                    constants.put(sym, (AJCLiteral) arg);
+                    continue;
+                }
+
+                VarSymbol local = localRead(arg);
+                if (local != null && !arguments.assigned.contains(local)) {
+                    renames.put(sym, local);
+                    continue;
+                }
+            }
+
+            VarSymbol temp = new VarSymbol(0, NameFactory.getName(), types.erasure(sym.type), caller);
+            renames.put(sym, temp);
+            temporaries.add(temp);
+            temporaryValues.add(arg);
+        }
+
+        AJCExpressionTree returned = returnedExpression(decl);
+        if (returned != null && temporaries.isEmpty()) {
+            AJCExpressionTree replacement = (AJCExpressionTree) substitute(treeCopier.copy(returned), renames, constants);
+
+            // Primitives returned get converted to the return type, which matters to string concatenation, at least.
+            Type type = call.getNodeType();
+            if (type.isPrimitive() && !types.isSameType(replacement.getNodeType(), type)) {
+                replacement = treeMaker.TypeCast(treeMaker.Type(type), replacement);
+            }
+
+            log.debug("{} -> {}", call, replacement);
+            call.swapFor(replacement);
+        } else {
+            AJCStatement site = statementSite(call);
+            if (site == null) {
+                log.debug("Not inlining {}: not the whole of a statement", call);
+                return false;
+            }
+
+            for (VarSymbol local : body.declared) {
+                renames.put(local, new VarSymbol(local.flags(), NameFactory.getName(), local.type, caller));
+            }
+
+            List<AJCStatement> prologue = List.nil();
+            for (int i = 0; i < temporaries.size(); i++) {
+                prologue = prologue.append(treeMaker.VarDef(temporaries.get(i), temporaryValues.get(i)));
+            }
+
+            VarSymbol result = null;
+            Type returnType = callee.getReturnType();
+            if (!returnType.hasTag(TypeTag.VOID)) {
+                result = new VarSymbol(0, NameFactory.getName(), types.erasure(returnType), caller);
+                prologue = prologue.append(treeMaker.VarDef(result, treeMaker.EmptyExpression()));
+            }
+
+            AJCBlock copy = (AJCBlock) substitute(treeCopier.copy(decl.body), renames, constants);
+            prologue = prologue.append(replaceReturns(copy, result));
+
+            AJCStatementHoldingStatement holder = (AJCStatementHoldingStatement) site.mParentNode;
+            holder.insertBefore(site, prologue);
+            if (call.mParentNode instanceof AJCExpressionStatement) {
+                holder.remove(site);
+            } else {
+                call.swapFor(treeMaker.Ident(result));
+            }
+
+            log.debug("Inlined {} into:\n{}", call, holder);
+        }
+
+        growth.put(caller, grown + score);
+        AJCForest.getInstance().increment("Calls Inlined: ");
+
+        return true;
+    }
+
+    /**
+     * @return true if the given method might be inlined into the current one, if its body allows.
+     */
+    private boolean isCandidate(AJCMethodDecl decl) {
+        MethodSymbol sym = decl.getTargetSymbol();
+        MethodSymbol caller = enclosingMethod.getTargetSymbol();
+
+        return decl.body != null
+            && !sym.isConstructor()
+            && sym != caller
+            && sym.owner == caller.owner
+            && (sym.flags() & (Flags.SYNCHRONIZED | Flags.NATIVE | Flags.ABSTRACT)) == 0
+            && (sym.flags() & Flags.STRICTFP) == (caller.flags() & Flags.STRICTFP)
+            && ReceiverEscapeChecker.isNonVirtual(sym);
+    }
+
+    /**
+     * @return true if the given call is on this, or is static and evaluates nothing to find its target.
+     */
+    private static boolean hasTrivialReceiver(AJCCall call) {
+        if (!(call.meth instanceof AJCFieldAccess)) {
+            return true;
+        }
+
+        AJCTree selected = ((AJCFieldAccess) call.meth).selected;
+        if (ReceiverEscapeChecker.isReceiver(selected)) {
+            return true;
+        }
+
+        return selected instanceof AJCSymbolRefTree && ((AJCSymbolRefTree) selected).getTargetSymbol() instanceof TypeSymbol;
+    }
+
+    /**
+     * @return true if the given method might end up calling itself, as far as can be told from the forest.
+     */
+    private boolean isRecursive(MethodSymbol sym) {
+        Boolean known = recursive.get(sym);
+        if (known == null) {
+            known = reaches(sym, sym, new HashSet<MethodSymbol>());
+            recursive.put(sym, known);
+        }
+
+        return known;
+    }
+
+    private static boolean reaches(MethodSymbol from, MethodSymbol target, Set<MethodSymbol> visited) {
+        AJCMethodDecl decl = AJCForest.getInstance().methodTable.get(from);
+        if (decl == null || decl.body == null || !visited.add(from)) {
+            return false;
+        }
+
+        BodyScanner scanner = new BodyScanner();
+        scanner.visitTree(decl.body);
+        for (MethodSymbol callee : scanner.callees) {
+            if (callee == target || reaches(callee, target, visited)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return The local read by the given expression, or null if it isn't just a read of a local.
+     */
+    private static VarSymbol localRead(AJCExpressionTree tree) {
+        if (!(tree instanceof AJCIdent)) {
+            return null;
+        }
+
+        Symbol sym = ((AJCIdent) tree).getTargetSymbol();
+        if (sym instanceof VarSymbol && sym.owner instanceof MethodSymbol) {
+            return (VarSymbol) sym;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The expression returned by the given method, if its body is nothing but that return, or null.
+     */
+    private static AJCExpressionTree returnedExpression(AJCMethodDecl decl) {
+        if (decl.body.stats.size() != 1 || !(decl.body.stats.head instanceof AJCReturn)) {
+            return null;
+        }
+
+        AJCExpressionTree expr = ((AJCReturn) decl.body.stats.head).expr;
+        if (expr.isEmptyExpression()) {
+            return null;
+        }
+
+        return expr;
+    }
+
+    /**
+     * @return The statement of which the given call is the whole, the value assigned to a variable or the value
+     *         returned, or null if there is no such statement directly in a block or case.
+     */
+    private static AJCStatement statementSite(AJCCall call) {
+        AJCTree parent = call.mParentNode;
+        AJCTree site = null;
+        if (parent instanceof AJCExpressionStatement || parent instanceof AJCReturn) {
+            site = parent;
+        } else if (parent instanceof AJCVariableDecl && ((AJCVariableDecl) parent).getInit() == call) {
+            site = parent;
+        } else if (parent instanceof AJCAssign) {
+            AJCAssign assign = (AJCAssign) parent;
+            if (assign.rhs == call && assign.lhs instanceof AJCIdent && assign.mParentNode instanceof AJCExpressionStatement) {
+                site = assign.mParentNode;
+            }
+        }
+
+        if (site == null || !(site.mParentNode instanceof AJCStatementHoldingStatement)) {
+            return null;
+        }
+
+        return (AJCStatement) site;
+    }
+
+    /**
+     * Rename the symbols in the given copy of (part of) a callee as the caller needs, and replace the parameters bound
+     * to literals with copies of them.
+     *
+     * @return The tree with the substitutions made, which is a new one if it was just a parameter.
+     */
+    private AJCTree substitute(AJCTree tree, final Map<VarSymbol, VarSymbol> renames, final Map<VarSymbol, AJCLiteral> constants) {
+        final ArrayList<AJCIdent> replaced = new ArrayList<AJCIdent>();
+        new AJCTreeVisitor() {
+            @Override
+            protected void visitBlock(AJCBlock that) {
+                that.enclosingMethod = enclosingMethod;
+                super.visitBlock(that);
+            }
+
+            @Override
+            protected void visitVariableDecl(AJCVariableDecl that) {
+                super.visitVariableDecl(that);
+
+                VarSymbol renamed = renames.get(that.getTargetSymbol());
+                if (renamed != null) {
+                    that.getDecoratedTree().sym = renamed;
+                    that.getDecoratedTree().name = renamed.name;
+                }
+            }
+
+            @Override
+            protected void visitIdent(AJCIdent that) {
+                Symbol sym = that.getTargetSymbol();
+                VarSymbol renamed = renames.get(sym);
+                if (renamed != null) {
+                    that.getDecoratedTree().sym = renamed;
+                    that.getDecoratedTree().name = renamed.name;
+                } else if (constants.containsKey(sym)) {
+                    replaced.add(that);
+                }
+            }
+        }.visitTree(tree);
+
+        AJCTree ret = tree;
+        for (AJCIdent ident : replaced) {
+            AJCLiteral value = treeCopier.copy(constants.get(ident.getTargetSymbol()));
+            if (ident == tree) {
+                ret = value;
+            } else {
+                ident.swapFor(value);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Replace the returns in the given copy of a body by assignments of their values to the given local (If there is
+     * one), followed by jumps to the end of the body where they aren't there already.
+     *
+     * @return The statement to inline: the body, labelled if anything jumps out of it.
+     */
+    private static AJCStatement replaceReturns(AJCBlock copy, VarSymbol result) {
+        final ArrayList<AJCReturn> returns = new ArrayList<AJCReturn>();
+        new AJCTreeVisitor() {
+            @Override
+            protected void visitReturn(AJCReturn that) {
+                returns.add(that);
+            }
+        }.visitTree(copy);
+
+        AJCStatement last = copy.stats.isEmpty() ? null : copy.stats.last();
+        AJCLabeledStatement labelled = null;
+        Name label = null;
+        for (AJCReturn ret : returns) {
+            if (ret != last) {
+                label = NameFactory.getName();
+                labelled = treeMaker.Labelled(label, copy);
+                break;
+            }
+        }
+
+        for (AJCReturn ret : returns) {
+            List<AJCStatement> replacement = List.nil();
+            if (result != null) {
+                replacement = replacement.append(treeMaker.Exec(treeMaker.Assign(treeMaker.Ident(result), ret.expr)));
+            }
+
+            if (ret != last) {
+                AJCBreak jump = treeMaker.Break(label);
+                jump.target = labelled;
+                jump.getDecoratedTree().target = labelled.getDecoratedTree();
+                replacement = replacement.append(jump);
+            }
+
+            AJCStatementHoldingStatement holder = (AJCStatementHoldingStatement) ret.mParentNode;
+            if (replacement.isEmpty()) {
+                holder.remove(ret);
+            } else {
+                holder.insertBefore(ret, replacement);
+                holder.remove(ret);
+            }
+        }
+
+        if (labelled != null) {
+            return labelled;
+        }
+
+        return copy;
+    }
+
+    /**
+     * Finds what a body assigns, declares and calls, and whether it contains anything that can't be copied into
+     * another method: jumps, whose targets would be left behind, and the statements that might contain them.
+     */
+    private static class BodyScanner extends AJCTreeVisitor {
+        boolean inlinable = true;
+
+        final Set<VarSymbol> assigned = new HashSet<VarSymbol>();
+        final Set<VarSymbol> declared = new HashSet<VarSymbol>();
+        final Set<MethodSymbol> callees = new HashSet<MethodSymbol>();
+
+        private void assigns(AJCSymbolRefTree<VarSymbol> target) {
+            if (target instanceof AJCIdent) {
+                assigned.add(target.getTargetSymbol());
+            }
+        }
+
+        @Override
+        protected void visitClassDef(AJCClassDecl that) {
+            inlinable = false;
+        }
+
+        @Override
+        protected void visitLabelledStatement(AJCLabeledStatement that) {
+            inlinable = false;
+        }
+
+        @Override
+        protected void visitSwitch(AJCSwitch that) {
+            inlinable = false;
+        }
+
+        @Override
+        protected void visitSynchronized(AJCSynchronized that) {
+            inlinable = false;
+        }
+
+        @Override
+        protected void visitTry(AJCTry that) {
+            inlinable = false;
+        }
+
+        @Override
+        protected void visitBreak(AJCBreak that) {
+            inlinable = false;
+        }
+
+        @Override
+        protected void visitContinue(AJCContinue that) {
+            inlinable = false;
+        }
+
+        @Override
+        protected void visitLetExpr(AJCLetExpr that) {
+            inlinable = false;
+        }
+
+        @Override
+        protected void visitReturn(AJCReturn that) {
+            super.visitReturn(that);
+
+            if (!(that.mParentNode instanceof AJCStatementHoldingStatement)) {
+                inlinable = false;
+            }
+        }
+
+        @Override
+        protected void visitVariableDecl(AJCVariableDecl that) {
+            super.visitVariableDecl(that);
+            declared.add(that.getTargetSymbol());
+        }
+
+        @Override
+        protected void visitAssign(AJCAssign that) {
+            super.visitAssign(that);
+            assigns(that.lhs);
+        }
+
+        @Override
+        protected void visitAssignop(AJCAssignOp that) {
+            super.visitAssignop(that);
+            assigns(that.lhs);
+        }
+
+        @Override
+        protected void visitUnaryAsg(AJCUnaryAsg that) {
+            super.visitUnaryAsg(that);
+            assigns(that.arg);
+        }
+
+        @Override
+        protected void visitCall(AJCCall that) {
+            super.visitCall(that);
+            callees.add(that.getTargetSymbol());
+        }
+    }
+}
@@ -115,6 +115,15 @@ public class ExpressionComplexityClassifier extends AJCRecursionResistantTreeVis
     @Getter
     private int score;
 
+    /**
+     * @return The score of the given tree.
+     */
+    public static int scoreOf(AJCTree tree) {
+        ExpressionComplexityClassifier classifier = new ExpressionComplexityClassifier();
+        classifier.visitTree(tree);
+        return classifier.getScore();
+    }
+
     @Override
     protected void visitFieldAccess(AJCFieldAccess that) {
         score += operationCosts.get(that.getTag());
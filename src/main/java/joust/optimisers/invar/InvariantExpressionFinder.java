@@ -1,14 +1,15 @@
 package joust.optimisers.invar;
 
+import joust.analysers.ArrayAliasAnalysis;
 import joust.tree.annotatedtree.AJCComparableExpressionTree;
 import joust.tree.annotatedtree.AJCTree;
 import joust.tree.annotatedtree.AJCTreeVisitor;
 import joust.tree.annotatedtree.treeinfo.EffectSet;
+import joust.tree.annotatedtree.treeinfo.FinalFields;
 import joust.utils.data.SetHashMap;
 import joust.utils.logging.LogUtils;
 import joust.utils.data.SymbolSet;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import lombok.experimental.ExtensionMethod;
 import lombok.extern.java.Log;
 
@@ -19,7 +20,6 @@ import static joust.tree.annotatedtree.AJCComparableExpressionTree.*;
 
 @Log
 @ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
-@RequiredArgsConstructor
 public class InvariantExpressionFinder extends AJCTreeVisitor {
     public final SetHashMap<AJCComparableExpressionTree, AJCTree> invariantExpressions = new SetHashMap<AJCComparableExpressionTree, AJCTree>();
 
@@ -27,25 +27,61 @@ public class InvariantExpressionFinder extends AJCTreeVisitor {
     @NonNull private final SymbolSet writtenInLoop;
     @NonNull private final SymbolSet readInLoop;
 
+    // The escaping symbols and array elements written in the loop, or null if they're unknown.
+    private final SymbolSet escapingWrittenInLoop;
+    private final ArrayAliasAnalysis.ArrayWrites arrayWritesInLoop;
+
+    // True if the loop contains a synchronisation action, after which another thread's writes may be seen.
+    private final boolean loopSynchronises;
+
+    public InvariantExpressionFinder(@NonNull SymbolSet written, @NonNull SymbolSet read) {
+        this(written, read, null, null, true);
+    }
+
+    public InvariantExpressionFinder(@NonNull SymbolSet written, @NonNull SymbolSet read, SymbolSet escapingWritten,
+                                     ArrayAliasAnalysis.ArrayWrites arrayWrites, boolean synchronises) {
+        writtenInLoop = written;
+        readInLoop = read;
+        escapingWrittenInLoop = escapingWritten;
+        arrayWritesInLoop = arrayWrites;
+        loopSynchronises = synchronises;
+    }
+
     private void addIfInvariant(AJCComparableExpressionTree that) {
-        // Abort in the face of array accesses. We're not clever enough for that yet.
-        ArrayAccessDetector detector = new ArrayAccessDetector();
-        detector.visitTree(that.wrappedNode);
-        if (detector.failureInducing) {
-            return;
+        if (isInvariant(that.wrappedNode)) {
+            invariantExpressions.listAdd(that, that.wrappedNode);
         }
+    }
 
-        log.debug("Considering invariance of {}", that);
-        EffectSet exprEffects = ((AJCEffectAnnotatedTree) that.wrappedNode).effects.getEffectSet();
+    /**
+     * @return true if the given expression has the same value, and no effect the loop could observe, wherever in the
+     *         loop it's evaluated.
+     */
+    public boolean isInvariant(AJCTree expr) {
+        log.debug("Considering invariance of {}", expr);
+        EffectSet exprEffects = ((AJCEffectAnnotatedTree) expr).effects.getEffectSet();
         log.debug("Effects: {}", exprEffects);
 
-        // Escaping symbol uses are omitted to avoid concurrency problems.
-        // Write effects cause something to be omitted from moving out of the loop.
-        if (exprEffects.contains(EffectSet.EffectType.READ_ESCAPING)
-         || exprEffects.contains(EffectSet.EffectType.WRITE_ESCAPING)
+        // Escaping symbol uses are omitted to avoid concurrency problems, except for reads of array elements and
+        // effectively final fields the loop doesn't write, in loops with no synchronisation action. Write effects cause something to be omitted from moving
+        // out of the loop.
+        if (exprEffects.contains(EffectSet.EffectType.READ_ESCAPING) && !escapingReadsAreInvariant(expr, exprEffects)) {
+            log.debug("No good - reads fields, or array elements or fields written in the loop.");
+            return false;
+        }
+
+        if (exprEffects.contains(EffectSet.EffectType.WRITE_ESCAPING)
          || exprEffects.contains(EffectSet.EffectType.IO)) {
             log.debug("No good - contains unacceptable writes of escaping reads.");
-            return;
+            return false;
+        }
+
+        // Something that might throw can't be moved to where it'd be evaluated when it previously wasn't.
+        // Array accesses, divisions and casts get through only when they're known not to (See
+        // ImplicitExceptionChecker).
+        if (exprEffects.contains(EffectSet.ANY_EXCEPTION)) {
+            log.debug("No good - might throw.");
+            return false;
         }
 
         if (exprEffects.contains(EffectSet.EffectType.READ_INTERNAL)) {
@@ -58,7 +94,7 @@ public class InvariantExpressionFinder extends AJCTreeVisitor {
 
             if (!readSymbols.isEmpty()) {
                 log.debug("No good - reads symbols written in the loop.");
-                return;
+                return false;
             }
         }
 
@@ -72,12 +108,21 @@ public class InvariantExpressionFinder extends AJCTreeVisitor {
 
             if (!writeSymbols.isEmpty()) {
                 log.debug("No good - writes symbols read in the loop.");
-                return;
+                return false;
             }
         }
 
         // So it is invariant. Hooray.
-        invariantExpressions.listAdd(that, that.wrappedNode);
+        return true;
+    }
+
+    private boolean escapingReadsAreInvariant(AJCTree expr, EffectSet exprEffects) {
+        if (loopSynchronises || arrayWritesInLoop == null || !FinalFields.onlyStable(exprEffects.readEscaping)) {
+            return false;
+        }
+
+        return !FinalFields.mayWriteFieldsRead(escapingWrittenInLoop, exprEffects.readEscaping)
+            && !arrayWritesInLoop.mayWriteAny(expr);
     }
 
     @Override
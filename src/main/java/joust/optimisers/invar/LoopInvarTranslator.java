@@ -2,6 +2,7 @@ package joust.optimisers.invar;
 
 import com.sun.tools.javac.code.Flags;
 import com.sun.tools.javac.util.Name;
+import joust.analysers.ArrayAliasAnalysis;
 import joust.optimisers.invar.ExpressionComplexityClassifier;
 import joust.optimisers.invar.InvariantExpressionFinder;
 import joust.optimisers.translators.BaseTranslator;
@@ -37,7 +38,7 @@ public class LoopInvarTranslator extends BaseTranslator {
     // The minimum complexity value for an invariant expression to be moved outside of the loop.
     private static final int INVAR_COMPLEXITY_THRESHOLD = 5;
 
-    private SetHashMap<AJCComparableExpressionTree, AJCTree> getInvariants(AJCEffectAnnotatedTree loop) {
+    private SetHashMap<AJCComparableExpressionTree, AJCTree> getInvariants(AJCStatement loop) {
         log.debug("Invar for: {}", loop);
 
         EffectSet loopEffects = loop.effects.getEffectSet();
@@ -46,7 +47,10 @@ public class LoopInvarTranslator extends BaseTranslator {
         SymbolSet writtenInLoop = loopEffects.writeInternal;
         SymbolSet readInLoop = loopEffects.readInternal;
 
-        InvariantExpressionFinder invariantFinder = new InvariantExpressionFinder(writtenInLoop, readInLoop);
+        // The array elements the loop might write, if any.
+        ArrayAliasAnalysis arrayAliases = new ArrayAliasAnalysis(loop.getEnclosingBlock().enclosingMethod);
+        InvariantExpressionFinder invariantFinder = new InvariantExpressionFinder(writtenInLoop, readInLoop, loopEffects.writeEscaping, arrayAliases.writesOf(loop),
+                loopEffects.contains(EffectSet.EffectType.SYNCHRONISATION));
         invariantFinder.visitTree(loop);
 
         log.debug("Invariant expressions: {}", Arrays.toString(invariantFinder.invariantExpressions.keySet().toArray()));
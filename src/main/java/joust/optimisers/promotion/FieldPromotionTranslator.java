@@ -0,0 +1,245 @@
+package joust.optimisers.promotion;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.util.List;
+import joust.optimisers.translators.BaseTranslator;
+import joust.tree.annotatedtree.AJCForest;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.tree.annotatedtree.treeinfo.ArrayElements;
+import joust.tree.annotatedtree.treeinfo.EffectSet;
+import joust.tree.annotatedtree.treeinfo.FinalFields;
+import joust.utils.data.SymbolSet;
+import joust.utils.logging.LogUtils;
+import joust.utils.tree.NameFactory;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.tree.annotatedtree.AJCTree.*;
+import static joust.utils.compiler.StaticCompilerUtils.*;
+
+/**
+ * Scalar promotion of fields in loops. The fields of this (And static fields of the enclosing class) used in a
+ * loop are loaded into temporaries before it, the loop uses the temporaries instead, and those written are
+ * stored back by a finally block, so they hold the right values however the loop is left.
+ *
+ * Only loops which make no calls, hold no locks and touch no volatile fields are promoted, and their effects
+ * must show no escaping accesses other than to the promoted fields, array elements and effectively final
+ * fields: nothing else then gets to see the fields while the loop runs, save other threads, which can't
+ * rely on seeing them without synchronisation anyway. That's weaker than the guarantees the rest of JOUST
+ * keeps, so this is only done if asked for (-AJOUSTPromoteFields).
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class FieldPromotionTranslator extends BaseTranslator {
+    @Override
+    protected void visitDoWhileLoop(AJCDoWhileLoop that) {
+        if (!promote(that)) {
+            super.visitDoWhileLoop(that);
+        }
+    }
+
+    @Override
+    protected void visitWhileLoop(AJCWhileLoop that) {
+        if (!promote(that)) {
+            super.visitWhileLoop(that);
+        }
+    }
+
+    @Override
+    protected void visitForLoop(AJCForLoop that) {
+        if (!promote(that)) {
+            super.visitForLoop(that);
+        }
+    }
+
+    /**
+     * Promote the fields used by the given loop, if it's safe to.
+     *
+     * @return true if the tree was changed.
+     */
+    private boolean promote(AJCStatement loop) {
+        AJCBlock enclosingBlock = loop.getEnclosingBlock();
+        if (enclosingBlock == null || enclosingBlock.indexOf(loop) == -1) {
+            // Labelled, most likely. Moving it into a try would lose the label.
+            return false;
+        }
+
+        EffectSet effects = loop.effects.getEffectSet();
+        if (effects.contains(EffectSet.EffectType.IO)
+         || effects.readEscaping == SymbolSet.UNIVERSAL_SET
+         || effects.writeEscaping == SymbolSet.UNIVERSAL_SET) {
+            return false;
+        }
+
+        MethodSymbol method = enclosingBlock.enclosingMethod.getTargetSymbol();
+        FieldAccessLocator locator = new FieldAccessLocator((ClassSymbol) method.owner, (method.flags() & Flags.STATIC) == 0);
+        locator.visitTree(loop);
+        if (locator.unpromotable || locator.accesses.isEmpty()) {
+            return false;
+        }
+
+        // Fields reached some other way might be the same as the promoted ones.
+        for (VarSymbol sym : locator.otherFields) {
+            if (locator.accesses.containsKey(sym)) {
+                log.debug("Not promoting fields in {}: {} is also used through another object", loop, sym);
+                return false;
+            }
+        }
+
+        // Every escaping effect must be accounted for.
+        if (!onlyPromotedOrStable(effects.readEscaping, locator.accesses.keySet())
+         || !onlyPromotedOrStable(effects.writeEscaping, locator.accesses.keySet())) {
+            log.debug("Not promoting fields in {}: other escaping effects", loop);
+            return false;
+        }
+
+        List<AJCStatement> loads = List.nil();
+        List<AJCStatement> stores = List.nil();
+        for (Map.Entry<VarSymbol, ArrayList<AJCSymbolRefTree<VarSymbol>>> entry : locator.accesses.entrySet()) {
+            VarSymbol field = entry.getKey();
+            ArrayList<AJCSymbolRefTree<VarSymbol>> uses = entry.getValue();
+            AJCSymbolRefTree<VarSymbol> firstUse = uses.get(0);
+
+            VarSymbol temp = new VarSymbol(0, NameFactory.getName(), firstUse.getNodeType(), method);
+            loads = loads.append(treeMaker.VarDef(temp, (AJCExpressionTree) treeCopier.copy(firstUse)));
+
+            if (effects.writeEscaping.contains(field)) {
+                stores = stores.append(treeMaker.Exec(treeMaker.Assign(treeCopier.copy(firstUse), treeMaker.Ident(temp))));
+            }
+
+            for (AJCSymbolRefTree<VarSymbol> use : uses) {
+                use.swapFor(treeMaker.Ident(temp));
+            }
+
+            AJCForest.getInstance().increment("Fields Promoted: ");
+        }
+
+        enclosingBlock.insertBefore(loop, loads);
+
+        if (!stores.isEmpty()) {
+            AJCBlock body = treeMaker.Block(0, List.of(loop));
+            AJCBlock finalizer = treeMaker.Block(0, stores);
+            body.enclosingMethod = enclosingBlock.enclosingMethod;
+            finalizer.enclosingMethod = enclosingBlock.enclosingMethod;
+
+            enclosingBlock.swap(loop, treeMaker.Try(body, List.<AJCCatch>nil(), finalizer));
+        }
+
+        log.info("After field promotion:\n{}", enclosingBlock);
+
+        mHasMadeAChange = true;
+        AJCForest.getInstance().initialAnalysis();
+
+        return true;
+    }
+
+    private static boolean onlyPromotedOrStable(SymbolSet set, Set<VarSymbol> promoted) {
+        for (VarSymbol sym : set) {
+            if (!promoted.contains(sym) && !FinalFields.isStable(sym)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the uses of promotable fields in a loop: fields of this, and static fields of the class, which
+     * are neither final nor volatile. Notes the other fields used, and anything making the loop unsuitable.
+     */
+    private static class FieldAccessLocator extends AJCTreeVisitor {
+        private final ClassSymbol enclosingClass;
+        private final boolean hasThis;
+
+        final LinkedHashMap<VarSymbol, ArrayList<AJCSymbolRefTree<VarSymbol>>> accesses = new LinkedHashMap<VarSymbol, ArrayList<AJCSymbolRefTree<VarSymbol>>>();
+        final Set<VarSymbol> otherFields = new HashSet<VarSymbol>();
+        boolean unpromotable;
+
+        FieldAccessLocator(ClassSymbol enclosingClass, boolean hasThis) {
+            this.enclosingClass = enclosingClass;
+            this.hasThis = hasThis;
+        }
+
+        private static boolean isField(Symbol sym) {
+            return sym instanceof VarSymbol && sym.owner instanceof ClassSymbol
+                && sym.name != names._this && sym.name != names._super && !ArrayElements.isElements((VarSymbol) sym);
+        }
+
+        private void noteAccess(AJCSymbolRefTree<VarSymbol> tree, boolean fromHere) {
+            VarSymbol sym = tree.getTargetSymbol();
+            long flags = sym.flags();
+            if ((flags & Flags.VOLATILE) != 0) {
+                unpromotable = true;
+                return;
+            }
+
+            if ((flags & Flags.FINAL) != 0) {
+                return;
+            }
+
+            boolean isStatic = (flags & Flags.STATIC) != 0;
+            if (!fromHere || (isStatic ? sym.owner != enclosingClass : !hasThis)) {
+                otherFields.add(sym);
+                return;
+            }
+
+            ArrayList<AJCSymbolRefTree<VarSymbol>> uses = accesses.get(sym);
+            if (uses == null) {
+                uses = new ArrayList<AJCSymbolRefTree<VarSymbol>>();
+                accesses.put(sym, uses);
+            }
+            uses.add(tree);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void visitIdent(AJCIdent that) {
+            if (isField(that.getTargetSymbol())) {
+                noteAccess(that, true);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void visitFieldAccess(AJCFieldAccess that) {
+            super.visitFieldAccess(that);
+
+            if (!isField(that.getTargetSymbol())) {
+                return;
+            }
+
+            // this.f, or C.f for a static field of this class.
+            boolean fromHere = false;
+            if (that.selected instanceof AJCIdent) {
+                Symbol selected = ((AJCIdent) that.selected).getTargetSymbol();
+                fromHere = selected != null && (selected.name == names._this || selected == enclosingClass);
+            }
+
+            noteAccess(that, fromHere);
+        }
+
+        @Override
+        protected void visitCall(AJCCall that) {
+            unpromotable = true;
+        }
+
+        @Override
+        protected void visitNewClass(AJCNewClass that) {
+            unpromotable = true;
+        }
+
+        @Override
+        protected void visitSynchronized(AJCSynchronized that) {
+            unpromotable = true;
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package joust.optimisers.runnables;
 
-import joust.optimisers.cse.CommonSubExpressionTranslator;
+import joust.optimisers.cse.GlobalValueNumberingTranslator;
 
 /**
- * Common subexpression elimination.
+ * Common subexpression elimination, by global value numbering.
  */
 public class CSE extends OptimisationRunnable.BluntForce {
     public CSE() {
-        super(new CommonSubExpressionTranslator());
+        super(new GlobalValueNumberingTranslator());
     }
 }
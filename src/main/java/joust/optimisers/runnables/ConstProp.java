@@ -0,0 +1,13 @@
+package joust.optimisers.runnables;
+
+import joust.optimisers.constprop.ConstantPropagationTranslator;
+import joust.optimisers.translators.ConstFoldTranslator;
+
+/**
+ * Sparse conditional constant propagation, folding the constants it finds.
+ */
+public class ConstProp extends OptimisationRunnable.OneTwo {
+    public ConstProp() {
+        super(new ConstantPropagationTranslator(), new ConstFoldTranslator());
+    }
+}
@@ -0,0 +1,13 @@
+package joust.optimisers.runnables;
+
+import joust.optimisers.inline.InliningTranslator;
+import joust.optimisers.translators.ConstFoldTranslator;
+
+/**
+ * Inline small non-virtual methods, folding the constants passed to them.
+ */
+public class Inline extends OptimisationRunnable.OneTwo {
+    public Inline() {
+        super(new InliningTranslator(), new ConstFoldTranslator());
+    }
+}
@@ -0,0 +1,12 @@
+package joust.optimisers.runnables;
+
+import joust.optimisers.promotion.FieldPromotionTranslator;
+
+/**
+ * Scalar promotion of fields used in loops.
+ */
+public class PromoteFields extends OptimisationRunnable.BluntForce {
+    public PromoteFields() {
+        super(new FieldPromotionTranslator());
+    }
+}
@@ -0,0 +1,12 @@
+package joust.optimisers.runnables;
+
+import joust.optimisers.escape.ScalarReplacementTranslator;
+
+/**
+ * Scalar replacement of allocations that don't escape.
+ */
+public class ScalarReplace extends OptimisationRunnable.BluntForce {
+    public ScalarReplace() {
+        super(new ScalarReplacementTranslator());
+    }
+}
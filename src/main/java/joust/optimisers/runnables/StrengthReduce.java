@@ -0,0 +1,12 @@
+package joust.optimisers.runnables;
+
+import joust.optimisers.strength.StrengthReductionTranslator;
+
+/**
+ * Induction variable strength reduction.
+ */
+public class StrengthReduce extends OptimisationRunnable.BluntForce {
+    public StrengthReduce() {
+        super(new StrengthReductionTranslator());
+    }
+}
@@ -0,0 +1,12 @@
+package joust.optimisers.runnables;
+
+import joust.optimisers.unswitch.UnswitchTranslator;
+
+/**
+ * Loop unswitching.
+ */
+public class Unswitch extends OptimisationRunnable.BluntForce {
+    public Unswitch() {
+        super(new UnswitchTranslator());
+    }
+}
@@ -1,9 +1,11 @@
 package joust.optimisers.shortfunc;
 
+import com.sun.tools.javac.code.Type;
 import com.sun.tools.javac.util.List;
 import joust.optimisers.translators.BaseTranslator;
 import joust.tree.annotatedtree.AJCForest;
 import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.treeinfo.DerivedFunctionTemplates;
 import joust.utils.logging.LogUtils;
 import joust.utils.tree.functiontemplates.FunctionTemplate;
 import joust.utils.tree.functiontemplates.FunctionTemplateInstance;
@@ -20,6 +22,7 @@ import static joust.optimisers.shortfunc.ShortFuncFunctionTemplates.functionTemp
  * Replace calls to functions with entries in the static function template table with their inlined equivalents.
  * This provides a handy, if annoyingly manual, route for inlining calls to library functions for which call overhead
  * dominates actual work done, such as Math.min.
+ * Calls to functions with templates derived from their bodies (See DerivedFunctionTemplates) are replaced too.
  */
 @Log
 @ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
@@ -52,21 +55,20 @@ public class ShortFuncTranslator extends BaseTranslator {
 
         MethodSymbol targetSym = that.getTargetSymbol();
         FunctionTemplate template = functionTemplates.get(targetSym);
+        if (template == null && canUseDerivedTemplate(that)) {
+            template = DerivedFunctionTemplates.getTemplate(targetSym);
+        }
 
         // No template available.
         if (template == null) {
             return;
         }
 
-        mayEdit = false;
-        mHasMadeAChange = true;
-
-        AJCForest.getInstance().increment("Calls to " + targetSym.owner + "." + targetSym.name + " Inlined: ");
-        FunctionTemplateInstance instance;
+        AJCExpressionTree[] args;
         if (template.isStatic) {
-            instance = template.instantiateWithTemps(enclosingMethod, that.args.toArray(new AJCExpressionTree[that.args.size()]));
+            args = that.args.toArray(new AJCExpressionTree[that.args.size()]);
         } else {
-            AJCExpressionTree[] args = new AJCExpressionTree[that.args.size()+1];
+            args = new AJCExpressionTree[that.args.size()+1];
             if (that.meth instanceof AJCFieldAccess) {
                 // TODO: Urgh.
                 args[0] = (AJCExpressionTree) ((AJCFieldAccess) that.meth).selected;
@@ -77,10 +79,19 @@ public class ShortFuncTranslator extends BaseTranslator {
                 args[i] = arg;
                 i++;
             }
+        }
 
-            instance = template.instantiateWithTemps(enclosingMethod, args);
+        if (template.needsTemps(args) && !canEvaluateArgumentsFirst(that)) {
+            log.debug("Not replacing {}: its arguments can't be evaluated ahead of {}", that, that.getEnclosingStatement());
+            return;
         }
 
+        mayEdit = false;
+        mHasMadeAChange = true;
+
+        AJCForest.getInstance().increment("Calls to " + targetSym.owner + "." + targetSym.name + " Inlined: ");
+        FunctionTemplateInstance instance = template.instantiateWithTemps(enclosingMethod, args);
+
         List<AJCStatement> startupCopy = List.nil();
         if (!instance.startup.isEmpty()) {
             for (AJCStatement st : instance.startup) {
@@ -108,4 +119,63 @@ public class ShortFuncTranslator extends BaseTranslator {
 
         AJCForest.getInstance().repeatAnalysis(instance.body);
     }
+
+    /**
+     * Temporaries for the arguments are assigned before the statement enclosing the call. That's only the same as
+     * evaluating them at the call if the call is evaluated unconditionally, once, and before anything else in the
+     * statement with an effect: if it's the whole of an expression statement, a variable initialiser, or the right
+     * hand side of an assignment to a variable. Loop conditions, the later operands of &&, || and ?:, and calls
+     * after other effects in the same statement are all out.
+     *
+     * @return true if the arguments of the given call may be evaluated just before the statement enclosing it.
+     */
+    private static boolean canEvaluateArgumentsFirst(AJCCall call) {
+        AJCStatement enclosingStatement = call.getEnclosingStatement();
+        if (!(enclosingStatement.mParentNode instanceof AJCBlock) && !(enclosingStatement.mParentNode instanceof AJCCase)) {
+            // Loop initialisers and steps, or the body of something that isn't a block.
+            return false;
+        }
+
+        if (enclosingStatement instanceof AJCVariableDecl) {
+            return ((AJCVariableDecl) enclosingStatement).getInit() == call;
+        }
+
+        if (!(enclosingStatement instanceof AJCExpressionStatement)) {
+            return false;
+        }
+
+        AJCExpressionTree expr = ((AJCExpressionStatement) enclosingStatement).expr;
+        if (expr == call) {
+            return true;
+        }
+
+        // Compound assignments read their target first.
+        return expr instanceof AJCAssign
+            && ((AJCAssign) expr).rhs == call
+            && ((AJCAssign) expr).lhs instanceof AJCIdent;
+    }
+
+    /**
+     * @return true if the given call could be replaced by the derived template of its target, if it has one. The
+     *         receiver, if any, must be a type - as it would be dropped - and the arguments must already have the
+     *         types of the parameters, as nothing converts them.
+     */
+    private boolean canUseDerivedTemplate(AJCCall call) {
+        if (call.meth instanceof AJCFieldAccess) {
+            AJCTree selected = ((AJCFieldAccess) call.meth).selected;
+            if (!(selected instanceof AJCSymbolRefTree) || !(((AJCSymbolRefTree) selected).getTargetSymbol() instanceof TypeSymbol)) {
+                return false;
+            }
+        }
+
+        List<Type> paramTypes = call.getTargetSymbol().type.getParameterTypes();
+        for (AJCExpressionTree arg : call.args) {
+            if (arg.getNodeType().getTag() != paramTypes.head.getTag()) {
+                return false;
+            }
+            paramTypes = paramTypes.tail;
+        }
+
+        return true;
+    }
 }
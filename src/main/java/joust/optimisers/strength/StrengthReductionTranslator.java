@@ -0,0 +1,432 @@
+package joust.optimisers.strength;
+
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.util.List;
+import joust.optimisers.translators.BaseTranslator;
+import joust.optimisers.unroll.UnrollTranslator;
+import joust.tree.annotatedtree.AJCComparableExpressionTree;
+import joust.tree.annotatedtree.AJCForest;
+import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.utils.data.SetHashMap;
+import joust.utils.data.SymbolSet;
+import joust.utils.logging.LogUtils;
+import joust.utils.tree.NameFactory;
+import joust.utils.tree.TreeUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.logging.Logger;
+
+import static joust.tree.annotatedtree.AJCTree.*;
+import static joust.tree.annotatedtree.AJCComparableExpressionTree.*;
+import static com.sun.tools.javac.code.Symbol.*;
+import static com.sun.tools.javac.tree.JCTree.*;
+import static joust.utils.compiler.StaticCompilerUtils.*;
+
+/**
+ * Performs strength reduction of induction variables in for loops.
+ *
+ * A basic induction variable is a local int written in the loop only by a step of the form i++, i--, i += c or
+ * i -= c, for a literal c. Expressions in the body of the form i * s or i * s + b, where s and b are int literals or
+ * locals the loop doesn't write, change by a constant amount on every iteration: each is replaced by a new variable,
+ * initialised with the loop and updated by a new step.
+ *
+ * If the induction variable is then used only by the condition, and it and everything else about the loop is literal,
+ * the condition is rewritten in terms of one of the new variables and the induction variable is removed.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class StrengthReductionTranslator extends BaseTranslator {
+    private MethodSymbol enclosingMethod;
+
+    @Override
+    public void visitMethodDef(AJCMethodDecl tree) {
+        MethodSymbol outerMethod = enclosingMethod;
+        enclosingMethod = tree.getTargetSymbol();
+        super.visitMethodDef(tree);
+        enclosingMethod = outerMethod;
+    }
+
+    @Override
+    public void visitForLoop(AJCForLoop tree) {
+        super.visitForLoop(tree);
+        if (enclosingMethod == null) {
+            return;
+        }
+
+        // The variables written in the loop after its initialiser.
+        SymbolSet written = SymbolSet.union(tree.cond.effects.getEffectSet().writeInternal,
+                tree.body.effects.getEffectSet().writeInternal);
+        for (AJCExpressionStatement stat : tree.step) {
+            written = SymbolSet.union(written, stat.effects.getEffectSet().writeInternal);
+        }
+
+        if (written == SymbolSet.UNIVERSAL_SET) {
+            return;
+        }
+
+        for (AJCExpressionStatement stat : tree.step) {
+            VarSymbol inductionVar = getInductionVariable(tree, stat);
+            if (inductionVar != null && reduce(tree, stat, inductionVar, written)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The basic induction variable updated by the given step of the given loop, or null if it isn't one.
+     */
+    private static VarSymbol getInductionVariable(AJCForLoop loop, AJCExpressionStatement stat) {
+        AJCExpressionTree target;
+        if (stat.expr instanceof AJCUnaryAsg) {
+            target = ((AJCUnaryAsg) stat.expr).arg;
+        } else if (stat.expr instanceof AJCAssignOp) {
+            target = ((AJCAssignOp) stat.expr).lhs;
+        } else {
+            return null;
+        }
+
+        if (!(target instanceof AJCIdent)) {
+            return null;
+        }
+
+        Symbol sym = ((AJCIdent) target).getTargetSymbol();
+        if (!(sym instanceof VarSymbol) || !TreeUtils.isLocalVariable(sym) || sym.type.getTag() != TypeTag.INT
+         || UnrollTranslator.getStep(stat.expr, (VarSymbol) sym) == 0) {
+            return null;
+        }
+
+        // Nothing else in the loop may write it.
+        if (loop.cond.effects.getEffectSet().writeInternal.contains(sym)
+         || loop.body.effects.getEffectSet().writeInternal.contains(sym)) {
+            return null;
+        }
+
+        for (AJCExpressionStatement other : loop.step) {
+            if (other != stat && other.effects.getEffectSet().writeInternal.contains(sym)) {
+                return null;
+            }
+        }
+
+        return (VarSymbol) sym;
+    }
+
+    /**
+     * Replace the expressions derived from the given induction variable in the body of the given loop.
+     *
+     * @return true if anything was replaced.
+     */
+    private boolean reduce(AJCForLoop loop, AJCExpressionStatement inductionStep, VarSymbol inductionVar, SymbolSet written) {
+        DerivedExpressionFinder finder = new DerivedExpressionFinder(inductionVar, written);
+        finder.visitTree(loop.body);
+        if (finder.derived.isEmpty()) {
+            return false;
+        }
+
+        long step = UnrollTranslator.getStep(inductionStep.expr, inductionVar);
+        Integer initialValue = getInitialValue(loop, inductionVar);
+
+        List<AJCStatement> newInit = List.nil();
+        List<AJCExpressionStatement> newStep = List.nil();
+
+        // The literal scale and offset of a new variable the condition may be rewritten in terms of.
+        VarSymbol conditionVar = null;
+        int conditionScale = 0;
+        int conditionOffset = 0;
+
+        for (AJCComparableExpressionTree key : finder.derived.keySet()) {
+            AJCBinary expr = (AJCBinary) key.wrappedNode;
+            AJCBinary product = getProduct(expr);
+            AJCExpressionTree scale = getScale(product, inductionVar);
+            AJCExpressionTree offset = expr == product ? null : getOther(expr, product);
+
+            VarSymbol derivedVar = new VarSymbol(0, NameFactory.getName(), symtab.intType, enclosingMethod);
+
+            // The new variable starts at the value of the expression on entry to the loop...
+            AJCExpressionTree init;
+            if (initialValue != null && isLiteral(scale) && (offset == null || isLiteral(offset))) {
+                init = treeMaker.Literal(TypeTag.INT, initialValue * literalValue(scale) + (offset == null ? 0 : literalValue(offset)));
+            } else if (initialValue != null) {
+                init = treeMaker.Binary(Tag.MUL, treeMaker.Literal(TypeTag.INT, initialValue), treeCopier.copy(scale));
+                if (offset != null) {
+                    init = treeMaker.Binary(Tag.PLUS, init, treeCopier.copy(offset));
+                }
+            } else {
+                init = treeCopier.copy(expr);
+            }
+            newInit = newInit.append(treeMaker.VarDef(derivedVar, init));
+
+            // ... and changes by the step times the scale on every iteration.
+            AJCExpressionTree stride;
+            Tag strideOp = Tag.PLUS_ASG;
+            if (isLiteral(scale)) {
+                stride = treeMaker.Literal(TypeTag.INT, (int) (step * literalValue(scale)));
+            } else if (step == 1 || step == -1) {
+                stride = treeCopier.copy(scale);
+                strideOp = step == 1 ? Tag.PLUS_ASG : Tag.MINUS_ASG;
+            } else {
+                VarSymbol strideVar = new VarSymbol(0, NameFactory.getName(), symtab.intType, enclosingMethod);
+                newInit = newInit.append(treeMaker.VarDef(strideVar,
+                        treeMaker.Binary(Tag.MUL, treeCopier.copy(scale), treeMaker.Literal(TypeTag.INT, (int) step))));
+                stride = treeMaker.Ident(strideVar);
+            }
+            newStep = newStep.append(treeMaker.Exec(treeMaker.Assignop(strideOp, treeMaker.<VarSymbol>Ident(derivedVar), stride)));
+
+            for (AJCTree usage : finder.derived.get(key)) {
+                usage.swapFor(treeMaker.Ident(derivedVar));
+                AJCForest.getInstance().increment("Induction Expressions Reduced:");
+            }
+
+            if (conditionVar == null && isLiteral(scale) && literalValue(scale) != 0 && (offset == null || isLiteral(offset))) {
+                conditionVar = derivedVar;
+                conditionScale = literalValue(scale);
+                conditionOffset = offset == null ? 0 : literalValue(offset);
+            }
+        }
+
+        List<AJCStatement> init = loop.init.appendList(newInit);
+        List<AJCExpressionStatement> steps = loop.step.appendList(newStep);
+
+        // If the induction variable is now needed only by the condition, count with one of the new variables instead.
+        if (!finder.otherUses && conditionVar != null && initialValue != null
+         && !isReadElsewhere(loop, inductionStep, inductionVar)
+         && replaceCondition(loop, inductionVar, initialValue, step, conditionVar, conditionScale, conditionOffset)) {
+            for (AJCStatement stat : loop.init) {
+                if (stat instanceof AJCVariableDecl && ((AJCVariableDecl) stat).getTargetSymbol() == inductionVar) {
+                    init = removeFrom(init, stat);
+                }
+            }
+            steps = removeFrom(steps, inductionStep);
+            AJCForest.getInstance().increment("Induction Variables Removed:");
+        }
+
+        setLoopParts(loop, init, steps);
+
+        log.info("After strength reduction of {}:\n{}", inductionVar, loop);
+        AJCForest.getInstance().initialAnalysis();
+        mHasMadeAChange = true;
+        return true;
+    }
+
+    /**
+     * Rewrite the condition of the given loop, if it compares the induction variable with a literal, to compare the
+     * given derived variable instead. The two conditions agree while no value either variable takes overflows.
+     *
+     * @return true if the condition was replaced.
+     */
+    private static boolean replaceCondition(AJCForLoop loop, VarSymbol inductionVar, int initialValue, long step,
+                                            VarSymbol derivedVar, int scale, int offset) {
+        if (!(loop.cond instanceof AJCBinary)) {
+            return false;
+        }
+
+        // The loop must count towards the bound.
+        AJCBinary cond = (AJCBinary) loop.cond;
+        Tag op = cond.getTag();
+        boolean rising = op == Tag.LT || op == Tag.LE;
+        boolean falling = op == Tag.GT || op == Tag.GE;
+        if (!(cond.lhs instanceof AJCIdent) || ((AJCIdent) cond.lhs).getTargetSymbol() != inductionVar
+         || !isLiteral(cond.rhs) || (step > 0 ? !rising : !falling)) {
+            return false;
+        }
+
+        // The induction variable runs from its initial value to at most one step past the bound.
+        long bound = literalValue(cond.rhs);
+        long last = bound + step;
+        long[] extremes = {initialValue, last, initialValue * (long) scale + offset, last * scale + offset, bound * scale + offset};
+        for (long value : extremes) {
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+
+        // Multiplying by a negative scale reverses the comparison.
+        Tag newOp = op;
+        if (scale < 0) {
+            if (op == Tag.LT) {
+                newOp = Tag.GT;
+            } else if (op == Tag.LE) {
+                newOp = Tag.GE;
+            } else if (op == Tag.GT) {
+                newOp = Tag.LT;
+            } else {
+                newOp = Tag.LE;
+            }
+        }
+
+        AJCBinary newCond = treeMaker.Binary(newOp, treeMaker.Ident(derivedVar),
+                treeMaker.Literal(TypeTag.INT, (int) (bound * scale + offset)));
+        loop.cond.swapFor(newCond);
+
+        return true;
+    }
+
+    /**
+     * @return true if the given induction variable is read by the initialiser or steps of the given loop, other than
+     *         by its own step.
+     */
+    private static boolean isReadElsewhere(AJCForLoop loop, AJCExpressionStatement inductionStep, VarSymbol inductionVar) {
+        for (AJCStatement stat : loop.init.appendList(List.<AJCStatement>convert(AJCStatement.class, loop.step))) {
+            if (stat != inductionStep && stat.effects.getEffectSet().readInternal.contains(inductionVar)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return The literal value the given induction variable is initialised with by the given loop, or null.
+     */
+    private static Integer getInitialValue(AJCForLoop loop, VarSymbol inductionVar) {
+        for (AJCStatement stat : loop.init) {
+            if (stat instanceof AJCVariableDecl && ((AJCVariableDecl) stat).getTargetSymbol() == inductionVar) {
+                AJCExpressionTree init = ((AJCVariableDecl) stat).getInit();
+                return isLiteral(init) ? literalValue(init) : null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Replace the initialiser and steps of the given loop.
+     */
+    private static void setLoopParts(AJCForLoop loop, List<AJCStatement> init, List<AJCExpressionStatement> step) {
+        loop.init = init;
+        loop.step = step;
+
+        JCForLoop decorated = loop.getDecoratedTree();
+        decorated.init = AJCTree.<JCStatement, AJCStatement>unwrap(init);
+        decorated.step = AJCTree.<JCExpressionStatement, AJCExpressionStatement>unwrap(step);
+
+        for (AJCStatement stat : init) {
+            stat.mParentNode = loop;
+        }
+        for (AJCStatement stat : step) {
+            stat.mParentNode = loop;
+        }
+    }
+
+    private static <T extends AJCTree> List<T> removeFrom(List<T> list, T tree) {
+        List<T> ret = List.nil();
+        for (T t : list) {
+            if (t != tree) {
+                ret = ret.prepend(t);
+            }
+        }
+
+        return ret.reverse();
+    }
+
+    /**
+     * @return The product in the given derived expression.
+     */
+    private static AJCBinary getProduct(AJCBinary expr) {
+        if (expr.getTag() == Tag.MUL) {
+            return expr;
+        }
+
+        return expr.lhs instanceof AJCBinary && ((AJCBinary) expr.lhs).getTag() == Tag.MUL ? (AJCBinary) expr.lhs : (AJCBinary) expr.rhs;
+    }
+
+    /**
+     * @return The operand of the given product that isn't the induction variable.
+     */
+    private static AJCExpressionTree getScale(AJCBinary product, VarSymbol inductionVar) {
+        return TreeUtils.isReferenceTo(product.lhs, inductionVar) ? product.rhs : product.lhs;
+    }
+
+    private static AJCExpressionTree getOther(AJCBinary expr, AJCExpressionTree operand) {
+        return expr.lhs == operand ? expr.rhs : expr.lhs;
+    }
+
+    private static boolean isLiteral(AJCExpressionTree tree) {
+        return tree instanceof AJCLiteral && tree.getNodeType().getTag() == TypeTag.INT;
+    }
+
+    private static int literalValue(AJCExpressionTree tree) {
+        return ((Number) ((AJCLiteral) tree).getValue()).intValue();
+    }
+
+    /**
+     * Finds the expressions of the form i * s or i * s + b (in either order) in a loop body, where i is the induction
+     * variable, and whether the induction variable is used in any other way.
+     */
+    private static class DerivedExpressionFinder extends AJCTreeVisitor {
+        private final VarSymbol inductionVar;
+        private final SymbolSet written;
+
+        final SetHashMap<AJCComparableExpressionTree, AJCTree> derived = new SetHashMap<AJCComparableExpressionTree, AJCTree>();
+        boolean otherUses;
+
+        DerivedExpressionFinder(VarSymbol inductionVar, SymbolSet written) {
+            this.inductionVar = inductionVar;
+            this.written = written;
+        }
+
+        @Override
+        protected void visitBinary(AJCBinary that) {
+            if (isDerived(that)) {
+                derived.listAdd(new ComparableAJCBinary(that), that);
+                return;
+            }
+
+            super.visitBinary(that);
+        }
+
+        @Override
+        protected void visitIdent(AJCIdent that) {
+            otherUses |= that.getTargetSymbol() == inductionVar;
+        }
+
+        @Override
+        protected void visitClassDef(AJCClassDecl that) {
+            // The induction variable can't be used in here, and the rest isn't of interest.
+        }
+
+        private boolean isDerived(AJCBinary that) {
+            if (that.getNodeType().getTag() != TypeTag.INT) {
+                return false;
+            }
+
+            if (that.getTag() == Tag.MUL) {
+                return (TreeUtils.isReferenceTo(that.lhs, inductionVar) && isInvariant(that.rhs))
+                    || (TreeUtils.isReferenceTo(that.rhs, inductionVar) && isInvariant(that.lhs));
+            }
+
+            if (that.getTag() != Tag.PLUS) {
+                return false;
+            }
+
+            return (isProduct(that.lhs) && isInvariant(that.rhs))
+                || (isProduct(that.rhs) && isInvariant(that.lhs));
+        }
+
+        private boolean isProduct(AJCExpressionTree tree) {
+            return tree instanceof AJCBinary && ((AJCBinary) tree).getTag() == Tag.MUL && isDerived((AJCBinary) tree);
+        }
+
+        /**
+         * @return true if the given tree is an int literal, or an int local the loop doesn't write.
+         */
+        private boolean isInvariant(AJCExpressionTree tree) {
+            if (tree.getNodeType().getTag() != TypeTag.INT) {
+                return false;
+            }
+
+            if (tree instanceof AJCLiteral) {
+                return true;
+            }
+
+            if (!(tree instanceof AJCIdent)) {
+                return false;
+            }
+
+            Symbol sym = ((AJCIdent) tree).getTargetSymbol();
+            return sym instanceof VarSymbol && sym != inductionVar && TreeUtils.isLocalVariable(sym) && !written.contains(sym);
+        }
+    }
+}
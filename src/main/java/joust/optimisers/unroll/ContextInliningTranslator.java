@@ -6,7 +6,6 @@ import joust.utils.tree.evaluation.Value;
 import joust.optimisers.translators.BaseTranslator;
 import joust.tree.annotatedtree.AJCForest;
 import joust.utils.logging.LogUtils;
-import lombok.AllArgsConstructor;
 import lombok.experimental.ExtensionMethod;
 import lombok.extern.java.Log;
 
@@ -19,13 +18,23 @@ import static com.sun.tools.javac.code.Symbol.*;
 
 /**
  * A translator that takes the mappings from an ExecutionContext and replaces identifiers in the tree of interest
- * with known literal replacements where possible (according to the context mappings provided).
+ * with known literal replacements where possible (according to the context mappings provided). Reads of elements
+ * of known arrays at known indices are replaced too.
  */
 @Log
 @ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
-@AllArgsConstructor
 public class ContextInliningTranslator extends BaseTranslator {
     HashMap<VarSymbol, Value> currentAssignments;
+    HashMap<VarSymbol, Value[]> knownArrays;
+
+    public ContextInliningTranslator(HashMap<VarSymbol, Value> assignments) {
+        this(assignments, new HashMap<VarSymbol, Value[]>());
+    }
+
+    public ContextInliningTranslator(HashMap<VarSymbol, Value> assignments, HashMap<VarSymbol, Value[]> arrays) {
+        currentAssignments = assignments;
+        knownArrays = arrays;
+    }
 
     private void visitSymbolRefTree(AJCSymbolRefTree tree) {
         Symbol sym = tree.getTargetSymbol();
@@ -62,4 +71,26 @@ public class ContextInliningTranslator extends BaseTranslator {
 
         visitSymbolRefTree(tree);
     }
+
+    @Override
+    protected void visitArrayAccess(AJCArrayAccess tree) {
+        super.visitArrayAccess(tree);
+
+        // Element writes are left alone: arrays known here never have any.
+        if (!(tree.indexed instanceof AJCSymbolRefTree) || !(tree.index instanceof AJCLiteral)) {
+            return;
+        }
+
+        Value[] elements = knownArrays.get(((AJCSymbolRefTree) tree.indexed).getTargetSymbol());
+        Object index = ((AJCLiteral) tree.index).getValue();
+        if (elements == null || !(index instanceof Integer) || (Integer) index < 0 || (Integer) index >= elements.length) {
+            return;
+        }
+
+        AJCLiteral result = elements[(Integer) index].toLiteral();
+        mHasMadeAChange = true;
+        log.info("Replacing {} with {}", tree, result);
+
+        tree.swapFor(result);
+    }
 }
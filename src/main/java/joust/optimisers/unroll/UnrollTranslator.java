@@ -1,7 +1,15 @@
 package joust.optimisers.unroll;
 
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.tree.JCTree;
 import com.sun.tools.javac.util.List;
+import joust.optimisers.finalfold.FinalValueFinder;
 import joust.optimisers.invar.ExpressionComplexityClassifier;
+import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.utils.commandline.Target;
 import joust.utils.tree.evaluation.EvaluationContext;
 import joust.utils.tree.evaluation.Value;
 import joust.optimisers.translators.BaseTranslator;
@@ -9,21 +17,31 @@ import joust.tree.annotatedtree.AJCForest;
 import joust.tree.annotatedtree.treeinfo.EffectSet;
 import joust.utils.logging.LogUtils;
 import joust.utils.data.SymbolSet;
+import joust.utils.tree.NameFactory;
 import joust.utils.tree.TreeUtils;
 import lombok.experimental.ExtensionMethod;
 import lombok.extern.java.Log;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import static joust.tree.annotatedtree.AJCTree.*;
 import static com.sun.tools.javac.code.Symbol.*;
-import static joust.utils.compiler.StaticCompilerUtils.treeCopier;
+import static com.sun.tools.javac.tree.JCTree.Tag;
+import static joust.utils.compiler.StaticCompilerUtils.*;
 
 /**
  * Performs loop unrolling. When a loop is detected for which the loop condition can be evaluated at runtime and which
- * is found to terminate in UNROLL_LIMIT steps or fewer it is unrolled in its entirety.
- * No partial unrolling is ever performed.
+ * is found to terminate in UNROLL_LIMIT steps or fewer it is unrolled in its entirety. This goes for while and do-while
+ * loops whose bodies end by updating the variables of the condition, as well as for loops, and the values of those
+ * variables may come from the statements before the loop. The lengths and elements of constant arrays are known, so
+ * enhanced for loops over them, which are desugared to for loops indexing a copy of the array, unroll too.
+ *
+ * Other counted loops - those of the form for (int i = a; i < n; i += c), where the body changes neither i nor n - are
+ * partially unrolled: the body is repeated PARTIAL_UNROLL_FACTOR times in a loop that runs while that many iterations
+ * remain, followed by the original loop to run whatever is left over.
  */
 @Log
 @ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
@@ -36,10 +54,26 @@ public class UnrollTranslator extends BaseTranslator {
     // extremely complicated loops for targets that have JIT, or when you care about binaries becoming enormous.
     private static final int UNROLLABLE_BODY_THRESHOLD = 15;
 
+    // The number of copies of the body of a counted loop to make when partially unrolling it. Chosen by the target
+    // (See OptimiserOptions).
+    public static int PARTIAL_UNROLL_FACTOR = Target.DALVIK.unrollFactor;
+
+    // The greatest complexity the extra copies of the body of a partially unrolled loop may have in total.
+    public static final int PARTIAL_UNROLL_BUDGET = 60;
+
+    // The loops produced by partial unrolling, which mustn't be unrolled again.
+    private final Set<AJCForLoop> partiallyUnrolled = new HashSet<AJCForLoop>();
+
+    private MethodSymbol enclosingMethod;
+
+    // The elements of the constant arrays of the classes being compiled (See FinalValueFinder).
+    private HashMap<VarSymbol, Value[]> constantArrays;
+
     private boolean justPrinted = false;
 
     @Override
     public void visitMethodDef(AJCMethodDecl tree) {
+        enclosingMethod = tree.getTargetSymbol();
         super.visitMethodDef(tree);
 
         if (mHasMadeAChange && !justPrinted) {
@@ -48,92 +82,199 @@ public class UnrollTranslator extends BaseTranslator {
         }
     }
 
+    @Override
+    public void visitTree(AJCTree tree) {
+        // The constant arrays are found once, from the whole forest, as their uses may be anywhere.
+        if (constantArrays == null) {
+            FinalValueFinder finder = new FinalValueFinder();
+            for (AJCTree root : AJCForest.getInstance().rootNodes) {
+                finder.visitTree(root);
+            }
+
+            constantArrays = finder.getConstantArrays();
+        }
+
+        super.visitTree(tree);
+    }
+
     @Override
     public void visitForLoop(AJCForLoop tree) {
         super.visitForLoop(tree);
-        log.debug("unroll consideration for {}", tree);
+        if (partiallyUnrolled.contains(tree)) {
+            return;
+        }
+
+        if (!unrollCompletely(tree, tree.init, tree.cond, tree.step, tree.body.stats, false)) {
+            unrollPartially(tree);
+        }
+    }
+
+    @Override
+    public void visitWhileLoop(AJCWhileLoop tree) {
+        super.visitWhileLoop(tree);
+        unrollWithUpdates(tree, tree.cond, tree.body, false);
+    }
+
+    @Override
+    public void visitDoWhileLoop(AJCDoWhileLoop tree) {
+        super.visitDoWhileLoop(tree);
+        unrollWithUpdates(tree, tree.cond, tree.body, true);
+    }
+
+    /**
+     * Unroll a while or do-while loop in its entirety, if its iterations can be counted at compile time. The body
+     * must end with the statements that update the variables of the condition, and nothing before them may write
+     * those variables: those statements then play the part of the step of a for loop.
+     */
+    private void unrollWithUpdates(AJCStatement loop, AJCExpressionTree cond, AJCBlock body, boolean bodyFirst) {
+        SymbolSet condReads = cond.effects.getEffectSet().readInternal;
+
+        // Split the body into the work and the trailing updates.
+        List<AJCStatement> work = body.stats.reverse();
+        List<AJCExpressionStatement> updates = List.nil();
+        while (!work.isEmpty() && work.head instanceof AJCExpressionStatement) {
+            SymbolSet writes = work.head.effects.getEffectSet().writeInternal;
+            if (writes.isEmpty() || !writes.subsetOf(condReads)) {
+                break;
+            }
+
+            updates = updates.prepend((AJCExpressionStatement) work.head);
+            work = work.tail;
+        }
+        work = work.reverse();
+
+        unrollCompletely(loop, List.<AJCStatement>nil(), cond, updates, work, bodyFirst);
+    }
 
-        EffectSet condEffects = tree.cond.effects.getEffectSet();
+    /**
+     * Unroll the given loop in its entirety, if its iterations can be counted at compile time.
+     *
+     * @param loop The loop to replace.
+     * @param init The statements run once before the loop.
+     * @param cond The loop condition.
+     * @param step The statements run after the body on each iteration, which alone may change the condition.
+     * @param body The statements run on each iteration.
+     * @param bodyFirst true if the body runs before the condition is first tested.
+     * @return true if the loop was replaced.
+     */
+    private boolean unrollCompletely(AJCStatement loop, List<AJCStatement> init, AJCExpressionTree cond,
+                                     List<AJCExpressionStatement> step, List<AJCStatement> body, boolean bodyFirst) {
+        log.debug("unroll consideration for {}", loop);
+        if (!(loop.mParentNode instanceof AJCBlock)) {
+            return false;
+        }
+
+        EffectSet condEffects = cond.effects.getEffectSet();
         SymbolSet condReads = condEffects.readInternal;
         SymbolSet condWrites = condEffects.writeInternal;
+        if (!condWrites.isEmpty()) {
+            log.debug("Aborting unrolling - condition has side effects!");
+            return false;
+        }
 
         // Find the effects for the statements in the repeat steps...
         SymbolSet repeatReads = new SymbolSet();
         SymbolSet repeatWrites = new SymbolSet();
-        for (AJCExpressionStatement stat : tree.step) {
+        for (AJCExpressionStatement stat : step) {
             EffectSet stepEffects = stat.effects.getEffectSet();
-            repeatReads.addAll(stepEffects.readInternal);
-            repeatWrites.addAll(stepEffects.writeInternal);
+            repeatReads = SymbolSet.union(repeatReads, stepEffects.readInternal);
+            repeatWrites = SymbolSet.union(repeatWrites, stepEffects.writeInternal);
         }
 
         // Determine if any of the symbols depended on by the condition or repeat are global.
-        if (containsGlobal(condReads) || containsGlobal(condWrites)
-         || containsGlobal(repeatReads) || containsGlobal(repeatWrites)) {
+        if (containsGlobal(condReads) || containsGlobal(repeatReads) || containsGlobal(repeatWrites)) {
             log.debug("Aborting unrolling - global symbol deps!");
-            return;
+            return false;
         }
 
-        EffectSet bodyEffects = tree.body.effects.getEffectSet();
         // If the body writes anything read by the cond or repeat, abort. (That shit's complicated.).
-        SymbolSet bodyWrites = bodyEffects.writeInternal;
+        SymbolSet bodyWrites = new SymbolSet();
+        for (AJCStatement stat : body) {
+            bodyWrites = SymbolSet.union(bodyWrites, stat.effects.getEffectSet().writeInternal);
+        }
 
         // TODO: can *sometimes* deal with this. Sort of tricky, and implies very retarded code.
         if (!bodyWrites.intersect(condReads).isEmpty() || !bodyWrites.intersect(repeatReads).isEmpty()) {
             log.debug("Aborting unrolling - body writes to condition/repeat deps!");
-            return;
+            return false;
+        }
+
+        // Jumps out of the body would skip the remaining copies.
+        UnrollBlockerScanner blockerScanner = new UnrollBlockerScanner(loop);
+        blockerScanner.visitTrees(body);
+        if (blockerScanner.blocked) {
+            log.debug("Aborting unrolling - body jumps to the loop!");
+            return false;
         }
 
         // Attempt to evaluate the loop management code ahead of time.
-        EvaluationContext context = new EvaluationContext();
-        context.evaluateStatements(tree.init);
-        Value condition = context.evaluate(tree.cond);
+        SymbolSet loopVars = SymbolSet.union(condReads, repeatReads);
+        EvaluationContext context = getEntryContext(loop, init, loopVars);
+        int iterations = 0;
+        if (bodyFirst) {
+            context.evaluateExpressionStatements(step);
+            iterations++;
+        }
+
+        Value condition = context.evaluate(cond);
         if (condition == Value.UNKNOWN) {
             log.debug("Abort: Condition unknown.");
-            return;
+            return false;
         }
 
-        if (!((Boolean) condition.getValue())) {
+        AJCBlock block = loop.getEnclosingBlock();
+        if (!bodyFirst && !((Boolean) condition.getValue())) {
             log.debug("Instantly false for condition...");
             // Special case - the loop condition is initially false.
             // We can replace the loop with the init statements (Killing any that are variable initialisers or
             // depend thereon.
-            AJCBlock block = tree.getEnclosingBlock();
-            block.insertBefore(tree, tree.init);
-            block.remove(tree);
-            return;
+            block.insertBefore(loop, init);
+            block.remove(loop);
+            AJCForest.getInstance().initialAnalysis();
+            mHasMadeAChange = true;
+            justPrinted = false;
+            return true;
         }
 
-        int iterations = 0;
         while (iterations < UNROLL_LIMIT && condition != Value.UNKNOWN && (Boolean) condition.getValue()) {
-            context.evaluateExpressionStatements(tree.step);
+            context.evaluateExpressionStatements(step);
             log.debug("Status: \n{}", context);
-            condition = context.evaluate(tree.cond);
+            condition = context.evaluate(cond);
             iterations++;
         }
 
         if (iterations >= UNROLL_LIMIT || condition == Value.UNKNOWN) {
             log.debug("Abort: Condition unknown or cycles exceeded");
-            return;
+            return false;
         }
 
         // Don't unroll loops with very complicated bodies.
         ExpressionComplexityClassifier classifier = new ExpressionComplexityClassifier();
-        classifier.visitTree(tree.body);
+        classifier.visitTrees(body);
         if (classifier.getScore() > UNROLLABLE_BODY_THRESHOLD) {
-            log.info("Skipping unrollable loop because complexity {} too high: {}", classifier.getScore(), tree);
-            return;
+            log.info("Skipping unrollable loop because complexity {} too high: {}", classifier.getScore(), loop);
+            return false;
         }
 
-        // Replace the for loop with its initialiser, then iterations-many repeats of the body inlining variables that
+        // The steps need only be kept if they write variables that outlive the loop, or that the body needs but which
+        // aren't substituted into it.
+        SymbolSet initDeclared = new SymbolSet();
+        for (AJCStatement stat : init) {
+            if (stat instanceof AJCVariableDecl) {
+                initDeclared.add(((AJCVariableDecl) stat).getTargetSymbol());
+            }
+        }
+        boolean keepSteps = !repeatWrites.subsetOf(condReads) || !repeatWrites.subsetOf(initDeclared);
+
+        // Replace the loop with its initialiser, then iterations-many repeats of the body inlining variables that
         // are known in the EvaluationContext as we go.
 
         // Some of these might turn out to be pointless. That's okay - we'll run the UnusedAssignmentStripper over them
         // in a minute.
-        List<AJCStatement> statements = tree.init;
+        List<AJCStatement> statements = init;
 
-        context = new EvaluationContext();
         // Now we replay the loop evaluation that we know terminates nicely and make substitutions as we go...
-        context.evaluateStatements(tree.init);
+        context = getEntryContext(loop, init, loopVars);
 
         // Strip everything that isn't a loop condition variable from the context.
         final HashMap<VarSymbol, Value> currentAssignments = context.getCurrentAssignments();
@@ -142,29 +283,315 @@ public class UnrollTranslator extends BaseTranslator {
         // The condition is now true. Time for a loop body.
         while (iterations > 0) {
             // Append the loop body with every known value from context substituted.
-            statements = statements.appendList(getSubstitutedCopy(tree.body, context));
-            context.evaluateExpressionStatements(tree.step);
+            statements = statements.appendList(getSubstitutedCopy(body, context, bodyWrites));
+            if (keepSteps) {
+                statements = statements.appendList(List.<AJCStatement>convert(AJCStatement.class, treeCopier.copy(step)));
+            }
+            context.evaluateExpressionStatements(step);
+            currentAssignments.keySet().retainAll(condReads);
             iterations--;
         }
 
-        tree.getEnclosingBlock().insertBefore(tree, statements);
-        tree.getEnclosingBlock().remove(tree);
+        block.insertBefore(loop, statements);
+        block.remove(loop);
         AJCForest.getInstance().initialAnalysis();
         mHasMadeAChange = true;
         justPrinted = false;
         AJCForest.getInstance().increment("Loops Unrolled:");
+        return true;
+    }
+
+    /**
+     * Get a context holding what's known on entry to the given loop, having run its initialiser: the constant
+     * arrays, and the values last assigned to the given variables by the statements preceding the loop in its block.
+     */
+    private EvaluationContext getEntryContext(AJCStatement loop, List<AJCStatement> init, SymbolSet vars) {
+        // Walk back from the loop to the assignment that gives each variable its value on entry, giving up on a
+        // variable when anything else writes it first.
+        List<AJCStatement> seeds = List.nil();
+        SymbolSet unresolved = new SymbolSet(vars);
+        List<AJCStatement> preceding = List.nil();
+        for (AJCStatement stat : ((AJCBlock) loop.mParentNode).stats) {
+            if (stat == loop) {
+                break;
+            }
+            preceding = preceding.prepend(stat);
+        }
+
+        for (AJCStatement stat : preceding) {
+            if (unresolved.isEmpty()) {
+                break;
+            }
+
+            VarSymbol assigned = getAssignedVariable(stat);
+            if (assigned != null && unresolved.contains(assigned)) {
+                seeds = seeds.prepend(stat);
+                unresolved.remove(assigned);
+            }
+
+            SymbolSet writes = stat.effects.getEffectSet().writeInternal;
+            if (writes == SymbolSet.UNIVERSAL_SET) {
+                break;
+            }
+            unresolved.removeAll(writes);
+        }
+
+        EvaluationContext context = new EvaluationContext(constantArrays);
+        context.evaluateStatements(seeds);
+        context.evaluateStatements(init);
+
+        return context;
+    }
+
+    /**
+     * @return The variable given its value by the given statement, if it's a declaration or simple assignment, or null.
+     */
+    private static VarSymbol getAssignedVariable(AJCStatement stat) {
+        if (stat instanceof AJCVariableDecl) {
+            AJCVariableDecl decl = (AJCVariableDecl) stat;
+            return decl.getInit().isEmptyExpression() ? null : decl.getTargetSymbol();
+        }
+
+        if (stat instanceof AJCExpressionStatement && ((AJCExpressionStatement) stat).expr instanceof AJCAssign) {
+            AJCAssign assign = (AJCAssign) ((AJCExpressionStatement) stat).expr;
+            if (assign.lhs instanceof AJCIdent) {
+                return assign.getTargetSymbol();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Partially unroll the given loop, if it's a counted loop whose body is simple enough.
+     */
+    private void unrollPartially(AJCForLoop tree) {
+        if (PARTIAL_UNROLL_FACTOR < 2 || !(tree.mParentNode instanceof AJCBlock)
+         || tree.init.size() != 1 || !(tree.init.head instanceof AJCVariableDecl) || tree.step.size() != 1) {
+            return;
+        }
+
+        // The induction variable, which must be an int.
+        AJCVariableDecl inductionDecl = (AJCVariableDecl) tree.init.head;
+        VarSymbol inductionVar = inductionDecl.getTargetSymbol();
+        if (inductionVar.type.getTag() != TypeTag.INT || inductionDecl.getInit().isEmptyExpression()) {
+            return;
+        }
+
+        long step = getStep(tree.step.head.expr, inductionVar);
+        if (step == 0 || !(tree.cond instanceof AJCBinary)) {
+            return;
+        }
+
+        // The condition must compare the induction variable against a bound in the direction it moves.
+        AJCBinary cond = (AJCBinary) tree.cond;
+        Tag op = cond.getTag();
+        boolean rising = op == Tag.LT || op == Tag.LE;
+        boolean falling = op == Tag.GT || op == Tag.GE;
+        if (!TreeUtils.isReferenceTo(cond.lhs, inductionVar) || (step > 0 ? !rising : !falling)) {
+            return;
+        }
+
+        // Neither the induction variable nor the bound may change in the body.
+        boolean literalBound = cond.rhs instanceof AJCLiteral && cond.rhs.getNodeType().getTag() == TypeTag.INT;
+        VarSymbol boundVar = getBoundVariable(cond.rhs);
+        SymbolSet bodyWrites = tree.body.effects.getEffectSet().writeInternal;
+        if ((boundVar == null && !literalBound)
+         || bodyWrites.contains(inductionVar) || (boundVar != null && bodyWrites.contains(boundVar))) {
+            log.debug("Abort partial unrolling: Not a counted loop: {}", tree);
+            return;
+        }
+
+        UnrollBlockerScanner blockerScanner = new UnrollBlockerScanner(tree);
+        blockerScanner.visitTree(tree.body);
+        if (blockerScanner.blocked || tree.body.stats.isEmpty()) {
+            return;
+        }
+
+        // Keep the extra copies of the body within the budget.
+        ExpressionComplexityClassifier classifier = new ExpressionComplexityClassifier();
+        classifier.visitTree(tree.body);
+        int factor = PARTIAL_UNROLL_FACTOR;
+        while (factor > 1 && classifier.getScore() * (factor - 1) > PARTIAL_UNROLL_BUDGET) {
+            factor--;
+        }
+
+        if (factor < 2) {
+            log.debug("Abort partial unrolling: Body complexity {} too high: {}", classifier.getScore(), tree);
+            return;
+        }
+
+        // The unrolled loop runs while i + (factor - 1) * step still satisfies the condition, so every copy of the body
+        // runs exactly when the original loop would have run it. The limit is an int, like the induction variable, so
+        // computing it mustn't overflow.
+        long distance = (factor - 1) * step;
+        if (distance < Integer.MIN_VALUE || distance > Integer.MAX_VALUE) {
+            return;
+        }
+
+        List<AJCStatement> prologue = List.<AJCStatement>of(treeCopier.copy(inductionDecl));
+        AJCExpressionTree limit;
+        AJCExpressionTree overflowCheck = null;
+        if (literalBound) {
+            long limitValue = ((Number) ((AJCLiteral) cond.rhs).getValue()).longValue() - distance;
+            if (limitValue < Integer.MIN_VALUE || limitValue > Integer.MAX_VALUE) {
+                return;
+            }
+
+            limit = treeMaker.Literal(TypeTag.INT, (int) limitValue);
+        } else {
+            VarSymbol limitVar = new VarSymbol(Flags.FINAL, NameFactory.getName(), symtab.intType, enclosingMethod);
+            AJCExpressionTree limitInit = treeMaker.Binary(Tag.MINUS, treeCopier.copy(cond.rhs), treeMaker.Literal(TypeTag.INT, (int) distance));
+            prologue = prologue.append(treeMaker.VarDef(limitVar, limitInit));
+            limit = treeMaker.Ident(limitVar);
+
+            // The bound - distance doesn't overflow if the bound is at least MIN_VALUE + distance (Rising), or at most
+            // MAX_VALUE + distance (Falling). An array length never takes a rising limit below zero.
+            boolean lengthBound = cond.rhs instanceof AJCFieldAccess && ((AJCFieldAccess) cond.rhs).getTargetSymbol() == symtab.lengthVar;
+            if (step < 0 || !lengthBound) {
+                long safeBound = step > 0 ? Integer.MIN_VALUE + distance : Integer.MAX_VALUE + distance;
+                overflowCheck = treeMaker.Binary(step > 0 ? Tag.GE : Tag.LE, treeCopier.copy(cond.rhs), treeMaker.Literal(TypeTag.INT, (int) safeBound));
+            }
+        }
+
+        // The body of the unrolled loop: the copies of the original body, with the step between each.
+        List<AJCStatement> unrolledBody = List.nil();
+        for (int i = 0; i < factor; i++) {
+            if (i > 0) {
+                unrolledBody = unrolledBody.appendList(List.<AJCStatement>convert(AJCStatement.class, treeCopier.copy(tree.step)));
+            }
+            unrolledBody = unrolledBody.append(treeMaker.Block(0, treeCopier.copy(tree.body.stats)));
+        }
+
+        AJCExpressionTree unrolledCond = treeMaker.Binary(op, treeMaker.Ident(inductionVar), limit);
+        AJCForLoop unrolled = treeMaker.ForLoop(List.<AJCStatement>nil(), unrolledCond, treeCopier.copy(tree.step),
+                treeMaker.Block(0, unrolledBody));
+
+        // The original loop, less the initialiser, finishes off.
+        AJCForLoop remainder = treeMaker.ForLoop(List.<AJCStatement>nil(), treeCopier.copy(tree.cond), treeCopier.copy(tree.step),
+                treeCopier.copy(tree.body));
+
+        partiallyUnrolled.add(unrolled);
+        partiallyUnrolled.add(remainder);
+
+        // If the limit would overflow, only the remainder loop runs.
+        AJCStatement unrolledStatement = unrolled;
+        if (overflowCheck != null) {
+            unrolledStatement = treeMaker.If(overflowCheck, treeMaker.Block(0, List.<AJCStatement>of(unrolled)),
+                    treeMaker.Block(0, List.<AJCStatement>nil()));
+        }
+
+        AJCBlock replacement = treeMaker.Block(0, prologue.append(unrolledStatement).append(remainder));
+        log.info("Partially unrolled {} by {}: {}", tree, factor, replacement);
+
+        AJCBlock block = tree.getEnclosingBlock();
+        block.insertBefore(tree, List.<AJCStatement>of(replacement));
+        block.remove(tree);
+
+        AJCForest.getInstance().initialAnalysis();
+        mHasMadeAChange = true;
+        justPrinted = false;
+        AJCForest.getInstance().increment("Loops Partially Unrolled:");
+    }
+
+    /**
+     * @return The constant amount the given step expression changes the given variable by, or 0 if it isn't such a
+     *         step.
+     */
+    public static long getStep(AJCExpressionTree expr, VarSymbol sym) {
+        if (expr instanceof AJCUnaryAsg) {
+            AJCUnaryAsg unary = (AJCUnaryAsg) expr;
+            if (!TreeUtils.isReferenceTo(unary.arg, sym)) {
+                return 0;
+            }
+
+            Tag tag = unary.getTag();
+            return tag == Tag.PREINC || tag == Tag.POSTINC ? 1 : -1;
+        }
+
+        if (!(expr instanceof AJCAssignOp)) {
+            return 0;
+        }
+
+        AJCAssignOp assignOp = (AJCAssignOp) expr;
+        Tag tag = assignOp.getTag();
+        if (!TreeUtils.isReferenceTo(assignOp.lhs, sym) || !(assignOp.rhs instanceof AJCLiteral)
+         || assignOp.rhs.getNodeType().getTag() != TypeTag.INT || (tag != Tag.PLUS_ASG && tag != Tag.MINUS_ASG)) {
+            return 0;
+        }
+
+        long amount = ((Number) ((AJCLiteral) assignOp.rhs).getValue()).longValue();
+        return tag == Tag.PLUS_ASG ? amount : -amount;
+    }
+
+    /**
+     * @return The local variable the given loop bound depends on - itself, or the array whose length it is - or null
+     *         if it isn't such a bound.
+     */
+    private static VarSymbol getBoundVariable(AJCExpressionTree bound) {
+        TypeTag tag = bound.getNodeType().getTag();
+        if (tag != TypeTag.INT && tag != TypeTag.SHORT && tag != TypeTag.CHAR && tag != TypeTag.BYTE) {
+            return null;
+        }
+
+        if (bound instanceof AJCFieldAccess && ((AJCFieldAccess) bound).getTargetSymbol() == symtab.lengthVar) {
+            bound = (AJCExpressionTree) ((AJCFieldAccess) bound).selected;
+        }
+
+        if (!(bound instanceof AJCIdent)) {
+            return null;
+        }
+
+        Symbol sym = ((AJCIdent) bound).getTargetSymbol();
+        if (!(sym instanceof VarSymbol) || !TreeUtils.isLocalVariable(sym)) {
+            return null;
+        }
+
+        return (VarSymbol) sym;
+    }
+
+    /**
+     * Finds the things in a loop body that prevent it being unrolled: jumps to the loop itself, which would
+     * skip or leave the other copies of the body, and class declarations, which can't be copied.
+     */
+    private static class UnrollBlockerScanner extends AJCTreeVisitor {
+        private final JCTree loop;
+        boolean blocked;
+
+        UnrollBlockerScanner(AJCStatement loop) {
+            this.loop = loop.getDecoratedTree();
+        }
+
+        @Override
+        protected void visitBreak(AJCBreak that) {
+            blocked |= that.getDecoratedTree().target == loop;
+        }
+
+        @Override
+        protected void visitContinue(AJCContinue that) {
+            blocked |= that.getDecoratedTree().target == loop;
+        }
+
+        @Override
+        protected void visitClassDef(AJCClassDecl that) {
+            blocked = true;
+        }
     }
 
     /**
      * Get a copy of the given list of statements with all references to values known in context replaced by the
      * appropriate literal.
      */
-    private static List<AJCStatement> getSubstitutedCopy(AJCBlock body, EvaluationContext context) {
-        List<AJCStatement> ret = treeCopier.copy(body.stats);
+    private static List<AJCStatement> getSubstitutedCopy(List<AJCStatement> body, EvaluationContext context, SymbolSet bodyWrites) {
+        List<AJCStatement> ret = treeCopier.copy(body);
 
         HashMap<VarSymbol, Value> assignments = context.getCurrentAssignments();
 
-        ContextInliningTranslator inliner = new ContextInliningTranslator(assignments);
+        // Arrays referred to by variables the body reassigns are only known until it does so.
+        HashMap<VarSymbol, Value[]> arrays = new HashMap<VarSymbol, Value[]>(context.getKnownArrays());
+        arrays.keySet().removeAll(bodyWrites);
+
+        ContextInliningTranslator inliner = new ContextInliningTranslator(assignments, arrays);
         inliner.visitTrees(ret);
         return ret;
     }
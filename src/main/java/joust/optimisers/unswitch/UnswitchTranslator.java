@@ -0,0 +1,239 @@
+package joust.optimisers.unswitch;
+
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.util.List;
+import joust.analysers.ArrayAliasAnalysis;
+import joust.optimisers.invar.ExpressionComplexityClassifier;
+import joust.optimisers.invar.InvariantExpressionFinder;
+import joust.optimisers.translators.BaseTranslator;
+import joust.tree.annotatedtree.AJCForest;
+import joust.tree.annotatedtree.AJCTree;
+import joust.tree.annotatedtree.AJCTreeCopier;
+import joust.tree.annotatedtree.AJCTreeVisitor;
+import joust.tree.annotatedtree.treeinfo.EffectSet;
+import joust.utils.logging.LogUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static joust.tree.annotatedtree.AJCTree.*;
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.utils.compiler.StaticCompilerUtils.*;
+
+/**
+ * Performs loop unswitching. When a loop contains an if statement whose condition is invariant in the loop, the loop
+ * is replaced by an if statement on that condition choosing between two copies of the loop: one in which the if
+ * statement is replaced by its then part, and one in which it's replaced by its else part. Each copy then tests one
+ * fewer condition on every iteration, and is simpler for the optimisations that follow.
+ *
+ * Since each unswitching duplicates a loop, the total complexity of the loops duplicated in each method is limited
+ * to UNSWITCH_BUDGET.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class UnswitchTranslator extends BaseTranslator {
+    // The greatest total complexity of the loops duplicated by unswitching in any one method.
+    public static final int UNSWITCH_BUDGET = 80;
+
+    // The complexity of the loops duplicated in each method so far.
+    private final Map<MethodSymbol, Integer> growth = new HashMap<MethodSymbol, Integer>();
+
+    private MethodSymbol enclosingMethod;
+
+    @Override
+    public void visitMethodDef(AJCMethodDecl tree) {
+        MethodSymbol outerMethod = enclosingMethod;
+        enclosingMethod = tree.getTargetSymbol();
+        super.visitMethodDef(tree);
+        enclosingMethod = outerMethod;
+    }
+
+    @Override
+    public void visitForLoop(AJCForLoop tree) {
+        super.visitForLoop(tree);
+        unswitch(tree, tree.body);
+    }
+
+    @Override
+    public void visitWhileLoop(AJCWhileLoop tree) {
+        super.visitWhileLoop(tree);
+        unswitch(tree, tree.body);
+    }
+
+    @Override
+    public void visitDoWhileLoop(AJCDoWhileLoop tree) {
+        super.visitDoWhileLoop(tree);
+        unswitch(tree, tree.body);
+    }
+
+    /**
+     * Unswitch the given loop on the first if statement in its body with an invariant condition, if any.
+     */
+    private void unswitch(AJCStatement loop, AJCBlock body) {
+        if (!(loop.mParentNode instanceof AJCBlock) || enclosingMethod == null) {
+            return;
+        }
+
+        CandidateScanner scanner = new CandidateScanner(loop);
+        scanner.visitTree(body);
+        if (scanner.blocked || scanner.candidates.isEmpty()) {
+            return;
+        }
+
+        // Keep the duplicated code within the budget.
+        ExpressionComplexityClassifier classifier = new ExpressionComplexityClassifier();
+        classifier.visitTree(loop);
+        Integer grown = growth.get(enclosingMethod);
+        int total = (grown == null ? 0 : grown) + classifier.getScore();
+        if (total > UNSWITCH_BUDGET) {
+            log.debug("Not unswitching {}: complexity {} over budget", loop, classifier.getScore());
+            return;
+        }
+
+        AJCIf target = findInvariantIf(loop, scanner.candidates);
+        if (target == null) {
+            return;
+        }
+
+        AJCStatement trueLoop = new SpecialisingCopier(target, true).copy(loop);
+        AJCStatement falseLoop = new SpecialisingCopier(target, false).copy(loop);
+        AJCIf replacement = treeMaker.If(treeCopier.copy(target.cond),
+                treeMaker.Block(0, List.of(trueLoop)), treeMaker.Block(0, List.of(falseLoop)));
+
+        log.info("Unswitching {} on {}: {}", loop, target.cond, replacement);
+
+        AJCBlock block = loop.getEnclosingBlock();
+        block.insertBefore(loop, List.<AJCStatement>of(replacement));
+        block.remove(loop);
+
+        growth.put(enclosingMethod, total);
+        AJCForest.getInstance().initialAnalysis();
+        mHasMadeAChange = true;
+        AJCForest.getInstance().increment("Loops Unswitched:");
+    }
+
+    /**
+     * @return The first of the given if statements whose condition is invariant in the given loop and may be evaluated
+     *         ahead of it, or null if there's none.
+     */
+    private static AJCIf findInvariantIf(AJCStatement loop, List<AJCIf> candidates) {
+        EffectSet loopEffects = loop.effects.getEffectSet();
+        ArrayAliasAnalysis arrayAliases = new ArrayAliasAnalysis(loop.getEnclosingBlock().enclosingMethod);
+        InvariantExpressionFinder finder = new InvariantExpressionFinder(loopEffects.writeInternal, loopEffects.readInternal,
+                loopEffects.writeEscaping, arrayAliases.writesOf(loop), loopEffects.contains(EffectSet.EffectType.SYNCHRONISATION));
+
+        for (AJCIf candidate : candidates) {
+            // The condition is evaluated once, ahead of the loop, so it mustn't write anything.
+            EffectSet condEffects = candidate.cond.effects.getEffectSet();
+            if (candidate.cond instanceof AJCLiteral || condEffects.contains(EffectSet.EffectType.WRITE_INTERNAL)) {
+                continue;
+            }
+
+            if (finder.isInvariant(candidate.cond)) {
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the if statements in a loop body, and the things that prevent the loop being copied: jumps to the loop or
+     * to any statement in it, whose copies would still refer to the original, and class declarations.
+     */
+    private static class CandidateScanner extends AJCTreeVisitor {
+        // The statements in the loop that may be the target of a jump.
+        private final Set<JCTree> jumpTargets = new HashSet<JCTree>();
+
+        List<AJCIf> candidates = List.nil();
+        boolean blocked;
+
+        CandidateScanner(AJCStatement loop) {
+            jumpTargets.add(loop.getDecoratedTree());
+        }
+
+        @Override
+        protected void visitIf(AJCIf that) {
+            candidates = candidates.append(that);
+            super.visitIf(that);
+        }
+
+        @Override
+        protected void visitForLoop(AJCForLoop that) {
+            jumpTargets.add(that.getDecoratedTree());
+            super.visitForLoop(that);
+        }
+
+        @Override
+        protected void visitWhileLoop(AJCWhileLoop that) {
+            jumpTargets.add(that.getDecoratedTree());
+            super.visitWhileLoop(that);
+        }
+
+        @Override
+        protected void visitDoWhileLoop(AJCDoWhileLoop that) {
+            jumpTargets.add(that.getDecoratedTree());
+            super.visitDoWhileLoop(that);
+        }
+
+        @Override
+        protected void visitSwitch(AJCSwitch that) {
+            jumpTargets.add(that.getDecoratedTree());
+            super.visitSwitch(that);
+        }
+
+        @Override
+        protected void visitLabelledStatement(AJCLabeledStatement that) {
+            jumpTargets.add(that.getDecoratedTree());
+            super.visitLabelledStatement(that);
+        }
+
+        @Override
+        protected void visitBreak(AJCBreak that) {
+            blocked |= jumpTargets.contains(that.getDecoratedTree().target);
+        }
+
+        @Override
+        protected void visitContinue(AJCContinue that) {
+            blocked |= jumpTargets.contains(that.getDecoratedTree().target);
+        }
+
+        @Override
+        protected void visitClassDef(AJCClassDecl that) {
+            blocked = true;
+        }
+    }
+
+    /**
+     * A copier that replaces one if statement with the branch taken when its condition has the given value.
+     */
+    private static class SpecialisingCopier extends AJCTreeCopier {
+        private final AJCIf target;
+        private final boolean value;
+
+        SpecialisingCopier(AJCIf target, boolean value) {
+            this.target = target;
+            this.value = value;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends AJCTree> T copy(T that) {
+            if (that != target) {
+                return super.copy(that);
+            }
+
+            AJCBlock branch = value ? target.thenpart : target.elsepart;
+            if (branch == null) {
+                return (T) treeMaker.Block(0, List.<AJCStatement>nil());
+            }
+
+            return (T) super.copy(branch);
+        }
+    }
+}
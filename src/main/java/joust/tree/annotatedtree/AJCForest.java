@@ -5,6 +5,8 @@ import com.sun.tools.javac.comp.Env;
 import com.sun.tools.javac.tree.JCTree;
 import com.sun.tools.javac.util.List;
 import com.sun.tools.javac.util.Pair;
+import joust.analysers.FinalFieldAnalyser;
+import joust.analysers.FunctionTemplateDeriver;
 import joust.analysers.sideeffects.Effects;
 import joust.joustcache.JOUSTCache;
 import joust.optimisers.normalise.TreeNormalisingTranslator;
@@ -13,6 +15,8 @@ import joust.optimisers.shortfunc.ShortFuncFunctionTemplates;
 import joust.optimisers.unbox.UnboxingFunctionTemplates;
 import joust.optimisers.unbox.UnboxingTranslator;
 import joust.tree.conversion.TreePreparationTranslator;
+import joust.tree.annotatedtree.treeinfo.DerivedFunctionTemplates;
+import joust.tree.annotatedtree.treeinfo.FinalFields;
 import joust.tree.annotatedtree.treeinfo.TreeInfoManager;
 import joust.utils.logging.LogUtils;
 import joust.utils.logging.StatisticsManager;
@@ -166,6 +170,20 @@ public class AJCForest {
             purger.visitTree(tree);
         }
 
+        log.info("Fields...");
+        FinalFieldAnalyser fieldAnalyser = new FinalFieldAnalyser();
+        for (AJCTree tree : rootNodes) {
+            fieldAnalyser.visitTree(tree);
+        }
+        FinalFields.setInferred(fieldAnalyser.classes, fieldAnalyser.getFinalFields(), !analysisPerformed);
+
+        log.info("Templates...");
+        FunctionTemplateDeriver templateDeriver = new FunctionTemplateDeriver();
+        for (AJCTree tree : rootNodes) {
+            templateDeriver.visitTree(tree);
+        }
+        DerivedFunctionTemplates.setDerived(templateDeriver.classes, templateDeriver.getTemplates(), !analysisPerformed);
+
         log.info("Effect...");
         for (AJCTree tree : rootNodes) {
             effectVisitor.visitTree(tree);
@@ -216,6 +234,13 @@ public class AJCForest {
         // Run the initial effect analysis on the tree (It's kept incrementally updated)...
         purger.visitTree(tree);
 
+        log.info("Fields...");
+        FinalFieldAnalyser fieldAnalyser = new FinalFieldAnalyser();
+        for (AJCTree root : rootNodes) {
+            fieldAnalyser.visitTree(root);
+        }
+        FinalFields.setInferred(fieldAnalyser.classes, fieldAnalyser.getFinalFields(), !analysisPerformed);
+
         log.info("Effect...");
         effectVisitor.visitTree(tree);
 
@@ -20,6 +20,7 @@ import lombok.NonNull;
 import lombok.experimental.ExtensionMethod;
 import lombok.extern.java.Log;
 import java.lang.reflect.Field;
+import java.util.Collections;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -389,6 +390,11 @@ public abstract class AJCTree implements Tree, Cloneable, JCDiagnostic.Diagnosti
         // All symbols ever live within the body of this method.
         public Set<VarSymbol> everLive;
 
+        // Locals only ever assigned new objects or arrays, and those of them that never escape (See
+        // FreshObjectLocator). Filled in by the SideEffectVisitor.
+        public Set<VarSymbol> allocatedLocals = Collections.emptySet();
+        public Set<VarSymbol> freshLocals = Collections.emptySet();
+
         protected AJCMethodDecl(JCMethodDecl tree) {
             super(tree);
             decoratedTree = tree;
@@ -1549,6 +1555,7 @@ public abstract class AJCTree implements Tree, Cloneable, JCDiagnostic.Diagnosti
         AJCLiteral Literal(TypeTag tag, Object value);
         AJCLiteral Literal(Object value);
         AJCPrimitiveTypeTree TypeIdent(TypeTag typetag);
+        AJCTypeExpression Type(Type t);
         AJCArrayTypeTree TypeArray(AJCTypeExpression elemtype);
         AJCObjectTypeTree ObjectType(AJCSymbolRefTree<TypeSymbol> ref);
         AJCTypeUnion TypeUnion(List<AJCTypeExpression> components);
@@ -218,6 +218,7 @@ public class AJCTreeFactory implements AJCTree.Factory {
     /**
      * Create a tree representing given type. Borrowed heavily from Javac's TreeMaker.
      */
+    @Override
     public AJCTypeExpression Type(Type t) {
         if (t == null) {
             return null;
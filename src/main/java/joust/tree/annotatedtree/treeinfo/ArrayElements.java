@@ -0,0 +1,89 @@
+package joust.tree.annotatedtree.treeinfo;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import joust.joustcache.JOUSTCache;
+import joust.joustcache.data.ClassInfo;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.utils.compiler.StaticCompilerUtils.names;
+import static joust.utils.compiler.StaticCompilerUtils.symtab;
+
+/**
+ * Array elements, as seen by the effect system. The elements of every array with a given primitive element
+ * type are treated as a single pseudo-field of that type, and the elements of every array of references as
+ * another (Since an Object[] may well be a String[]). An access to an element is an escaping access to the
+ * corresponding pseudo-field, relative to the array if that's known (See EffectSet.relativeReads).
+ *
+ * The pseudo-fields belong to javac's array class, so their cache keys are "Array.int[]" and so on.
+ */
+public final class ArrayElements {
+    public static final String BOOLEAN = "Array.boolean[]";
+    public static final String BYTE = "Array.byte[]";
+    public static final String CHAR = "Array.char[]";
+    public static final String SHORT = "Array.short[]";
+    public static final String INT = "Array.int[]";
+    public static final String LONG = "Array.long[]";
+    public static final String FLOAT = "Array.float[]";
+    public static final String DOUBLE = "Array.double[]";
+    public static final String REFERENCE = "Array.Object[]";
+
+    private static Map<TypeTag, VarSymbol> primitiveElements;
+    private static VarSymbol referenceElements;
+
+    /**
+     * Create the pseudo-fields for the current compilation, and make them known to the cache so records
+     * mentioning them can be decoded.
+     */
+    public static void init() {
+        primitiveElements = new EnumMap<TypeTag, VarSymbol>(TypeTag.class);
+        addPrimitive(symtab.booleanType);
+        addPrimitive(symtab.byteType);
+        addPrimitive(symtab.charType);
+        addPrimitive(symtab.shortType);
+        addPrimitive(symtab.intType);
+        addPrimitive(symtab.longType);
+        addPrimitive(symtab.floatType);
+        addPrimitive(symtab.doubleType);
+
+        referenceElements = create("Object[]", symtab.objectType);
+    }
+
+    private static void addPrimitive(Type elementType) {
+        primitiveElements.put(elementType.getTag(), create(elementType + "[]", elementType));
+    }
+
+    private static VarSymbol create(String name, Type elementType) {
+        VarSymbol sym = new VarSymbol(Flags.PUBLIC | Flags.SYNTHETIC, names.fromString(name), elementType, symtab.arrayClass);
+        JOUSTCache.varSymbolTable.put(ClassInfo.getHashForVariable(sym), sym);
+
+        return sym;
+    }
+
+    /**
+     * @return The pseudo-field standing for the elements of arrays of the given type.
+     */
+    public static VarSymbol forArrayType(Type arrayType) {
+        if (arrayType == null || arrayType.getTag() != TypeTag.ARRAY) {
+            return referenceElements;
+        }
+
+        Type elementType = ((Type.ArrayType) arrayType).elemtype;
+        if (!elementType.isPrimitive()) {
+            return referenceElements;
+        }
+
+        return primitiveElements.get(elementType.getTag());
+    }
+
+    /**
+     * @return true if the given symbol is one of the pseudo-fields for array elements.
+     */
+    public static boolean isElements(VarSymbol sym) {
+        return sym.owner == symtab.arrayClass && (sym.flags() & Flags.SYNTHETIC) != 0;
+    }
+}
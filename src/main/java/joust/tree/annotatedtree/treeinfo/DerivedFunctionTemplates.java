@@ -0,0 +1,141 @@
+package joust.tree.annotatedtree.treeinfo;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.util.List;
+import joust.joustcache.JOUSTCache;
+import joust.joustcache.data.MethodInfo;
+import joust.utils.logging.LogUtils;
+import joust.utils.tree.functiontemplates.FunctionTemplate;
+import joust.utils.tree.functiontemplates.FunctionTemplateCodec;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.tree.annotatedtree.AJCTree.*;
+
+/**
+ * FunctionTemplates for methods simple enough to be replaced by one wherever they're called, found by the
+ * FunctionTemplateDeriver for the classes being compiled, or by a cache record for library classes. Unlike those
+ * of ShortFuncFunctionTemplates, they needn't be written by hand.
+ *
+ * Templates are kept in the textual form of FunctionTemplateCodec, and only turned back into trees when a call
+ * to their method is found.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public final class DerivedFunctionTemplates {
+    // Encoded templates of the methods of the classes being compiled.
+    private static Map<MethodSymbol, String> derived;
+
+    // The classes being compiled. Methods of anything else have templates if their record says so.
+    private static Set<ClassSymbol> sourceClasses;
+
+    // Encoded templates of the methods of library classes, keyed by method hash, and the classes whose records
+    // have been asked for.
+    private static Map<String, String> cachedTemplates;
+    private static Set<ClassSymbol> consultedClasses;
+
+    // Templates already decoded, and methods whose templates couldn't be.
+    private static Map<MethodSymbol, FunctionTemplate> decoded;
+    private static Set<MethodSymbol> undecodable;
+
+    public static void init() {
+        derived = new HashMap<MethodSymbol, String>();
+        sourceClasses = new HashSet<ClassSymbol>();
+        cachedTemplates = new HashMap<String, String>();
+        consultedClasses = new HashSet<ClassSymbol>();
+        decoded = new HashMap<MethodSymbol, FunctionTemplate>();
+        undecodable = new HashSet<MethodSymbol>();
+    }
+
+    /**
+     * Replace the results of derivation on the classes being compiled.
+     *
+     * @param classes The classes examined.
+     * @param templates The encoded templates of the methods of those classes found to have them.
+     * @param shouldSave true if the templates should be written to the cache.
+     */
+    public static void setDerived(Collection<ClassSymbol> classes, Map<MethodSymbol, String> templates, boolean shouldSave) {
+        sourceClasses.clear();
+        sourceClasses.addAll(classes);
+
+        // Optimisation may have simplified the bodies the templates came from, so forget trees for any method
+        // whose template has changed.
+        for (MethodSymbol sym : derived.keySet()) {
+            if (!derived.get(sym).equals(templates.get(sym))) {
+                decoded.remove(sym);
+                undecodable.remove(sym);
+            }
+        }
+
+        derived.clear();
+        derived.putAll(templates);
+
+        if (!shouldSave) {
+            return;
+        }
+
+        for (Map.Entry<MethodSymbol, String> template : templates.entrySet()) {
+            JOUSTCache.registerFunctionTemplate(template.getKey(), template.getValue());
+        }
+    }
+
+    /**
+     * Make the templates listed by a cache record known.
+     */
+    public static void addCachedTemplates(Map<String, String> templates) {
+        cachedTemplates.putAll(templates);
+    }
+
+    /**
+     * @return The template to replace calls to the given method with, or null if it has none.
+     */
+    public static FunctionTemplate getTemplate(MethodSymbol sym) {
+        if ((sym.flags() & Flags.STATIC) == 0 || undecodable.contains(sym)) {
+            return null;
+        }
+
+        FunctionTemplate template = decoded.get(sym);
+        if (template != null) {
+            return template;
+        }
+
+        String text = getEncodedTemplate(sym);
+        if (text == null) {
+            return null;
+        }
+
+        List<Type> paramTypes = sym.type.getParameterTypes();
+        AJCExpressionTree expr = FunctionTemplateCodec.decode(text, paramTypes.toArray(new Type[paramTypes.size()]));
+        if (expr == null) {
+            undecodable.add(sym);
+            return null;
+        }
+
+        template = new FunctionTemplate(expr, true, paramTypes.toArray(new Type[paramTypes.size()]));
+        decoded.put(sym, template);
+
+        return template;
+    }
+
+    private static String getEncodedTemplate(MethodSymbol sym) {
+        ClassSymbol owner = (ClassSymbol) sym.owner;
+        if (sourceClasses.contains(owner)) {
+            return derived.get(sym);
+        }
+
+        if (consultedClasses.add(owner) && owner.classfile != null) {
+            JOUSTCache.loadCachedInfoForClass(owner);
+        }
+
+        return cachedTemplates.get(MethodInfo.getHashForMethod(sym));
+    }
+}
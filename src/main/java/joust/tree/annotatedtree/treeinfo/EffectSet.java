@@ -2,6 +2,7 @@ package joust.tree.annotatedtree.treeinfo;
 
 import static com.sun.tools.javac.code.Symbol.*;
 
+import com.sun.tools.javac.code.Flags;
 import joust.utils.data.SymbolSet;
 import joust.utils.tree.TreeUtils;
 import lombok.extern.java.Log;
@@ -24,7 +25,21 @@ public class EffectSet {
     public static final int ESCAPING_ONLY = EffectType.READ_ESCAPING.maskValue
                                           | EffectType.WRITE_ESCAPING.maskValue
                                           | EffectType.EXCEPTION.maskValue
-                                          | EffectType.IO.maskValue;
+                                          | EffectType.IO.maskValue
+                                          | EffectType.NULL_POINTER.maskValue
+                                          | EffectType.INDEX_BOUNDS.maskValue
+                                          | EffectType.ARITHMETIC.maskValue
+                                          | EffectType.CLASS_CAST.maskValue
+                                          | EffectType.SYNCHRONISATION.maskValue;
+
+    // The exceptions the JVM may raise without an explicit throw.
+    public static final int IMPLICIT_EXCEPTIONS = EffectType.NULL_POINTER.maskValue
+                                                | EffectType.INDEX_BOUNDS.maskValue
+                                                | EffectType.ARITHMETIC.maskValue
+                                                | EffectType.CLASS_CAST.maskValue;
+
+    // Any way of completing abruptly with an exception.
+    public static final int ANY_EXCEPTION = EffectType.EXCEPTION.maskValue | IMPLICIT_EXCEPTIONS;
 
     // The summary of all effect types this EffectSet represents.
     public int effectTypes;
@@ -36,14 +51,41 @@ public class EffectSet {
     public SymbolSet readEscaping = new SymbolSet();
     public SymbolSet writeEscaping = new SymbolSet();
 
+    // Where nonzero, every escaping read (write) of this set is of a field of one of the objects named by
+    // the mask: RELATIVE_RECEIVER for the receiver of the method the set summarises, relativeParameter(i)
+    // for its i'th parameter. Zero means the accesses may be of any object. Masks are meaningless for
+    // sets without escaping reads (writes), and are rewritten in terms of the caller at each call site.
+    public int relativeReads;
+    public int relativeWrites;
+
+    public static final int RELATIVE_RECEIVER = 1;
+
+    // A call binding for an object that's been allocated, but is visible to nobody but the caller.
+    public static final int BINDING_FRESH = -1;
+
+    // Parameters past this one are never tracked.
+    private static final int MAX_RELATIVE_PARAMETER = 30;
+
     public enum EffectType {
         NONE(0),
         READ_INTERNAL(1),
         WRITE_INTERNAL(2),
         READ_ESCAPING(4),
         WRITE_ESCAPING(8),
+        // An explicit throw, or a call to something that declares or might raise an arbitrary exception.
         EXCEPTION(16),
-        IO(32);
+        IO(32),
+
+        // The implicit exceptions: NullPointerException, ArrayIndexOutOfBoundsException (Or
+        // NegativeArraySizeException), ArithmeticException and ClassCastException.
+        NULL_POINTER(64),
+        INDEX_BOUNDS(128),
+        ARITHMETIC(256),
+        CLASS_CAST(512),
+
+        // A synchronisation action: taking or releasing a monitor, or reading or writing a volatile field.
+        // Escaping memory read before one may hold something else afterwards, written by another thread.
+        SYNCHRONISATION(1024);
 
         private static int ALL_EFFECTS;
 
@@ -82,6 +124,7 @@ public class EffectSet {
         unioned.writeInternal = SymbolSet.union(writeInternal, unionee.writeInternal);
         unioned.readEscaping = SymbolSet.union(readEscaping, unionee.readEscaping);
         unioned.writeEscaping = SymbolSet.union(writeEscaping, unionee.writeEscaping);
+        unioned.unionRelative(this, unionee);
 
         return unioned;
     }
@@ -102,6 +145,7 @@ public class EffectSet {
         unioned.writeInternal = new SymbolSet(writeInternal);
         unioned.readEscaping = SymbolSet.union(readEscaping, unionee.readEscaping);
         unioned.writeEscaping = SymbolSet.union(writeEscaping, unionee.writeEscaping);
+        unioned.unionRelative(this, unionee);
 
         return unioned;
     }
@@ -113,6 +157,8 @@ public class EffectSet {
         unioned.writeInternal = new SymbolSet();
         unioned.readEscaping = new SymbolSet(readEscaping);
         unioned.writeEscaping = new SymbolSet(writeEscaping);
+        unioned.relativeReads = relativeReads;
+        unioned.relativeWrites = relativeWrites;
 
         return unioned;
     }
@@ -134,11 +180,16 @@ public class EffectSet {
         SymbolSet reSyms = new SymbolSet(readEscaping);
         SymbolSet weSyms = new SymbolSet(writeEscaping);
 
+        EffectSet unioned = new EffectSet(effectTypes);
+        unioned.relativeReads = relativeReads;
+        unioned.relativeWrites = relativeWrites;
 
         for (int i = 0; i < effectSets.length; i++) {
             EffectSet unionee = effectSets[i];
 
+            unioned.unionRelative(unioned, unionee);
             newMask |= unionee.effectTypes;
+            unioned.effectTypes = newMask;
 
             // Add the symbols from the new unionee...
             riSyms.addAll(unionee.readInternal);
@@ -147,8 +198,6 @@ public class EffectSet {
             weSyms.addAll(unionee.writeEscaping);
         }
 
-        EffectSet unioned = new EffectSet(newMask);
-
         unioned.readInternal = riSyms;
         unioned.writeInternal = wiSyms;
         unioned.readEscaping = reSyms;
@@ -174,9 +223,148 @@ public class EffectSet {
         newEffectSet.readEscaping = new SymbolSet(readEscaping);
         newEffectSet.writeEscaping = new SymbolSet(writeEscaping);
 
+        // An escaping access nobody can name might be of anything.
+        newEffectSet.relativeReads = effect == EffectType.READ_ESCAPING ? 0 : relativeReads;
+        newEffectSet.relativeWrites = effect == EffectType.WRITE_ESCAPING ? 0 : relativeWrites;
+
         return newEffectSet;
     }
 
+    /**
+     * Set the relative masks of this set to those of the union of a and b. a may be this set, so long as its
+     * effectTypes don't yet include those of b.
+     */
+    private void unionRelative(EffectSet a, EffectSet b) {
+        relativeReads = unionRelative(a.relativeReads, a.contains(EffectType.READ_ESCAPING),
+                                      b.relativeReads, b.contains(EffectType.READ_ESCAPING));
+        relativeWrites = unionRelative(a.relativeWrites, a.contains(EffectType.WRITE_ESCAPING),
+                                       b.relativeWrites, b.contains(EffectType.WRITE_ESCAPING));
+    }
+
+    private static int unionRelative(int mask, boolean present, int otherMask, boolean otherPresent) {
+        if (!otherPresent) {
+            return mask;
+        }
+
+        if (!present) {
+            return otherMask;
+        }
+
+        // Relative to both is still relative, but relative to something and to anything is just anything.
+        if (mask == 0 || otherMask == 0) {
+            return 0;
+        }
+
+        return mask | otherMask;
+    }
+
+    /**
+     * @return The relative mask denoting the i'th parameter of a method, or zero if it isn't tracked.
+     */
+    public static int relativeParameter(int i) {
+        if (i >= MAX_RELATIVE_PARAMETER) {
+            return 0;
+        }
+
+        return 1 << (i + 1);
+    }
+
+    /**
+     * Return a copy of this set with the relative masks rewritten for a particular call: bit i of a mask is
+     * replaced by bindings[i], the mask in the caller's terms of the receiver (For i = 0) or the argument
+     * passed for parameter i - 1. An unknown binding makes the whole mask absolute.
+     *
+     * A binding of BINDING_FRESH is an object nobody but the caller can see. Accesses to it become internal
+     * accesses of the local variable freshObjects[i] holding it (If any), and disappear from the escaping
+     * part if they were all that was there.
+     */
+    public EffectSet instantiate(int[] bindings, VarSymbol[] freshObjects) {
+        boolean anyFresh = false;
+        for (int i = 0; i < bindings.length; i++) {
+            anyFresh |= bindings[i] == BINDING_FRESH;
+        }
+
+        if (relativeReads == 0 && relativeWrites == 0
+         && (!anyFresh || !containsAny(EffectType.READ_ESCAPING, EffectType.WRITE_ESCAPING))) {
+            return this;
+        }
+
+        EffectSet instantiated = union(NO_EFFECTS);
+        if (contains(EffectType.READ_ESCAPING)) {
+            instantiated.relativeReads = instantiate(relativeReads, bindings);
+            instantiated.readInternal = addFreshObjects(instantiated.readInternal, relativeReads, freshObjects);
+            if (relativeReads != 0 && onlyFresh(relativeReads, bindings)) {
+                instantiated.effectTypes &= ~EffectType.READ_ESCAPING.maskValue;
+                instantiated.readEscaping = new SymbolSet();
+            }
+        }
+
+        if (contains(EffectType.WRITE_ESCAPING)) {
+            instantiated.relativeWrites = instantiate(relativeWrites, bindings);
+            instantiated.writeInternal = addFreshObjects(instantiated.writeInternal, relativeWrites, freshObjects);
+            if (relativeWrites != 0 && onlyFresh(relativeWrites, bindings)) {
+                instantiated.effectTypes &= ~EffectType.WRITE_ESCAPING.maskValue;
+                instantiated.writeEscaping = new SymbolSet();
+            }
+        }
+
+        if (!instantiated.readInternal.isEmpty()) {
+            instantiated.effectTypes |= EffectType.READ_INTERNAL.maskValue;
+        }
+
+        if (!instantiated.writeInternal.isEmpty()) {
+            instantiated.effectTypes |= EffectType.WRITE_INTERNAL.maskValue;
+        }
+
+        return instantiated;
+    }
+
+    private static int instantiate(int mask, int[] bindings) {
+        int result = 0;
+        for (int i = 0; mask != 0; i++, mask >>>= 1) {
+            if ((mask & 1) == 0) {
+                continue;
+            }
+
+            if (i >= bindings.length || bindings[i] == 0) {
+                return 0;
+            }
+
+            if (bindings[i] != BINDING_FRESH) {
+                result |= bindings[i];
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean onlyFresh(int mask, int[] bindings) {
+        for (int i = 0; mask != 0; i++, mask >>>= 1) {
+            if ((mask & 1) != 0 && (i >= bindings.length || bindings[i] != BINDING_FRESH)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Add to the given set the fresh objects named by the mask - or all of them, for an absolute mask.
+     */
+    private static SymbolSet addFreshObjects(SymbolSet set, int mask, VarSymbol[] freshObjects) {
+        if (set == SymbolSet.UNIVERSAL_SET) {
+            return set;
+        }
+
+        for (int i = 0; i < freshObjects.length; i++) {
+            if (freshObjects[i] != null && (mask == 0 || (mask & (1 << i)) != 0)) {
+                set.add(freshObjects[i]);
+            }
+        }
+
+        return set;
+    }
+
     public EffectSet(final int mask) {
         effectTypes = mask;
     }
@@ -191,7 +379,7 @@ public class EffectSet {
             ret = new EffectSet(EffectType.WRITE_INTERNAL);
             ret.writeInternal.add(sym);
         } else {
-            ret = new EffectSet(EffectType.WRITE_ESCAPING);
+            ret = new EffectSet(EffectType.WRITE_ESCAPING.maskValue | synchronisationOf(sym));
             ret.writeEscaping.add(sym);
         }
 
@@ -204,13 +392,20 @@ public class EffectSet {
             ret = new EffectSet(EffectType.READ_INTERNAL);
             ret.readInternal.add(sym);
         } else {
-            ret = new EffectSet(EffectType.READ_ESCAPING);
+            ret = new EffectSet(EffectType.READ_ESCAPING.maskValue | synchronisationOf(sym));
             ret.readEscaping.add(sym);
         }
 
         return ret;
     }
 
+    /**
+     * @return The mask of SYNCHRONISATION if accessing the given field is a synchronisation action, or zero.
+     */
+    private static int synchronisationOf(VarSymbol sym) {
+        return (sym.flags() & Flags.VOLATILE) != 0 ? EffectType.SYNCHRONISATION.maskValue : 0;
+    }
+
     @Override
     public String toString() {
         StringBuilder str = new StringBuilder(Integer.toString(effectTypes, 2));
@@ -238,6 +433,14 @@ public class EffectSet {
                .append(')');
         }
 
+        if (relativeReads != 0 || relativeWrites != 0) {
+            str.append(":REL(")
+               .append(Integer.toString(relativeReads, 2))
+               .append(',')
+               .append(Integer.toString(relativeWrites, 2))
+               .append(')');
+        }
+
         return str.toString();
     }
 
@@ -253,13 +456,15 @@ public class EffectSet {
 
         // Check appropriate symbol sets...
         if (effectSet.contains(EffectType.READ_ESCAPING)) {
-            if (!effectSet.readEscaping.subsetOf(readEscaping)) {
+            if (!effectSet.readEscaping.subsetOf(readEscaping)
+             || !relativeCovers(relativeReads, effectSet.relativeReads)) {
                 return false;
             }
         }
 
         if (effectSet.contains(EffectType.WRITE_ESCAPING)) {
-            if (!effectSet.writeEscaping.subsetOf(writeEscaping)) {
+            if (!effectSet.writeEscaping.subsetOf(writeEscaping)
+             || !relativeCovers(relativeWrites, effectSet.relativeWrites)) {
                 return false;
             }
         }
@@ -279,6 +484,14 @@ public class EffectSet {
         return true;
     }
 
+    private static boolean relativeCovers(int mask, int otherMask) {
+        if (mask == 0) {
+            return true;
+        }
+
+        return otherMask != 0 && (otherMask & ~mask) == 0;
+    }
+
     public boolean contains(EffectType effect) {
         return (effectTypes & effect.maskValue) != 0;
     }
@@ -334,7 +547,4 @@ public class EffectSet {
 
         return contains(cast) && cast.contains(this);
     }
-
-    // Kryo constructor
-    private EffectSet() {}
 }
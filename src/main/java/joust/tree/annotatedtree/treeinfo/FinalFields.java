@@ -0,0 +1,182 @@
+package joust.tree.annotatedtree.treeinfo;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import joust.joustcache.JOUSTCache;
+import joust.joustcache.data.ClassInfo;
+import joust.utils.data.SymbolSet;
+import joust.utils.logging.LogUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+
+/**
+ * Knowledge of which fields are effectively final: never written once the constructor (Or static
+ * initialiser) of their class has finished, and not visible to anyone else before then. Fields declared
+ * final are, unless volatile. Others are found to be by the FinalFieldAnalyser, for the classes being
+ * compiled, or by a cache record, for library classes.
+ *
+ * Within a thread, the only writes that can change what a read of an effectively final field gives are
+ * those made by the constructor of the object, which are explicit in its effects. So such reads may be
+ * reused and moved about much as array element reads are (See ArrayElements) - but, as with array
+ * elements, not across a synchronisation action. A field not declared final gets none of the memory
+ * model's guarantees for final fields, so a reader that sees its object through a lock or a volatile may
+ * see the constructor's write only after the synchronisation action.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public final class FinalFields {
+    // Fields of the classes being compiled found to be effectively final.
+    private static Set<VarSymbol> inferred;
+
+    // The classes being compiled. Fields of anything else are effectively final if their record says so.
+    private static Set<ClassSymbol> sourceClasses;
+
+    // Keys of the fields of library classes recorded as effectively final, and the classes whose records
+    // have been asked for.
+    private static Set<String> cachedFields;
+    private static Set<ClassSymbol> consultedClasses;
+
+    public static void init() {
+        inferred = new HashSet<VarSymbol>();
+        sourceClasses = new HashSet<ClassSymbol>();
+        cachedFields = new HashSet<String>();
+        consultedClasses = new HashSet<ClassSymbol>();
+    }
+
+    /**
+     * Replace the results of inference on the classes being compiled.
+     *
+     * @param classes The classes analysed.
+     * @param fields The fields of those classes found to be effectively final.
+     * @param shouldSave true if the fields should be written to the cache.
+     */
+    public static void setInferred(Collection<ClassSymbol> classes, Collection<VarSymbol> fields, boolean shouldSave) {
+        sourceClasses.clear();
+        sourceClasses.addAll(classes);
+        inferred.clear();
+        inferred.addAll(fields);
+
+        if (!shouldSave) {
+            return;
+        }
+
+        for (VarSymbol sym : fields) {
+            JOUSTCache.registerFinalField(sym);
+        }
+
+        for (ClassSymbol sym : classes) {
+            if (isImmutable(sym)) {
+                log.debug("{} is immutable", sym);
+            }
+        }
+    }
+
+    /**
+     * Make the effectively final fields listed by a cache record known.
+     */
+    public static void addCachedFields(Collection<String> fieldKeys) {
+        cachedFields.addAll(fieldKeys);
+    }
+
+    /**
+     * @return true if the given field is never written after its object (Or class) is constructed.
+     */
+    public static boolean isEffectivelyFinal(VarSymbol sym) {
+        long flags = sym.flags();
+        if ((flags & Flags.VOLATILE) != 0 || !(sym.owner instanceof ClassSymbol)) {
+            return false;
+        }
+
+        if ((flags & Flags.FINAL) != 0 || inferred.contains(sym)) {
+            return true;
+        }
+
+        ClassSymbol owner = (ClassSymbol) sym.owner;
+        if (sourceClasses.contains(owner)) {
+            return false;
+        }
+
+        // Library fields can only be written by their own class if they're private.
+        if ((flags & Flags.PRIVATE) == 0) {
+            return false;
+        }
+
+        if (consultedClasses.add(owner) && owner.classfile != null) {
+            JOUSTCache.loadCachedInfoForClass(owner);
+        }
+
+        return cachedFields.contains(ClassInfo.getHashForVariable(sym));
+    }
+
+    /**
+     * @return true if reading the given symbol always gives the same value, save for explicit writes and
+     *         synchronisation actions.
+     */
+    public static boolean isStable(VarSymbol sym) {
+        return ArrayElements.isElements(sym) || isEffectivelyFinal(sym);
+    }
+
+    /**
+     * @return true if every symbol in the given set is stable.
+     */
+    public static boolean onlyStable(SymbolSet set) {
+        if (set == SymbolSet.UNIVERSAL_SET) {
+            return false;
+        }
+
+        for (VarSymbol sym : set) {
+            if (!isStable(sym)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if the given escaping writes might change the value of any effectively final field among the
+     *         given escaping reads. Only constructors write such fields, and they're never among the universal
+     *         writes of a method we know nothing about.
+     */
+    public static boolean mayWriteFieldsRead(SymbolSet writes, SymbolSet reads) {
+        if (writes == SymbolSet.UNIVERSAL_SET) {
+            return false;
+        }
+
+        for (VarSymbol sym : reads) {
+            if (!ArrayElements.isElements(sym) && writes.contains(sym)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if no instance field of the given class, or any of its superclasses, is ever written after
+     *         construction.
+     */
+    public static boolean isImmutable(ClassSymbol sym) {
+        for (Symbol member : sym.members().getElements()) {
+            if (member instanceof VarSymbol && (member.flags() & Flags.STATIC) == 0 && !isEffectivelyFinal((VarSymbol) member)) {
+                return false;
+            }
+        }
+
+        Type superType = sym.getSuperclass();
+        if (superType == null || superType.getTag() != TypeTag.CLASS) {
+            return true;
+        }
+
+        return isImmutable((ClassSymbol) superType.tsym);
+    }
+}
@@ -1,7 +1,7 @@
 package joust.tree.annotatedtree.treeinfo;
 
+import joust.joustcache.EffectRecord;
 import joust.joustcache.JOUSTCache;
-import joust.joustcache.data.ClassInfo;
 import joust.joustcache.data.MethodInfo;
 import joust.analysers.sideeffects.Effects;
 import joust.utils.logging.LogUtils;
@@ -9,9 +9,11 @@ import lombok.experimental.ExtensionMethod;
 import lombok.extern.java.Log;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.logging.Logger;
 
 import static com.sun.tools.javac.code.Symbol.*;
+import static joust.utils.compiler.StaticCompilerUtils.symtab;
 
 /**
  * Provides access to TreeInfo objects related to tree nodes.
@@ -19,19 +21,31 @@ import static com.sun.tools.javac.code.Symbol.*;
 @Log
 @ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
 public final class TreeInfoManager {
-    // Maps method symbol hashes to the effect sets of their corresponding JCMethodDecl nodes, which
-    // may or may not actually *exist* in the parsed code.
-    private static HashMap<String, Effects> methodEffectMap;
+    // Maps method symbols to the effect sets of their corresponding JCMethodDecl nodes, which may or
+    // may not actually *exist* in the parsed code. Symbols are unique within a compilation, so this
+    // is keyed by identity: the string keys of the cache are built only when a record is consulted.
+    private static HashMap<MethodSymbol, Effects> methodEffectMap;
+
+    // Maps the flat names of classes to the cache record able to provide the effects of their methods.
+    // A method is decoded into methodEffectMap the first time it's needed.
+    private static HashMap<String, EffectRecord> undecodedRecords;
+
+    // Methods known to have no effects available, until another record is loaded.
+    private static HashSet<MethodSymbol> unknownMethods;
 
     public static void init() {
-        methodEffectMap = new HashMap<String, Effects>();
+        methodEffectMap = new HashMap<MethodSymbol, Effects>();
+        undecodedRecords = new HashMap<String, EffectRecord>();
+        unknownMethods = new HashSet<MethodSymbol>();
+        FinalFields.init();
+        DerivedFunctionTemplates.init();
     }
 
     /**
      * Add an EffectSet to the method effect table...
      */
     public static void registerMethodEffects(MethodSymbol sym, Effects effects, boolean shouldSave) {
-        methodEffectMap.put(MethodInfo.getHashForMethod(sym), effects);
+        methodEffectMap.put(sym, effects);
 
         // Don't save the set of all effects. No point.
         if (effects.getEffectSet().contains(EffectSet.ALL_EFFECTS)) {
@@ -52,27 +66,48 @@ public final class TreeInfoManager {
      * @return The corresponding EffectSet memory, or the set of all effects if no such EffectSet is found.
      */
     public static Effects getEffectsForMethod(MethodSymbol sym) {
-        String symbolHash = MethodInfo.getHashForMethod(sym);
-
-        Effects effects = methodEffectMap.get(symbolHash);
+        Effects effects = methodEffectMap.get(sym);
         if (effects != null) {
             return effects;
         }
 
+        if (!unknownMethods.contains(sym)) {
+            EffectRecord record = undecodedRecords.get(sym.owner.flatName().toString());
+            if (record != null) {
+                effects = record.decodeEffects(MethodInfo.getHashForMethod(sym));
+                if (effects != null) {
+                    methodEffectMap.put(sym, effects);
+                    return effects;
+                }
+            }
+
+            unknownMethods.add(sym);
+        }
+
+        // The constructor of Object does nothing at all, but is called by every other constructor. Don't let
+        // a missing library annotation spoil them all.
+        if (sym.isConstructor() && sym.owner == symtab.objectType.tsym) {
+            return new Effects(EffectSet.NO_EFFECTS);
+        }
+
         log.debug("Unable to source side effects for method: {}. This will harm optimisation - such calls are taken to have all possible side effects!", sym);
         return new Effects(EffectSet.ALL_EFFECTS, EffectSet.ALL_EFFECTS);
     }
 
     /**
-     * Populate the info structures from the given ClassInfo object. ClassInfo objects store class
-     * and method granularity information that can meaningfully be cached between compilation units.
-     * Assumes the hash checking has already taken place.
+     * Make the method effects and final fields described by the given cache record available. No method is
+     * decoded until it's actually asked for. Assumes the hash checking has already taken place.
      *
-     * @param cInfo The ClassInfo object to parse.
+     * @param className The flat name of the class the record describes.
+     * @param record The cache record to draw effects from.
      */
-    public static void populateFromClassInfo(ClassInfo cInfo) {
-        for (MethodInfo mI : cInfo.methodInfos) {
-            methodEffectMap.put(mI.methodHash, mI.effectSet);
-        }
+    public static void populateFromRecord(String className, EffectRecord record) {
+        // Effects computed during this compilation take precedence, as methodEffectMap is consulted
+        // first.
+        undecodedRecords.put(className, record);
+        unknownMethods.clear();
+
+        FinalFields.addCachedFields(record.getFinalFields());
+        DerivedFunctionTemplates.addCachedTemplates(record.getTemplates());
     }
 }
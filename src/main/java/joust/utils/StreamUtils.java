@@ -0,0 +1,37 @@
+package joust.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class StreamUtils {
+    /**
+     * Read the whole of the given stream.
+     */
+    public static byte[] readFully(InputStream in) throws IOException {
+        return readAtMost(in, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read the whole of the given stream, unless it's longer than the limit.
+     *
+     * @return The contents of the stream, or null if it holds more than limit bytes. Reading stops as soon
+     *         as the limit is passed.
+     */
+    public static byte[] readAtMost(InputStream in, int limit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+            if (total > limit) {
+                return null;
+            }
+
+            out.write(buffer, 0, read);
+        }
+
+        return out.toByteArray();
+    }
+}
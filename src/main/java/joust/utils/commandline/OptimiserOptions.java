@@ -1,14 +1,20 @@
 package joust.utils.commandline;
 
-import joust.optimisers.cse.CommonSubExpressionTranslator;
+import joust.joustcache.EffectDaemon;
+import joust.joustcache.JdbmEffectStore;
+import joust.optimisers.cse.GlobalValueNumberingTranslator;
+import joust.optimisers.inline.InliningTranslator;
 import joust.optimisers.runnables.OptimisationRunnable;
+import joust.optimisers.unroll.UnrollTranslator;
 import joust.utils.logging.LogUtils;
 import lombok.experimental.ExtensionMethod;
 import lombok.extern.java.Log;
 
 import javax.annotation.processing.ProcessingEnvironment;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
@@ -24,12 +30,37 @@ public class OptimiserOptions {
     private static final Pattern SPLIT_PATTERN = Pattern.compile("[ ]*,[ ]*");
     // If true, assertions found in the input program are deleted.
     public static boolean stripAssertions;
+
+    // If true, fields used in suitable loops are promoted to local variables (See FieldPromotionTranslator).
+    public static boolean promoteFields;
     public static boolean annotatingLibrary;
     public static boolean dumpingEffectKeys;
+    public static boolean printingEffectCacheStats;
     public static boolean logToFile;
 
+    // Paths of extra effect bundles to load, and the jar to export a bundle for (If any).
+    public static List<String> effectBundles = new ArrayList<String>();
+    public static String exportBundleJar;
+
+    // Jars to compute effects for from their bytecode (See BytecodeEffectAnalyser).
+    public static List<String> annotateJars = new ArrayList<String>();
+
+    // If true, read and write the encoded effect cache records through a running EffectDaemon (If there is
+    // one), rather than opening the database. Records are still decoded by each compilation.
+    public static boolean useDaemon;
+    public static int daemonPort = EffectDaemon.DEFAULT_PORT;
+
+    // Base URL of a shared remote effect cache (See HttpEffectStore), or null if there isn't one.
+    public static String remoteCacheUrl;
+
+    // The number of bytes of records the local effect cache may hold before old ones are evicted.
+    public static long effectCacheBudget = JdbmEffectStore.DEFAULT_BUDGET;
+
     public static Level logLevel = Level.INFO;
 
+    // The virtual machine to tune the output for.
+    public static Target target = Target.DALVIK;
+
     // Optimisations explicitly enabled by an argument.
     private static HashSet<String> enabledOptimisations;
 
@@ -75,13 +106,83 @@ public class OptimiserOptions {
         }
 
         stripAssertions = args.containsKey("JOUSTStripAssertions");
+        promoteFields = args.containsKey("JOUSTPromoteFields");
         annotatingLibrary = args.containsKey("JOUSTAnnotateLib");
         dumpingEffectKeys = args.containsKey("JOUSTPrintEffectCacheKeys");
+        printingEffectCacheStats = args.containsKey("JOUSTPrintEffectCacheStats");
+
+        effectCacheBudget = JdbmEffectStore.DEFAULT_BUDGET;
+        String budget = args.get("JOUSTEffectCacheBudget");
+        if (budget != null) {
+            Long megabytes = parseNumber("JOUSTEffectCacheBudget", budget, 1, Long.MAX_VALUE >> 20);
+            if (megabytes == null) {
+                return false;
+            }
+            effectCacheBudget = megabytes << 20;
+        }
 
         logToFile = args.containsKey("JOUSTLogToFile");
 
+        useDaemon = args.containsKey("JOUSTUseDaemon");
+        String port = args.get("JOUSTUseDaemon");
+        daemonPort = EffectDaemon.DEFAULT_PORT;
+        if (port != null) {
+            Long portNumber = parseNumber("JOUSTUseDaemon", port, 1, 65535);
+            if (portNumber == null) {
+                return false;
+            }
+            daemonPort = portNumber.intValue();
+        }
+
+        remoteCacheUrl = args.get("JOUSTRemoteCache");
+        exportBundleJar = args.get("JOUSTExportBundle");
+        String jars = args.get("JOUSTAnnotateJar");
+        annotateJars = new ArrayList<String>();
+        if (jars != null) {
+            annotateJars.addAll(Arrays.asList(SPLIT_PATTERN.split(jars)));
+        }
+
+        String bundles = args.get("JOUSTEffectBundles");
+        effectBundles = new ArrayList<String>();
+        if (bundles != null) {
+            effectBundles.addAll(Arrays.asList(SPLIT_PATTERN.split(bundles)));
+        }
+
         if (args.containsKey("JOUSTMinCSEScore")) {
-            CommonSubExpressionTranslator.MINIMUM_CSE_SCORE = Integer.parseInt(args.get("JOUSTMinCSEScore"));
+            Long score = parseNumber("JOUSTMinCSEScore", args.get("JOUSTMinCSEScore"), 0, Integer.MAX_VALUE);
+            if (score == null) {
+                return false;
+            }
+            GlobalValueNumberingTranslator.MINIMUM_CSE_SCORE = score.intValue();
+        }
+
+        if (args.containsKey("JOUSTInlineBudget")) {
+            Long inlineBudget = parseNumber("JOUSTInlineBudget", args.get("JOUSTInlineBudget"), 0, Integer.MAX_VALUE);
+            if (inlineBudget == null) {
+                return false;
+            }
+            InliningTranslator.INLINE_BUDGET = inlineBudget.intValue();
+        }
+
+        target = Target.DALVIK;
+        String targetName = args.get("JOUSTTarget");
+        if (targetName != null) {
+            try {
+                target = Target.valueOf(targetName.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.error("Unknown target: {}", targetName);
+                return false;
+            }
+        }
+
+        UnrollTranslator.PARTIAL_UNROLL_FACTOR = target.unrollFactor;
+        if (args.containsKey("JOUSTUnrollFactor")) {
+            // Each copy of the body beyond the first costs a pass over the budget, so don't accept anything silly.
+            Long factor = parseNumber("JOUSTUnrollFactor", args.get("JOUSTUnrollFactor"), 0, 64);
+            if (factor == null) {
+                return false;
+            }
+            UnrollTranslator.PARTIAL_UNROLL_FACTOR = factor.intValue();
         }
 
         // Detect enabled optimisations.
@@ -105,6 +206,28 @@ public class OptimiserOptions {
         return true;
     }
 
+    /**
+     * Parse the value of a numeric option.
+     *
+     * @return The value, or null if it isn't a number within the given bounds (Which is logged).
+     */
+    private static Long parseNumber(String name, String value, long min, long max) {
+        long parsed;
+        try {
+            parsed = Long.parseLong(value == null ? "" : value.trim());
+        } catch (NumberFormatException e) {
+            log.error("{} must be a number, not: {}", name, value);
+            return null;
+        }
+
+        if (parsed < min || parsed > max) {
+            log.error("{} must be between {} and {}, not: {}", name, min, max, parsed);
+            return null;
+        }
+
+        return parsed;
+    }
+
     private static void configureFromString(String enabled, Set<String> targetSet) {
         String[] args = SPLIT_PATTERN.split(enabled);
         for (int i = 0; i < args.length; i++) {
@@ -114,6 +237,14 @@ public class OptimiserOptions {
         log.error("Enabled: {}", Arrays.toString(args));
     }
 
+    /**
+     * @return true if the optimiser is being run only to inspect or manipulate the effect cache, so
+     *         there's no compilation to optimise.
+     */
+    public static boolean isCacheToolMode() {
+        return dumpingEffectKeys || printingEffectCacheStats || exportBundleJar != null || !annotateJars.isEmpty();
+    }
+
     /**
      * Determine if, given the various enable/disable options, a given optimisation should be run.
      */
@@ -0,0 +1,22 @@
+package joust.utils.commandline;
+
+/**
+ * The virtual machines the output of the optimiser may be tuned for. Selected by the JOUSTTarget option.
+ */
+public enum Target {
+    // The Dalvik interpreter and trace JIT. Neither unrolls loops.
+    DALVIK(4),
+
+    // ART compiles ahead of time, and unrolls little.
+    ART(2),
+
+    // HotSpot's server compiler unrolls loops itself, and does better with them left small.
+    HOTSPOT(1);
+
+    // The factor to partially unroll counted loops by (See UnrollTranslator). 1 disables partial unrolling.
+    public final int unrollFactor;
+
+    Target(int factor) {
+        unrollFactor = factor;
+    }
+}
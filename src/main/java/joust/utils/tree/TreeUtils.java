@@ -7,6 +7,7 @@ import com.sun.tools.javac.code.Type;
 import com.sun.tools.javac.code.TypeTag;
 import com.sun.tools.javac.util.List;
 import com.sun.tools.javac.util.Name;
+import joust.tree.annotatedtree.AJCTree;
 import joust.utils.logging.LogUtils;
 import lombok.experimental.ExtensionMethod;
 import lombok.extern.java.Log;
@@ -47,6 +48,13 @@ public class TreeUtils {
         return sym.owner instanceof MethodSymbol;
     }
 
+    /**
+     * @return true if the given tree is nothing but a reference to the given variable.
+     */
+    public static boolean isReferenceTo(AJCTree tree, VarSymbol sym) {
+        return tree instanceof AJCIdent && ((AJCIdent) tree).getTargetSymbol() == sym;
+    }
+
     public static boolean operatorIsCommutative(Tag opcode) {
         return opcode == Tag.BITOR
             || opcode == Tag.BITXOR
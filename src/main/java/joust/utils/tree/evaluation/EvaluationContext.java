@@ -15,6 +15,7 @@ import java.util.logging.Logger;
 import static com.sun.tools.javac.tree.JCTree.Tag;
 import static joust.tree.annotatedtree.AJCTree.*;
 import static com.sun.tools.javac.code.Symbol.*;
+import static joust.utils.compiler.StaticCompilerUtils.symtab;
 /**
  * A context for evaluating expressions at compile-time.
  * Or rather, trying to.
@@ -25,6 +26,9 @@ public
 class EvaluationContext {
     @Getter HashMap<VarSymbol, Value> currentAssignments = new HashMap<VarSymbol, Value>();
 
+    // The elements of the arrays referred to by variables, where known (See FinalValueFinder).
+    @Getter HashMap<VarSymbol, Value[]> knownArrays = new HashMap<VarSymbol, Value[]>();
+
     // An immutable map that relates the assignop opcodes to their non-assigning equivalents.
     private static final Map<Tag, Tag> OPASG_TO_OP;
     static {
@@ -47,6 +51,15 @@ class EvaluationContext {
         OPASG_TO_OP = Collections.unmodifiableMap(map);
     }
 
+    public EvaluationContext() {}
+
+    /**
+     * Create a context in which the elements of the given arrays are known.
+     */
+    public EvaluationContext(Map<VarSymbol, Value[]> constantArrays) {
+        knownArrays.putAll(constantArrays);
+    }
+
     /**
      * Evaluate statements.
      */
@@ -62,6 +75,7 @@ class EvaluationContext {
         if (cast.getInit() != null) {
             Value val = evaluate(cast.getInit());
             currentAssignments.put(cast.getTargetSymbol(), val);
+            noteArray(cast.getTargetSymbol(), cast.getInit());
         }
     }
     public void evaluate(AJCExpressionStatement exec) {
@@ -87,9 +101,33 @@ class EvaluationContext {
         VarSymbol sym = assign.getTargetSymbol();
         Value val = evaluate(assign.rhs);
         currentAssignments.put(sym, val);
+        noteArray(sym, assign.rhs);
         return val;
     }
 
+    /**
+     * Note the array, if any, the given variable refers to after being assigned the given value.
+     */
+    private void noteArray(VarSymbol sym, AJCExpressionTree value) {
+        Value[] elements = getArray(value);
+        if (elements == null) {
+            knownArrays.remove(sym);
+        } else {
+            knownArrays.put(sym, elements);
+        }
+    }
+
+    /**
+     * @return The elements of the array the given expression refers to, or null if they aren't known.
+     */
+    public Value[] getArray(AJCExpressionTree e) {
+        if (!(e instanceof AJCIdent) && !(e instanceof AJCFieldAccess)) {
+            return null;
+        }
+
+        return knownArrays.get(((AJCSymbolRefTree) e).getTargetSymbol());
+    }
+
     public Value evaluate(AJCAssignOp assignOp) {
         VarSymbol targetSym = assignOp.getTargetSymbol();
 
@@ -177,11 +215,28 @@ class EvaluationContext {
     }
 
     public Value evaluate(AJCArrayAccess arrayAccess) {
-        // TODO: Get cleverer at this.
-        return Value.UNKNOWN;
+        Value[] elements = getArray(arrayAccess.indexed);
+        Value index = evaluate(arrayAccess.index);
+        if (elements == null || !(index.getValue() instanceof Integer)) {
+            return Value.UNKNOWN;
+        }
+
+        int i = (Integer) index.getValue();
+        if (i < 0 || i >= elements.length) {
+            return Value.UNKNOWN;
+        }
+
+        return elements[i];
     }
 
     public Value evaluate(AJCFieldAccess fieldAccess) {
+        if (fieldAccess.getTargetSymbol() == symtab.lengthVar) {
+            Value[] elements = getArray((AJCExpressionTree) fieldAccess.selected);
+            if (elements != null) {
+                return Value.of(elements.length);
+            }
+        }
+
         // TODO: Get cleverer at this.
         return Value.UNKNOWN;
     }
@@ -6,7 +6,7 @@ import com.sun.tools.javac.code.Type;
 import com.sun.tools.javac.tree.JCTree;
 import com.sun.tools.javac.util.List;
 import com.sun.tools.javac.util.Name;
-import joust.optimisers.cse.CommonSubExpressionTranslator;
+import joust.optimisers.cse.GlobalValueNumberingTranslator;
 import joust.optimisers.invar.ExpressionComplexityClassifier;
 import joust.tree.annotatedtree.AJCTree;
 import joust.tree.annotatedtree.AJCTree.AJCExpressionTree;
@@ -40,12 +40,16 @@ public class FunctionTemplate {
     // The nodes of the template that need substituting for the arguments.
     public List[] substitutionPoints;
 
+    // For each parameter, true if the argument can be substituted without changing when (Or whether) it is
+    // evaluated relative to the other arguments: it's used exactly once, unconditionally, and in order.
+    private boolean[] inPlace;
+
     Type[] paramTypes;
 
     private final int numParams;
 
     // The complexity an argument to a templated function must have before we extract it to a temporary variable.
-    public static final int ARGUMENT_EXTRACTION_THRESHOLD = CommonSubExpressionTranslator.MINIMUM_CSE_SCORE;
+    public static final int ARGUMENT_EXTRACTION_THRESHOLD = GlobalValueNumberingTranslator.MINIMUM_CSE_SCORE;
 
     public FunctionTemplate(AJCExpressionTree inputTemplate, boolean stat, Type... pTypes) {
         template = inputTemplate;
@@ -61,6 +65,29 @@ public class FunctionTemplate {
         scanner.visitTree(template);
 
         substitutionPoints = scanner.substitutionPoints;
+
+        inPlace = new boolean[numParams];
+        if (!scanner.ordered) {
+            return;
+        }
+
+        for (int i = 0; i < numParams; i++) {
+            inPlace[i] = substitutionPoints[i].size() == 1 && !scanner.conditional[i];
+        }
+    }
+
+    /**
+     * @return true if instantiating the template with the given arguments needs statements inserting before it: if
+     *         the call can only be replaced where its arguments may be evaluated ahead of the enclosing statement.
+     */
+    public boolean needsTemps(AJCExpressionTree... args) {
+        for (boolean extract : findExtractions(args)) {
+            if (extract) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     /**
@@ -69,20 +96,39 @@ public class FunctionTemplate {
      * given argument set.
      */
     public FunctionTemplateInstance instantiateWithTemps(Symbol enclosingSymbol, AJCExpressionTree... args) {
-        // For each argument, determine if it needs to be pulled to a temporary.
+        boolean[] extract = findExtractions(args);
 
         List<AJCStatement> startupCode = List.nil();
+        for (int i = 0; i < args.length; i++) {
+            if (!extract[i]) {
+                continue;
+            }
+
+            AJCVariableDecl newTemp = extractArgument(args[i], enclosingSymbol);
+            startupCode = startupCode.prepend(newTemp);
+            args[i] = treeMaker.Ident(newTemp.getTargetSymbol());
+        }
+
+        return new FunctionTemplateInstance(instantiate(args), startupCode.reverse());
+    }
 
+    /**
+     * For each argument, determine if it needs to be pulled to a temporary.
+     */
+    private boolean[] findExtractions(AJCExpressionTree[] args) {
+        boolean[] extract = new boolean[args.length];
         for (int i = 0; i < args.length; i++) {
-            // If the argument is only used once, we don't care.
+            EffectSet argEffects = args[i].effects.getEffectSet();
+
+            // If the argument is used at most once, it only needs extracting if moving or dropping its
+            // evaluation might be noticed.
             List<AJCExpressionTree> refsToArg = substitutionPoints[i];
             if (refsToArg.size() <= 1) {
+                extract[i] = !inPlace[i] && argEffects.effectTypes != 0;
                 continue;
             }
 
             // If the argument has the wrong sort of side effects, we've got no choice but to extract it.
-            EffectSet argEffects = args[i].effects.getEffectSet();
-
             // If it has IO effects, or both escaping reads or writes, it's not safe to do it repeatedly.
             if ((!argEffects.contains(EffectSet.EffectType.READ_ESCAPING)
               || !argEffects.contains(EffectSet.EffectType.WRITE_ESCAPING))
@@ -98,12 +144,20 @@ public class FunctionTemplate {
                  }
             }
 
-            AJCVariableDecl newTemp = extractArgument(args[i], enclosingSymbol);
-            startupCode = startupCode.prepend(newTemp);
-            args[i] = treeMaker.Ident(newTemp.getTargetSymbol());
+            extract[i] = true;
         }
 
-        return new FunctionTemplateInstance(instantiate(args), startupCode.reverse());
+        // Extracted arguments are evaluated before all the others, so any earlier argument with effects has to go
+        // with them to keep its place.
+        boolean later = false;
+        for (int i = args.length - 1; i >= 0; i--) {
+            if (later && args[i].effects.getEffectSet().effectTypes != 0) {
+                extract[i] = true;
+            }
+            later |= extract[i];
+        }
+
+        return extract;
     }
 
     private AJCVariableDecl extractArgument(AJCExpressionTree arg, Symbol owningContext) {
@@ -0,0 +1,302 @@
+package joust.utils.tree.functiontemplates;
+
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import joust.utils.logging.LogUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static com.sun.tools.javac.tree.JCTree.Tag;
+import static joust.tree.annotatedtree.AJCTree.*;
+import static joust.utils.compiler.StaticCompilerUtils.*;
+
+/**
+ * Converts the expressions of FunctionTemplates to and from a compact textual form, so they can be kept in the
+ * cache (See DerivedFunctionTemplates).
+ * The text is the expression in prefix order, as space-separated tokens:
+ *   p<n>           Parameter n.
+ *   l<t><value>    A literal of primitive type t. Floating point values are given by their bits, chars and
+ *                  booleans as ints.
+ *   u<TAG>         A unary operator, followed by its operand.
+ *   b<TAG>         A binary operator, followed by its operands.
+ *   c<t>           A cast to primitive type t, followed by its operand.
+ *   ?<t>           A conditional expression of primitive type t, followed by its condition and branches.
+ * Where t is the JVM descriptor character of the type. Only expressions made entirely of these, of primitive
+ * types, can be encoded.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public final class FunctionTemplateCodec {
+    private static final Set<Tag> UNARY_OPERATORS = EnumSet.of(Tag.POS, Tag.NEG, Tag.NOT, Tag.COMPL);
+    private static final Set<Tag> BINARY_OPERATORS = EnumSet.of(
+            Tag.OR, Tag.AND, Tag.BITOR, Tag.BITXOR, Tag.BITAND, Tag.EQ, Tag.NE, Tag.LT, Tag.GT, Tag.LE, Tag.GE,
+            Tag.SL, Tag.SR, Tag.USR, Tag.PLUS, Tag.MINUS, Tag.MUL, Tag.DIV, Tag.MOD);
+
+    // Prevent instantiation.
+    private FunctionTemplateCodec() {}
+
+    /**
+     * Encode the given expression over the given parameters.
+     *
+     * @return The encoded expression, or null if it can't be encoded.
+     */
+    public static String encode(AJCExpressionTree expr, List<VarSymbol> params) {
+        StringBuilder sb = new StringBuilder();
+        if (!encode(sb, expr, params)) {
+            return null;
+        }
+
+        return sb.toString();
+    }
+
+    private static boolean encode(StringBuilder sb, AJCExpressionTree expr, List<VarSymbol> params) {
+        Type type = expr.getNodeType();
+        char typeChar = type == null ? 0 : getTypeChar(type.getTag());
+        if (typeChar == 0) {
+            return false;
+        }
+
+        if (sb.length() > 0) {
+            sb.append(' ');
+        }
+
+        if (expr instanceof AJCIdent) {
+            Symbol sym = ((AJCIdent) expr).getTargetSymbol();
+            int index = params.indexOf(sym);
+            if (index != -1) {
+                sb.append('p').append(index);
+                return true;
+            }
+
+            // A constant, such as a static final field with a constant initialiser.
+            if (sym instanceof VarSymbol && ((VarSymbol) sym).getConstValue() != null) {
+                return encodeLiteral(sb, typeChar, ((VarSymbol) sym).getConstValue());
+            }
+
+            return false;
+        }
+
+        if (expr instanceof AJCLiteral) {
+            return encodeLiteral(sb, typeChar, ((AJCLiteral) expr).getValue());
+        }
+
+        if (expr instanceof AJCUnary) {
+            AJCUnary unary = (AJCUnary) expr;
+            if (!UNARY_OPERATORS.contains(unary.getTag())) {
+                return false;
+            }
+
+            sb.append('u').append(unary.getTag().name());
+            return encode(sb, unary.arg, params);
+        }
+
+        if (expr instanceof AJCBinary) {
+            AJCBinary binary = (AJCBinary) expr;
+            if (!BINARY_OPERATORS.contains(binary.getTag())) {
+                return false;
+            }
+
+            sb.append('b').append(binary.getTag().name());
+            return encode(sb, binary.lhs, params) && encode(sb, binary.rhs, params);
+        }
+
+        if (expr instanceof AJCTypeCast) {
+            sb.append('c').append(typeChar);
+            return encode(sb, ((AJCTypeCast) expr).expr, params);
+        }
+
+        if (expr instanceof AJCConditional) {
+            AJCConditional conditional = (AJCConditional) expr;
+            sb.append('?').append(typeChar);
+            return encode(sb, conditional.cond, params)
+                && encode(sb, conditional.truepart, params)
+                && encode(sb, conditional.falsepart, params);
+        }
+
+        return false;
+    }
+
+    private static boolean encodeLiteral(StringBuilder sb, char typeChar, Object value) {
+        sb.append('l').append(typeChar);
+        switch (typeChar) {
+            case 'I':
+            case 'J':
+                sb.append(((Number) value).longValue());
+                return true;
+            case 'F':
+                sb.append(Float.floatToIntBits(((Number) value).floatValue()));
+                return true;
+            case 'D':
+                sb.append(Double.doubleToLongBits(((Number) value).doubleValue()));
+                return true;
+            case 'C':
+                sb.append(value instanceof Character ? (int) (Character) value : ((Number) value).intValue());
+                return true;
+            case 'Z':
+                sb.append(value instanceof Boolean ? ((Boolean) value ? 1 : 0) : ((Number) value).intValue());
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Decode an expression encoded by encode.
+     *
+     * @param text The encoded expression.
+     * @param paramTypes The types of the parameters of the function it's the body of.
+     * @return The expression, with parameters given as the placeholders FunctionTemplate expects, or null if the
+     *         text is malformed.
+     */
+    public static AJCExpressionTree decode(String text, Type... paramTypes) {
+        String[] tokens = text.split(" ");
+        int[] position = new int[1];
+
+        AJCExpressionTree ret;
+        try {
+            ret = decode(tokens, position, paramTypes);
+        } catch (IllegalArgumentException e) {
+            log.warn("Malformed function template: {}", text);
+            return null;
+        } catch (IndexOutOfBoundsException e) {
+            log.warn("Malformed function template: {}", text);
+            return null;
+        }
+
+        if (ret == null || position[0] != tokens.length) {
+            log.warn("Malformed function template: {}", text);
+            return null;
+        }
+
+        return ret;
+    }
+
+    private static AJCExpressionTree decode(String[] tokens, int[] position, Type[] paramTypes) {
+        String token = tokens[position[0]];
+        position[0]++;
+
+        switch (token.charAt(0)) {
+            case 'p':
+                int index = Integer.parseInt(token.substring(1));
+                AJCIdent ident = treeMaker.Ident(names.fromString(index + "$PARAM"));
+                ident.setType(paramTypes[index]);
+                return ident;
+            case 'l':
+                return decodeLiteral(token.charAt(1), token.substring(2));
+            case 'u':
+                Tag unaryTag = Tag.valueOf(token.substring(1));
+                if (!UNARY_OPERATORS.contains(unaryTag)) {
+                    return null;
+                }
+
+                AJCExpressionTree arg = decode(tokens, position, paramTypes);
+                return arg == null ? null : treeMaker.Unary(unaryTag, arg);
+            case 'b':
+                Tag binaryTag = Tag.valueOf(token.substring(1));
+                if (!BINARY_OPERATORS.contains(binaryTag)) {
+                    return null;
+                }
+
+                AJCExpressionTree lhs = decode(tokens, position, paramTypes);
+                AJCExpressionTree rhs = lhs == null ? null : decode(tokens, position, paramTypes);
+                return rhs == null ? null : treeMaker.Binary(binaryTag, lhs, rhs);
+            case 'c':
+                Type castType = getType(token.charAt(1));
+                AJCExpressionTree expr = decode(tokens, position, paramTypes);
+                if (castType == null || expr == null) {
+                    return null;
+                }
+
+                return treeMaker.TypeCast(treeMaker.Type(castType), expr);
+            case '?':
+                Type condType = getType(token.charAt(1));
+                AJCExpressionTree cond = decode(tokens, position, paramTypes);
+                AJCExpressionTree truepart = cond == null ? null : decode(tokens, position, paramTypes);
+                AJCExpressionTree falsepart = truepart == null ? null : decode(tokens, position, paramTypes);
+                if (condType == null || falsepart == null) {
+                    return null;
+                }
+
+                AJCConditional conditional = treeMaker.Conditional(cond, truepart, falsepart);
+                conditional.setType(condType);
+                return conditional;
+            default:
+                return null;
+        }
+    }
+
+    private static AJCExpressionTree decodeLiteral(char typeChar, String value) {
+        switch (typeChar) {
+            case 'I':
+                return treeMaker.Literal(TypeTag.INT, Integer.parseInt(value));
+            case 'J':
+                return treeMaker.Literal(TypeTag.LONG, Long.parseLong(value));
+            case 'F':
+                return treeMaker.Literal(TypeTag.FLOAT, Float.intBitsToFloat(Integer.parseInt(value)));
+            case 'D':
+                return treeMaker.Literal(TypeTag.DOUBLE, Double.longBitsToDouble(Long.parseLong(value)));
+            case 'C':
+                return treeMaker.Literal(TypeTag.CHAR, Integer.parseInt(value));
+            case 'Z':
+                return treeMaker.Literal(TypeTag.BOOLEAN, Integer.parseInt(value));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return The JVM descriptor character of the given primitive type, or 0 if it isn't one.
+     */
+    public static char getTypeChar(TypeTag tag) {
+        switch (tag) {
+            case BYTE:
+                return 'B';
+            case CHAR:
+                return 'C';
+            case SHORT:
+                return 'S';
+            case INT:
+                return 'I';
+            case LONG:
+                return 'J';
+            case FLOAT:
+                return 'F';
+            case DOUBLE:
+                return 'D';
+            case BOOLEAN:
+                return 'Z';
+            default:
+                return 0;
+        }
+    }
+
+    private static Type getType(char typeChar) {
+        switch (typeChar) {
+            case 'B':
+                return symtab.byteType;
+            case 'C':
+                return symtab.charType;
+            case 'S':
+                return symtab.shortType;
+            case 'I':
+                return symtab.intType;
+            case 'J':
+                return symtab.longType;
+            case 'F':
+                return symtab.floatType;
+            case 'D':
+                return symtab.doubleType;
+            case 'Z':
+                return symtab.booleanType;
+            default:
+                return null;
+        }
+    }
+}
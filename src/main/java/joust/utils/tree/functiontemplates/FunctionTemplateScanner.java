@@ -12,6 +12,7 @@ import lombok.extern.java.Log;
 import java.util.logging.Logger;
 
 import static com.sun.tools.javac.code.Symbol.*;
+import static com.sun.tools.javac.tree.JCTree.Tag;
 import static joust.tree.annotatedtree.AJCTree.*;
 import static joust.utils.compiler.StaticCompilerUtils.*;
 
@@ -21,12 +22,22 @@ public class FunctionTemplateScanner extends AJCTreeVisitor {
     public final List[] substitutionPoints;
     private final Type[] paramTypes;
 
+    // For each parameter, true if some reference to it is evaluated only under a condition.
+    public final boolean[] conditional;
+
+    // False if the parameters referred to unconditionally aren't evaluated in ascending order.
+    public boolean ordered = true;
+
+    private int lastUnconditional = -1;
+    private int conditionalDepth;
+
     /**
      * Construct a new template scanner equipped to process a template for a function of a given number of arguments.
      */
     public FunctionTemplateScanner(Type... pTypes) {
         paramTypes = pTypes;
         substitutionPoints = new List[pTypes.length];
+        conditional = new boolean[pTypes.length];
 
         for (int i = 0; i < substitutionPoints.length; i++) {
             substitutionPoints[i] = List.nil();
@@ -50,5 +61,41 @@ public class FunctionTemplateScanner extends AJCTreeVisitor {
 
         that.setType(paramTypes[paramNum]);
         substitutionPoints[paramNum] = substitutionPoints[paramNum].prepend(that);
+
+        if (conditionalDepth > 0) {
+            conditional[paramNum] = true;
+            return;
+        }
+
+        if (paramNum < lastUnconditional) {
+            ordered = false;
+        }
+        lastUnconditional = paramNum;
+    }
+
+    @Override
+    protected void visitConditional(AJCConditional that) {
+        visit(that.cond);
+
+        conditionalDepth++;
+        visit(that.truepart);
+        visit(that.falsepart);
+        conditionalDepth--;
+    }
+
+    @Override
+    protected void visitBinary(AJCBinary that) {
+        Tag tag = that.getTag();
+        if (tag != Tag.AND && tag != Tag.OR) {
+            super.visitBinary(that);
+            return;
+        }
+
+        // The right hand side of a short-circuiting operator is evaluated only sometimes.
+        visit(that.lhs);
+
+        conditionalDepth++;
+        visit(that.rhs);
+        conditionalDepth--;
     }
 }
@@ -16,6 +16,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
@@ -42,18 +43,26 @@ public class ITCompilationUnitOutput {
     public static final String TEST_SHARED_CLASSES_DIR = "/testutils/";
     public static final String OPT_DIR = "/compilationResults/opt/";
     public static final String UN_OPT_DIR = "/compilationResults/noOpt/";
+    public static final String PROMOTED_OPT_DIR = "optPromoted";
 
     public static final String TEST_INPUT_PACKAGE = "testinputs";
 
     private static final URL sOptOutDir = ITCompilationUnitOutput.class.getResource(OPT_DIR);
     private static final URL sUnOptOutDir = ITCompilationUnitOutput.class.getResource(UN_OPT_DIR);
 
+    // Output of the second pass of the suite, with the opt-in optimisations enabled, beside that of the first.
+    private static final File sPromotedOptOutDir = new File(new File(sOptOutDir.getFile()).getParentFile(), PROMOTED_OPT_DIR);
+
+    // The options given to the optimiser in the second pass. The test programs are single-threaded, so the
+    // opt-in optimisations are safe to exercise.
+    private static final String[] OPT_IN_OPTIONS = {"-AJOUSTPromoteFields"};
+
     private static final String JAVAP = System.getProperty("java.home")+"/../bin/javap";
 
     // The directory in which classes shared between all unit tests should reside.
     private static File[] mSharedClasses;
 
-    @Parameters(name = "{index}: {0}")
+    @Parameters(name = "{index}: {0} {3}")
     public static Collection<Object[]> data() {
         // Create a File array of all *.java files in the shared classes directory.
         URL sharedClasses = ITCompilationUnitOutput.class.getResource(TEST_SHARED_CLASSES_DIR);
@@ -75,29 +84,47 @@ public class ITCompilationUnitOutput {
         File[] testCases = testInputs.listFiles();
         System.out.println(Arrays.toString(testCases));
 
+        sPromotedOptOutDir.mkdirs();
+
+        // Everything runs once with the default options, then again with the opt-in optimisations.
         LinkedList<Object[]> ret = new LinkedList<Object[]>();
         for (int i = 0; i < testCases.length; i++) {
-            ret.add(new Object[] {testCases[i], optOutDir, noOptOutdir});
+            ret.add(new Object[] {testCases[i], optOutDir, noOptOutdir, ""});
+        }
+        for (int i = 0; i < testCases.length; i++) {
+            ret.add(new Object[] {testCases[i], sPromotedOptOutDir, noOptOutdir, Arrays.toString(OPT_IN_OPTIONS)});
         }
 
         return ret;
     }
 
-    // A pair of classloaders - one for optimised classes, one for unoptimised classes.
+    // A pair of classloaders - one for optimised classes, one for unoptimised classes. Classes optimised with the
+    // opt-in optimisations have the same names, so need their own.
     public static URLClassLoader sOptClassLoader =  new URLClassLoader(new URL[] {sOptOutDir});
     public static URLClassLoader sUnOptClassLoader =  new URLClassLoader(new URL[] {sUnOptOutDir});
+    public static URLClassLoader sPromotedOptClassLoader = new URLClassLoader(new URL[] {toURL(sPromotedOptOutDir)});
+
+    private static URL toURL(File dir) {
+        try {
+            return dir.toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
     private File mTargetSource;
     private File mOptOutDir;
     private File mNoOptOutDir;
+    private boolean mOptIn;
 
     private String mTestClassName;
     private String mFullyQualifiedTestClassName;
 
-    public ITCompilationUnitOutput(File elementName, File optOutDir, File noOptOutDir) {
+    public ITCompilationUnitOutput(File elementName, File optOutDir, File noOptOutDir, String optInOptions) {
         mTargetSource = elementName;
         mOptOutDir = optOutDir;
         mNoOptOutDir = noOptOutDir;
+        mOptIn = !optInOptions.isEmpty();
 
         String n = elementName.getName();
         mTestClassName = n.substring(0, n.lastIndexOf('.'));
@@ -122,7 +149,8 @@ public class ITCompilationUnitOutput {
         Class<? extends BaseIntegrationTestCase> optClass = null;
         Class<? extends BaseIntegrationTestCase> noOptClass = null;
         try {
-            optClass = (Class<? extends BaseIntegrationTestCase>) sOptClassLoader.loadClass(mFullyQualifiedTestClassName);
+            URLClassLoader optClassLoader = mOptIn ? sPromotedOptClassLoader : sOptClassLoader;
+            optClass = (Class<? extends BaseIntegrationTestCase>) optClassLoader.loadClass(mFullyQualifiedTestClassName);
             noOptClass = (Class<? extends BaseIntegrationTestCase>) sUnOptClassLoader.loadClass(mFullyQualifiedTestClassName);
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
@@ -160,7 +188,7 @@ public class ITCompilationUnitOutput {
     private void printBytecodeOfTest() {
         try {
             log.debug("-------------- BYTECODE OF OPTIMISED TESTCASE --------------");
-            printBytecodeForDir(sOptOutDir);
+            printBytecodeForDir(mOptIn ? toURL(sPromotedOptOutDir) : sOptOutDir);
             log.debug("-------------- BYTECODE OF UNOPTIMISED TESTCASE --------------");
             printBytecodeForDir(sUnOptOutDir);
         } catch (IOException e) {
@@ -249,6 +277,9 @@ public class ITCompilationUnitOutput {
         optionList.add("-target");
         optionList.add("1.7");
         optionList.add("-AJOUSTLogLevel=FINEST");
+        if (optimise && mOptIn) {
+            optionList.addAll(Arrays.asList(OPT_IN_OPTIONS));
+        }
 
         // The compilation targets...
         optionList.add("-d");
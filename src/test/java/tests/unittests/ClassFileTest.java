@@ -0,0 +1,68 @@
+package tests.unittests;
+
+import joust.joustcache.bytecode.ClassFile;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the class file parser used by the bytecode effect analyser.
+ */
+public class ClassFileTest {
+    static class Fixture {
+        static int counter;
+        private long value;
+
+        void bump() {
+            counter++;
+            value = counter;
+        }
+
+        native void nothing();
+    }
+
+    private static byte[] readClass(Class<?> c) throws IOException {
+        InputStream in = c.getResourceAsStream('/' + c.getName().replace('.', '/') + ".class");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        ClassFile cf = ClassFile.parse(readClass(Fixture.class));
+
+        assertEquals("tests/unittests/ClassFileTest$Fixture", cf.name);
+        assertEquals("java/lang/Object", cf.superName);
+
+        assertNotNull(cf.getField("counter"));
+        assertNotNull(cf.getField("value"));
+
+        ClassFile.Member bump = cf.getMethod("bump", "()V");
+        assertNotNull(bump);
+        assertNotNull(bump.code);
+
+        ClassFile.Member nothing = cf.getMethod("nothing", "()V");
+        assertNotNull(nothing);
+        assertNull(nothing.code);
+        assertTrue((nothing.access & ClassFile.ACC_NATIVE) != 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsGarbage() throws IOException {
+        ClassFile.parse(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+    }
+}
@@ -0,0 +1,98 @@
+package tests.unittests;
+
+import joust.analysers.sideeffects.Effects;
+import joust.joustcache.EffectRecord;
+import joust.joustcache.EffectRecordCodec;
+import joust.joustcache.data.ClassInfo;
+import joust.joustcache.data.MethodInfo;
+import joust.tree.annotatedtree.treeinfo.EffectSet;
+import joust.utils.data.SymbolSet;
+import joust.utils.logging.LogUtils;
+import lombok.experimental.ExtensionMethod;
+import lombok.extern.java.Log;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static joust.tree.annotatedtree.treeinfo.EffectSet.EffectType;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the encoding of cache records.
+ */
+@Log
+@ExtensionMethod({Logger.class, LogUtils.LogExtensions.class})
+public class EffectRecordTest {
+    private static ClassInfo makeClassInfo() {
+        ClassInfo cInfo = new ClassInfo();
+        cInfo.setHash(1234);
+
+        EffectSet io = new EffectSet(EffectType.IO.maskValue | EffectType.EXCEPTION.maskValue);
+        cInfo.methodInfos.add(new MethodInfo("a.B.foo(I)V", new Effects(io)));
+
+        EffectSet universal = new EffectSet(EffectType.WRITE_ESCAPING);
+        universal.writeEscaping = SymbolSet.UNIVERSAL_SET;
+        universal.relativeWrites = EffectSet.relativeParameter(1);
+        cInfo.methodInfos.add(new MethodInfo("a.B.bar()I", new Effects(universal)));
+
+        cInfo.finalFields.add("a.B.size");
+        cInfo.templates.put("a.B.twice(I)I", "bMUL p0 lI2");
+        cInfo.templates.put("a.B.isBig(J)Z", "bGT p0 lJ1000");
+
+        return cInfo;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        EffectRecord record = EffectRecord.open(EffectRecordCodec.encode(makeClassInfo()));
+        assertNotNull(record);
+
+        assertEquals(1234, record.getHash());
+        assertEquals(2, record.getMethodHashes().size());
+
+        EffectSet foo = record.decodeEffects("a.B.foo(I)V").getEffectSet();
+        assertTrue(foo.contains(EffectType.IO));
+        assertTrue(foo.contains(EffectType.EXCEPTION));
+        assertFalse(foo.contains(EffectType.WRITE_ESCAPING));
+
+        EffectSet bar = record.decodeEffects("a.B.bar()I").getEffectSet();
+        assertTrue(bar.contains(EffectType.WRITE_ESCAPING));
+        assertSame(SymbolSet.UNIVERSAL_SET, bar.writeEscaping);
+        assertEquals(EffectSet.relativeParameter(1), bar.relativeWrites);
+
+        assertNull(record.decodeEffects("a.B.baz()V"));
+
+        assertEquals(Collections.singleton("a.B.size"), record.getFinalFields());
+
+        Map<String, String> templates = record.getTemplates();
+        assertEquals(2, templates.size());
+        assertEquals("bMUL p0 lI2", templates.get("a.B.twice(I)I"));
+        assertEquals("bGT p0 lJ1000", templates.get("a.B.isBig(J)Z"));
+    }
+
+    @Test
+    public void testNoFinalFields() {
+        EffectRecord record = EffectRecord.open(EffectRecordCodec.encode(7, new ArrayList<EffectRecordCodec.MethodEffects>()));
+        assertNotNull(record);
+
+        assertTrue(record.getMethodHashes().isEmpty());
+        assertTrue(record.getFinalFields().isEmpty());
+        assertTrue(record.getTemplates().isEmpty());
+    }
+
+    @Test
+    public void testHashPatching() {
+        byte[] encoded = EffectRecordCodec.encode(makeClassInfo());
+        EffectRecordCodec.setHash(encoded, 42);
+
+        assertEquals(42, EffectRecord.open(encoded).getHash());
+    }
+
+    @Test
+    public void testRejectsForeignPayload() {
+        assertNull(EffectRecord.open(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}));
+    }
+}
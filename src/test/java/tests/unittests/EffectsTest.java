@@ -1,8 +1,108 @@
 package tests.unittests;
 
+import joust.analysers.sideeffects.CallEffects;
+import joust.analysers.sideeffects.Effects;
+import joust.tree.annotatedtree.treeinfo.EffectSet;
+import joust.utils.data.SymbolSet;
+import org.junit.Test;
+
+import static com.sun.tools.javac.code.Symbol.*;
+import static joust.tree.annotatedtree.treeinfo.EffectSet.EffectType;
+import static org.junit.Assert.*;
+
 /**
  * Unit tests for the Effects class. Verify that the various unioning and rebuilding operations work as expected.
  */
 public class EffectsTest {
-    // TODO:
+    // A set writing arbitrary fields of the object named by the given relative mask.
+    private static EffectSet writesFieldsOf(int mask) {
+        EffectSet effects = new EffectSet(EffectType.WRITE_ESCAPING);
+        effects.writeEscaping = SymbolSet.UNIVERSAL_SET;
+        effects.relativeWrites = mask;
+
+        return effects;
+    }
+
+    // A callee of the given call with no effects yet. As in the side effect analysis, effects given to it
+    // later reach the call through the dependency.
+    private static Effects calleeOf(CallEffects call) {
+        Effects callee = new Effects(EffectSet.NO_EFFECTS);
+        call.deps.add(callee);
+        callee.dependantOnThis.add(call);
+
+        return callee;
+    }
+
+    @Test
+    public void testRelativeUnion() {
+        EffectSet p0 = writesFieldsOf(EffectSet.relativeParameter(0));
+        EffectSet p1 = writesFieldsOf(EffectSet.relativeParameter(1));
+
+        assertEquals(EffectSet.relativeParameter(0) | EffectSet.relativeParameter(1), p0.union(p1).relativeWrites);
+        assertEquals(0, p0.union(writesFieldsOf(0)).relativeWrites);
+
+        // Sets without escaping writes don't disturb the mask.
+        assertEquals(EffectSet.relativeParameter(0), p0.union(new EffectSet(EffectType.IO)).relativeWrites);
+        assertEquals(EffectSet.relativeParameter(0), new EffectSet(EffectType.IO).union(p0).relativeWrites);
+        assertEquals(0, p0.union(EffectType.WRITE_ESCAPING).relativeWrites);
+
+        // Absolute writes contain relative ones, but not the other way around.
+        assertTrue(writesFieldsOf(0).contains(p0));
+        assertFalse(p0.contains(writesFieldsOf(0)));
+        assertFalse(p0.contains(p1));
+    }
+
+    @Test
+    public void testCallInstantiation() {
+        // The caller passes its receiver as the callee's first argument, and something unknown as the second.
+        Effects argument = new Effects(EffectSet.NO_EFFECTS);
+        CallEffects call = new CallEffects(EffectSet.NO_EFFECTS, new int[] {0, EffectSet.RELATIVE_RECEIVER, 0}, new VarSymbol[3], argument);
+
+        Effects callee = calleeOf(call);
+        callee.setEffectSet(writesFieldsOf(EffectSet.relativeParameter(0)));
+
+        assertEquals(EffectSet.RELATIVE_RECEIVER, call.getEffectSet().relativeWrites);
+
+        // Once the callee also writes its second parameter, the caller can't say what it writes.
+        callee.setEffectSet(callee.getEffectSet().union(writesFieldsOf(EffectSet.relativeParameter(1))));
+        assertEquals(0, call.getEffectSet().relativeWrites);
+        assertTrue(call.getEffectSet().contains(EffectType.WRITE_ESCAPING));
+    }
+
+    @Test
+    public void testFreshReceiver() {
+        // A constructor writing only its own fields, called on a brand new object.
+        CallEffects call = new CallEffects(EffectSet.NO_EFFECTS, new int[] {EffectSet.BINDING_FRESH}, new VarSymbol[1]);
+
+        Effects constructor = calleeOf(call);
+        constructor.setEffectSet(writesFieldsOf(EffectSet.RELATIVE_RECEIVER));
+
+        assertFalse(call.getEffectSet().contains(EffectType.WRITE_ESCAPING));
+
+        // But one that also writes elsewhere still does so.
+        constructor.setEffectSet(constructor.getEffectSet().union(writesFieldsOf(0)));
+        assertTrue(call.getEffectSet().contains(EffectType.WRITE_ESCAPING));
+    }
+
+    @Test
+    public void testImplicitExceptions() {
+        // A call through a receiver that might be null, to a method that might divide by zero.
+        CallEffects call = new CallEffects(new EffectSet(EffectType.NULL_POINTER), new int[] {EffectSet.BINDING_FRESH}, new VarSymbol[1]);
+
+        Effects callee = calleeOf(call);
+        callee.setEffectSet(writesFieldsOf(EffectSet.RELATIVE_RECEIVER).union(EffectType.ARITHMETIC));
+
+        EffectSet effects = call.getEffectSet();
+        assertTrue(effects.contains(EffectType.NULL_POINTER));
+        assertTrue(effects.contains(EffectType.ARITHMETIC));
+        assertFalse(effects.contains(EffectType.EXCEPTION));
+        assertFalse(effects.contains(EffectType.WRITE_ESCAPING));
+
+        // The kinds of exception are kept apart, but all count as exceptions.
+        assertTrue(effects.contains(EffectSet.ANY_EXCEPTION));
+        assertFalse(effects.contains(EffectType.INDEX_BOUNDS.maskValue | EffectType.CLASS_CAST.maskValue));
+
+        // And they're visible from outside the method.
+        assertTrue(EffectSet.NO_EFFECTS.unionEscaping(effects).contains(EffectType.ARITHMETIC));
+    }
 }
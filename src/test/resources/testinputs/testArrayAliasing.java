@@ -0,0 +1,83 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testArrayAliasing extends BaseIntegrationTestCase {
+    private static int[] shared = {5, 6, 7};
+
+    private static void fill(int[] target, int value) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] = value;
+        }
+    }
+
+    // Both arguments may be the same array.
+    private static int sumTwice(int[] a, int[] b) {
+        int x = a[0] * a[1] + a[2];
+        b[0] = 100;
+        int y = a[0] * a[1] + a[2];
+        return x + y;
+    }
+
+    private static int blend(int[] in, int[] out) {
+        int[] scratch = new int[in.length];
+        for (int i = 0; i < in.length; i++) {
+            // The writes to scratch can't change in, so these are redundant.
+            scratch[i] = in[i] * in[i] + in[i] * 3;
+            out[i] = in[i] * in[i] + in[i] * 3 + scratch[i];
+        }
+
+        return scratch[0] + out[0];
+    }
+
+    @Override
+    protected void test() {
+        int[] a = {1, 2, 3};
+        print(sumTwice(a, new int[3]));
+        print(sumTwice(a, a));
+
+        // An alias made by plain assignment.
+        int[] b = a;
+        int x = a[1] * a[2] + a[0];
+        b[1] = 10;
+        int y = a[1] * a[2] + a[0];
+        print(x + y);
+
+        // Elements written by a call.
+        x = a[1] * a[2] + a[0];
+        fill(a, 4);
+        y = a[1] * a[2] + a[0];
+        print(x + y);
+
+        // Elements written through a field.
+        x = shared[1] * shared[2] + shared[0];
+        shared[2] = 1;
+        y = shared[1] * shared[2] + shared[0];
+        print(x + y);
+
+        int[] in = {3, 1, 4, 1, 5};
+        int[] out = new int[5];
+        print(blend(in, out));
+        print(blend(in, in));
+
+        // Arrays of different types never alias.
+        long[] longs = {7L, 8L};
+        int[] ints = {2, 3};
+        long total = 0;
+        for (int i = 0; i < 4; i++) {
+            total += ints[0] * ints[1] + i;
+            longs[i % 2] += total;
+        }
+        print(total + longs[0] + longs[1]);
+
+        // Hoisting a read of an allocated array the loop writes would be wrong.
+        int[] counts = new int[2];
+        total = 0;
+        for (int i = 0; i < 4; i++) {
+            total += counts[0] * 3 + counts[1];
+            counts[0]++;
+            fill(ints, i);
+        }
+        print(total);
+    }
+}
@@ -0,0 +1,142 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testConstantPropagation extends BaseIntegrationTestCase {
+    private int counter;
+
+    @Override
+    protected void test() {
+        for (int i = 0; i < 4; i++) {
+            print(featureFlag(i));
+            print(sameOnBothPaths(i));
+            print(unreachableAssignment(i));
+            print(loopInvariantConstant(i));
+            print(selector(i));
+            print(conversions(i));
+            print(afterCatch(i));
+            print(divideByZero(i));
+            print(neverLoops(i));
+        }
+    }
+
+    // A flag set once: the branch it guards, and the comparison, both go.
+    private int featureFlag(int a) {
+        boolean enabled = false;
+        int scale = 3;
+        if (enabled) {
+            counter++;
+            return a * 100;
+        }
+
+        return a * scale + (scale == 3 ? 1 : 2);
+    }
+
+    // Different paths assigning the same value still leave a constant at the join.
+    private int sameOnBothPaths(int a) {
+        int x;
+        if (a > 1) {
+            x = 7;
+        } else {
+            x = 7;
+        }
+
+        return a + x;
+    }
+
+    // The else branch can never run, so doesn't spoil the value of y after the if.
+    private int unreachableAssignment(int a) {
+        int x = 1;
+        int y;
+        if (x == 1) {
+            y = 2;
+        } else {
+            y = a;
+        }
+
+        return y * a;
+    }
+
+    // Assigned the same value on every trip around the loop.
+    private int loopInvariantConstant(int a) {
+        int step = 2;
+        int sum = 0;
+        for (int i = 0; i < a; i++) {
+            sum += step;
+            step = 2;
+        }
+
+        return sum + step;
+    }
+
+    // Only one case of a switch on a constant can be reached.
+    private int selector(int a) {
+        int mode = 2;
+        int result;
+        switch (mode) {
+            case 1:
+                result = a;
+                break;
+            case 2:
+                result = 5;
+                break;
+            default:
+                result = -a;
+        }
+
+        return result + a;
+    }
+
+    // Compound assignments convert back to the type of the local, and operands are promoted first.
+    private long conversions(int a) {
+        int x = 10;
+        x *= 1.5;
+        char c = 'a';
+        c += 2;
+        long shifted = 1L << (x + c);
+        int narrow = 7;
+        narrow /= 2;
+
+        return shifted + narrow + a;
+    }
+
+    // Nothing is known on entry to a catch block.
+    private int afterCatch(int a) {
+        int x = 1;
+        try {
+            x = 2;
+            if (a == 3) {
+                throw new IllegalStateException();
+            }
+            x = 3;
+        } catch (IllegalStateException e) {
+            return x;
+        }
+
+        return x;
+    }
+
+    // Division by a constant zero must still throw.
+    private int divideByZero(int a) {
+        int zero = 0;
+        try {
+            return a / zero;
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    private int neverLoops(int a) {
+        int limit = 0;
+        int sum = a;
+        while (limit > 0) {
+            sum++;
+        }
+
+        for (int i = limit; i < limit; i++) {
+            sum--;
+        }
+
+        return sum;
+    }
+}
@@ -0,0 +1,123 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testDerivedTemplates extends BaseIntegrationTestCase {
+    private int counter;
+
+    @Override
+    protected void test() {
+        for (int i = 0; i < 4; i++) {
+            print(simple(i));
+            print(argumentOrder(i));
+            print(unusedArgument(i));
+            print(conditional(i));
+            print(conversions(i));
+            print(initialised(i));
+            print(loopCondition(i));
+            print(shortCircuit(i));
+            print(afterEffects(i));
+        }
+    }
+
+    static class Arith {
+        static final int SCALE = 3;
+
+        static int scale(int a) {
+            return a * SCALE + 1;
+        }
+
+        static int difference(int a, int b) {
+            return b - a;
+        }
+
+        static int first(int a, int b) {
+            return a;
+        }
+
+        static boolean inRange(int a, int lo, int hi) {
+            return a >= lo && a <= hi;
+        }
+
+        static long widen(int a) {
+            return a;
+        }
+
+        static double half(double d) {
+            return d / 2.0;
+        }
+    }
+
+    static class Initialised {
+        static int created;
+        static {
+            created = 1;
+        }
+
+        static int plusCreated(int a) {
+            return a + 1;
+        }
+    }
+
+    private int next() {
+        counter++;
+        return counter;
+    }
+
+    private int simple(int a) {
+        return Arith.scale(a) + Arith.scale(2);
+    }
+
+    // The template uses its parameters out of order, but the arguments are still evaluated in order.
+    private int argumentOrder(int a) {
+        return Arith.difference(next(), next() * a);
+    }
+
+    // An argument the template doesn't use is still evaluated.
+    private int unusedArgument(int a) {
+        int x = Arith.first(a, next());
+        return x + counter;
+    }
+
+    // Arguments evaluated only some of the time in the template are always evaluated by the call.
+    private boolean conditional(int a) {
+        return Arith.inRange(a, next(), next() + 2);
+    }
+
+    // The value of the template takes the return type of the method.
+    private String conversions(int a) {
+        return "" + (Arith.widen(a) << 40) + Arith.half(a + 0.5);
+    }
+
+    // Calling the method initialises its class, so it isn't replaced.
+    private int initialised(int a) {
+        return Initialised.plusCreated(a) + Initialised.created;
+    }
+
+    // The arguments are evaluated every time the condition is, not once ahead of the loop.
+    private int loopCondition(int a) {
+        counter = 0;
+        int steps = 0;
+        while (Arith.difference(next(), a + 3) > 0) {
+            steps++;
+        }
+
+        return steps * 10 + counter;
+    }
+
+    // The arguments of a call on the right of && or || or in an arm of ?: are evaluated only if it is.
+    private String shortCircuit(int a) {
+        counter = 0;
+        boolean both = a > 1 && Arith.inRange(next(), 0, a);
+        boolean either = a > 1 || Arith.difference(next(), a) < 0;
+        int chosen = a % 2 == 0 ? Arith.difference(next(), 10) : Math.min(next(), a);
+        return both + " " + either + " " + chosen + " " + counter;
+    }
+
+    // Effects to the left of the call happen before those of its arguments.
+    private int afterEffects(int a) {
+        counter = a;
+        int x = next() * 100 + Arith.difference(next(), next());
+        return x + counter;
+    }
+}
@@ -0,0 +1,70 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testFieldPromotion extends BaseIntegrationTestCase {
+    private static int calls;
+
+    private int count;
+    private long total;
+    private int[] values = {3, 1, 4, 1, 5, 9, 2, 6};
+
+    private void accumulate() {
+        for (int i = 0; i < values.length; i++) {
+            count += values[i];
+            total = total * 31 + count;
+        }
+    }
+
+    private int firstAbove(int limit) {
+        // Left by a return: the finally block still stores count.
+        for (int i = 0; i < values.length; i++) {
+            count++;
+            if (values[i] > limit) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private void overrun() {
+        // Left by an exception: so is this.
+        for (int i = 0; i <= values.length; i++) {
+            count += values[i];
+        }
+    }
+
+    private void withCall() {
+        // Calls might look at the fields, so this one's left alone.
+        for (int i = 0; i < 3; i++) {
+            count += i;
+            bump();
+        }
+    }
+
+    private static void bump() {
+        calls++;
+    }
+
+    @Override
+    protected void test() {
+        accumulate();
+        print(count);
+        print(total);
+
+        print(firstAbove(4));
+        print(count);
+
+        try {
+            overrun();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            print("Overran");
+        }
+        print(count);
+
+        withCall();
+        print(count);
+        print(calls);
+    }
+}
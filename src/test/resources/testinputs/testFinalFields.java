@@ -0,0 +1,101 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testFinalFields extends BaseIntegrationTestCase {
+    private static int scale;
+    private static volatile int ticks;
+    private static final Object lock = new Object();
+
+    static {
+        scale = 3;
+    }
+
+    // Only written by the constructor, so effectively final.
+    private static class Box {
+        private int width;
+        private int height;
+
+        Box(int w, int h) {
+            width = w;
+            this.height = h;
+        }
+
+        int areaTimes(int n) {
+            int total = 0;
+            for (int i = 0; i < n; i++) {
+                total += width * height * scale + i;
+            }
+
+            return total + width * height * scale;
+        }
+
+        // Not declared final, so the lock and the volatile reads may make other writes visible in between.
+        int areaLocked() {
+            int before = width * height * scale;
+            synchronized (lock) {
+                ticks++;
+            }
+
+            return before + width * height * scale;
+        }
+
+        int areaTicking(int n) {
+            int total = 0;
+            for (int i = 0; i < n; i++) {
+                total += width * height * scale + ticks;
+            }
+
+            return total;
+        }
+    }
+
+    // Written after construction, so not.
+    private static class Counter {
+        private int count;
+        private int step;
+
+        Counter(int s) {
+            step = s;
+        }
+
+        int run(int n) {
+            for (int i = 0; i < n; i++) {
+                count += step * scale;
+            }
+
+            return count;
+        }
+    }
+
+    // Lets this escape before the field is set, so not effectively final either.
+    private static class Leaky {
+        private static Leaky last;
+        private int value;
+
+        Leaky(int v) {
+            last = this;
+            value = v;
+        }
+
+        int twice() {
+            return value * scale + value * scale;
+        }
+    }
+
+    @Override
+    protected void test() {
+        Box box = new Box(4, 5);
+        print(box.areaTimes(10));
+        print(box.areaLocked());
+        print(box.areaTicking(10));
+
+        Counter counter = new Counter(2);
+        print(counter.run(5));
+        print(counter.run(5));
+
+        Leaky leaky = new Leaky(6);
+        print(leaky.twice());
+        print(Leaky.last.twice());
+    }
+}
@@ -0,0 +1,64 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testFreshObjects extends BaseIntegrationTestCase {
+    private static class Point {
+        int x;
+        int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        void move(int dx) {
+            x += dx;
+        }
+    }
+
+    private static Point shared = new Point(0, 0);
+
+    private static Point leak(Point p) {
+        shared = p;
+        return p;
+    }
+
+    @Override
+    protected void test() {
+        int a = 3;
+        int b = 4;
+
+        // Never escapes - reads of its fields are loop invariant.
+        Point p = new Point(a, b);
+        int total = 0;
+        for (int i = 0; i < 10; i++) {
+            total += p.x * p.y + i;
+        }
+        print(total);
+
+        // Written through a method in the loop, so they're not.
+        Point q = new Point(a, b);
+        total = 0;
+        for (int i = 0; i < 10; i++) {
+            total += q.x * q.y + i;
+            q.move(1);
+        }
+        print(total);
+
+        // Escapes, and is then changed behind our back.
+        Point r = new Point(a, b);
+        leak(r);
+        total = 0;
+        for (int i = 0; i < 10; i++) {
+            total += r.x * r.y + i;
+            shared.x++;
+        }
+        print(total);
+
+        int[] arr = new int[4];
+        arr[0] = a;
+        arr[1] = arr[0] * b;
+        print(arr[1] + arr.length);
+    }
+}
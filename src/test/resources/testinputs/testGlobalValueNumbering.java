@@ -0,0 +1,91 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testGlobalValueNumbering extends BaseIntegrationTestCase {
+    private final int[] table = {3, 1, 4, 1, 5, 9, 2, 6};
+
+    @Override
+    protected void test() {
+        for (int i = 0; i < 4; i++) {
+            print(joins(i, 7, 3));
+            print(cases(i, 5, 11));
+            print(loops(i, 6));
+            print(shortCircuits(i, 9, 2));
+        }
+    }
+
+    // Available after both arms of an if, so redundant at the join.
+    private int joins(int a, int b, int c) {
+        int x;
+        if (a > 1) {
+            x = (a * b + c) * (b - c);
+        } else {
+            x = (a * b + c) * (b - c) + 1;
+        }
+
+        int y = (a * b + c) * (b - c);
+
+        // Killed on one path only, so not available afterwards.
+        if (a == 2) {
+            b++;
+        }
+        int z = (a * b + c) * (b - c);
+
+        return x + y + z;
+    }
+
+    // Cases reached only from the selector share what was computed before the switch, but not each other's.
+    private int cases(int a, int b, int c) {
+        int first = (a * c + b) / (c - b);
+        int ret = 0;
+        switch (a) {
+            case 0:
+                ret = (a * c + b) / (c - b);
+            case 1:
+                ret += (a * c + b) / (c - b) + table[a] * table[a + 1];
+                break;
+            case 2:
+                ret = table[a] * table[a + 1];
+                a = 7;
+            default:
+                ret += (a * c + b) / (c - b);
+        }
+
+        return first + ret;
+    }
+
+    // Available on entry to a loop that never changes its operands.
+    private int loops(int a, int b) {
+        int sum = (a * b + a) * (b - a);
+        for (int i = 0; i < 3; i++) {
+            sum += (a * b + a) * (b - a);
+            table[i] += i;
+            sum += table[i] * table[i + 1];
+        }
+
+        int n = 0;
+        while (n < 2) {
+            sum += (a * b + a) * (b - a);
+            a++;
+            n++;
+        }
+
+        return sum;
+    }
+
+    // The right hand sides of && and || might not be evaluated.
+    private int shortCircuits(int a, int b, int c) {
+        int ret = 0;
+        if (a > 0 && (a * b + c) * (b - c) > 10) {
+            ret += (a * b + c) * (b - c);
+        }
+
+        if ((a * b + c) * (b - c) > 5 || (a * c + b) * (c - b) > 5) {
+            ret += (a * c + b) * (c - b);
+            ret += (a * b + c) * (b - c);
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,75 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testImplicitExceptions extends BaseIntegrationTestCase {
+    private static int[] values = {1, 2, 3};
+
+    private static int divide(int a, int b) {
+        return a / b;
+    }
+
+    @Override
+    protected void test() {
+        int a = 12;
+        int b = 3;
+        int zero = 0;
+
+        // A division by a nonzero constant can't throw, so it's invariant.
+        int total = 0;
+        for (int i = 0; i < 10; i++) {
+            total += a / 4 + i;
+        }
+        print(total);
+
+        // One by a variable must stay put: the loop doesn't run, so it mustn't throw.
+        total = 0;
+        for (int i = 0; i < zero; i++) {
+            total += a / zero;
+        }
+        print(total);
+
+        // Reads of an array nobody else can see, at indices known to be in range.
+        int[] local = new int[4];
+        local[0] = a;
+        local[3] = b;
+        total = 0;
+        for (int i = 0; i < 10; i++) {
+            total += local[0] * local[3] + i;
+        }
+        print(total);
+
+        // An out of range read stays where it is.
+        total = 0;
+        for (int i = 0; i < zero; i++) {
+            total += local[4];
+        }
+        print(total);
+
+        // Arrays that might be null, or changed elsewhere, are left alone.
+        total = 0;
+        for (int i = 0; i < 3; i++) {
+            total += values[1] * values[2];
+            values[2]++;
+        }
+        print(total);
+
+        // Upcasts always succeed; downcasts might not.
+        Object o = "string";
+        Integer boxed = 7;
+        total = 0;
+        for (int i = 0; i < 5; i++) {
+            total += ((Number) boxed).intValue() + ((Object) boxed).hashCode();
+            if (o instanceof Integer) {
+                total += (Integer) o;
+            }
+        }
+        print(total);
+
+        try {
+            print(divide(a, zero));
+        } catch (ArithmeticException e) {
+            print("Caught division by zero");
+        }
+    }
+}
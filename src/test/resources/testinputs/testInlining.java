@@ -0,0 +1,120 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testInlining extends BaseIntegrationTestCase {
+    private int counter;
+    private int width = 3;
+
+    @Override
+    protected void test() {
+        for (int i = 0; i < 4; i++) {
+            print(getters(i));
+            print(setters(i));
+            print(argumentOrder(i));
+            print(earlyReturn(i));
+            print(conversions(i));
+            print(recursive(i));
+            print(statics(i, 'a'));
+        }
+    }
+
+    private int getWidth() {
+        return width;
+    }
+
+    private void setWidth(int width) {
+        this.width = width;
+    }
+
+    private int scaled(int a, int b) {
+        return a * getWidth() + b;
+    }
+
+    // Internal getters and setters.
+    private int getters(int a) {
+        int w = getWidth();
+        return scaled(a, 2) + w + getWidth();
+    }
+
+    private int setters(int a) {
+        setWidth(a + 3);
+        int ret = getWidth();
+        setWidth(3);
+
+        return ret;
+    }
+
+    private int next() {
+        counter++;
+        return counter;
+    }
+
+    private int difference(int a, int b) {
+        a -= b;
+        return a;
+    }
+
+    // Arguments are still evaluated once each, in order, and assigning a parameter doesn't touch the argument.
+    private int argumentOrder(int a) {
+        int x = a;
+        int y = difference(next(), next());
+        int z = difference(x, a++);
+
+        return x + y + z + a;
+    }
+
+    private int sign(int a) {
+        if (a < 2) {
+            return -1;
+        }
+
+        int b = a * a;
+        if (b > 10) {
+            return 1;
+        }
+
+        return 0;
+    }
+
+    // Returns from the middle of the callee.
+    private int earlyReturn(int a) {
+        int x = sign(a);
+        print(x);
+
+        return sign(a + 1);
+    }
+
+    private long widen(int a) {
+        return a;
+    }
+
+    private int toInt(char c) {
+        return c;
+    }
+
+    // Values returned take the return type of the callee.
+    private String conversions(int a) {
+        return "" + widen(a) + toInt('b') + (widen(a) << 40);
+    }
+
+    private int factorial(int a) {
+        if (a <= 1) {
+            return 1;
+        }
+
+        return a * factorial(a - 1);
+    }
+
+    private int recursive(int a) {
+        return factorial(a + 1);
+    }
+
+    private static int twice(char c) {
+        return c * 2;
+    }
+
+    private static int statics(int a, char c) {
+        return twice(c) + twice('z') + a;
+    }
+}
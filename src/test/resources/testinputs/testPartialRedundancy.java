@@ -0,0 +1,73 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testPartialRedundancy extends BaseIntegrationTestCase {
+    private int counter;
+
+    @Override
+    protected void test() {
+        for (int i = 0; i < 5; i++) {
+            print(diamond(i, 3, 8));
+            print(afterBranch(i, 6, 2));
+            print(hotPath(i, 4, 9));
+            print(throwing(i, 7, i - 2));
+        }
+    }
+
+    // Computed in one arm and after the if: the other arm gets a computation, and the one after goes.
+    private int diamond(int a, int b, int c) {
+        int x = 0;
+        if (a > 2) {
+            x = (a * b + c) * (c - b);
+        } else {
+            counter++;
+        }
+
+        return x + (a * b + c) * (c - b);
+    }
+
+    // Killed in one arm, so computed again there, but still reusable on the other.
+    private int afterBranch(int a, int b, int c) {
+        int x = (a * c + b) * (b - c);
+        if (a == 1) {
+            a = 5;
+        }
+
+        return x + (a * c + b) * (b - c);
+    }
+
+    // Computed on the hot path of a loop before the loop and in it.
+    private int hotPath(int a, int b, int c) {
+        int sum = 0;
+        if (a > 1) {
+            sum = (a * b + c) * (c - b);
+        }
+
+        int i = 0;
+        do {
+            sum += (a * b + c) * (c - b);
+            i++;
+        } while (i < 3);
+
+        return sum;
+    }
+
+    // Divisions might throw, so mustn't be computed anywhere they weren't before.
+    private int throwing(int a, int b, int c) {
+        int x = 0;
+        if (c != 0) {
+            x = (a * b + 1) / c;
+        }
+
+        if (a > 3) {
+            print("Big");
+        }
+
+        if (c != 0) {
+            x += (a * b + 1) / c;
+        }
+
+        return x;
+    }
+}
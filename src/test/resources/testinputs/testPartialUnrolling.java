@@ -0,0 +1,105 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testPartialUnrolling extends BaseIntegrationTestCase {
+    private int counter;
+
+    @Override
+    protected void test() {
+        int[] values = new int[] {3, 1, 4, 1, 5, 9, 2, 6, 5, 3, 5};
+        for (int i = 0; i < 12; i++) {
+            print(sumPrefix(values, i));
+            print(countDown(i));
+            print(stepped(i));
+            print(literalBound());
+            print(earlyExit(values, i));
+            print(nearOverflow(i));
+            print(nearUnderflow(i));
+        }
+    }
+
+    // The trip count isn't known, so some iterations are left for the remainder loop.
+    private int sumPrefix(int[] values, int n) {
+        int sum = 0;
+        for (int i = 0; i < n && i < values.length; i++) {
+            sum += values[i];
+        }
+
+        int total = 0;
+        for (int i = 0; i < values.length; i++) {
+            total += values[i] * i;
+        }
+
+        return sum + total;
+    }
+
+    private int countDown(int n) {
+        int product = 1;
+        for (int i = n; i > 0; i--) {
+            product = product * 3 + i;
+        }
+
+        return product;
+    }
+
+    private int stepped(int n) {
+        int sum = 0;
+        for (int i = 1; i <= n * 4; i += 3) {
+            sum += i;
+            counter++;
+        }
+
+        return sum + counter;
+    }
+
+    // Too many iterations to unroll completely.
+    private int literalBound() {
+        int sum = 0;
+        for (int i = 0; i < 100; i++) {
+            sum ^= i * 7;
+        }
+
+        return sum;
+    }
+
+    // Loops that can be left from the body aren't unrolled.
+    private int earlyExit(int[] values, int n) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == n) {
+                return i;
+            }
+            if (values[i] > 8) {
+                break;
+            }
+        }
+
+        return -1;
+    }
+
+    // The unrolled loop mustn't overflow the limit near the top of the range.
+    private int nearOverflow(int n) {
+        int count = 0;
+        for (int i = Integer.MAX_VALUE - n - 1; i < Integer.MAX_VALUE; i++) {
+            count++;
+        }
+
+        return count;
+    }
+
+    // Nor may the limit computed from a variable bound wrap around at either end of the range.
+    private int nearUnderflow(int n) {
+        int count = 0;
+        int low = Integer.MIN_VALUE + n;
+        for (int i = Integer.MIN_VALUE; i < low; i++) {
+            count++;
+        }
+
+        int high = Integer.MAX_VALUE - n;
+        for (int i = Integer.MAX_VALUE; i > high; i--) {
+            count += 2;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,124 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testScalarReplacement extends BaseIntegrationTestCase {
+    static class Point {
+        int x;
+        int y;
+        long weight = 3;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static class Pair {
+        String name;
+        double value;
+
+        Pair(String n, double v) {
+            name = n;
+            value = v;
+        }
+    }
+
+    // The constructor does more than assign fields, so allocations aren't replaced.
+    static class Counted {
+        static int created;
+        int id;
+
+        Counted(int i) {
+            id = i;
+            created++;
+        }
+    }
+
+    private Point kept;
+    private int counter;
+
+    @Override
+    protected void test() {
+        for (int i = 0; i < 4; i++) {
+            print(distance(i, i * 2));
+            print(outParameters(i));
+            print(initialised(i));
+            print(pair(i));
+            print(argumentOrder());
+            print(counted(i));
+            print(escapes(i));
+            print(outOfRange(i));
+            print(inLoop(i));
+        }
+    }
+
+    private long distance(int a, int b) {
+        Point p = new Point(a, b);
+        Point q = new Point(p.y, p.x);
+        q.x += 5;
+        return (long) (p.x - q.x) * (p.y - q.y) + p.weight;
+    }
+
+    private int outParameters(int a) {
+        int[] out = new int[2];
+        out[0] = a * 3;
+        out[1] = out[0] + 1;
+        return out[0] * out[1] + out.length;
+    }
+
+    private int initialised(int a) {
+        char[] chars = {'a', 'b', (char) ('c' + a)};
+        return chars[0] + chars[1] * chars[2];
+    }
+
+    private String pair(int a) {
+        Pair p = new Pair("n" + a, a / 3.0);
+        p.value *= 2;
+        return p.name + p.value;
+    }
+
+    private int next() {
+        counter++;
+        return counter;
+    }
+
+    // The arguments are still evaluated in order.
+    private int argumentOrder() {
+        Point p = new Point(next(), next() * 10);
+        return p.y - p.x;
+    }
+
+    private int counted(int a) {
+        Counted c = new Counted(a);
+        return c.id + Counted.created;
+    }
+
+    private int escapes(int a) {
+        Point p = new Point(a, a + 1);
+        kept = p;
+        return kept.y;
+    }
+
+    private int outOfRange(int a) {
+        int[] values = new int[2];
+        try {
+            values[2] = a;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return -a;
+        }
+
+        return values[0];
+    }
+
+    private int inLoop(int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            Point p = new Point(i, n);
+            p.y -= p.x;
+            sum += p.x * p.y;
+        }
+
+        return sum;
+    }
+}
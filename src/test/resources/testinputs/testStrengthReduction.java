@@ -0,0 +1,88 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testStrengthReduction extends BaseIntegrationTestCase {
+    @Override
+    protected void test() {
+        int[] grid = new int[64];
+        for (int i = 0; i < grid.length; i++) {
+            grid[i] = (i * 37) % 11;
+        }
+
+        for (int i = 1; i < 5; i++) {
+            print(literalStride(grid));
+            print(variableStride(grid, i));
+            print(rowMajor(grid, i, 8));
+            print(countingDown(grid, i));
+            print(bigSteps(grid, i + 1));
+            print(overflowing(i));
+            print(stillUsed(grid, i));
+        }
+    }
+
+    // The counter is only needed by the condition once the product is replaced.
+    private int literalStride(int[] grid) {
+        int sum = 0;
+        for (int i = 0; i < 16; i++) {
+            sum += grid[i * 4];
+        }
+
+        return sum;
+    }
+
+    private int variableStride(int[] grid, int stride) {
+        int sum = 0;
+        for (int i = 0; i * stride < grid.length; i++) {
+            sum += grid[i * stride];
+        }
+
+        return sum;
+    }
+
+    private int rowMajor(int[] grid, int col, int width) {
+        int sum = 0;
+        for (int row = 0; row < 8; row++) {
+            sum = sum * 3 + grid[row * width + col] + grid[col + row * width];
+        }
+
+        return sum;
+    }
+
+    private int countingDown(int[] grid, int offset) {
+        int sum = 0;
+        for (int i = 15; i >= 0; i--) {
+            sum += grid[i * 3 + offset] * -i;
+        }
+
+        return sum;
+    }
+
+    private int bigSteps(int[] grid, int scale) {
+        int sum = 0;
+        for (int i = 0; i < 12; i += 3) {
+            sum += grid[i * scale + 1];
+        }
+
+        return sum;
+    }
+
+    // The products overflow, so the condition can't be rewritten.
+    private int overflowing(int n) {
+        int sum = 0;
+        for (int i = 0; i < 20; i++) {
+            sum ^= i * 1000000000 + n;
+        }
+
+        return sum;
+    }
+
+    private int stillUsed(int[] grid, int n) {
+        int sum = 0;
+        for (int i = 0; i < 10; i++) {
+            sum += grid[i * 5] + i;
+        }
+
+        return sum + n;
+    }
+}
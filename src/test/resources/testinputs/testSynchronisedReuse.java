@@ -0,0 +1,105 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testSynchronisedReuse extends BaseIntegrationTestCase {
+    private final Object lock = new Object();
+    private final int[] data = new int[4];
+    private final boolean[] flags = new boolean[1];
+    private volatile boolean go;
+    private volatile boolean ready;
+
+    @Override
+    protected void test() {
+        for (int i = 0; i < 4; i++) {
+            print(acrossLock(i));
+            print(acrossCall(i));
+            print(pollLocked(i));
+            print(pollVolatile(i));
+        }
+    }
+
+    // Another thread's writes may become visible once the lock is taken, so the second read isn't redundant.
+    private int acrossLock(int a) {
+        data[0] = a;
+        data[1] = a + 2;
+        int x = data[0] * data[1] + data[0];
+        synchronized (lock) {
+            data[0]++;
+        }
+
+        return x + data[0] * data[1] + data[0];
+    }
+
+    private synchronized int locked(int a) {
+        return a + 1;
+    }
+
+    // Calling a synchronized method is a synchronisation action too.
+    private int acrossCall(int a) {
+        data[2] = a * 3;
+        int x = data[2] * data[2] + data[2];
+        int y = locked(a);
+        return x + y + data[2] * data[2] + data[2];
+    }
+
+    // The flag is set by another thread, so mustn't be read once ahead of the loop.
+    private int pollLocked(final int a) {
+        flags[0] = false;
+        Thread setter = new Thread() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    data[3] = a * 5;
+                    flags[0] = true;
+                }
+            }
+        };
+        setter.start();
+
+        while (true) {
+            synchronized (lock) {
+                if (flags[0]) {
+                    break;
+                }
+            }
+        }
+
+        join(setter);
+        return data[3] * data[3] + data[3];
+    }
+
+    // The element written before the volatile write must be seen after the volatile read that sees it.
+    private int pollVolatile(final int a) {
+        go = false;
+        ready = false;
+        data[1] = 0;
+        Thread setter = new Thread() {
+            @Override
+            public void run() {
+                while (!go) {
+                    Thread.yield();
+                }
+
+                data[1] = a + 7;
+                ready = true;
+            }
+        };
+        setter.start();
+
+        int before = data[1] * data[1] + data[1];
+        go = true;
+        while (!ready) {
+        }
+
+        return before + data[1] * data[1] + data[1];
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
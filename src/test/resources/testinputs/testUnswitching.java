@@ -0,0 +1,129 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testUnswitching extends BaseIntegrationTestCase {
+    private static final int FAST = 1;
+
+    private int mode;
+    private int counter;
+
+    @Override
+    protected void test() {
+        int[] values = new int[] {4, 8, 15, 16, 23, 42};
+        for (int i = 0; i < 3; i++) {
+            mode = i;
+            print(localMode(values, i));
+            print(noElse(values, i > 1));
+            print(nested(values, i));
+            print(whileLoop(values, i == 0));
+            print(variant(values));
+            print(breaks(values, i));
+            print(conditionCalls(values, i));
+        }
+    }
+
+    private int localMode(int[] values, int m) {
+        int sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (m == FAST) {
+                sum += values[i];
+            } else {
+                sum += values[i] * m + 1;
+            }
+        }
+
+        return sum;
+    }
+
+    private int noElse(int[] values, boolean scale) {
+        int sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (scale) {
+                sum *= 2;
+            }
+            sum += values[i];
+        }
+
+        return sum;
+    }
+
+    // The condition is invariant in both loops.
+    private int nested(int[] values, int m) {
+        int sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            for (int j = i; j < values.length; j++) {
+                if (m > 0) {
+                    sum += values[j] - values[i];
+                } else {
+                    sum -= j;
+                }
+            }
+        }
+
+        return sum;
+    }
+
+    private int whileLoop(int[] values, boolean reverse) {
+        int sum = 0;
+        int i = 0;
+        while (i < values.length) {
+            if (reverse) {
+                sum = sum * 3 + values[values.length - i - 1];
+            } else {
+                sum = sum * 3 + values[i];
+            }
+            i++;
+        }
+
+        return sum;
+    }
+
+    // The field is written in the loop, so the condition isn't invariant.
+    private int variant(int[] values) {
+        int sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (mode > 1) {
+                sum += values[i];
+                mode--;
+            } else {
+                sum -= values[i];
+            }
+        }
+
+        return sum + mode;
+    }
+
+    // Loops that jump to themselves aren't copied.
+    private int breaks(int[] values, int limit) {
+        int sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (limit > 1) {
+                continue;
+            }
+            if (values[i] > limit * 10) {
+                break;
+            }
+            sum += values[i];
+        }
+
+        return sum;
+    }
+
+    private int next() {
+        counter++;
+        return counter;
+    }
+
+    // Conditions with side effects are still evaluated on every iteration.
+    private int conditionCalls(int[] values, int m) {
+        int sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (next() > m) {
+                sum += values[i];
+            }
+        }
+
+        return sum + counter;
+    }
+}
@@ -0,0 +1,111 @@
+package testinputs;
+
+import testutils.BaseIntegrationTestCase;
+
+public class testWhileUnrolling extends BaseIntegrationTestCase {
+    private static final int[] PRIMES = {2, 3, 5, 7, 11};
+    private static final double[] WEIGHTS = {1, 0.5, 0.25};
+    private static final String[] NAMES = {"a", "bc", "def"};
+
+    // Written through a copy, so its elements can't be assumed.
+    private static final int[] SCRATCH = {1, 2, 3};
+
+    private int counter;
+
+    @Override
+    protected void test() {
+        for (int i = 0; i < 4; i++) {
+            print(whileCounter(i));
+            print(doWhile(i));
+            print(sumPrimes(i));
+            print(weighted(i));
+            print(names());
+            print(scratch(i));
+            print(neverRuns(i));
+            print(notUpdatedLast(i));
+        }
+    }
+
+    private int whileCounter(int a) {
+        int sum = 0;
+        int i = 0;
+        while (i < 5) {
+            sum += a * i;
+            i++;
+        }
+
+        return sum + i;
+    }
+
+    // The body of a do-while runs before the condition is tested.
+    private int doWhile(int a) {
+        int product = 1;
+        int i = 10;
+        do {
+            product = product * 2 + a;
+            i += 4;
+        } while (i < 10);
+
+        return product + i;
+    }
+
+    private int sumPrimes(int a) {
+        int sum = 0;
+        for (int p : PRIMES) {
+            sum += p * a;
+        }
+
+        return sum;
+    }
+
+    private double weighted(int a) {
+        double total = 0;
+        for (double w : WEIGHTS) {
+            total += w * a;
+        }
+
+        return total;
+    }
+
+    private String names() {
+        String all = "";
+        for (String name : NAMES) {
+            all += name.length() + name;
+        }
+
+        return all;
+    }
+
+    private int scratch(int a) {
+        int[] alias = SCRATCH;
+        alias[a % 3] += a;
+
+        int sum = 0;
+        for (int s : SCRATCH) {
+            sum += s;
+        }
+
+        return sum;
+    }
+
+    private int neverRuns(int a) {
+        int i = 8;
+        while (i < 3) {
+            a++;
+            i++;
+        }
+
+        return a + i;
+    }
+
+    // The body reads the counter after it changes, so the loop isn't unrolled.
+    private int notUpdatedLast(int a) {
+        int i = 0;
+        while (i < 3) {
+            i++;
+            counter += i * a;
+        }
+
+        return counter;
+    }
+}